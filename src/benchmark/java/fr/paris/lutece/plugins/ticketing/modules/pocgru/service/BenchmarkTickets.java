@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * This class builds the tickets used by the benchmarks
+ */
+public final class BenchmarkTickets
+{
+    /**
+     * Ticket without extra field
+     */
+    public static final String SHAPE_NO_EXTRA_FIELDS = "noExtraFields";
+
+    /**
+     * Ticket with 50 text extra fields
+     */
+    public static final String SHAPE_50_FIELDS = "fields50";
+
+    /**
+     * Ticket with 3 attachments of 2 MB
+     */
+    public static final String SHAPE_LARGE_ATTACHMENTS = "largeAttachments";
+
+    private static final int NB_FIELDS = 50;
+    private static final int NB_ATTACHMENTS = 3;
+    private static final int ATTACHMENT_SIZE = 2 * 1024 * 1024;
+    private static final String FIELD_CODE_PREFIX = "field_";
+    private static final String FIELD_VALUE = "Valeur saisie par l'usager, avec des caractères à échapper : \" / \\ \n";
+    private static final String ATTACHMENT_CODE_PREFIX = "attachment_";
+    private static final String ATTACHMENT_MIME_TYPE = "application/pdf";
+    private static final String ATTACHMENT_TITLE = "piece_jointe.pdf";
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private BenchmarkTickets(  )
+    {
+    }
+
+    /**
+     * Builds a ticket of the specified shape
+     *
+     * @param strShape
+     *            the shape of the ticket
+     * @return the ticket
+     */
+    public static Ticket build( String strShape )
+    {
+        Ticket ticket = new Ticket(  );
+        ticket.setId( 1 );
+        ticket.setGuid( "4f5e3a9c-2b1d-4c8e-9f7a-6d0b1e2c3a4f" );
+        ticket.setIdUserTitle( 1 );
+        ticket.setFirstname( "Jean" );
+        ticket.setLastname( "Dupont" );
+        ticket.setEmail( "jean.dupont@example.com" );
+        ticket.setFixedPhoneNumber( "0102030405" );
+        ticket.setMobilePhoneNumber( "0607080910" );
+        ticket.setIdTicketType( 1 );
+        ticket.setIdTicketDomain( 2 );
+        ticket.setIdTicketCategory( 3 );
+        ticket.setIdContactMode( 1 );
+        ticket.setTicketComment( "Demande d'information concernant mon dossier" );
+
+        List<Response> listResponses = new ArrayList<Response>(  );
+
+        if ( SHAPE_50_FIELDS.equals( strShape ) )
+        {
+            for ( int i = 0; i < NB_FIELDS; i++ )
+            {
+                Response response = new Response(  );
+                response.setEntry( buildEntry( FIELD_CODE_PREFIX + i ) );
+                response.setResponseValue( FIELD_VALUE + i );
+                listResponses.add( response );
+            }
+        }
+        else if ( SHAPE_LARGE_ATTACHMENTS.equals( strShape ) )
+        {
+            Random random = new Random( 0L );
+
+            for ( int i = 0; i < NB_ATTACHMENTS; i++ )
+            {
+                byte [] content = new byte[ATTACHMENT_SIZE];
+                random.nextBytes( content );
+
+                PhysicalFile physicalFile = new PhysicalFile(  );
+                physicalFile.setValue( content );
+
+                File file = new File(  );
+                file.setIdFile( i + 1 );
+                file.setTitle( ATTACHMENT_TITLE );
+                file.setMimeType( ATTACHMENT_MIME_TYPE );
+                file.setSize( ATTACHMENT_SIZE );
+                file.setPhysicalFile( physicalFile );
+
+                Response response = new Response(  );
+                response.setEntry( buildEntry( ATTACHMENT_CODE_PREFIX + i ) );
+                response.setFile( file );
+                listResponses.add( response );
+            }
+        }
+
+        ticket.setListResponse( listResponses );
+
+        return ticket;
+    }
+
+    /**
+     * Builds an entry
+     *
+     * @param strCode
+     *            the code of the entry
+     * @return the entry
+     */
+    private static Entry buildEntry( String strCode )
+    {
+        Entry entry = new Entry(  );
+        entry.setCode( strCode );
+
+        return entry;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import com.sun.jersey.client.apache4.config.DefaultApacheHttpClient4Config;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+
+
+/**
+ * Raw load benchmark of the stub of the ESB, or of another end point : N
+ * threads post tickets concurrently with a pooled client, a cached token
+ * renewed when it expires or is rejected, a streamed ticket and a streaming
+ * parsing of the reply. It measures the HTTP exchange only : the send service
+ * is not involved, so the throttling, the retries, the circuit breakers, the
+ * duplicate detection and the status updates are not measured. The benchmark
+ * reports the throughput, the latency percentiles, the errors and the heap
+ * usage.
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark.main=fr.paris.lutece.plugins.ticketing.modules.pocgru.service.EsbStubLoadBenchmark
+ *     -Dbenchmark.args="-threads 32 -requests 20000 -latency 50 -jitter 20 -errorRate 0.01"
+ * </pre>
+ * Options : -threads, -requests, -warmup, -shape (ticket shape of
+ * {@link BenchmarkTickets}), -tokenUrl and -ticketUrl (external end points,
+ * the in-process stub is used otherwise) and the fault options of
+ * {@link StubEsbServer}.
+ */
+public final class EsbStubLoadBenchmark
+{
+    private static final String OPTION_THREADS = "-threads";
+    private static final String OPTION_REQUESTS = "-requests";
+    private static final String OPTION_WARMUP = "-warmup";
+    private static final String OPTION_SHAPE = "-shape";
+    private static final String OPTION_TOKEN_URL = "-tokenUrl";
+    private static final String OPTION_TICKET_URL = "-ticketUrl";
+    private static final int DEFAULT_THREADS = 16;
+    private static final int DEFAULT_REQUESTS = 10000;
+    private static final int DEFAULT_WARMUP = 1000;
+    private static final String HEADER_AUTHORIZATION_PREFIX_BASIC = "Basic ";
+    private static final String HEADER_AUTHORIZATION_PREFIX_BEARER = "Bearer ";
+    private static final String CREDENTIALS = "c3R1YjpzdHVi";
+    private static final String PARAMETER_GRANT_TYPE = "grant_type";
+    private static final String GRANT_TYPE_CLIENT_CREDENTIALS = "client_credentials";
+    private static final long TOKEN_TIME_TO_LIVE = 300L;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final long REPLY_MAX_SIZE = 1048576L;
+    private static final long HEAP_SAMPLING_PERIOD = 100L;
+    private static final int HTTP_STATUS_ERROR = 400;
+    private static final int HTTP_STATUS_UNAUTHORIZED = 401;
+    private static final String ERROR_HTTP = "HTTP ";
+    private static final String ERROR_STATUS = "status ";
+    private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
+    private static final double MILLISECONDS_PER_SECOND = 1000.0;
+    private static final long BYTES_PER_MEGABYTE = 1024L * 1024L;
+    private static final double P50 = 0.50;
+    private static final double P99 = 0.99;
+
+    private final int _nThreads;
+    private final Ticket _ticket;
+    private final String _strTokenUrl;
+    private final String _strTicketUrl;
+    private final Client _client;
+    private final ThreadSafeClientConnManager _connectionManager;
+    private final ConcurrentMap<String, AtomicInteger> _mapErrors = new ConcurrentHashMap<String, AtomicInteger>(  );
+    private final AtomicLong _lPeakHeap = new AtomicLong(  );
+    private volatile Token _token;
+
+    /**
+     * Constructor
+     *
+     * @param nThreads
+     *            the number of concurrent sends
+     * @param ticket
+     *            the ticket to send
+     * @param strTokenUrl
+     *            the URL of the token end point
+     * @param strTicketUrl
+     *            the URL of the ticket end point
+     */
+    private EsbStubLoadBenchmark( int nThreads, Ticket ticket, String strTokenUrl, String strTicketUrl )
+    {
+        _nThreads = nThreads;
+        _ticket = ticket;
+        _strTokenUrl = strTokenUrl;
+        _strTicketUrl = strTicketUrl;
+
+        _connectionManager = new ThreadSafeClientConnManager(  );
+        _connectionManager.setMaxTotal( nThreads );
+        _connectionManager.setDefaultMaxPerRoute( nThreads );
+
+        DefaultApacheHttpClient4Config config = new DefaultApacheHttpClient4Config(  );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, _connectionManager );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_CONNECT_TIMEOUT, CONNECT_TIMEOUT );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_READ_TIMEOUT, READ_TIMEOUT );
+        _client = ApacheHttpClient4.create( config );
+    }
+
+    /**
+     * Runs the benchmark
+     *
+     * @param args
+     *            the options
+     * @throws IOException
+     *             if the stub cannot be started
+     * @throws InterruptedException
+     *             if the test is interrupted
+     */
+    public static void main( String [] args ) throws IOException, InterruptedException
+    {
+        int nThreads = StubEsbServer.getIntOption( args, OPTION_THREADS, DEFAULT_THREADS );
+        int nRequests = StubEsbServer.getIntOption( args, OPTION_REQUESTS, DEFAULT_REQUESTS );
+        int nWarmup = StubEsbServer.getIntOption( args, OPTION_WARMUP, DEFAULT_WARMUP );
+        Ticket ticket = BenchmarkTickets.build( StubEsbServer.getOption( args, OPTION_SHAPE,
+                    BenchmarkTickets.SHAPE_NO_EXTRA_FIELDS ) );
+        String strTokenUrl = StubEsbServer.getOption( args, OPTION_TOKEN_URL, null );
+        String strTicketUrl = StubEsbServer.getOption( args, OPTION_TICKET_URL, null );
+        StubEsbServer server = null;
+
+        if ( strTicketUrl == null )
+        {
+            server = new StubEsbServer(  );
+            server.configure( args );
+            server.start(  );
+            strTokenUrl = server.getUrl( StubEsbServer.PATH_TOKEN );
+            strTicketUrl = server.getUrl( StubEsbServer.PATH_PUBLIK );
+        }
+
+        EsbStubLoadBenchmark benchmark = new EsbStubLoadBenchmark( nThreads, ticket, strTokenUrl, strTicketUrl );
+
+        try
+        {
+            benchmark.run( nWarmup );
+            benchmark._mapErrors.clear(  );
+            benchmark.report( nRequests, benchmark.run( nRequests ) );
+        }
+        finally
+        {
+            benchmark._client.destroy(  );
+            benchmark._connectionManager.shutdown(  );
+
+            if ( server != null )
+            {
+                server.stop(  );
+            }
+        }
+    }
+
+    /**
+     * Sends the specified number of tickets with the concurrent threads
+     *
+     * @param nRequests
+     *            the number of tickets
+     * @return the latencies of the sends in nanoseconds, followed by the
+     *         duration of the run
+     * @throws InterruptedException
+     *             if the run is interrupted
+     */
+    private long [] run( final int nRequests ) throws InterruptedException
+    {
+        final long [] latencies = new long[nRequests + 1];
+        final AtomicInteger nNextRequest = new AtomicInteger(  );
+        final CountDownLatch latch = new CountDownLatch( _nThreads );
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(  );
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean(  );
+        _lPeakHeap.set( 0L );
+        sampler.scheduleAtFixedRate( new Runnable(  )
+            {
+                @Override
+                public void run(  )
+                {
+                    long lUsed = memory.getHeapMemoryUsage(  ).getUsed(  );
+
+                    if ( lUsed > _lPeakHeap.get(  ) )
+                    {
+                        _lPeakHeap.set( lUsed );
+                    }
+                }
+            }, 0L, HEAP_SAMPLING_PERIOD, TimeUnit.MILLISECONDS );
+
+        long lStart = System.nanoTime(  );
+
+        for ( int i = 0; i < _nThreads; i++ )
+        {
+            Thread thread = new Thread( new Runnable(  )
+                    {
+                        @Override
+                        public void run(  )
+                        {
+                            int nRequest = nNextRequest.getAndIncrement(  );
+
+                            while ( nRequest < nRequests )
+                            {
+                                long lSendStart = System.nanoTime(  );
+                                send(  );
+                                latencies[nRequest] = System.nanoTime(  ) - lSendStart;
+                                nRequest = nNextRequest.getAndIncrement(  );
+                            }
+
+                            latch.countDown(  );
+                        }
+                    } );
+            thread.start(  );
+        }
+
+        latch.await(  );
+        latencies[nRequests] = System.nanoTime(  ) - lStart;
+        sampler.shutdownNow(  );
+
+        return latencies;
+    }
+
+    /**
+     * Prints the results of a run
+     *
+     * @param nRequests
+     *            the number of tickets sent
+     * @param latencies
+     *            the latencies of the sends, followed by the duration of the
+     *            run
+     */
+    private void report( int nRequests, long [] latencies )
+    {
+        double dDuration = latencies[nRequests] / NANOSECONDS_PER_MILLISECOND;
+        long [] sortedLatencies = Arrays.copyOf( latencies, nRequests );
+        Arrays.sort( sortedLatencies );
+
+        long lGcCount = 0L;
+        long lGcTime = 0L;
+
+        for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans(  ) )
+        {
+            lGcCount += gc.getCollectionCount(  );
+            lGcTime += gc.getCollectionTime(  );
+        }
+
+        int nErrors = 0;
+
+        for ( AtomicInteger nCount : _mapErrors.values(  ) )
+        {
+            nErrors += nCount.get(  );
+        }
+
+        System.out.println( "Threads            : " + _nThreads );
+        System.out.println( "Tickets sent       : " + nRequests );
+        System.out.println( "Duration           : " + String.format( "%.0f ms", dDuration ) );
+        System.out.println( "Throughput         : " +
+            String.format( "%.1f tickets/s", ( nRequests * MILLISECONDS_PER_SECOND ) / dDuration ) );
+        System.out.println( "Latency p50        : " +
+            String.format( "%.2f ms", percentile( sortedLatencies, P50 ) / NANOSECONDS_PER_MILLISECOND ) );
+        System.out.println( "Latency p99        : " +
+            String.format( "%.2f ms", percentile( sortedLatencies, P99 ) / NANOSECONDS_PER_MILLISECOND ) );
+        System.out.println( "Latency max        : " +
+            String.format( "%.2f ms", sortedLatencies[nRequests - 1] / NANOSECONDS_PER_MILLISECOND ) );
+        System.out.println( "Errors             : " + nErrors + " " + new TreeMap<String, AtomicInteger>( _mapErrors ) );
+        System.out.println( "Peak heap used     : " + ( _lPeakHeap.get(  ) / BYTES_PER_MEGABYTE ) + " MB" );
+        System.out.println( "Heap used at end   : " +
+            ( ManagementFactory.getMemoryMXBean(  ).getHeapMemoryUsage(  ).getUsed(  ) / BYTES_PER_MEGABYTE ) + " MB" );
+        System.out.println( "GC (since start)   : " + lGcCount + " collections, " + lGcTime + " ms" );
+    }
+
+    /**
+     * Gives a percentile of sorted values
+     *
+     * @param sortedValues
+     *            the values, sorted
+     * @param dPercentile
+     *            the percentile, between 0 and 1
+     * @return the value of the percentile
+     */
+    private static long percentile( long [] sortedValues, double dPercentile )
+    {
+        int nIndex = (int) Math.ceil( dPercentile * sortedValues.length ) - 1;
+
+        return sortedValues[Math.max( 0, Math.min( nIndex, sortedValues.length - 1 ) )];
+    }
+
+    /**
+     * Sends the ticket and records the error if the send fails
+     */
+    private void send(  )
+    {
+        try
+        {
+            Token token = getToken(  );
+            ClientResponse response = _client.resource( _strTicketUrl ).type( MediaType.APPLICATION_JSON )
+                                             .accept( MediaType.APPLICATION_JSON )
+                                             .header( HttpHeaders.AUTHORIZATION,
+                    HEADER_AUTHORIZATION_PREFIX_BEARER + token.getValue(  ) )
+                                             .post( ClientResponse.class, new TicketOutput( _ticket ) );
+
+            try
+            {
+                if ( response.getStatus(  ) == HTTP_STATUS_UNAUTHORIZED )
+                {
+                    // The token has been revoked : the next send requests a new one
+                    evictToken( token );
+                    recordError( ERROR_HTTP + response.getStatus(  ) );
+                }
+                else if ( response.getStatus(  ) >= HTTP_STATUS_ERROR )
+                {
+                    recordError( ERROR_HTTP + response.getStatus(  ) );
+                }
+                else
+                {
+                    String strStatus = ResponseContent.read( new JsonReplyReader( response.getEntityInputStream(  ),
+                                REPLY_MAX_SIZE ) ).getStatus(  );
+
+                    if ( !ResponseContent.STATUS_CORRECT.equals( strStatus ) )
+                    {
+                        recordError( ERROR_STATUS + strStatus );
+                    }
+                }
+            }
+            finally
+            {
+                response.close(  );
+            }
+        }
+        catch ( IOException e )
+        {
+            recordError( e.getClass(  ).getSimpleName(  ) );
+        }
+        catch ( RuntimeException e )
+        {
+            Throwable cause = ( e.getCause(  ) != null ) ? e.getCause(  ) : e;
+            recordError( cause.getClass(  ).getSimpleName(  ) );
+        }
+    }
+
+    /**
+     * Counts an error
+     *
+     * @param strError
+     *            the kind of error
+     */
+    private void recordError( String strError )
+    {
+        AtomicInteger nCount = _mapErrors.get( strError );
+
+        if ( nCount == null )
+        {
+            AtomicInteger nNewCount = new AtomicInteger(  );
+            nCount = _mapErrors.putIfAbsent( strError, nNewCount );
+
+            if ( nCount == null )
+            {
+                nCount = nNewCount;
+            }
+        }
+
+        nCount.incrementAndGet(  );
+    }
+
+    /**
+     * Gives the current token, requested again when it has expired or has
+     * been evicted
+     *
+     * @return the token
+     * @throws IOException
+     *             if the reply of the token end point cannot be read
+     */
+    private Token getToken(  ) throws IOException
+    {
+        Token token = _token;
+
+        if ( ( token == null ) || token.isExpired( System.currentTimeMillis(  ) ) )
+        {
+            synchronized ( this )
+            {
+                token = _token;
+
+                if ( ( token == null ) || token.isExpired( System.currentTimeMillis(  ) ) )
+                {
+                    token = fetchToken(  );
+                    _token = token;
+                }
+            }
+        }
+
+        return token;
+    }
+
+    /**
+     * Evicts a token rejected by the end point, unless it has already been
+     * renewed
+     *
+     * @param token
+     *            the rejected token
+     */
+    private synchronized void evictToken( Token token )
+    {
+        if ( _token == token )
+        {
+            _token = null;
+        }
+    }
+
+    /**
+     * Requests a token to the token end point
+     *
+     * @return the token
+     * @throws IOException
+     *             if the reply cannot be read
+     */
+    private Token fetchToken(  ) throws IOException
+    {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl(  );
+        params.add( PARAMETER_GRANT_TYPE, GRANT_TYPE_CLIENT_CREDENTIALS );
+
+        ClientResponse response = _client.resource( _strTokenUrl ).type( MediaType.APPLICATION_FORM_URLENCODED )
+                                         .header( HttpHeaders.AUTHORIZATION,
+                HEADER_AUTHORIZATION_PREFIX_BASIC + CREDENTIALS ).post( ClientResponse.class, params );
+
+        try
+        {
+            return Token.read( new JsonReplyReader( response.getEntityInputStream(  ), REPLY_MAX_SIZE ),
+                TOKEN_TIME_TO_LIVE );
+        }
+        finally
+        {
+            response.close(  );
+        }
+    }
+
+    /**
+     * Streams a ticket as the body of the request
+     *
+     */
+    private static final class TicketOutput implements StreamingOutput
+    {
+        private final Ticket _ticket;
+
+        /**
+         * Constructor
+         *
+         * @param ticket
+         *            the ticket
+         */
+        TicketOutput( Ticket ticket )
+        {
+            _ticket = ticket;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( OutputStream outputStream ) throws IOException, WebApplicationException
+        {
+            TicketJsonWriter.write( _ticket, outputStream );
+        }
+    }
+}
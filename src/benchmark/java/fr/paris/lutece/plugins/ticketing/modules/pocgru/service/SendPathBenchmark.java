@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import com.sun.jersey.client.apache4.config.DefaultApacheHttpClient4Config;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+
+import net.sf.json.JSONObject;
+
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.StreamingOutput;
+
+
+/**
+ * Benchmarks of the send path against an in-process stub of the ESB : the
+ * payload plans compiled by the formats of the module, the token call, the
+ * streamed ticket post and the parsing of the replies. The send service loads
+ * its tickets and statuses through homes bound to the Spring context, so the
+ * post is replayed here with the same client settings, the content type and
+ * the body given by the plan
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+@Threads( 4 )
+public class SendPathBenchmark
+{
+    private static final String HEADER_AUTHORIZATION_PREFIX_BASIC = "Basic ";
+    private static final String HEADER_AUTHORIZATION_PREFIX_BEARER = "Bearer ";
+    private static final String CREDENTIALS = "c3R1YjpzdHVi";
+    private static final String PARAMETER_GRANT_TYPE = "grant_type";
+    private static final String GRANT_TYPE_CLIENT_CREDENTIALS = "client_credentials";
+    private static final long TOKEN_TIME_TO_LIVE = 300L;
+    private static final int MAX_CONNECTIONS = 50;
+    private static final int CONNECT_TIMEOUT = 5000;
+    private static final int READ_TIMEOUT = 30000;
+    private static final String REPLY_TOKEN = "{\"token_type\":\"bearer\",\"access_token\":\"stub-token\",\"expires_in\":3600}";
+    private static final String REPLY_TICKET = "{\"response\":{\"status\":\"OK\"}}";
+    private static final String REPLY_ECHO_START = "{\"response\":{\"status\":\"OK\"},\"echo\":";
+    private static final String REPLY_ECHO_END = "}";
+    private static final String CHARSET = "UTF-8";
+    private static final long REPLY_MAX_SIZE = 1L << 30;
+    private static final long ATTACHMENT_MAX_SIZE = 10485760L;
+    private static final String COMPANY = "benchmark";
+    private static final String FIELD_CODE_PREFIX = "field_";
+    private static final String FIELD_NAME_PREFIX = "renamed_";
+    private static final int RENAMED_FIELDS = 10;
+    private static final int BATCH_SIZE = 20;
+    @Param( { BenchmarkTickets.SHAPE_NO_EXTRA_FIELDS, BenchmarkTickets.SHAPE_50_FIELDS } )
+    private String _strShape;
+    @Param( { JsonPayloadFormat.NAME, CompactPayloadFormat.NAME } )
+    private String _strFormat;
+    private StubEsbServer _server;
+    private Client _client;
+    private ThreadSafeClientConnManager _connectionManager;
+    private String _strTokenUrl;
+    private String _strTicketUrl;
+    private Ticket _ticket;
+    private List<Ticket> _listTickets;
+    private IPayloadPlan _plan;
+    private Token _token;
+    private byte [] _echoReply;
+
+    /**
+     * Starts the stub and builds the client
+     *
+     * @throws IOException
+     *             if the stub cannot be started
+     */
+    @Setup( Level.Trial )
+    public void setUp(  ) throws IOException
+    {
+        _server = new StubEsbServer(  );
+        _server.start(  );
+        _strTokenUrl = _server.getUrl( StubEsbServer.PATH_TOKEN );
+        _strTicketUrl = _server.getUrl( StubEsbServer.PATH_PUBLIK );
+
+        _connectionManager = new ThreadSafeClientConnManager(  );
+        _connectionManager.setMaxTotal( MAX_CONNECTIONS );
+        _connectionManager.setDefaultMaxPerRoute( MAX_CONNECTIONS );
+
+        DefaultApacheHttpClient4Config config = new DefaultApacheHttpClient4Config(  );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, _connectionManager );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_CONNECT_TIMEOUT, CONNECT_TIMEOUT );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_READ_TIMEOUT, READ_TIMEOUT );
+        _client = ApacheHttpClient4.create( config );
+
+        _ticket = BenchmarkTickets.build( _strShape );
+        _listTickets = new ArrayList<Ticket>( BATCH_SIZE );
+
+        for ( int i = 0; i < BATCH_SIZE; i++ )
+        {
+            _listTickets.add( BenchmarkTickets.build( _strShape ) );
+        }
+
+        // Some extra fields are renamed, as a company may configure
+        Map<String, String> mapFieldNames = new HashMap<String, String>(  );
+
+        for ( int i = 0; i < RENAMED_FIELDS; i++ )
+        {
+            mapFieldNames.put( FIELD_CODE_PREFIX + i, FIELD_NAME_PREFIX + i );
+        }
+
+        PayloadMapping mapping = new PayloadMapping( COMPANY, ATTACHMENT_MAX_SIZE, false, mapFieldNames );
+        IPayloadFormat format = CompactPayloadFormat.NAME.equals( _strFormat ) ? new CompactPayloadFormat(  )
+                                                                               : new JsonPayloadFormat(  );
+        _plan = format.compile( mapping );
+        _token = fetchToken(  );
+
+        // A reply echoing the ticket after the response, as some end points do
+        ByteArrayOutputStream echoReply = new ByteArrayOutputStream(  );
+        echoReply.write( REPLY_ECHO_START.getBytes( CHARSET ) );
+        TicketJsonWriter.write( _ticket, echoReply, ATTACHMENT_MAX_SIZE );
+        echoReply.write( REPLY_ECHO_END.getBytes( CHARSET ) );
+        _echoReply = echoReply.toByteArray(  );
+    }
+
+    /**
+     * Stops the client and the stub
+     */
+    @TearDown( Level.Trial )
+    public void tearDown(  )
+    {
+        _client.destroy(  );
+        _connectionManager.shutdown(  );
+        _server.stop(  );
+    }
+
+    /**
+     * Writes the ticket with the plan of the company
+     *
+     * @return the number of bytes written
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Benchmark
+    @Threads( 1 )
+    public long planWrite(  ) throws IOException
+    {
+        CountingOutputStream outputStream = new CountingOutputStream( TicketSerializationBenchmark.NullOutputStream.INSTANCE );
+        _plan.write( _ticket, outputStream );
+
+        return outputStream.getCount(  );
+    }
+
+    /**
+     * Writes a batch of tickets with the plan of the company
+     *
+     * @return the number of bytes written
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Benchmark
+    @Threads( 1 )
+    public long planWriteBatch(  ) throws IOException
+    {
+        CountingOutputStream outputStream = new CountingOutputStream( TicketSerializationBenchmark.NullOutputStream.INSTANCE );
+        _plan.writeBatch( _listTickets, outputStream );
+
+        return outputStream.getCount(  );
+    }
+
+    /**
+     * Estimates the size of a batch of tickets with the plan of the company, as
+     * the batch service does to split the batches
+     *
+     * @return the estimated size
+     */
+    @Benchmark
+    @Threads( 1 )
+    public long planEstimateBatchSize(  )
+    {
+        return _plan.estimateBatchSize( _listTickets );
+    }
+
+    /**
+     * Writes the ticket with the writer, without any renamed field
+     *
+     * @return the number of bytes written
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Benchmark
+    @Threads( 1 )
+    public long writerWrite(  ) throws IOException
+    {
+        CountingOutputStream outputStream = new CountingOutputStream( TicketSerializationBenchmark.NullOutputStream.INSTANCE );
+        TicketJsonWriter.write( _ticket, outputStream, ATTACHMENT_MAX_SIZE );
+
+        return outputStream.getCount(  );
+    }
+
+    /**
+     * Sends the ticket with the cached token, as the token service does
+     *
+     * @return the status of the reply
+     */
+    @Benchmark
+    public String sendWithCachedToken(  )
+    {
+        return sendTicket( _token );
+    }
+
+    /**
+     * Sends the ticket with a token requested before each send, as the module
+     * did before the token cache
+     *
+     * @return the status of the reply
+     */
+    @Benchmark
+    public String sendWithTokenPerSend(  )
+    {
+        return sendTicket( fetchToken(  ) );
+    }
+
+    /**
+     * Parses the reply of the token end point
+     *
+     * @return the token
+     * @throws IOException
+     *             if the reply cannot be read
+     */
+    @Benchmark
+    @Threads( 1 )
+    public Token parseToken(  ) throws IOException
+    {
+        return Token.read( new JsonReplyReader( new ByteArrayInputStream( REPLY_TOKEN.getBytes( CHARSET ) ),
+                REPLY_MAX_SIZE ), TOKEN_TIME_TO_LIVE );
+    }
+
+    /**
+     * Parses the reply of a ticket end point with json-lib, as the module did
+     * before the streaming reader
+     *
+     * @return the status of the reply
+     */
+    @Benchmark
+    @Threads( 1 )
+    public String parseTicketResponse(  )
+    {
+        return JSONObject.fromObject( REPLY_TICKET ).getJSONObject( "response" ).getString( "status" );
+    }
+
+    /**
+     * Parses the reply of a ticket end point with the streaming reader
+     *
+     * @return the status of the reply
+     * @throws IOException
+     *             if the reply cannot be read
+     */
+    @Benchmark
+    @Threads( 1 )
+    public String parseTicketResponseStreaming(  ) throws IOException
+    {
+        return readStatus( REPLY_TICKET.getBytes( CHARSET ) );
+    }
+
+    /**
+     * Parses a reply echoing the ticket with json-lib : the whole reply is
+     * decoded and parsed
+     *
+     * @return the status of the reply
+     * @throws IOException
+     *             if the reply cannot be decoded
+     */
+    @Benchmark
+    @Threads( 1 )
+    public String parseEchoReply(  ) throws IOException
+    {
+        return JSONObject.fromObject( new String( _echoReply, CHARSET ) ).getJSONObject( "response" )
+                         .getString( "status" );
+    }
+
+    /**
+     * Parses a reply echoing the ticket with the streaming reader, which stops
+     * after the response
+     *
+     * @return the status of the reply
+     * @throws IOException
+     *             if the reply cannot be read
+     */
+    @Benchmark
+    @Threads( 1 )
+    public String parseEchoReplyStreaming(  ) throws IOException
+    {
+        return readStatus( _echoReply );
+    }
+
+    /**
+     * Reads the status of a reply with the streaming reader
+     *
+     * @param reply
+     *            the reply
+     * @return the status
+     * @throws IOException
+     *             if the reply cannot be read
+     */
+    private static String readStatus( byte [] reply ) throws IOException
+    {
+        return ResponseContent.read( new JsonReplyReader( new ByteArrayInputStream( reply ), REPLY_MAX_SIZE ) )
+                              .getStatus(  );
+    }
+
+    /**
+     * Requests a token to the stub
+     *
+     * @return the token
+     */
+    private Token fetchToken(  )
+    {
+        MultivaluedMap<String, String> params = new MultivaluedMapImpl(  );
+        params.add( PARAMETER_GRANT_TYPE, GRANT_TYPE_CLIENT_CREDENTIALS );
+
+        ClientResponse response = _client.resource( _strTokenUrl ).type( MediaType.APPLICATION_FORM_URLENCODED )
+                                         .header( HttpHeaders.AUTHORIZATION,
+                HEADER_AUTHORIZATION_PREFIX_BASIC + CREDENTIALS ).post( ClientResponse.class, params );
+
+        try
+        {
+            return Token.read( new JsonReplyReader( response.getEntityInputStream(  ), REPLY_MAX_SIZE ),
+                TOKEN_TIME_TO_LIVE );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        finally
+        {
+            response.close(  );
+        }
+    }
+
+    /**
+     * Posts the ticket to the stub and parses the reply
+     *
+     * @param token
+     *            the token
+     * @return the status of the reply
+     */
+    private String sendTicket( Token token )
+    {
+        WebResource webResource = _client.resource( _strTicketUrl );
+        ClientResponse response = webResource.type( _plan.getContentType(  ) ).accept( MediaType.APPLICATION_JSON )
+                                             .header( HttpHeaders.AUTHORIZATION,
+                HEADER_AUTHORIZATION_PREFIX_BEARER + token.getValue(  ) )
+                                             .post( ClientResponse.class, new TicketOutput( _plan, _ticket ) );
+
+        try
+        {
+            return ResponseContent.read( new JsonReplyReader( response.getEntityInputStream(  ), REPLY_MAX_SIZE ) )
+                                  .getStatus(  );
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+        finally
+        {
+            response.close(  );
+        }
+    }
+
+    /**
+     * Streams a ticket as the body of the request, with the plan of the
+     * company
+     *
+     */
+    private static final class TicketOutput implements StreamingOutput
+    {
+        private final IPayloadPlan _plan;
+        private final Ticket _ticket;
+
+        /**
+         * Constructor
+         *
+         * @param plan
+         *            the plan of the company
+         * @param ticket
+         *            the ticket
+         */
+        TicketOutput( IPayloadPlan plan, Ticket ticket )
+        {
+            _plan = plan;
+            _ticket = ticket;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( OutputStream outputStream ) throws IOException, WebApplicationException
+        {
+            _plan.write( _ticket, outputStream );
+        }
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.net.InetSocketAddress;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class is an in-process stub of the ESB : it serves the token end point
+ * and the ticket end points of the companies with the same paths and replies
+ * as the stub-esb webapp. Faults can be injected in the replies of the ticket
+ * end points : a latency, a rate of errors and a slow drip of the reply. The
+ * stub can also be run alone, on the port of the default configuration of the
+ * module :
+ * <pre>
+ * java StubEsbServer [-port 9080] [-latency ms] [-jitter ms] [-errorRate 0.0-1.0] [-dripChunk bytes] [-dripDelay ms]
+ * </pre>
+ */
+public class StubEsbServer
+{
+    /**
+     * Path of the token end point
+     */
+    public static final String PATH_TOKEN = "/stub-esb/rest-ticketing-server/token";
+
+    /**
+     * Path of the ticket end point of Publik
+     */
+    public static final String PATH_PUBLIK = "/stub-esb/rest-ticketing-server/publik";
+
+    /**
+     * Path of the ticket end point of CapDemat
+     */
+    public static final String PATH_CAPDEMAT = "/stub-esb/rest-ticketing-server/capdemat";
+
+    /**
+     * Port of the stub in the default configuration of the module
+     */
+    public static final int DEFAULT_PORT = 9080;
+
+    private static final String HOST = "localhost";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String CHARSET = "UTF-8";
+    private static final int HTTP_STATUS_OK = 200;
+    private static final int HTTP_STATUS_SERVICE_UNAVAILABLE = 503;
+    private static final String REPLY_TOKEN = "{\"token_type\":\"bearer\",\"access_token\":\"stub-token\",\"expires_in\":3600}";
+    private static final String REPLY_TICKET = "{\"response\":{\"status\":\"OK\"}}";
+    private static final String REPLY_ERROR = "{\"response\":{\"status\":\"KO\",\"message\":\"error injected by the stub\"}}";
+    private static final int BUFFER_SIZE = 8192;
+    private static final String OPTION_PORT = "-port";
+    private static final String OPTION_LATENCY = "-latency";
+    private static final String OPTION_JITTER = "-jitter";
+    private static final String OPTION_ERROR_RATE = "-errorRate";
+    private static final String OPTION_DRIP_CHUNK = "-dripChunk";
+    private static final String OPTION_DRIP_DELAY = "-dripDelay";
+    private static final String LOG_STARTED = "Stub ESB listening on ";
+
+    private final int _nPort;
+    private final AtomicLong _lRequests = new AtomicLong(  );
+    private final AtomicLong _lErrors = new AtomicLong(  );
+    private volatile long _lLatency;
+    private volatile long _lJitter;
+    private volatile double _dErrorRate;
+    private volatile int _nDripChunkSize;
+    private volatile long _lDripDelay;
+    private HttpServer _server;
+    private ExecutorService _executor;
+
+    /**
+     * Constructor of a stub listening on a free port
+     */
+    public StubEsbServer(  )
+    {
+        this( 0 );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param nPort
+     *            the port to listen on, 0 for a free port
+     */
+    public StubEsbServer( int nPort )
+    {
+        _nPort = nPort;
+    }
+
+    /**
+     * Runs the stub alone until the process is stopped
+     *
+     * @param args
+     *            the options of the stub
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public static void main( String [] args ) throws IOException
+    {
+        StubEsbServer server = new StubEsbServer( getIntOption( args, OPTION_PORT, DEFAULT_PORT ) );
+        server.configure( args );
+        server.start(  );
+        System.out.println( LOG_STARTED + server.getUrl( "" ) );
+    }
+
+    /**
+     * Starts the server
+     *
+     * @throws IOException
+     *             if the server cannot be started
+     */
+    public void start(  ) throws IOException
+    {
+        _server = HttpServer.create( new InetSocketAddress( HOST, _nPort ), 0 );
+        _server.createContext( PATH_TOKEN, new ReplyHandler( REPLY_TOKEN ) );
+        _server.createContext( PATH_PUBLIK, new TicketHandler(  ) );
+        _server.createContext( PATH_CAPDEMAT, new TicketHandler(  ) );
+        _executor = Executors.newCachedThreadPool(  );
+        _server.setExecutor( _executor );
+        _server.start(  );
+    }
+
+    /**
+     * Stops the server
+     */
+    public void stop(  )
+    {
+        _server.stop( 0 );
+        _executor.shutdownNow(  );
+    }
+
+    /**
+     * Gives the URL of the specified path on this server
+     *
+     * @param strPath
+     *            the path
+     * @return the URL
+     */
+    public String getUrl( String strPath )
+    {
+        return "http://" + HOST + ":" + _server.getAddress(  ).getPort(  ) + strPath;
+    }
+
+    /**
+     * Sets the faults injected in the replies of the ticket end points from
+     * command line options
+     *
+     * @param args
+     *            the options
+     */
+    public void configure( String [] args )
+    {
+        setLatency( getIntOption( args, OPTION_LATENCY, 0 ), getIntOption( args, OPTION_JITTER, 0 ) );
+        setErrorRate( Double.parseDouble( getOption( args, OPTION_ERROR_RATE, "0" ) ) );
+        setSlowDrip( getIntOption( args, OPTION_DRIP_CHUNK, 0 ), getIntOption( args, OPTION_DRIP_DELAY, 0 ) );
+    }
+
+    /**
+     * Sets the time waited before replying to a ticket
+     *
+     * @param lLatency
+     *            the latency in milliseconds
+     * @param lJitter
+     *            the maximum random time in milliseconds added to the latency
+     */
+    public void setLatency( long lLatency, long lJitter )
+    {
+        _lLatency = lLatency;
+        _lJitter = lJitter;
+    }
+
+    /**
+     * Sets the rate of the tickets rejected with a 503 status
+     *
+     * @param dErrorRate
+     *            the rate, between 0 and 1
+     */
+    public void setErrorRate( double dErrorRate )
+    {
+        _dErrorRate = dErrorRate;
+    }
+
+    /**
+     * Sets the slow drip of the replies to the tickets : the reply is written
+     * by chunks, with a pause before each chunk
+     *
+     * @param nChunkSize
+     *            the size of the chunks in bytes, 0 to write the reply at once
+     * @param lDelay
+     *            the pause before each chunk in milliseconds
+     */
+    public void setSlowDrip( int nChunkSize, long lDelay )
+    {
+        _nDripChunkSize = nChunkSize;
+        _lDripDelay = lDelay;
+    }
+
+    /**
+     * Gives the number of tickets received
+     *
+     * @return the number of tickets
+     */
+    public long getRequestCount(  )
+    {
+        return _lRequests.get(  );
+    }
+
+    /**
+     * Gives the number of tickets rejected by an injected error
+     *
+     * @return the number of tickets
+     */
+    public long getErrorCount(  )
+    {
+        return _lErrors.get(  );
+    }
+
+    /**
+     * Reads and discards the body of a request
+     *
+     * @param inputStream
+     *            the body
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    static void drain( InputStream inputStream ) throws IOException
+    {
+        byte [] buffer = new byte[BUFFER_SIZE];
+
+        while ( inputStream.read( buffer ) != -1 )
+        {
+            // Discards the content
+        }
+
+        inputStream.close(  );
+    }
+
+    /**
+     * Writes a reply
+     *
+     * @param exchange
+     *            the exchange
+     * @param nStatus
+     *            the HTTP status
+     * @param strReply
+     *            the body of the reply
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    static void reply( HttpExchange exchange, int nStatus, String strReply )
+        throws IOException
+    {
+        reply( exchange, nStatus, strReply, 0, 0L );
+    }
+
+    /**
+     * Writes a reply, by chunks if a chunk size is specified
+     *
+     * @param exchange
+     *            the exchange
+     * @param nStatus
+     *            the HTTP status
+     * @param strReply
+     *            the body of the reply
+     * @param nChunkSize
+     *            the size of the chunks, 0 to write the reply at once
+     * @param lDelay
+     *            the pause before each chunk in milliseconds
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    static void reply( HttpExchange exchange, int nStatus, String strReply, int nChunkSize, long lDelay )
+        throws IOException
+    {
+        byte [] reply = strReply.getBytes( CHARSET );
+        exchange.getResponseHeaders(  ).set( HEADER_CONTENT_TYPE, CONTENT_TYPE_JSON );
+        exchange.sendResponseHeaders( nStatus, reply.length );
+
+        OutputStream outputStream = exchange.getResponseBody(  );
+
+        if ( nChunkSize <= 0 )
+        {
+            outputStream.write( reply );
+        }
+        else
+        {
+            for ( int nOffset = 0; nOffset < reply.length; nOffset += nChunkSize )
+            {
+                pause( lDelay );
+                outputStream.write( reply, nOffset, Math.min( nChunkSize, reply.length - nOffset ) );
+                outputStream.flush(  );
+            }
+        }
+
+        outputStream.close(  );
+    }
+
+    /**
+     * Waits for the specified time
+     *
+     * @param lDelay
+     *            the time in milliseconds
+     */
+    private static void pause( long lDelay )
+    {
+        if ( lDelay <= 0 )
+        {
+            return;
+        }
+
+        try
+        {
+            Thread.sleep( lDelay );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+
+    /**
+     * Gives the value of a command line option
+     *
+     * @param args
+     *            the command line
+     * @param strOption
+     *            the option
+     * @param strDefault
+     *            the value if the option is missing
+     * @return the value
+     */
+    static String getOption( String [] args, String strOption, String strDefault )
+    {
+        for ( int i = 0; i < ( args.length - 1 ); i++ )
+        {
+            if ( strOption.equals( args[i] ) )
+            {
+                return args[i + 1];
+            }
+        }
+
+        return strDefault;
+    }
+
+    /**
+     * Gives the integer value of a command line option
+     *
+     * @param args
+     *            the command line
+     * @param strOption
+     *            the option
+     * @param nDefault
+     *            the value if the option is missing
+     * @return the value
+     */
+    static int getIntOption( String [] args, String strOption, int nDefault )
+    {
+        return Integer.parseInt( getOption( args, strOption, String.valueOf( nDefault ) ) );
+    }
+
+    /**
+     * This handler reads the request and sends always the same reply
+     *
+     */
+    private static final class ReplyHandler implements HttpHandler
+    {
+        private final String _strReply;
+
+        /**
+         * Constructor
+         *
+         * @param strReply
+         *            the reply
+         */
+        ReplyHandler( String strReply )
+        {
+            _strReply = strReply;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle( HttpExchange exchange ) throws IOException
+        {
+            drain( exchange.getRequestBody(  ) );
+            reply( exchange, HTTP_STATUS_OK, _strReply );
+        }
+    }
+
+    /**
+     * This handler reads a ticket and replies with the faults configured on
+     * the stub
+     *
+     */
+    private final class TicketHandler implements HttpHandler
+    {
+        private final Random _random = new Random(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle( HttpExchange exchange ) throws IOException
+        {
+            drain( exchange.getRequestBody(  ) );
+            _lRequests.incrementAndGet(  );
+
+            long lJitter = _lJitter;
+            double dErrorRate = _dErrorRate;
+            double dDraw;
+            long lJitterDraw;
+
+            synchronized ( _random )
+            {
+                dDraw = _random.nextDouble(  );
+                lJitterDraw = ( lJitter > 0 ) ? (long) ( _random.nextDouble(  ) * lJitter ) : 0L;
+            }
+
+            pause( _lLatency + lJitterDraw );
+
+            if ( dDraw < dErrorRate )
+            {
+                _lErrors.incrementAndGet(  );
+                reply( exchange, HTTP_STATUS_SERVICE_UNAVAILABLE, REPLY_ERROR, _nDripChunkSize, _lDripDelay );
+            }
+            else
+            {
+                reply( exchange, HTTP_STATUS_OK, REPLY_TICKET, _nDripChunkSize, _lDripDelay );
+            }
+        }
+    }
+}
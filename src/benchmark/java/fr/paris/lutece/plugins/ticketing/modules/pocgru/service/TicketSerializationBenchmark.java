@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Field;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.xerces.impl.dv.util.Base64;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmarks of the serialization of a ticket : the streaming writer used by
+ * the module, and the json-lib tree previously used, as a reference
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( { Mode.Throughput, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@Fork( 1 )
+public class TicketSerializationBenchmark
+{
+    private static final String CHARSET = "UTF-8";
+    private static final long ATTACHMENT_MAX_SIZE = Long.MAX_VALUE;
+    @Param( { BenchmarkTickets.SHAPE_NO_EXTRA_FIELDS, BenchmarkTickets.SHAPE_50_FIELDS, BenchmarkTickets.SHAPE_LARGE_ATTACHMENTS } )
+    private String _strShape;
+    private Ticket _ticket;
+
+    /**
+     * Builds the ticket
+     */
+    @Setup
+    public void setUp(  )
+    {
+        _ticket = BenchmarkTickets.build( _strShape );
+    }
+
+    /**
+     * Writes the ticket with the streaming writer
+     *
+     * @return the number of bytes written
+     * @throws IOException
+     *             if an error occurs
+     */
+    @Benchmark
+    public long streamingWriter(  ) throws IOException
+    {
+        CountingOutputStream outputStream = new CountingOutputStream( NullOutputStream.INSTANCE );
+        TicketJsonWriter.write( _ticket, outputStream, ATTACHMENT_MAX_SIZE );
+
+        return outputStream.getCount(  );
+    }
+
+    /**
+     * Builds the ticket with json-lib objects, then converts it to bytes, as
+     * the module did before the streaming writer
+     *
+     * @return the number of bytes
+     * @throws UnsupportedEncodingException
+     *             if the charset is not supported
+     */
+    @Benchmark
+    public long jsonLibTree(  ) throws UnsupportedEncodingException
+    {
+        JSONObject json = new JSONObject(  );
+        addTicketJson( json, _ticket );
+
+        return json.toString(  ).getBytes( CHARSET ).length;
+    }
+
+    /**
+     * Copy of the former json-lib serialization of the module
+     *
+     * @param json
+     *            The JSON Object
+     * @param ticket
+     *            The ticket
+     */
+    private static void addTicketJson( JSONObject json, Ticket ticket )
+    {
+        JSONObject jsonTicket = new JSONObject(  );
+
+        JSONObject jsonUser = new JSONObject(  );
+        jsonUser.accumulate( "guid", ticket.getGuid(  ) );
+        jsonUser.accumulate( "title", ticket.getIdUserTitle(  ) );
+        jsonUser.accumulate( "first_name", ticket.getFirstname(  ) );
+        jsonUser.accumulate( "last_name", ticket.getLastname(  ) );
+        jsonUser.accumulate( "email", ticket.getEmail(  ) );
+        jsonUser.accumulate( "fixed_phone_number", ticket.getFixedPhoneNumber(  ) );
+        jsonUser.accumulate( "mobile_phone_number", ticket.getMobilePhoneNumber(  ) );
+        jsonTicket.accumulate( "user", jsonUser );
+
+        jsonTicket.accumulate( "type", ticket.getIdTicketType(  ) );
+        jsonTicket.accumulate( "domain", ticket.getIdTicketDomain(  ) );
+        jsonTicket.accumulate( "category", ticket.getIdTicketCategory(  ) );
+        jsonTicket.accumulate( "contact_mode", ticket.getIdContactMode(  ) );
+        jsonTicket.accumulate( "comment", ticket.getTicketComment(  ) );
+
+        JSONArray jsonExtraFields = new JSONArray(  );
+        List<Response> listExtraFields = ticket.getListResponse(  );
+
+        for ( Response extraField : listExtraFields )
+        {
+            JSONObject jsonExtraField = new JSONObject(  );
+            File file = extraField.getFile(  );
+            jsonExtraField.accumulate( "field", ( extraField.getEntry(  ) != null ) ? extraField.getEntry(  ).getCode(  ) : "" );
+
+            Field field = extraField.getField(  );
+            String strExtraFieldValue;
+
+            if ( field != null )
+            {
+                strExtraFieldValue = field.getValue(  );
+            }
+            else if ( file != null )
+            {
+                strExtraFieldValue = Base64.encode( file.getPhysicalFile(  ).getValue(  ) );
+            }
+            else
+            {
+                strExtraFieldValue = extraField.getResponseValue(  );
+            }
+
+            jsonExtraField.accumulate( "value", strExtraFieldValue );
+
+            if ( file != null )
+            {
+                JSONArray metadata = new JSONArray(  );
+                JSONObject mimeTypeMetadata = new JSONObject(  );
+                mimeTypeMetadata.accumulate( "name", "mimetype" );
+                mimeTypeMetadata.accumulate( "value", file.getMimeType(  ) );
+                metadata.add( mimeTypeMetadata );
+
+                JSONObject fileNameMetadata = new JSONObject(  );
+                fileNameMetadata.accumulate( "name", "filename" );
+                fileNameMetadata.accumulate( "value", file.getTitle(  ) );
+                metadata.add( fileNameMetadata );
+                jsonExtraField.accumulate( "metadata", metadata );
+            }
+
+            jsonExtraFields.add( jsonExtraField );
+        }
+
+        jsonTicket.accumulate( "extra_fields", jsonExtraFields );
+        json.accumulate( "ticket", jsonTicket );
+    }
+
+    /**
+     * This stream discards the bytes written
+     *
+     */
+    static final class NullOutputStream extends OutputStream
+    {
+        static final NullOutputStream INSTANCE = new NullOutputStream(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( int nByte )
+        {
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( byte [] buffer, int nOffset, int nLength )
+        {
+        }
+    }
+}
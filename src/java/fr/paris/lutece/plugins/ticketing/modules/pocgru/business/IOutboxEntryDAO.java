@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+import java.util.List;
+
+
+/**
+ * IOutboxEntryDAO Interface
+ */
+public interface IOutboxEntryDAO
+{
+    /**
+     * Insert a new record in the table.
+     * @param entry instance of the OutboxEntry object to insert
+     * @param plugin the Plugin
+     */
+    void insert( OutboxEntry entry, Plugin plugin );
+
+    /**
+     * Delete a record from the table
+     * @param nKey The identifier of the OutboxEntry to delete
+     * @param plugin the Plugin
+     */
+    void delete( int nKey, Plugin plugin );
+
+    /**
+     * Delete a record from the table if it is locked with the specified key
+     * @param nKey The identifier of the OutboxEntry to delete
+     * @param strLockKey the key of the lock held by the caller
+     * @param plugin the Plugin
+     * @return the number of entries deleted : 1, or 0 if the entry is locked by another caller or no longer exists
+     */
+    int deleteLocked( int nKey, String strLockKey, Plugin plugin );
+
+    /**
+     * Delete the records of a ticket created before the specified date, unless they are locked
+     * @param nIdTicket The identifier of the ticket
+     * @param dateCreationMax the date after which a record is kept
+     * @param dateLockExpiration the date before which a lock is considered expired
+     * @param plugin the Plugin
+     */
+    void deletePendingByIdTicket( int nIdTicket, Timestamp dateCreationMax, Timestamp dateLockExpiration,
+        Plugin plugin );
+
+    /**
+     * Load the data of the entry pending for the specified action on a ticket
+     * @param nIdTicket The identifier of the ticket
+     * @param nIdResourceHistory The identifier of the resource history of the action
+     * @param plugin the Plugin
+     * @return The instance of the OutboxEntry or {@code null} if the action is not pending
+     */
+    OutboxEntry loadByIdTicketAndResourceHistory( int nIdTicket, int nIdResourceHistory, Plugin plugin );
+
+    /**
+     * Load the entries ready to be sent : their next attempt date is reached
+     * and they are not locked, or their lock has expired
+     * @param dateNow the current date
+     * @param dateLockExpiration the date before which a lock is considered expired
+     * @param nMaxEntries the maximum number of entries to load
+     * @param plugin the Plugin
+     * @return The list of entries
+     */
+    List<OutboxEntry> selectReadyEntries( Timestamp dateNow, Timestamp dateLockExpiration, int nMaxEntries,
+        Plugin plugin );
+
+    /**
+     * Lock an entry before its send and increment its number of attempts.
+     * The entry is locked only if it is not locked, or if its lock has
+     * expired, so that it is sent by one caller only.
+     * @param nKey The identifier of the OutboxEntry to lock
+     * @param dateLock the lock date
+     * @param dateLockExpiration the date before which a lock is considered expired
+     * @param strLockKey the key identifying this lock
+     * @param plugin the Plugin
+     * @return the number of entries locked : 1, or 0 if the entry is locked by another caller or no longer exists
+     */
+    int lock( int nKey, Timestamp dateLock, Timestamp dateLockExpiration, String strLockKey, Plugin plugin );
+
+    /**
+     * Unlock an entry and schedule its next attempt, if it is locked with the
+     * specified key
+     * @param nKey The identifier of the OutboxEntry to reschedule
+     * @param dateNextAttempt the date of the next attempt
+     * @param strLockKey the key of the lock held by the caller
+     * @param plugin the Plugin
+     * @return the number of entries rescheduled : 1, or 0 if the entry is locked by another caller or no longer exists
+     */
+    int reschedule( int nKey, Timestamp dateNextAttempt, String strLockKey, Plugin plugin );
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.io.IOException;
+
+import java.util.List;
+
+
+/**
+ * ITicketProjectionDAO Interface. This DAO loads only the data of a ticket
+ * needed to send it, without the content of its attachments.
+ */
+public interface ITicketProjectionDAO
+{
+    /**
+     * Load the fields of a ticket, without its responses
+     * @param nIdTicket The identifier of the ticket
+     * @param plugin the ticketing Plugin
+     * @return The instance of the Ticket or {@code null} if the ticket does not exist
+     */
+    Ticket loadTicket( int nIdTicket, Plugin plugin );
+
+    /**
+     * Load the GUID of the user of a ticket
+     * @param nIdTicket The identifier of the ticket
+     * @param plugin the ticketing Plugin
+     * @return The GUID or {@code null} if the ticket does not exist
+     */
+    String loadGuid( int nIdTicket, Plugin plugin );
+
+    /**
+     * Load the identifiers of the responses of a ticket
+     * @param nIdTicket The identifier of the ticket
+     * @param plugin the ticketing Plugin
+     * @return The list of identifiers
+     */
+    List<Integer> selectIdResponses( int nIdTicket, Plugin plugin );
+
+    /**
+     * Load the responses with the specified identifiers, with the code of
+     * their entry, the value of their field and the identifier of their file
+     * @param listIdResponses The identifiers of the responses
+     * @param plugin the genericattributes Plugin
+     * @return The list of responses, in the order of the identifiers
+     */
+    List<Response> selectResponses( List<Integer> listIdResponses, Plugin plugin );
+
+    /**
+     * Load the description of a file, without its content
+     * @param nIdFile The identifier of the file
+     * @return The instance of the File, whose physical file has only its identifier, or {@code null} if the file does not exist
+     */
+    File loadFile( int nIdFile );
+
+    /**
+     * Read the content of a physical file
+     * @param nIdPhysicalFile The identifier of the physical file
+     * @param handler The handler of the content
+     * @return {@code true} if the physical file exists, {@code false} otherwise
+     * @throws IOException if an error occurs while handling the content
+     */
+    boolean readFileContent( int nIdPhysicalFile, IFileContentHandler handler )
+        throws IOException;
+}
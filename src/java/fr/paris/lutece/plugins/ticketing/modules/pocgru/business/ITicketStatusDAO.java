@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+
+import java.sql.Timestamp;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * ITicketStatusDAO Interface. This DAO updates only the status of tickets.
+ */
+public interface ITicketStatusDAO
+{
+    /**
+     * Update the status of a ticket
+     * @param nIdTicket The identifier of the ticket
+     * @param nStatus The status
+     * @param strStatusText The text of the status
+     * @param plugin the ticketing Plugin
+     */
+    void storeStatus( int nIdTicket, int nStatus, String strStatusText, Plugin plugin );
+
+    /**
+     * Update the status of several tickets with the same status
+     * @param listIdTickets The identifiers of the tickets
+     * @param nStatus The status
+     * @param strStatusText The text of the status
+     * @param plugin the ticketing Plugin
+     */
+    void storeStatuses( List<Integer> listIdTickets, int nStatus, String strStatusText, Plugin plugin );
+
+    /**
+     * Load the ids and the user guids of the tickets with the specified status
+     * created during a period
+     * @param nStatus The status
+     * @param strStatusText The text of the status
+     * @param dateFrom The start of the period, included
+     * @param dateTo The end of the period, excluded
+     * @param plugin the ticketing Plugin
+     * @return The user guids of the tickets, by id of ticket
+     */
+    Map<Integer, String> selectGuidsByStatus( int nStatus, String strStatusText, Timestamp dateFrom, Timestamp dateTo,
+        Plugin plugin );
+}
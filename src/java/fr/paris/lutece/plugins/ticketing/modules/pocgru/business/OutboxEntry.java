@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import java.sql.Timestamp;
+
+
+/**
+ * This class represents a ticket waiting to be sent to the REST end point
+ *
+ */
+public class OutboxEntry
+{
+    // Variables declarations
+    private int _nId;
+    private int _nIdTicket;
+    private int _nIdResourceHistory;
+    private int _nNbAttempts;
+    private Timestamp _dateCreation;
+    private Timestamp _dateNextAttempt;
+    private Timestamp _dateLock;
+
+    /**
+     * Returns the Id
+     * @return The Id
+     */
+    public int getId(  )
+    {
+        return _nId;
+    }
+
+    /**
+     * Sets the Id
+     * @param nId The Id
+     */
+    public void setId( int nId )
+    {
+        _nId = nId;
+    }
+
+    /**
+     * Returns the id of the ticket
+     * @return The id of the ticket
+     */
+    public int getIdTicket(  )
+    {
+        return _nIdTicket;
+    }
+
+    /**
+     * Sets the id of the ticket
+     * @param nIdTicket The id of the ticket
+     */
+    public void setIdTicket( int nIdTicket )
+    {
+        _nIdTicket = nIdTicket;
+    }
+
+    /**
+     * Returns the id of the resource history of the action which sent the
+     * ticket
+     * @return The id of the resource history
+     */
+    public int getIdResourceHistory(  )
+    {
+        return _nIdResourceHistory;
+    }
+
+    /**
+     * Sets the id of the resource history of the action which sent the ticket
+     * @param nIdResourceHistory The id of the resource history
+     */
+    public void setIdResourceHistory( int nIdResourceHistory )
+    {
+        _nIdResourceHistory = nIdResourceHistory;
+    }
+
+    /**
+     * Returns the number of attempts
+     * @return The number of attempts
+     */
+    public int getNbAttempts(  )
+    {
+        return _nNbAttempts;
+    }
+
+    /**
+     * Sets the number of attempts
+     * @param nNbAttempts The number of attempts
+     */
+    public void setNbAttempts( int nNbAttempts )
+    {
+        _nNbAttempts = nNbAttempts;
+    }
+
+    /**
+     * Returns the creation date
+     * @return The creation date
+     */
+    public Timestamp getDateCreation(  )
+    {
+        return _dateCreation;
+    }
+
+    /**
+     * Sets the creation date
+     * @param dateCreation The creation date
+     */
+    public void setDateCreation( Timestamp dateCreation )
+    {
+        _dateCreation = dateCreation;
+    }
+
+    /**
+     * Returns the date from which the next attempt can be made
+     * @return The date of the next attempt
+     */
+    public Timestamp getDateNextAttempt(  )
+    {
+        return _dateNextAttempt;
+    }
+
+    /**
+     * Sets the date from which the next attempt can be made
+     * @param dateNextAttempt The date of the next attempt
+     */
+    public void setDateNextAttempt( Timestamp dateNextAttempt )
+    {
+        _dateNextAttempt = dateNextAttempt;
+    }
+
+    /**
+     * Returns the date when the entry has been locked for a send, or
+     * {@code null} if the entry is not being sent
+     * @return The lock date
+     */
+    public Timestamp getDateLock(  )
+    {
+        return _dateLock;
+    }
+
+    /**
+     * Sets the date when the entry has been locked for a send
+     * @param dateLock The lock date
+     */
+    public void setDateLock( Timestamp dateLock )
+    {
+        _dateLock = dateLock;
+    }
+}
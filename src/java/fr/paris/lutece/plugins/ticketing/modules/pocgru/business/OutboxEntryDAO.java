@@ -0,0 +1,289 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class provides Data Access methods for OutboxEntry objects
+ */
+public final class OutboxEntryDAO implements IOutboxEntryDAO
+{
+    // Constants
+    private static final String SQL_QUERY_NEW_PK = "SELECT max( id_outbox ) FROM ticketing_pocgru_outbox";
+    private static final String SQL_QUERY_SELECT_COLUMNS = "SELECT id_outbox, id_ticket, id_resource_history, nb_attempts, date_creation, date_next_attempt, date_lock FROM ticketing_pocgru_outbox";
+    private static final String SQL_QUERY_SELECT_BY_TICKET_AND_RESOURCE_HISTORY = SQL_QUERY_SELECT_COLUMNS +
+        " WHERE id_ticket = ? AND id_resource_history = ?";
+    private static final String SQL_QUERY_SELECT_READY = SQL_QUERY_SELECT_COLUMNS +
+        " WHERE date_next_attempt <= ? AND ( date_lock IS NULL OR date_lock < ? ) ORDER BY id_outbox LIMIT ?";
+    private static final String SQL_QUERY_INSERT = "INSERT INTO ticketing_pocgru_outbox ( id_outbox, id_ticket, id_resource_history, nb_attempts, date_creation, date_next_attempt, date_lock ) VALUES ( ?, ?, ?, ?, ?, ?, ? ) ";
+    private static final String SQL_QUERY_DELETE = "DELETE FROM ticketing_pocgru_outbox WHERE id_outbox = ? ";
+    private static final String SQL_QUERY_DELETE_LOCKED = "DELETE FROM ticketing_pocgru_outbox WHERE id_outbox = ? AND lock_key = ? ";
+    private static final String SQL_QUERY_DELETE_PENDING_BY_TICKET = "DELETE FROM ticketing_pocgru_outbox WHERE id_ticket = ? AND date_creation <= ? AND ( date_lock IS NULL OR date_lock < ? ) ";
+    private static final String SQL_QUERY_COUNT = "SELECT count(*) FROM ticketing_pocgru_outbox WHERE id_outbox = ?";
+    private static final String SQL_QUERY_LOCK = "UPDATE ticketing_pocgru_outbox SET date_lock = ?, lock_key = ?, nb_attempts = nb_attempts + 1 WHERE id_outbox = ? AND ( date_lock IS NULL OR date_lock < ? )";
+    private static final String SQL_QUERY_COUNT_LOCKED = "SELECT count(*) FROM ticketing_pocgru_outbox WHERE id_outbox = ? AND lock_key = ?";
+    private static final String SQL_QUERY_RESCHEDULE = "UPDATE ticketing_pocgru_outbox SET date_lock = NULL, date_next_attempt = ? WHERE id_outbox = ? AND lock_key = ?";
+    private static final String SQL_QUERY_COUNT_RESCHEDULED = "SELECT count(*) FROM ticketing_pocgru_outbox WHERE id_outbox = ? AND lock_key = ? AND date_lock IS NULL";
+
+    /**
+     * Generates a new primary key
+     * @param plugin The Plugin
+     * @return The new primary key
+     */
+    public int newPrimaryKey( Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_NEW_PK, plugin );
+        daoUtil.executeQuery(  );
+
+        int nKey = 1;
+
+        if ( daoUtil.next(  ) )
+        {
+            nKey = daoUtil.getInt( 1 ) + 1;
+        }
+
+        daoUtil.free(  );
+
+        return nKey;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public synchronized void insert( OutboxEntry entry, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_INSERT, plugin );
+
+        entry.setId( newPrimaryKey( plugin ) );
+
+        int nIndex = 1;
+        daoUtil.setInt( nIndex++, entry.getId(  ) );
+        daoUtil.setInt( nIndex++, entry.getIdTicket(  ) );
+        daoUtil.setInt( nIndex++, entry.getIdResourceHistory(  ) );
+        daoUtil.setInt( nIndex++, entry.getNbAttempts(  ) );
+        daoUtil.setTimestamp( nIndex++, entry.getDateCreation(  ) );
+        daoUtil.setTimestamp( nIndex++, entry.getDateNextAttempt(  ) );
+        daoUtil.setTimestamp( nIndex++, entry.getDateLock(  ) );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void delete( int nKey, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE, plugin );
+        daoUtil.setInt( 1, nKey );
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int deleteLocked( int nKey, String strLockKey, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_LOCKED, plugin );
+        daoUtil.setInt( 1, nKey );
+        daoUtil.setString( 2, strLockKey );
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+
+        // The delete is conditional : the entry is deleted by this call only if it no longer exists
+        return ( count( SQL_QUERY_COUNT, nKey, null, plugin ) == 0 ) ? 1 : 0;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void deletePendingByIdTicket( int nIdTicket, Timestamp dateCreationMax, Timestamp dateLockExpiration,
+        Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_DELETE_PENDING_BY_TICKET, plugin );
+        daoUtil.setInt( 1, nIdTicket );
+        daoUtil.setTimestamp( 2, dateCreationMax );
+        daoUtil.setTimestamp( 3, dateLockExpiration );
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public OutboxEntry loadByIdTicketAndResourceHistory( int nIdTicket, int nIdResourceHistory, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_BY_TICKET_AND_RESOURCE_HISTORY, plugin );
+        daoUtil.setInt( 1, nIdTicket );
+        daoUtil.setInt( 2, nIdResourceHistory );
+        daoUtil.executeQuery(  );
+
+        OutboxEntry entry = null;
+
+        if ( daoUtil.next(  ) )
+        {
+            entry = getEntry( daoUtil );
+        }
+
+        daoUtil.free(  );
+
+        return entry;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public List<OutboxEntry> selectReadyEntries( Timestamp dateNow, Timestamp dateLockExpiration, int nMaxEntries,
+        Plugin plugin )
+    {
+        List<OutboxEntry> listEntries = new ArrayList<OutboxEntry>(  );
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_READY, plugin );
+        daoUtil.setTimestamp( 1, dateNow );
+        daoUtil.setTimestamp( 2, dateLockExpiration );
+        daoUtil.setInt( 3, nMaxEntries );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            listEntries.add( getEntry( daoUtil ) );
+        }
+
+        daoUtil.free(  );
+
+        return listEntries;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int lock( int nKey, Timestamp dateLock, Timestamp dateLockExpiration, String strLockKey, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_LOCK, plugin );
+        int nIndex = 1;
+        daoUtil.setTimestamp( nIndex++, dateLock );
+        daoUtil.setString( nIndex++, strLockKey );
+        daoUtil.setInt( nIndex++, nKey );
+        daoUtil.setTimestamp( nIndex++, dateLockExpiration );
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+
+        // The update is conditional : the entry is locked by this call only if it holds its key
+        return count( SQL_QUERY_COUNT_LOCKED, nKey, strLockKey, plugin );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public int reschedule( int nKey, Timestamp dateNextAttempt, String strLockKey, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_RESCHEDULE, plugin );
+        daoUtil.setTimestamp( 1, dateNextAttempt );
+        daoUtil.setInt( 2, nKey );
+        daoUtil.setString( 3, strLockKey );
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+
+        // The update is conditional : the key is kept, so that the entry is rescheduled by this call only if it still holds it
+        return count( SQL_QUERY_COUNT_RESCHEDULED, nKey, strLockKey, plugin );
+    }
+
+    /**
+     * Counts the rows of an entry matching a query
+     * @param strQuery the query, whose parameters are the id of the entry and, if specified, the lock key
+     * @param nKey the id of the entry
+     * @param strLockKey the lock key, or {@code null} if the query has no lock key parameter
+     * @param plugin the Plugin
+     * @return the number of rows
+     */
+    private static int count( String strQuery, int nKey, String strLockKey, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( strQuery, plugin );
+        daoUtil.setInt( 1, nKey );
+
+        if ( strLockKey != null )
+        {
+            daoUtil.setString( 2, strLockKey );
+        }
+
+        daoUtil.executeQuery(  );
+
+        int nCount = 0;
+
+        if ( daoUtil.next(  ) )
+        {
+            nCount = daoUtil.getInt( 1 );
+        }
+
+        daoUtil.free(  );
+
+        return nCount;
+    }
+
+    /**
+     * Builds an entry from the current row
+     * @param daoUtil the DAOUtil positioned on the row
+     * @return the entry
+     */
+    private static OutboxEntry getEntry( DAOUtil daoUtil )
+    {
+        OutboxEntry entry = new OutboxEntry(  );
+        int nIndex = 1;
+        entry.setId( daoUtil.getInt( nIndex++ ) );
+        entry.setIdTicket( daoUtil.getInt( nIndex++ ) );
+        entry.setIdResourceHistory( daoUtil.getInt( nIndex++ ) );
+        entry.setNbAttempts( daoUtil.getInt( nIndex++ ) );
+        entry.setDateCreation( daoUtil.getTimestamp( nIndex++ ) );
+        entry.setDateNextAttempt( daoUtil.getTimestamp( nIndex++ ) );
+        entry.setDateLock( daoUtil.getTimestamp( nIndex++ ) );
+
+        return entry;
+    }
+}
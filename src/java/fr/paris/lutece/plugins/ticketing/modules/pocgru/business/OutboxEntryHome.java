@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.TicketingPocGruPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.sql.Timestamp;
+
+import java.util.List;
+
+
+/**
+ * This class provides instances management methods (create, find, ...) for
+ * OutboxEntry objects. The entries are stored in the connection pool of the
+ * ticketing plugin so that they can share transactions with the tickets.
+ */
+public final class OutboxEntryHome
+{
+    // Static variable pointed at the DAO instance
+    private static IOutboxEntryDAO _dao = (IOutboxEntryDAO) SpringContextService.getBean( "ticketing-pocgru.outboxEntryDAO" );
+    private static Plugin _plugin = TicketingPocGruPlugin.getTicketingPlugin(  );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private OutboxEntryHome(  )
+    {
+    }
+
+    /**
+     * Create an instance of the OutboxEntry class
+     * @param entry The instance of the OutboxEntry which contains the informations to store
+     * @return The instance of OutboxEntry which has been created with its primary key.
+     */
+    public static OutboxEntry create( OutboxEntry entry )
+    {
+        _dao.insert( entry, _plugin );
+
+        return entry;
+    }
+
+    /**
+     * Remove the entry whose identifier is specified in parameter
+     * @param nKey The entry Id
+     */
+    public static void remove( int nKey )
+    {
+        _dao.delete( nKey, _plugin );
+    }
+
+    /**
+     * Remove the entry whose identifier is specified in parameter, if it is locked with the specified key
+     * @param nKey The entry Id
+     * @param strLockKey the key of the lock held by the caller
+     * @return {@code true} if the entry has been removed, {@code false} if it is locked by another caller
+     */
+    public static boolean removeLocked( int nKey, String strLockKey )
+    {
+        return _dao.deleteLocked( nKey, strLockKey, _plugin ) > 0;
+    }
+
+    /**
+     * Remove the entries of a ticket created before the specified date, unless they are being sent
+     * @param nIdTicket the ticket id
+     * @param dateCreationMax the date after which an entry is kept
+     * @param dateLockExpiration the date before which a lock is considered expired
+     */
+    public static void removePendingByIdTicket( int nIdTicket, Timestamp dateCreationMax,
+        Timestamp dateLockExpiration )
+    {
+        _dao.deletePendingByIdTicket( nIdTicket, dateCreationMax, dateLockExpiration, _plugin );
+    }
+
+    /**
+     * Returns the entry pending for the specified action on a ticket
+     * @param nIdTicket the ticket id
+     * @param nIdResourceHistory the resource history id of the action
+     * @return the instance of the OutboxEntry or {@code null} if the action is not pending
+     */
+    public static OutboxEntry findByIdTicketAndResourceHistory( int nIdTicket, int nIdResourceHistory )
+    {
+        return _dao.loadByIdTicketAndResourceHistory( nIdTicket, nIdResourceHistory, _plugin );
+    }
+
+    /**
+     * Returns the entries ready to be sent
+     * @param dateNow the current date
+     * @param dateLockExpiration the date before which a lock is considered expired
+     * @param nMaxEntries the maximum number of entries
+     * @return the list of entries
+     */
+    public static List<OutboxEntry> findReadyEntries( Timestamp dateNow, Timestamp dateLockExpiration,
+        int nMaxEntries )
+    {
+        return _dao.selectReadyEntries( dateNow, dateLockExpiration, nMaxEntries, _plugin );
+    }
+
+    /**
+     * Locks an entry before its send, unless it is locked by another caller
+     * @param nKey The entry Id
+     * @param dateLock the lock date
+     * @param dateLockExpiration the date before which a lock is considered expired
+     * @param strLockKey the key identifying this lock
+     * @return {@code true} if the entry has been locked, {@code false} if it is locked by another caller
+     */
+    public static boolean lock( int nKey, Timestamp dateLock, Timestamp dateLockExpiration, String strLockKey )
+    {
+        return _dao.lock( nKey, dateLock, dateLockExpiration, strLockKey, _plugin ) > 0;
+    }
+
+    /**
+     * Unlocks an entry and schedules its next attempt, if it is locked with the specified key
+     * @param nKey The entry Id
+     * @param dateNextAttempt the date of the next attempt
+     * @param strLockKey the key of the lock held by the caller
+     * @return {@code true} if the entry has been rescheduled, {@code false} if it is locked by another caller
+     */
+    public static boolean reschedule( int nKey, Timestamp dateNextAttempt, String strLockKey )
+    {
+        return _dao.reschedule( nKey, dateNextAttempt, strLockKey, _plugin ) > 0;
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Field;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class provides Data Access methods for the data of a ticket needed to
+ * send it. The tables belong to the ticketing plugin, to the genericattributes
+ * plugin and to the core.
+ */
+public final class TicketProjectionDAO implements ITicketProjectionDAO
+{
+    // Constants
+    private static final String SQL_QUERY_SELECT_TICKET = "SELECT a.id_ticket, a.guid, a.id_user_title, a.firstname, a.lastname, a.email, a.fixed_phone_number, a.mobile_phone_number, " +
+        "c.id_ticket_type, b.id_ticket_domain, a.id_ticket_category, a.id_contact_mode, a.ticket_comment, a.ticket_status, a.ticket_status_text " +
+        "FROM ticketing_ticket a LEFT JOIN ticketing_ticket_category b ON a.id_ticket_category = b.id_ticket_category " +
+        "LEFT JOIN ticketing_ticket_domain c ON b.id_ticket_domain = c.id_ticket_domain WHERE a.id_ticket = ?";
+    private static final String SQL_QUERY_SELECT_GUID = "SELECT guid FROM ticketing_ticket WHERE id_ticket = ?";
+    private static final String SQL_QUERY_SELECT_ID_RESPONSES = "SELECT id_response FROM ticketing_ticket_response WHERE id_ticket = ? ORDER BY id_response";
+    private static final String SQL_QUERY_SELECT_RESPONSES = "SELECT resp.id_response, resp.response_value, resp.id_entry, ent.code, resp.id_field, fld.value, resp.id_file " +
+        "FROM genatt_response resp LEFT JOIN genatt_entry ent ON resp.id_entry = ent.id_entry LEFT JOIN genatt_field fld ON resp.id_field = fld.id_field " +
+        "WHERE resp.id_response IN ( ";
+    private static final String SQL_QUERY_SELECT_FILE = "SELECT id_file, title, id_physical_file, file_size, mime_type FROM core_file WHERE id_file = ?";
+    private static final String SQL_QUERY_SELECT_FILE_CONTENT = "SELECT file_value FROM core_physical_file WHERE id_physical_file = ?";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+    private static final String SQL_END_LIST = " )";
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public Ticket loadTicket( int nIdTicket, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_TICKET, plugin );
+        daoUtil.setInt( 1, nIdTicket );
+        daoUtil.executeQuery(  );
+
+        Ticket ticket = null;
+
+        if ( daoUtil.next(  ) )
+        {
+            int nIndex = 1;
+            ticket = new Ticket(  );
+            ticket.setId( daoUtil.getInt( nIndex++ ) );
+            ticket.setGuid( daoUtil.getString( nIndex++ ) );
+            ticket.setIdUserTitle( daoUtil.getInt( nIndex++ ) );
+            ticket.setFirstname( daoUtil.getString( nIndex++ ) );
+            ticket.setLastname( daoUtil.getString( nIndex++ ) );
+            ticket.setEmail( daoUtil.getString( nIndex++ ) );
+            ticket.setFixedPhoneNumber( daoUtil.getString( nIndex++ ) );
+            ticket.setMobilePhoneNumber( daoUtil.getString( nIndex++ ) );
+            ticket.setIdTicketType( daoUtil.getInt( nIndex++ ) );
+            ticket.setIdTicketDomain( daoUtil.getInt( nIndex++ ) );
+            ticket.setIdTicketCategory( daoUtil.getInt( nIndex++ ) );
+            ticket.setIdContactMode( daoUtil.getInt( nIndex++ ) );
+            ticket.setTicketComment( daoUtil.getString( nIndex++ ) );
+            ticket.setTicketStatus( daoUtil.getInt( nIndex++ ) );
+            ticket.setTicketStatusText( daoUtil.getString( nIndex++ ) );
+        }
+
+        daoUtil.free(  );
+
+        return ticket;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public String loadGuid( int nIdTicket, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_GUID, plugin );
+        daoUtil.setInt( 1, nIdTicket );
+        daoUtil.executeQuery(  );
+
+        String strGuid = null;
+
+        if ( daoUtil.next(  ) )
+        {
+            strGuid = daoUtil.getString( 1 );
+        }
+
+        daoUtil.free(  );
+
+        return strGuid;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public List<Integer> selectIdResponses( int nIdTicket, Plugin plugin )
+    {
+        List<Integer> listIdResponses = new ArrayList<Integer>(  );
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_ID_RESPONSES, plugin );
+        daoUtil.setInt( 1, nIdTicket );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            listIdResponses.add( daoUtil.getInt( 1 ) );
+        }
+
+        daoUtil.free(  );
+
+        return listIdResponses;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public List<Response> selectResponses( List<Integer> listIdResponses, Plugin plugin )
+    {
+        List<Response> listResponses = new ArrayList<Response>( listIdResponses.size(  ) );
+
+        if ( listIdResponses.isEmpty(  ) )
+        {
+            return listResponses;
+        }
+
+        StringBuilder sbSql = new StringBuilder( SQL_QUERY_SELECT_RESPONSES );
+
+        for ( int i = 0; i < listIdResponses.size(  ); i++ )
+        {
+            if ( i > 0 )
+            {
+                sbSql.append( SQL_SEPARATOR );
+            }
+
+            sbSql.append( SQL_PARAMETER );
+        }
+
+        sbSql.append( SQL_END_LIST );
+
+        DAOUtil daoUtil = new DAOUtil( sbSql.toString(  ), plugin );
+
+        for ( int i = 0; i < listIdResponses.size(  ); i++ )
+        {
+            daoUtil.setInt( i + 1, listIdResponses.get( i ) );
+        }
+
+        daoUtil.executeQuery(  );
+
+        Map<Integer, Response> mapResponses = new HashMap<Integer, Response>(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            int nIndex = 1;
+            Response response = new Response(  );
+            response.setIdResponse( daoUtil.getInt( nIndex++ ) );
+            response.setResponseValue( daoUtil.getString( nIndex++ ) );
+
+            Entry entry = new Entry(  );
+            entry.setIdEntry( daoUtil.getInt( nIndex++ ) );
+            entry.setCode( daoUtil.getString( nIndex++ ) );
+            response.setEntry( entry );
+
+            int nIdField = daoUtil.getInt( nIndex++ );
+            String strFieldValue = daoUtil.getString( nIndex++ );
+
+            if ( nIdField != 0 )
+            {
+                Field field = new Field(  );
+                field.setIdField( nIdField );
+                field.setValue( strFieldValue );
+                response.setField( field );
+            }
+
+            int nIdFile = daoUtil.getInt( nIndex++ );
+
+            if ( nIdFile != 0 )
+            {
+                File file = new File(  );
+                file.setIdFile( nIdFile );
+                response.setFile( file );
+            }
+
+            mapResponses.put( response.getIdResponse(  ), response );
+        }
+
+        daoUtil.free(  );
+
+        for ( Integer nIdResponse : listIdResponses )
+        {
+            Response response = mapResponses.get( nIdResponse );
+
+            if ( response != null )
+            {
+                listResponses.add( response );
+            }
+        }
+
+        return listResponses;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public File loadFile( int nIdFile )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_FILE );
+        daoUtil.setInt( 1, nIdFile );
+        daoUtil.executeQuery(  );
+
+        File file = null;
+
+        if ( daoUtil.next(  ) )
+        {
+            int nIndex = 1;
+            file = new File(  );
+            file.setIdFile( daoUtil.getInt( nIndex++ ) );
+            file.setTitle( daoUtil.getString( nIndex++ ) );
+
+            int nIdPhysicalFile = daoUtil.getInt( nIndex++ );
+
+            if ( nIdPhysicalFile != 0 )
+            {
+                PhysicalFile physicalFile = new PhysicalFile(  );
+                physicalFile.setIdPhysicalFile( nIdPhysicalFile );
+                file.setPhysicalFile( physicalFile );
+            }
+
+            file.setSize( daoUtil.getInt( nIndex++ ) );
+            file.setMimeType( daoUtil.getString( nIndex++ ) );
+        }
+
+        daoUtil.free(  );
+
+        return file;
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public boolean readFileContent( int nIdPhysicalFile, IFileContentHandler handler )
+        throws IOException
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_FILE_CONTENT );
+
+        try
+        {
+            daoUtil.setInt( 1, nIdPhysicalFile );
+            daoUtil.executeQuery(  );
+
+            if ( !daoUtil.next(  ) )
+            {
+                return false;
+            }
+
+            InputStream content = daoUtil.getBinaryStream( 1 );
+
+            if ( content == null )
+            {
+                return false;
+            }
+
+            try
+            {
+                handler.handle( content );
+            }
+            finally
+            {
+                content.close(  );
+            }
+
+            return true;
+        }
+        finally
+        {
+            daoUtil.free(  );
+        }
+    }
+}
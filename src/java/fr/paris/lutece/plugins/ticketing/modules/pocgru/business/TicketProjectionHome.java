@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.TicketingPocGruPlugin;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.plugin.PluginService;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.io.IOException;
+
+import java.util.List;
+
+
+/**
+ * This class provides the data of a ticket needed to send it. The ticket is
+ * loaded in steps, so that a ticket which cannot be sent does not load its
+ * responses, and the content of the attachments is only read once the ticket
+ * is about to be sent.
+ */
+public final class TicketProjectionHome
+{
+    // Constants
+    private static final String GENERIC_ATTRIBUTES_PLUGIN_NAME = "genericattributes";
+
+    // Static variable pointed at the DAO instance
+    private static ITicketProjectionDAO _dao = (ITicketProjectionDAO) SpringContextService.getBean( 
+            "ticketing-pocgru.ticketProjectionDAO" );
+    private static Plugin _plugin = TicketingPocGruPlugin.getTicketingPlugin(  );
+    private static Plugin _pluginGenericAttributes = PluginService.getPlugin( GENERIC_ATTRIBUTES_PLUGIN_NAME );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private TicketProjectionHome(  )
+    {
+    }
+
+    /**
+     * Returns the fields of a ticket, without its responses
+     * @param nIdTicket the ticket id
+     * @return the instance of the Ticket or {@code null} if the ticket does not exist
+     */
+    public static Ticket findTicket( int nIdTicket )
+    {
+        return _dao.loadTicket( nIdTicket, _plugin );
+    }
+
+    /**
+     * Returns the GUID of the user of a ticket
+     * @param nIdTicket the ticket id
+     * @return the GUID or {@code null} if the ticket does not exist
+     */
+    public static String findGuid( int nIdTicket )
+    {
+        return _dao.loadGuid( nIdTicket, _plugin );
+    }
+
+    /**
+     * Returns the responses of a ticket, with the description of their files
+     * but not their content
+     * @param nIdTicket the ticket id
+     * @return the list of responses
+     */
+    public static List<Response> findResponses( int nIdTicket )
+    {
+        List<Response> listResponses = _dao.selectResponses( _dao.selectIdResponses( nIdTicket, _plugin ),
+                _pluginGenericAttributes );
+
+        for ( Response response : listResponses )
+        {
+            if ( response.getFile(  ) != null )
+            {
+                File file = _dao.loadFile( response.getFile(  ).getIdFile(  ) );
+                response.setFile( file );
+            }
+        }
+
+        return listResponses;
+    }
+
+    /**
+     * Reads the content of a physical file
+     * @param nIdPhysicalFile the physical file id
+     * @param handler the handler of the content
+     * @return {@code true} if the physical file exists, {@code false} otherwise
+     * @throws IOException if an error occurs while handling the content
+     */
+    public static boolean readFileContent( int nIdPhysicalFile, IFileContentHandler handler )
+        throws IOException
+    {
+        return _dao.readFileContent( nIdPhysicalFile, handler );
+    }
+}
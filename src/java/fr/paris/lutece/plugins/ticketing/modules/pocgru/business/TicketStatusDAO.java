@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.util.sql.DAOUtil;
+
+import java.sql.Timestamp;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class provides Data Access methods to update the status of tickets,
+ * without rewriting the other columns of the tickets
+ */
+public final class TicketStatusDAO implements ITicketStatusDAO
+{
+    // Constants
+    private static final String SQL_QUERY_UPDATE_STATUS = "UPDATE ticketing_ticket SET ticket_status = ?, ticket_status_text = ? WHERE id_ticket = ?";
+    private static final String SQL_QUERY_UPDATE_STATUSES = "UPDATE ticketing_ticket SET ticket_status = ?, ticket_status_text = ? WHERE id_ticket IN ( ";
+    private static final String SQL_QUERY_SELECT_GUIDS_BY_STATUS = "SELECT id_ticket, guid FROM ticketing_ticket WHERE ticket_status = ? AND ticket_status_text = ? AND date_create >= ? AND date_create < ? ORDER BY id_ticket";
+    private static final String SQL_PARAMETER = "?";
+    private static final String SQL_SEPARATOR = ", ";
+    private static final String SQL_END_LIST = " )";
+    private static final int MAX_IDS_PER_QUERY = 500;
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void storeStatus( int nIdTicket, int nStatus, String strStatusText, Plugin plugin )
+    {
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_UPDATE_STATUS, plugin );
+
+        int nIndex = 1;
+        daoUtil.setInt( nIndex++, nStatus );
+        daoUtil.setString( nIndex++, strStatusText );
+        daoUtil.setInt( nIndex++, nIdTicket );
+
+        daoUtil.executeUpdate(  );
+        daoUtil.free(  );
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public void storeStatuses( List<Integer> listIdTickets, int nStatus, String strStatusText, Plugin plugin )
+    {
+        for ( int nStart = 0; nStart < listIdTickets.size(  ); nStart += MAX_IDS_PER_QUERY )
+        {
+            List<Integer> listIds = listIdTickets.subList( nStart,
+                    Math.min( nStart + MAX_IDS_PER_QUERY, listIdTickets.size(  ) ) );
+            StringBuilder sbSql = new StringBuilder( SQL_QUERY_UPDATE_STATUSES );
+
+            for ( int i = 0; i < listIds.size(  ); i++ )
+            {
+                if ( i > 0 )
+                {
+                    sbSql.append( SQL_SEPARATOR );
+                }
+
+                sbSql.append( SQL_PARAMETER );
+            }
+
+            sbSql.append( SQL_END_LIST );
+
+            DAOUtil daoUtil = new DAOUtil( sbSql.toString(  ), plugin );
+
+            int nIndex = 1;
+            daoUtil.setInt( nIndex++, nStatus );
+            daoUtil.setString( nIndex++, strStatusText );
+
+            for ( Integer nIdTicket : listIds )
+            {
+                daoUtil.setInt( nIndex++, nIdTicket );
+            }
+
+            daoUtil.executeUpdate(  );
+            daoUtil.free(  );
+        }
+    }
+
+    /**
+     * {@inheritDoc }
+     */
+    @Override
+    public Map<Integer, String> selectGuidsByStatus( int nStatus, String strStatusText, Timestamp dateFrom,
+        Timestamp dateTo, Plugin plugin )
+    {
+        Map<Integer, String> mapGuids = new LinkedHashMap<Integer, String>(  );
+        DAOUtil daoUtil = new DAOUtil( SQL_QUERY_SELECT_GUIDS_BY_STATUS, plugin );
+
+        int nIndex = 1;
+        daoUtil.setInt( nIndex++, nStatus );
+        daoUtil.setString( nIndex++, strStatusText );
+        daoUtil.setTimestamp( nIndex++, dateFrom );
+        daoUtil.setTimestamp( nIndex++, dateTo );
+        daoUtil.executeQuery(  );
+
+        while ( daoUtil.next(  ) )
+        {
+            mapGuids.put( daoUtil.getInt( 1 ), daoUtil.getString( 2 ) );
+        }
+
+        daoUtil.free(  );
+
+        return mapGuids;
+    }
+}
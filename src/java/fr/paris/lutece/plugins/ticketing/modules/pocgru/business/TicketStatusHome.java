@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.business;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.TicketingPocGruPlugin;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+
+import java.sql.Timestamp;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class updates the status of tickets. Only the status columns are
+ * written, so that a change made to a ticket during its send is not lost.
+ */
+public final class TicketStatusHome
+{
+    // Static variable pointed at the DAO instance
+    private static ITicketStatusDAO _dao = (ITicketStatusDAO) SpringContextService.getBean( "ticketing-pocgru.ticketStatusDAO" );
+    private static Plugin _plugin = TicketingPocGruPlugin.getTicketingPlugin(  );
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private TicketStatusHome(  )
+    {
+    }
+
+    /**
+     * Update the status of a ticket
+     * @param nIdTicket the ticket id
+     * @param nStatus the status
+     * @param strStatusText the text of the status
+     */
+    public static void updateStatus( int nIdTicket, int nStatus, String strStatusText )
+    {
+        _dao.storeStatus( nIdTicket, nStatus, strStatusText, _plugin );
+    }
+
+    /**
+     * Update the status of several tickets with the same status, with one
+     * statement for up to 500 tickets
+     * @param listIdTickets the ticket ids
+     * @param nStatus the status
+     * @param strStatusText the text of the status
+     */
+    public static void updateStatuses( List<Integer> listIdTickets, int nStatus, String strStatusText )
+    {
+        if ( !listIdTickets.isEmpty(  ) )
+        {
+            _dao.storeStatuses( listIdTickets, nStatus, strStatusText, _plugin );
+        }
+    }
+
+    /**
+     * Find the tickets with the specified status created during a period
+     * @param nStatus the status
+     * @param strStatusText the text of the status
+     * @param dateFrom the start of the period, included
+     * @param dateTo the end of the period, excluded
+     * @return the user guids of the tickets, by ticket id, in the order of
+     *         the ids
+     */
+    public static Map<Integer, String> findGuidsByStatus( int nStatus, String strStatusText, Timestamp dateFrom,
+        Timestamp dateTo )
+    {
+        return _dao.selectGuidsByStatus( nStatus, strStatusText, dateFrom, dateTo, _plugin );
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+
+/**
+ * This class encodes binary data in Base64 directly to a writer, chunk by
+ * chunk, so that neither the whole encoded text nor a copy of the data is
+ * held in memory. The output is the same as the one of the xerces encoder :
+ * standard alphabet, padding, no line break.
+ */
+public final class Base64StreamEncoder
+{
+    // Constants
+    private static final char [] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray(  );
+    private static final char PADDING = '=';
+    private static final int CHUNK_GROUPS = 1024;
+    private static final int BYTES_PER_GROUP = 3;
+    private static final int CHARS_PER_GROUP = 4;
+    private static final int MASK_6_BITS = 0x3F;
+    private static final int MASK_8_BITS = 0xFF;
+
+    /**
+     * Private constructor - this class need not be instantiated
+     */
+    private Base64StreamEncoder(  )
+    {
+    }
+
+    /**
+     * Encodes the content of a stream. The stream is read until its end but
+     * is not closed.
+     *
+     * @param inputStream
+     *            the stream containing the data to encode
+     * @param writer
+     *            the writer receiving the encoded text
+     * @return the number of bytes encoded
+     * @throws IOException
+     *             if an error occurs while reading or writing
+     */
+    public static long encode( InputStream inputStream, Writer writer )
+        throws IOException
+    {
+        byte [] buffer = new byte[CHUNK_GROUPS * BYTES_PER_GROUP];
+        char [] chars = new char[CHUNK_GROUPS * CHARS_PER_GROUP];
+        long lTotal = 0L;
+        int nLength = 0;
+        int nRead;
+
+        while ( ( nRead = inputStream.read( buffer, nLength, buffer.length - nLength ) ) != -1 )
+        {
+            nLength += nRead;
+            lTotal += nRead;
+
+            if ( nLength == buffer.length )
+            {
+                writer.write( chars, 0, encodeChunk( buffer, nLength, chars ) );
+                nLength = 0;
+            }
+        }
+
+        if ( nLength > 0 )
+        {
+            writer.write( chars, 0, encodeChunk( buffer, nLength, chars ) );
+        }
+
+        return lTotal;
+    }
+
+    /**
+     * Encodes a chunk of data. Only the last chunk may have a length which is
+     * not a multiple of 3.
+     *
+     * @param buffer
+     *            the data
+     * @param nLength
+     *            the length of the data
+     * @param chars
+     *            the buffer receiving the encoded text
+     * @return the number of encoded characters
+     */
+    private static int encodeChunk( byte [] buffer, int nLength, char [] chars )
+    {
+        int nFullGroupsLength = nLength - ( nLength % BYTES_PER_GROUP );
+        int nChars = 0;
+        int i = 0;
+
+        for ( ; i < nFullGroupsLength; i += BYTES_PER_GROUP )
+        {
+            int nGroup = ( ( buffer[i] & MASK_8_BITS ) << 16 ) | ( ( buffer[i + 1] & MASK_8_BITS ) << 8 ) |
+                ( buffer[i + 2] & MASK_8_BITS );
+            chars[nChars++] = ALPHABET[( nGroup >> 18 ) & MASK_6_BITS];
+            chars[nChars++] = ALPHABET[( nGroup >> 12 ) & MASK_6_BITS];
+            chars[nChars++] = ALPHABET[( nGroup >> 6 ) & MASK_6_BITS];
+            chars[nChars++] = ALPHABET[nGroup & MASK_6_BITS];
+        }
+
+        int nRemaining = nLength - nFullGroupsLength;
+
+        if ( nRemaining > 0 )
+        {
+            int nGroup = ( buffer[i] & MASK_8_BITS ) << 16;
+
+            if ( nRemaining == 2 )
+            {
+                nGroup |= ( ( buffer[i + 1] & MASK_8_BITS ) << 8 );
+            }
+
+            chars[nChars++] = ALPHABET[( nGroup >> 18 ) & MASK_6_BITS];
+            chars[nChars++] = ALPHABET[( nGroup >> 12 ) & MASK_6_BITS];
+            chars[nChars++] = ( nRemaining == 2 ) ? ALPHABET[( nGroup >> 6 ) & MASK_6_BITS] : PADDING;
+            chars[nChars++] = PADDING;
+        }
+
+        return nChars;
+    }
+}
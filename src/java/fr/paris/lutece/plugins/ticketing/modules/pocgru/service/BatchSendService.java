@@ -0,0 +1,587 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.TicketProjectionHome;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.text.MessageFormat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This service groups the tickets to send by company. A batch is sent when it
+ * reaches the maximum size, or when its oldest ticket has been waiting for the
+ * duration of the window. The batches are sent by a pool of workers, the
+ * batches of a company one after the other so that a slow end point only
+ * delays its own company.
+ * <br>
+ * The pending batches are kept in memory. The batches which cannot be sent by
+ * the workers (all the workers are busy and the queue is full, or the service
+ * is stopping) are moved to the outbox, which sends them later : the workflow
+ * thread never sends a batch itself, and a stop does not drop the tickets
+ * waiting for their batch.
+ */
+public final class BatchSendService
+{
+    // Properties
+    private static final String PROPERTY_BATCH_SIZE = "ticketing-pocgru.batch.size";
+    private static final String PROPERTY_BATCH_WINDOW = "ticketing-pocgru.batch.window";
+    private static final String PROPERTY_BATCH_WORKERS = "ticketing-pocgru.batch.workers";
+    private static final String PROPERTY_BATCH_QUEUE_SIZE = "ticketing-pocgru.batch.queueSize";
+    private static final String PROPERTY_BATCH_SHUTDOWN_TIMEOUT = "ticketing-pocgru.batch.shutdownTimeout";
+
+    // Other constants
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_BATCH_WINDOW = 5000;
+    private static final int DEFAULT_BATCH_WORKERS = 4;
+    private static final int DEFAULT_BATCH_QUEUE_SIZE = 100;
+    private static final int DEFAULT_BATCH_SHUTDOWN_TIMEOUT = 30000;
+    private static final String THREAD_NAME = "ticketing-pocgru-batch";
+    private static final String THREAD_NAME_PREFIX = "ticketing-pocgru-batch-";
+    private static final String LOG_SERVICE_NAME = " - BatchSendService - ";
+    private static final String LOG_SEND_ERROR = "Error when sending a batch of tickets : ";
+    private static final String LOG_REJECTED = "Batch workers busy or stopped, the batches of {0} are moved to the outbox";
+    private static final String LOG_OUTBOX_ERROR = "Error when moving the ticket {0} to the outbox, it is not sent : ";
+    private static final String LOG_SHUTDOWN = "Batch service stopped, batches not sent moved to the outbox : ";
+    private static BatchSendService _singleton = new BatchSendService(  );
+
+    // Variables
+    private final Map<String, PendingBatch> _mapPendingBatches = new HashMap<String, PendingBatch>(  );
+    private final Map<String, LinkedList<PendingBatch>> _mapLanes = new HashMap<String, LinkedList<PendingBatch>>(  );
+    private final int _nBatchSize;
+    private final long _lBatchWindow;
+    private final int _nWorkers;
+    private final int _nQueueSize;
+    private final long _lShutdownTimeout;
+    private ScheduledExecutorService _scheduler;
+    private ThreadPoolExecutor _executor;
+    private boolean _bShutdown;
+
+    /**
+     * Constructor
+     */
+    private BatchSendService(  )
+    {
+        _nBatchSize = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE );
+        _lBatchWindow = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_WINDOW, DEFAULT_BATCH_WINDOW );
+        _nWorkers = Math.max( AppPropertiesService.getPropertyInt( PROPERTY_BATCH_WORKERS, DEFAULT_BATCH_WORKERS ), 1 );
+        _nQueueSize = Math.max( AppPropertiesService.getPropertyInt( PROPERTY_BATCH_QUEUE_SIZE,
+                    DEFAULT_BATCH_QUEUE_SIZE ), 1 );
+        _lShutdownTimeout = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SHUTDOWN_TIMEOUT,
+                DEFAULT_BATCH_SHUTDOWN_TIMEOUT );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static BatchSendService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Adds a ticket to the batch of its company
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     */
+    public void add( int nIdTicket, int nIdResourceHistory )
+    {
+        String strGuid = TicketProjectionHome.findGuid( nIdTicket );
+
+        if ( strGuid == null )
+        {
+            return;
+        }
+
+        String strCompany = CompanyResolutionService.getInstance(  ).getCompany( strGuid );
+
+        if ( strCompany == null )
+        {
+            return;
+        }
+
+        PendingBatch batchToSend = null;
+
+        synchronized ( _mapPendingBatches )
+        {
+            if ( _bShutdown )
+            {
+                // No batch is sent any more, the ticket is sent from the outbox
+                moveToOutbox( nIdTicket, nIdResourceHistory );
+
+                return;
+            }
+
+            startExecutor(  );
+
+            PendingBatch batch = _mapPendingBatches.get( strCompany );
+
+            if ( batch == null )
+            {
+                batch = new PendingBatch( strCompany );
+                _mapPendingBatches.put( strCompany, batch );
+            }
+
+            batch.add( nIdTicket, nIdResourceHistory );
+
+            if ( batch.size(  ) >= _nBatchSize )
+            {
+                _mapPendingBatches.remove( strCompany );
+                batchToSend = batch;
+            }
+        }
+
+        if ( batchToSend != null )
+        {
+            submit( batchToSend );
+        }
+    }
+
+    /**
+     * Sends all the pending batches, even if they are not full, waits for the
+     * end of the sends within the limit of the shutdown timeout and stops the
+     * service. The batches not sent in time are moved to the outbox.
+     */
+    public void shutdown(  )
+    {
+        List<PendingBatch> listBatches;
+        ScheduledExecutorService scheduler;
+        ThreadPoolExecutor executor;
+
+        synchronized ( _mapPendingBatches )
+        {
+            listBatches = new ArrayList<PendingBatch>( _mapPendingBatches.values(  ) );
+            _mapPendingBatches.clear(  );
+            _bShutdown = true;
+            scheduler = _scheduler;
+            executor = _executor;
+        }
+
+        if ( scheduler == null )
+        {
+            return;
+        }
+
+        scheduler.shutdown(  );
+
+        for ( PendingBatch batch : listBatches )
+        {
+            submit( batch );
+        }
+
+        executor.shutdown(  );
+
+        try
+        {
+            if ( executor.awaitTermination( _lShutdownTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                return;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+
+        // The lanes not started are returned, the lanes being sent stop after their current batch
+        executor.shutdownNow(  );
+
+        List<PendingBatch> listBatchesNotSent = new ArrayList<PendingBatch>(  );
+
+        synchronized ( _mapLanes )
+        {
+            for ( LinkedList<PendingBatch> lane : _mapLanes.values(  ) )
+            {
+                listBatchesNotSent.addAll( lane );
+                lane.clear(  );
+            }
+        }
+
+        for ( PendingBatch batch : listBatchesNotSent )
+        {
+            moveToOutbox( batch );
+        }
+
+        AppLogService.error( LOG_SERVICE_NAME + LOG_SHUTDOWN + listBatchesNotSent.size(  ) );
+    }
+
+    /**
+     * Hands a batch to the workers. The batch is queued behind the batches of
+     * its company being sent, if any, so that a company never has more than
+     * one batch in flight.
+     *
+     * @param batch
+     *            the batch to send
+     */
+    private void submit( PendingBatch batch )
+    {
+        String strCompany = batch.getCompany(  );
+
+        synchronized ( _mapLanes )
+        {
+            LinkedList<PendingBatch> lane = _mapLanes.get( strCompany );
+
+            if ( lane != null )
+            {
+                lane.add( batch );
+
+                return;
+            }
+
+            lane = new LinkedList<PendingBatch>(  );
+            lane.add( batch );
+            _mapLanes.put( strCompany, lane );
+        }
+
+        Runnable runnable = new SendLaneRunnable( strCompany );
+
+        try
+        {
+            _executor.execute( runnable );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // The service is stopping or all the workers are busy : the lane is not sent by the workflow thread
+            AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_REJECTED, strCompany ) );
+
+            List<PendingBatch> listBatches;
+
+            synchronized ( _mapLanes )
+            {
+                listBatches = _mapLanes.remove( strCompany );
+            }
+
+            if ( listBatches != null )
+            {
+                for ( PendingBatch batchRejected : listBatches )
+                {
+                    moveToOutbox( batchRejected );
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the tickets of a batch to the outbox
+     *
+     * @param batch
+     *            the batch
+     */
+    private static void moveToOutbox( PendingBatch batch )
+    {
+        for ( Map.Entry<Integer, Integer> idResourceHistory : batch.getIdResourceHistories(  ).entrySet(  ) )
+        {
+            moveToOutbox( idResourceHistory.getKey(  ), idResourceHistory.getValue(  ) );
+        }
+    }
+
+    /**
+     * Moves a ticket to the outbox
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     */
+    private static void moveToOutbox( int nIdTicket, int nIdResourceHistory )
+    {
+        try
+        {
+            OutboxService.getInstance(  ).enqueue( nIdTicket, nIdResourceHistory );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_OUTBOX_ERROR, nIdTicket ) +
+                e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Gives the next batch of a company to send, and closes the lane of the
+     * company if there is none
+     *
+     * @param strCompany
+     *            the company
+     * @return the next batch, or {@code null} if there is none
+     */
+    private PendingBatch nextBatch( String strCompany )
+    {
+        synchronized ( _mapLanes )
+        {
+            LinkedList<PendingBatch> lane = _mapLanes.get( strCompany );
+            PendingBatch batch = ( lane != null ) ? lane.poll(  ) : null;
+
+            if ( batch == null )
+            {
+                _mapLanes.remove( strCompany );
+            }
+
+            return batch;
+        }
+    }
+
+    /**
+     * Starts the threads sending the batches, if they are not started yet.
+     * Must be called with the lock on the pending batches.
+     */
+    private void startExecutor(  )
+    {
+        if ( _executor == null )
+        {
+            _executor = new ThreadPoolExecutor( _nWorkers, _nWorkers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>( _nQueueSize ), new BatchThreadFactory(  ) );
+            _scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(  )
+                    {
+                        @Override
+                        public Thread newThread( Runnable runnable )
+                        {
+                            Thread thread = new Thread( runnable, THREAD_NAME );
+                            thread.setDaemon( true );
+
+                            return thread;
+                        }
+                    } );
+            _scheduler.scheduleWithFixedDelay( new Runnable(  )
+                {
+                    @Override
+                    public void run(  )
+                    {
+                        sendExpiredBatches(  );
+                    }
+                }, _lBatchWindow, Math.max( _lBatchWindow / 2, 1L ), TimeUnit.MILLISECONDS );
+        }
+    }
+
+    /**
+     * Hands to the workers the batches whose oldest ticket has been waiting
+     * for the duration of the window
+     */
+    private void sendExpiredBatches(  )
+    {
+        List<PendingBatch> listBatches = new ArrayList<PendingBatch>(  );
+        long lNow = System.currentTimeMillis(  );
+
+        synchronized ( _mapPendingBatches )
+        {
+            Iterator<PendingBatch> iterator = _mapPendingBatches.values(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                PendingBatch batch = iterator.next(  );
+
+                if ( ( lNow - batch.getCreationTime(  ) ) >= _lBatchWindow )
+                {
+                    iterator.remove(  );
+                    listBatches.add( batch );
+                }
+            }
+        }
+
+        for ( PendingBatch batch : listBatches )
+        {
+            submit( batch );
+        }
+    }
+
+    /**
+     * This class represents the tickets of a company waiting to be sent
+     *
+     */
+    private static final class PendingBatch
+    {
+        private final String _strCompany;
+        private final long _lCreationTime;
+        private final Map<Integer, Integer> _mapIdResourceHistories = new LinkedHashMap<Integer, Integer>(  );
+
+        /**
+         * Constructor
+         *
+         * @param strCompany
+         *            the company
+         */
+        PendingBatch( String strCompany )
+        {
+            _strCompany = strCompany;
+            _lCreationTime = System.currentTimeMillis(  );
+        }
+
+        /**
+         * Adds a ticket to the batch. A ticket already in the batch is not
+         * added twice.
+         *
+         * @param nIdTicket
+         *            the id of the ticket
+         * @param nIdResourceHistory
+         *            the id of the resource history of the action sending
+         *            the ticket
+         */
+        void add( int nIdTicket, int nIdResourceHistory )
+        {
+            if ( !_mapIdResourceHistories.containsKey( nIdTicket ) )
+            {
+                _mapIdResourceHistories.put( nIdTicket, nIdResourceHistory );
+            }
+        }
+
+        /**
+         * Gives the number of tickets in the batch
+         *
+         * @return the number of tickets
+         */
+        int size(  )
+        {
+            return _mapIdResourceHistories.size(  );
+        }
+
+        /**
+         * Gives the company
+         *
+         * @return the company
+         */
+        String getCompany(  )
+        {
+            return _strCompany;
+        }
+
+        /**
+         * Gives the creation time of the batch
+         *
+         * @return the creation time in milliseconds
+         */
+        long getCreationTime(  )
+        {
+            return _lCreationTime;
+        }
+
+        /**
+         * Gives the ids of the resource histories by id of ticket, in the
+         * order the tickets have been added
+         *
+         * @return the ids of the resource histories by id of ticket
+         */
+        Map<Integer, Integer> getIdResourceHistories(  )
+        {
+            return _mapIdResourceHistories;
+        }
+    }
+
+    /**
+     * This class sends the batches of a company one after the other, until
+     * its lane is empty
+     *
+     */
+    private final class SendLaneRunnable implements Runnable
+    {
+        private final String _strCompany;
+
+        /**
+         * Constructor
+         *
+         * @param strCompany
+         *            the company whose batches are sent
+         */
+        SendLaneRunnable( String strCompany )
+        {
+            _strCompany = strCompany;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            PendingBatch batch = nextBatch( _strCompany );
+
+            while ( batch != null )
+            {
+                try
+                {
+                    TicketSendService.getInstance(  ).sendBatch( _strCompany, batch.getIdResourceHistories(  ) );
+                }
+                catch ( RuntimeException e )
+                {
+                    AppLogService.error( LOG_SERVICE_NAME + LOG_SEND_ERROR + e.getMessage(  ), e );
+                }
+
+                batch = nextBatch( _strCompany );
+            }
+        }
+    }
+
+    /**
+     * This class creates the worker threads
+     *
+     */
+    private static final class BatchThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _nThreadNumber = new AtomicInteger(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadNumber.incrementAndGet(  ) );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
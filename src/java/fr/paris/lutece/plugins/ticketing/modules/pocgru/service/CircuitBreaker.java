@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+
+/**
+ * This class represents a circuit breaker protecting an end point. After a
+ * number of consecutive failures, the circuit is open and the sends fail
+ * immediately. Once the open duration has elapsed, one send is allowed to
+ * test the end point : the circuit is closed again if it succeeds, and opened
+ * again otherwise.
+ */
+public class CircuitBreaker
+{
+    /**
+     * The states of the circuit
+     */
+    public enum State
+    {
+        CLOSED,
+        OPEN,
+        HALF_OPEN;
+    }
+
+    // Variables
+    private final int _nFailureThreshold;
+    private final long _lOpenDuration;
+    private State _state = State.CLOSED;
+    private int _nConsecutiveFailures;
+    private long _lOpeningTime;
+
+    /**
+     * Constructor
+     *
+     * @param nFailureThreshold
+     *            the number of consecutive failures which opens the circuit
+     * @param lOpenDuration
+     *            the time in milliseconds during which the circuit stays open
+     */
+    public CircuitBreaker( int nFailureThreshold, long lOpenDuration )
+    {
+        _nFailureThreshold = nFailureThreshold;
+        _lOpenDuration = lOpenDuration;
+    }
+
+    /**
+     * Tests if a send is allowed
+     *
+     * @return {@code true} if the send is allowed, {@code false} if it must
+     *         fail immediately
+     */
+    public synchronized boolean allowRequest(  )
+    {
+        switch ( _state )
+        {
+            case CLOSED:
+                return true;
+
+            case OPEN:
+
+                if ( System.currentTimeMillis(  ) >= ( _lOpeningTime + _lOpenDuration ) )
+                {
+                    // Lets one send test the end point
+                    _state = State.HALF_OPEN;
+
+                    return true;
+                }
+
+                return false;
+
+            default:
+                // A test is already in progress
+                return false;
+        }
+    }
+
+    /**
+     * Records a successful send
+     */
+    public synchronized void recordSuccess(  )
+    {
+        _nConsecutiveFailures = 0;
+        _state = State.CLOSED;
+    }
+
+    /**
+     * Records a send which neither proves nor disproves that the end point
+     * works, such as a rejected ticket : the consecutive failures are kept,
+     * and a test in progress ends with the circuit open again
+     */
+    public synchronized void recordInconclusive(  )
+    {
+        if ( _state == State.HALF_OPEN )
+        {
+            _state = State.OPEN;
+            _lOpeningTime = System.currentTimeMillis(  );
+        }
+    }
+
+    /**
+     * Records a failed send
+     */
+    public synchronized void recordFailure(  )
+    {
+        _nConsecutiveFailures++;
+
+        if ( ( _state == State.HALF_OPEN ) || ( _nConsecutiveFailures >= _nFailureThreshold ) )
+        {
+            _state = State.OPEN;
+            _lOpeningTime = System.currentTimeMillis(  );
+        }
+    }
+
+    /**
+     * Gives the state of the circuit
+     *
+     * @return the state
+     */
+    public synchronized State getState(  )
+    {
+        return _state;
+    }
+}
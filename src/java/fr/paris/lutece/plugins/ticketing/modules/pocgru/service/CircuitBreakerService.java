@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * This service provides the circuit breaker of the end point of each company,
+ * so that an unavailable end point does not slow down the sends to the others
+ */
+public final class CircuitBreakerService
+{
+    private static CircuitBreakerService _singleton = new CircuitBreakerService(  );
+
+    // Variables
+    private final ConcurrentMap<String, CircuitBreaker> _mapCircuitBreakers = new ConcurrentHashMap<String, CircuitBreaker>(  );
+
+    /**
+     * Constructor
+     */
+    private CircuitBreakerService(  )
+    {
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static CircuitBreakerService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives the circuit breaker of the end point of the specified route
+     *
+     * @param route
+     *            the route
+     * @return the circuit breaker
+     */
+    public CircuitBreaker getCircuitBreaker( CompanyRoute route )
+    {
+        CircuitBreaker circuitBreaker = _mapCircuitBreakers.get( route.getCompany(  ) );
+
+        if ( circuitBreaker == null )
+        {
+            CircuitBreaker newCircuitBreaker = new CircuitBreaker( route.getFailureThreshold(  ),
+                    route.getOpenDuration(  ) );
+            circuitBreaker = _mapCircuitBreakers.putIfAbsent( route.getCompany(  ), newCircuitBreaker );
+
+            if ( circuitBreaker == null )
+            {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+
+        return circuitBreaker;
+    }
+
+    /**
+     * Finds the circuit breaker of the specified company, without creating it
+     *
+     * @param strCompany
+     *            the company
+     * @return the circuit breaker, or {@code null} if there has been no send
+     *         to the company since its limits were loaded
+     */
+    public CircuitBreaker findCircuitBreaker( String strCompany )
+    {
+        return _mapCircuitBreakers.get( strCompany );
+    }
+
+    /**
+     * Removes the circuit breaker of the specified company. A new one is
+     * created on the next send, with the current limits of the company.
+     *
+     * @param strCompany
+     *            the company
+     */
+    public void remove( String strCompany )
+    {
+        _mapCircuitBreakers.remove( strCompany );
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+
+import net.sf.json.util.JSONUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+
+/**
+ * A compact JSON payload format, for the end points receiving a large number
+ * of tickets : each ticket is a flat object with short keys, whose
+ * {@code null} members are omitted, and each extra field is an array rather
+ * than an object :
+ * <ul>
+ * <li>{@code [field, value]} for a value</li>
+ * <li>{@code [field, content, mimetype, filename]} for an attachment, the
+ * content being encoded in Base64</li>
+ * <li>{@code [field, null, mimetype, filename, reference, size]} for an
+ * attachment sent by reference</li>
+ * </ul>
+ * A batch is an array of tickets. The keys and the names of the extra fields
+ * are quoted once, when the plan is compiled.
+ */
+public class CompactPayloadFormat implements IPayloadFormat
+{
+    /**
+     * Name of the format
+     */
+    public static final String NAME = "compact";
+
+    // Constants for JSON message
+    private static final String KEY_USER_ID = "u";
+    private static final String KEY_USER_TITLE = "ti";
+    private static final String KEY_USER_FIRST_NAME = "fn";
+    private static final String KEY_USER_LAST_NAME = "ln";
+    private static final String KEY_USER_EMAIL = "em";
+    private static final String KEY_USER_FIXED_PHONE_NUMBER = "fp";
+    private static final String KEY_USER_MOBILE_PHONE_NUMBER = "mp";
+    private static final String KEY_TICKET_TYPE = "ty";
+    private static final String KEY_TICKET_DOMAIN = "do";
+    private static final String KEY_TICKET_CATEGORY = "ca";
+    private static final String KEY_TICKET_CONTACT_MODE = "cm";
+    private static final String KEY_TICKET_COMMENT = "co";
+    private static final String KEY_EXTRA_FIELDS = "x";
+
+    // Other constants
+    private static final String CHARSET = "UTF-8";
+    private static final String NULL = "null";
+    private static final String EMPTY_FIELD = JSONUtils.quote( "" );
+    private static final char OBJECT_START = '{';
+    private static final char OBJECT_END = '}';
+    private static final char ARRAY_START = '[';
+    private static final char ARRAY_END = ']';
+    private static final char SEPARATOR = ',';
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName(  )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IPayloadPlan compile( PayloadMapping mapping )
+    {
+        Map<String, String> mapQuotedFieldNames = new HashMap<String, String>(  );
+
+        for ( Map.Entry<String, String> fieldName : mapping.getFieldNames(  ).entrySet(  ) )
+        {
+            mapQuotedFieldNames.put( fieldName.getKey(  ), JSONUtils.quote( fieldName.getValue(  ) ) );
+        }
+
+        Member[] members = new Member[]
+            {
+                new Member( KEY_USER_ID )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getGuid(  );
+                    }
+                }, new Member( KEY_USER_TITLE )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getIdUserTitle(  );
+                    }
+                }, new Member( KEY_USER_FIRST_NAME )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getFirstname(  );
+                    }
+                }, new Member( KEY_USER_LAST_NAME )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getLastname(  );
+                    }
+                }, new Member( KEY_USER_EMAIL )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getEmail(  );
+                    }
+                }, new Member( KEY_USER_FIXED_PHONE_NUMBER )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getFixedPhoneNumber(  );
+                    }
+                }, new Member( KEY_USER_MOBILE_PHONE_NUMBER )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getMobilePhoneNumber(  );
+                    }
+                }, new Member( KEY_TICKET_TYPE )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getIdTicketType(  );
+                    }
+                }, new Member( KEY_TICKET_DOMAIN )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getIdTicketDomain(  );
+                    }
+                }, new Member( KEY_TICKET_CATEGORY )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getIdTicketCategory(  );
+                    }
+                }, new Member( KEY_TICKET_CONTACT_MODE )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getIdContactMode(  );
+                    }
+                }, new Member( KEY_TICKET_COMMENT )
+                {
+                    @Override
+                    Object get( Ticket ticket )
+                    {
+                        return ticket.getTicketComment(  );
+                    }
+                }
+            };
+
+        return new CompactPayloadPlan( members, mapping.getAttachmentMaxSize(  ), mapping.isRejectOversized(  ),
+            mapQuotedFieldNames );
+    }
+
+    /**
+     * A member of the ticket object, whose key is quoted once
+     */
+    private abstract static class Member
+    {
+        private final String _strQuotedKey;
+
+        /**
+         * Constructor
+         *
+         * @param strKey
+         *            the key
+         */
+        Member( String strKey )
+        {
+            _strQuotedKey = JSONUtils.quote( strKey ) + ':';
+        }
+
+        /**
+         * Gives the quoted key followed by the key separator
+         *
+         * @return the quoted key
+         */
+        String getQuotedKey(  )
+        {
+            return _strQuotedKey;
+        }
+
+        /**
+         * Gives the value of the member for a ticket
+         *
+         * @param ticket
+         *            the ticket
+         * @return the value, or {@code null} to omit the member
+         */
+        abstract Object get( Ticket ticket );
+    }
+
+    /**
+     * The plan of the compact format for a company
+     */
+    private static final class CompactPayloadPlan implements IPayloadPlan
+    {
+        private final Member[] _members;
+        private final String _strQuotedExtraFieldsKey;
+        private final long _lAttachmentMaxSize;
+        private final boolean _bRejectOversized;
+        private final Map<String, String> _mapQuotedFieldNames;
+
+        /**
+         * Constructor
+         *
+         * @param members
+         *            the members of the ticket object
+         * @param lAttachmentMaxSize
+         *            the maximum size of an attachment sent with a ticket
+         * @param bRejectOversized
+         *            {@code true} if a ticket with a larger attachment is
+         *            rejected
+         * @param mapQuotedFieldNames
+         *            the quoted names of the renamed extra fields, by code
+         */
+        CompactPayloadPlan( Member[] members, long lAttachmentMaxSize, boolean bRejectOversized,
+            Map<String, String> mapQuotedFieldNames )
+        {
+            _members = members;
+            _strQuotedExtraFieldsKey = JSONUtils.quote( KEY_EXTRA_FIELDS ) + ':';
+            _lAttachmentMaxSize = lAttachmentMaxSize;
+            _bRejectOversized = bRejectOversized;
+            _mapQuotedFieldNames = mapQuotedFieldNames;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getContentType(  )
+        {
+            return MediaType.APPLICATION_JSON;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getAttachmentMaxSize(  )
+        {
+            return _lAttachmentMaxSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isWritable( Ticket ticket )
+        {
+            return TicketJsonWriter.isWritable( ticket, _lAttachmentMaxSize, _bRejectOversized );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long estimateSize( Ticket ticket )
+        {
+            return TicketJsonWriter.estimateSize( ticket, _lAttachmentMaxSize );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long estimateBatchSize( List<Ticket> listTickets )
+        {
+            return TicketJsonWriter.estimateBatchSize( listTickets, _lAttachmentMaxSize );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( Ticket ticket, OutputStream outputStream )
+            throws IOException
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( outputStream, CHARSET ) );
+            writeTicket( ticket, writer );
+            writer.flush(  );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeBatch( List<Ticket> listTickets, OutputStream outputStream )
+            throws IOException
+        {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( outputStream, CHARSET ) );
+            writer.write( ARRAY_START );
+
+            for ( int i = 0; i < listTickets.size(  ); i++ )
+            {
+                if ( i > 0 )
+                {
+                    writer.write( SEPARATOR );
+                }
+
+                writeTicket( listTickets.get( i ), writer );
+            }
+
+            writer.write( ARRAY_END );
+            writer.flush(  );
+        }
+
+        /**
+         * Writes the ticket object
+         *
+         * @param ticket
+         *            the ticket
+         * @param writer
+         *            the writer
+         * @throws IOException
+         *             if an error occurs while writing
+         */
+        private void writeTicket( Ticket ticket, Writer writer )
+            throws IOException
+        {
+            writer.write( OBJECT_START );
+
+            for ( Member member : _members )
+            {
+                Object value = member.get( ticket );
+
+                if ( value != null )
+                {
+                    writer.write( member.getQuotedKey(  ) );
+                    TicketJsonWriter.writeValue( value, writer );
+                    writer.write( SEPARATOR );
+                }
+            }
+
+            writer.write( _strQuotedExtraFieldsKey );
+            writer.write( ARRAY_START );
+
+            List<Response> listExtraFields = ticket.getListResponse(  );
+
+            if ( listExtraFields != null )
+            {
+                for ( int i = 0; i < listExtraFields.size(  ); i++ )
+                {
+                    if ( i > 0 )
+                    {
+                        writer.write( SEPARATOR );
+                    }
+
+                    writeExtraField( listExtraFields.get( i ), writer );
+                }
+            }
+
+            writer.write( ARRAY_END );
+            writer.write( OBJECT_END );
+        }
+
+        /**
+         * Writes an extra field array
+         *
+         * @param extraField
+         *            the extra field
+         * @param writer
+         *            the writer
+         * @throws IOException
+         *             if an error occurs while writing
+         */
+        private void writeExtraField( Response extraField, Writer writer )
+            throws IOException
+        {
+            writer.write( ARRAY_START );
+            writer.write( getQuotedFieldName( extraField.getEntry(  ) ) );
+            writer.write( SEPARATOR );
+
+            File file = extraField.getFile(  );
+
+            if ( extraField.getField(  ) != null )
+            {
+                TicketJsonWriter.writeValue( extraField.getField(  ).getValue(  ), writer );
+            }
+            else if ( file != null )
+            {
+                long lSize = TicketJsonWriter.getAttachmentSize( file );
+                boolean bByReference = lSize > _lAttachmentMaxSize;
+
+                if ( bByReference )
+                {
+                    writer.write( NULL );
+                }
+                else if ( !TicketJsonWriter.writeAttachmentContent( file, writer ) )
+                {
+                    writer.write( NULL );
+                }
+
+                writer.write( SEPARATOR );
+                TicketJsonWriter.writeValue( file.getMimeType(  ), writer );
+                writer.write( SEPARATOR );
+                TicketJsonWriter.writeValue( file.getTitle(  ), writer );
+
+                if ( bByReference )
+                {
+                    writer.write( SEPARATOR );
+                    writer.write( String.valueOf( file.getIdFile(  ) ) );
+                    writer.write( SEPARATOR );
+                    writer.write( String.valueOf( lSize ) );
+                }
+            }
+            else
+            {
+                TicketJsonWriter.writeValue( extraField.getResponseValue(  ), writer );
+            }
+
+            writer.write( ARRAY_END );
+        }
+
+        /**
+         * Gives the quoted name of an extra field : the name configured for
+         * its code, otherwise its code
+         *
+         * @param entry
+         *            the entry of the extra field
+         * @return the quoted name
+         */
+        private String getQuotedFieldName( Entry entry )
+        {
+            if ( ( entry == null ) || ( entry.getCode(  ) == null ) )
+            {
+                return EMPTY_FIELD;
+            }
+
+            String strQuotedName = _mapQuotedFieldNames.get( entry.getCode(  ) );
+
+            return ( strQuotedName != null ) ? strQuotedName : JSONUtils.quote( entry.getCode(  ) );
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.ticketing.service.TicketingPocGruService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * This service caches the company of each user GUID, so that the company of a
+ * user sending several tickets is resolved only once. The GUIDs without
+ * company are cached too, for a shorter time.
+ * <ul>
+ * <li>an entry expires after its time to live</li>
+ * <li>when the cache is full, the expired entries are removed, then the
+ * entries which expire first until the cache is under its maximum size
+ * again</li>
+ * </ul>
+ * The cache is not LRU : reading an entry does not extend it, so the entries
+ * removed first are the users without company and the oldest ones.
+ * The cache is exposed as a JMX MBean, apart from the metrics of the sends.
+ */
+public final class CompanyResolutionService implements ICompanyResolver, CompanyCacheMXBean
+{
+    // Properties
+    private static final String PROPERTY_CACHE_MAX_SIZE = "ticketing-pocgru.companyCache.maxSize";
+    private static final String PROPERTY_CACHE_TIME_TO_LIVE = "ticketing-pocgru.companyCache.timeToLive";
+    private static final String PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE = "ticketing-pocgru.companyCache.negativeTimeToLive";
+
+    // Other constants
+    private static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+    private static final int DEFAULT_CACHE_TIME_TO_LIVE = 3600;
+    private static final int DEFAULT_CACHE_NEGATIVE_TIME_TO_LIVE = 60;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+    private static final int EVICTION_PERCENT = 10;
+    private static final int PERCENT = 100;
+    private static final String OBJECT_NAME = "fr.paris.lutece.plugins.ticketing.modules.pocgru:type=CompanyCache";
+    private static final String LOG_SERVICE_NAME = " - CompanyResolutionService - ";
+    private static final String LOG_REGISTRATION_ERROR = "Unable to register the MBean : ";
+    private static final Comparator<Map.Entry<String, CacheEntry>> EXPIRATION_ORDER = new Comparator<Map.Entry<String, CacheEntry>>(  )
+        {
+            @Override
+            public int compare( Map.Entry<String, CacheEntry> entry1, Map.Entry<String, CacheEntry> entry2 )
+            {
+                long lExpirationTime1 = entry1.getValue(  ).getExpirationTime(  );
+                long lExpirationTime2 = entry2.getValue(  ).getExpirationTime(  );
+
+                return ( lExpirationTime1 < lExpirationTime2 ) ? ( -1 ) : ( ( lExpirationTime1 == lExpirationTime2 ) ? 0 : 1 );
+            }
+        };
+
+    private static CompanyResolutionService _singleton = new CompanyResolutionService(  );
+
+    // Variables
+    private final ConcurrentMap<String, CacheEntry> _mapCompanies = new ConcurrentHashMap<String, CacheEntry>(  );
+    private final AtomicBoolean _bEvicting = new AtomicBoolean(  );
+    private final AtomicLong _lHits = new AtomicLong(  );
+    private final AtomicLong _lMisses = new AtomicLong(  );
+    private final AtomicLong _lEvictions = new AtomicLong(  );
+    private final int _nMaxSize;
+    private final long _lTimeToLive;
+    private final long _lNegativeTimeToLive;
+
+    /**
+     * Constructor
+     */
+    private CompanyResolutionService(  )
+    {
+        _nMaxSize = AppPropertiesService.getPropertyInt( PROPERTY_CACHE_MAX_SIZE, DEFAULT_CACHE_MAX_SIZE );
+        _lTimeToLive = AppPropertiesService.getPropertyInt( PROPERTY_CACHE_TIME_TO_LIVE, DEFAULT_CACHE_TIME_TO_LIVE ) * MILLISECONDS_PER_SECOND;
+        _lNegativeTimeToLive = AppPropertiesService.getPropertyInt( PROPERTY_CACHE_NEGATIVE_TIME_TO_LIVE,
+                DEFAULT_CACHE_NEGATIVE_TIME_TO_LIVE ) * MILLISECONDS_PER_SECOND;
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static CompanyResolutionService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server
+     */
+    public void register(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( !server.isRegistered( name ) )
+            {
+                server.registerMBean( this, name );
+            }
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_REGISTRATION_ERROR + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Unregisters the MBean from the platform MBean server
+     */
+    public void unregister(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_REGISTRATION_ERROR + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getCompany( String strGuid )
+    {
+        if ( ( strGuid == null ) || ( _nMaxSize <= 0 ) )
+        {
+            return TicketingPocGruService.getCompany( strGuid );
+        }
+
+        long lNow = System.currentTimeMillis(  );
+        CacheEntry entry = _mapCompanies.get( strGuid );
+
+        if ( ( entry != null ) && !entry.isExpired( lNow ) )
+        {
+            _lHits.incrementAndGet(  );
+
+            return entry.getCompany(  );
+        }
+
+        _lMisses.incrementAndGet(  );
+
+        String strCompany = TicketingPocGruService.getCompany( strGuid );
+        long lTimeToLive = ( strCompany != null ) ? _lTimeToLive : _lNegativeTimeToLive;
+        _mapCompanies.put( strGuid, new CacheEntry( strCompany, lNow + lTimeToLive ) );
+
+        if ( _mapCompanies.size(  ) > _nMaxSize )
+        {
+            evict( lNow );
+        }
+
+        return strCompany;
+    }
+
+    /**
+     * Removes the company of the specified user from the cache, for instance
+     * when the user has changed of company
+     *
+     * @param strGuid
+     *            the GUID of the user
+     */
+    public void invalidate( String strGuid )
+    {
+        _mapCompanies.remove( strGuid );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void invalidateAll(  )
+    {
+        _mapCompanies.clear(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getHits(  )
+    {
+        return _lHits.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getMisses(  )
+    {
+        return _lMisses.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEvictions(  )
+    {
+        return _lEvictions.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getSize(  )
+    {
+        return _mapCompanies.size(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetStatistics(  )
+    {
+        _lHits.set( 0L );
+        _lMisses.set( 0L );
+        _lEvictions.set( 0L );
+    }
+
+    /**
+     * Removes the expired entries, then the entries which expire first until
+     * the cache is under its maximum size. Only one thread evicts at a time, the others do
+     * not wait for it.
+     *
+     * @param lNow
+     *            the current time
+     */
+    private void evict( long lNow )
+    {
+        if ( !_bEvicting.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        try
+        {
+            int nTargetSize = _nMaxSize - ( ( _nMaxSize * EVICTION_PERCENT ) / PERCENT );
+            Iterator<CacheEntry> iterator = _mapCompanies.values(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                if ( iterator.next(  ).isExpired( lNow ) )
+                {
+                    iterator.remove(  );
+                    _lEvictions.incrementAndGet(  );
+                }
+            }
+
+            int nExcess = _mapCompanies.size(  ) - nTargetSize;
+
+            if ( nExcess > 0 )
+            {
+                List<Map.Entry<String, CacheEntry>> listEntries = new ArrayList<Map.Entry<String, CacheEntry>>( _mapCompanies.entrySet(  ) );
+                Collections.sort( listEntries, EXPIRATION_ORDER );
+
+                for ( int i = 0; ( i < nExcess ) && ( i < listEntries.size(  ) ); i++ )
+                {
+                    Map.Entry<String, CacheEntry> entry = listEntries.get( i );
+
+                    // An entry replaced in the meantime is kept
+                    if ( _mapCompanies.remove( entry.getKey(  ), entry.getValue(  ) ) )
+                    {
+                        _lEvictions.incrementAndGet(  );
+                    }
+                }
+            }
+        }
+        finally
+        {
+            _bEvicting.set( false );
+        }
+    }
+
+    /**
+     * This class represents the company of a user in the cache
+     *
+     */
+    private static final class CacheEntry
+    {
+        private final String _strCompany;
+        private final long _lExpirationTime;
+
+        /**
+         * Constructor
+         *
+         * @param strCompany
+         *            the company, or {@code null} if the user has no company
+         * @param lExpirationTime
+         *            the expiration time
+         */
+        CacheEntry( String strCompany, long lExpirationTime )
+        {
+            _strCompany = strCompany;
+            _lExpirationTime = lExpirationTime;
+        }
+
+        /**
+         * Gives the company
+         *
+         * @return the company
+         */
+        String getCompany(  )
+        {
+            return _strCompany;
+        }
+
+        /**
+         * Gives the expiration time
+         *
+         * @return the expiration time
+         */
+        long getExpirationTime(  )
+        {
+            return _lExpirationTime;
+        }
+
+        /**
+         * Tells whether the entry is expired
+         *
+         * @param lNow
+         *            the current time
+         * @return {@code true} if the entry is expired, {@code false}
+         *         otherwise
+         */
+        boolean isExpired( long lNow )
+        {
+            return lNow >= _lExpirationTime;
+        }
+    }
+}
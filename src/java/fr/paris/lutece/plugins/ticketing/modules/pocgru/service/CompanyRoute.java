@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+
+/**
+ * This class represents the route of the tickets of a company : its end
+ * points and its limits. A route is immutable.
+ */
+public final class CompanyRoute
+{
+    private final String _strCompany;
+    private final String _strEndpoint;
+    private final String _strBatchEndpoint;
+    private final int _nFailureThreshold;
+    private final long _lOpenDuration;
+    private final int _nRate;
+    private final int _nBurst;
+    private final int _nMaxInFlight;
+    private final long _lCompressionThreshold;
+    private final String _strPayloadFormat;
+    private final PayloadMapping _payloadMapping;
+    private final IPayloadPlan _payloadPlan;
+
+    /**
+     * Constructor
+     *
+     * @param strCompany
+     *            the company
+     * @param strEndpoint
+     *            the end point receiving one ticket
+     * @param strBatchEndpoint
+     *            the end point receiving several tickets, or {@code null}
+     * @param nFailureThreshold
+     *            the number of consecutive failures which opens the circuit
+     *            of the end point
+     * @param lOpenDuration
+     *            the time in milliseconds during which the circuit stays open
+     * @param nRate
+     *            the number of sends allowed per second, 0 for no limit
+     * @param nBurst
+     *            the number of sends allowed at once after an idle period
+     * @param nMaxInFlight
+     *            the number of sends allowed in progress, 0 for no limit
+     * @param lCompressionThreshold
+     *            the payload size in bytes above which the requests are
+     *            compressed, a negative value to never compress them
+     * @param strPayloadFormat
+     *            the name of the payload format
+     * @param payloadMapping
+     *            the mapping settings from which the payload plan is compiled
+     * @param payloadPlan
+     *            the plan writing the payloads
+     */
+    CompanyRoute( String strCompany, String strEndpoint, String strBatchEndpoint, int nFailureThreshold,
+        long lOpenDuration, int nRate, int nBurst, int nMaxInFlight, long lCompressionThreshold,
+        String strPayloadFormat, PayloadMapping payloadMapping, IPayloadPlan payloadPlan )
+    {
+        _strCompany = strCompany;
+        _strEndpoint = strEndpoint;
+        _strBatchEndpoint = strBatchEndpoint;
+        _nFailureThreshold = nFailureThreshold;
+        _lOpenDuration = lOpenDuration;
+        _nRate = nRate;
+        _nBurst = nBurst;
+        _nMaxInFlight = nMaxInFlight;
+        _lCompressionThreshold = lCompressionThreshold;
+        _strPayloadFormat = strPayloadFormat;
+        _payloadMapping = payloadMapping;
+        _payloadPlan = payloadPlan;
+    }
+
+    /**
+     * Gives the company
+     *
+     * @return the company
+     */
+    public String getCompany(  )
+    {
+        return _strCompany;
+    }
+
+    /**
+     * Gives the end point receiving one ticket
+     *
+     * @return the end point, or {@code null} if the company has only a batch
+     *         end point
+     */
+    public String getEndpoint(  )
+    {
+        return _strEndpoint;
+    }
+
+    /**
+     * Gives the end point receiving several tickets
+     *
+     * @return the batch end point, or {@code null} if the company has no batch
+     *         end point
+     */
+    public String getBatchEndpoint(  )
+    {
+        return _strBatchEndpoint;
+    }
+
+    /**
+     * Gives the number of consecutive failures which opens the circuit of the
+     * end point
+     *
+     * @return the failure threshold
+     */
+    public int getFailureThreshold(  )
+    {
+        return _nFailureThreshold;
+    }
+
+    /**
+     * Gives the time during which the circuit of the end point stays open
+     *
+     * @return the open duration in milliseconds
+     */
+    public long getOpenDuration(  )
+    {
+        return _lOpenDuration;
+    }
+
+    /**
+     * Gives the number of sends allowed per second to the end point
+     *
+     * @return the rate, 0 for no limit
+     */
+    public int getRate(  )
+    {
+        return _nRate;
+    }
+
+    /**
+     * Gives the number of sends allowed at once to the end point after an
+     * idle period
+     *
+     * @return the burst
+     */
+    public int getBurst(  )
+    {
+        return _nBurst;
+    }
+
+    /**
+     * Gives the number of sends allowed in progress to the end point
+     *
+     * @return the maximum number of sends in progress, 0 for no limit
+     */
+    public int getMaxInFlight(  )
+    {
+        return _nMaxInFlight;
+    }
+
+    /**
+     * Gives the payload size above which the requests to the end point are
+     * compressed
+     *
+     * @return the threshold in bytes, a negative value if the requests are
+     *         never compressed
+     */
+    public long getCompressionThreshold(  )
+    {
+        return _lCompressionThreshold;
+    }
+
+    /**
+     * Gives the name of the format of the payloads sent to the end point
+     *
+     * @return the name of the payload format
+     */
+    public String getPayloadFormat(  )
+    {
+        return _strPayloadFormat;
+    }
+
+    /**
+     * Gives the plan writing the payloads sent to the end point, compiled
+     * when the route was built
+     *
+     * @return the payload plan
+     */
+    public IPayloadPlan getPayloadPlan(  )
+    {
+        return _payloadPlan;
+    }
+
+    /**
+     * Tells whether a request to the end point must be compressed
+     *
+     * @param lPayloadSize
+     *            the estimated size of the payload in bytes
+     * @return {@code true} if the request must be compressed
+     */
+    public boolean isCompressed( long lPayloadSize )
+    {
+        return ( _lCompressionThreshold >= 0L ) && ( lPayloadSize > _lCompressionThreshold );
+    }
+
+    /**
+     * Tells whether the specified route has the same limits as this one
+     *
+     * @param route
+     *            the route
+     * @return {@code true} if the limits are the same, {@code false} otherwise
+     */
+    public boolean hasSameLimits( CompanyRoute route )
+    {
+        return ( route != null ) && ( route._nFailureThreshold == _nFailureThreshold ) &&
+        ( route._lOpenDuration == _lOpenDuration ) && ( route._nRate == _nRate ) && ( route._nBurst == _nBurst ) &&
+        ( route._nMaxInFlight == _nMaxInFlight );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object object )
+    {
+        if ( this == object )
+        {
+            return true;
+        }
+
+        if ( !( object instanceof CompanyRoute ) )
+        {
+            return false;
+        }
+
+        CompanyRoute route = (CompanyRoute) object;
+
+        return _strCompany.equals( route._strCompany ) && equals( _strEndpoint, route._strEndpoint ) &&
+        equals( _strBatchEndpoint, route._strBatchEndpoint ) && hasSameLimits( route ) &&
+        ( _lCompressionThreshold == route._lCompressionThreshold ) &&
+        equals( _strPayloadFormat, route._strPayloadFormat ) && _payloadMapping.equals( route._payloadMapping );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode(  )
+    {
+        return _strCompany.hashCode(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString(  )
+    {
+        return _strCompany + " -> " + _strEndpoint + ( ( _strBatchEndpoint != null ) ? ( ", batch " + _strBatchEndpoint ) : "" );
+    }
+
+    /**
+     * Compares two strings which may be {@code null}
+     *
+     * @param str1
+     *            the first string
+     * @param str2
+     *            the second string
+     * @return {@code true} if both are {@code null} or equal
+     */
+    static boolean equals( String str1, String str2 )
+    {
+        return ( str1 == null ) ? ( str2 == null ) : str1.equals( str2 );
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * This service holds the routing table of the sends. The table is built once
+ * from the properties, and replaced as a whole when the properties change, so
+ * that the end points can be changed without restarting the webapp.
+ */
+public final class EndpointRoutingService
+{
+    // Other constants
+    private static final String LOG_SERVICE_NAME = " - EndpointRoutingService - ";
+    private static final String LOG_ROUTE = "Route : ";
+    private static final String LOG_UNCHANGED = "Routing table unchanged";
+    private static final String LOG_RELOADED = "Routing table reloaded";
+    private static final String LOG_RELOAD_ERROR = "Error when reloading the routing table, the current one is kept : ";
+    private static final String LOG_SEPARATOR = "\n";
+    private static EndpointRoutingService _singleton = new EndpointRoutingService(  );
+
+    // Variables
+    private final AtomicReference<EndpointRoutingTable> _routingTable = new AtomicReference<EndpointRoutingTable>(  );
+
+    /**
+     * Constructor
+     */
+    private EndpointRoutingService(  )
+    {
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static EndpointRoutingService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives the current routing table
+     *
+     * @return the routing table
+     */
+    public EndpointRoutingTable getRoutingTable(  )
+    {
+        EndpointRoutingTable routingTable = _routingTable.get(  );
+
+        if ( routingTable == null )
+        {
+            EndpointRoutingTable newRoutingTable = EndpointRoutingTable.build(  );
+
+            if ( _routingTable.compareAndSet( null, newRoutingTable ) )
+            {
+                AppLogService.info( LOG_SERVICE_NAME + describe( newRoutingTable ) );
+            }
+
+            routingTable = _routingTable.get(  );
+        }
+
+        return routingTable;
+    }
+
+    /**
+     * Gives the route of the specified company
+     *
+     * @param strCompany
+     *            the company
+     * @return the route, or {@code null} if the company has no end point
+     */
+    public CompanyRoute getRoute( String strCompany )
+    {
+        return getRoutingTable(  ).getRoute( strCompany );
+    }
+
+    /**
+     * Builds a new routing table from the properties and replaces the current
+     * one if they differ. The token is evicted if the authentication settings
+     * have changed, and the circuit breakers and throttles of the companies
+     * whose limits have changed are recreated.
+     *
+     * @return the logs of the reload
+     */
+    public String reload(  )
+    {
+        EndpointRoutingTable newRoutingTable;
+
+        try
+        {
+            newRoutingTable = EndpointRoutingTable.build(  );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_RELOAD_ERROR + e.getMessage(  ), e );
+
+            return LOG_RELOAD_ERROR + e.getMessage(  );
+        }
+
+        EndpointRoutingTable oldRoutingTable = _routingTable.getAndSet( newRoutingTable );
+
+        if ( newRoutingTable.equals( oldRoutingTable ) )
+        {
+            return LOG_UNCHANGED;
+        }
+
+        if ( oldRoutingTable != null )
+        {
+            if ( !newRoutingTable.hasSameAuthentication( oldRoutingTable ) )
+            {
+                TokenService.getInstance(  ).evictAll(  );
+            }
+
+            for ( CompanyRoute oldRoute : oldRoutingTable.getRoutes(  ) )
+            {
+                if ( !oldRoute.hasSameLimits( newRoutingTable.getRoute( oldRoute.getCompany(  ) ) ) )
+                {
+                    CircuitBreakerService.getInstance(  ).remove( oldRoute.getCompany(  ) );
+                    ThrottleService.getInstance(  ).remove( oldRoute.getCompany(  ) );
+                }
+            }
+        }
+
+        String strLogs = LOG_RELOADED + LOG_SEPARATOR + describe( newRoutingTable );
+        AppLogService.info( LOG_SERVICE_NAME + strLogs );
+
+        return strLogs;
+    }
+
+    /**
+     * Describes the routes of a routing table
+     *
+     * @param routingTable
+     *            the routing table
+     * @return the description
+     */
+    private static String describe( EndpointRoutingTable routingTable )
+    {
+        StringBuilder sbLogs = new StringBuilder(  );
+
+        for ( CompanyRoute route : routingTable.getRoutes(  ) )
+        {
+            sbLogs.append( LOG_ROUTE ).append( route ).append( LOG_SEPARATOR );
+        }
+
+        return sbLogs.toString(  );
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * This class is the routing table of the sends : the route of each company and
+ * the settings of the authentication end point, read once from the
+ * properties. A table is immutable : it is replaced as a whole when the
+ * properties change.
+ */
+public final class EndpointRoutingTable
+{
+    // Properties
+    private static final String PROPERTY_REST_ENDPOINT_COMPANY = "ticketing-pocgru.rest.endpoint.company.";
+    private static final String PROPERTY_REST_ENDPOINT_BATCH_COMPANY = "ticketing-pocgru.rest.endpoint.batch.company.";
+    private static final String PROPERTY_REST_AUTHENTICATION_URL = "ticketing-pocgru.rest.authentication.url";
+    private static final String PROPERTY_REST_AUTHENTICATION_TOKEN = "ticketing-pocgru.rest.authentication.token";
+    private static final String PROPERTY_REST_AUTHENTICATION_DATA = "ticketing-pocgru.rest.authentication.data";
+    private static final String PROPERTY_TOKEN_TIME_TO_LIVE = "ticketing-pocgru.rest.authentication.token.timeToLive";
+    private static final String PROPERTY_TOKEN_REFRESH_AHEAD = "ticketing-pocgru.rest.authentication.token.refreshAhead";
+    private static final String PROPERTY_FAILURE_THRESHOLD = "ticketing-pocgru.circuitBreaker.failureThreshold";
+    private static final String PROPERTY_OPEN_DURATION = "ticketing-pocgru.circuitBreaker.openDuration";
+    private static final String PROPERTY_THROTTLE_RATE = "ticketing-pocgru.throttle.rate";
+    private static final String PROPERTY_THROTTLE_BURST = "ticketing-pocgru.throttle.burst";
+    private static final String PROPERTY_THROTTLE_MAX_IN_FLIGHT = "ticketing-pocgru.throttle.maxInFlight";
+    private static final String PROPERTY_COMPRESSION_THRESHOLD = "ticketing-pocgru.compression.threshold";
+    private static final String PROPERTY_PAYLOAD_FIELDS = "ticketing-pocgru.payload.fields";
+    private static final String PROPERTY_ATTACHMENT_MAX_SIZE = "ticketing-pocgru.attachment.maxSize";
+    private static final String PROPERTY_ATTACHMENT_OVERSIZE_MODE = "ticketing-pocgru.attachment.oversizeMode";
+    private static final String PROPERTY_SUFFIX_COMPANY = ".company.";
+
+    // Other constants
+    private static final int DEFAULT_TOKEN_TIME_TO_LIVE = 300;
+    private static final int DEFAULT_TOKEN_REFRESH_AHEAD = 30;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final int DEFAULT_OPEN_DURATION = 30;
+    private static final int DEFAULT_THROTTLE_RATE = 0;
+    private static final int DEFAULT_THROTTLE_MAX_IN_FLIGHT = 0;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = -1;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+    // Variables
+    private final Map<String, CompanyRoute> _mapRoutes;
+    private final String _strAuthenticationUrl;
+    private final String _strAuthenticationToken;
+    private final String _strAuthenticationData;
+    private final long _lTokenTimeToLive;
+    private final long _lTokenRefreshAhead;
+
+    /**
+     * Constructor
+     *
+     * @param mapRoutes
+     *            the routes by company
+     * @param strAuthenticationUrl
+     *            the URL of the authentication end point
+     * @param strAuthenticationToken
+     *            the credentials sent to the authentication end point
+     * @param strAuthenticationData
+     *            the body sent to the authentication end point
+     * @param lTokenTimeToLive
+     *            the time to live in seconds of a token without expiration
+     * @param lTokenRefreshAhead
+     *            the delay in milliseconds before expiration from which a
+     *            token is refreshed
+     */
+    private EndpointRoutingTable( Map<String, CompanyRoute> mapRoutes, String strAuthenticationUrl,
+        String strAuthenticationToken, String strAuthenticationData, long lTokenTimeToLive, long lTokenRefreshAhead )
+    {
+        _mapRoutes = Collections.unmodifiableMap( mapRoutes );
+        _strAuthenticationUrl = strAuthenticationUrl;
+        _strAuthenticationToken = strAuthenticationToken;
+        _strAuthenticationData = strAuthenticationData;
+        _lTokenTimeToLive = lTokenTimeToLive;
+        _lTokenRefreshAhead = lTokenRefreshAhead;
+    }
+
+    /**
+     * Builds the routing table from the current properties
+     *
+     * @return the routing table
+     */
+    public static EndpointRoutingTable build(  )
+    {
+        Map<String, String> mapEndpoints = readCompanyProperties( PROPERTY_REST_ENDPOINT_COMPANY );
+        Map<String, String> mapBatchEndpoints = readCompanyProperties( PROPERTY_REST_ENDPOINT_BATCH_COMPANY );
+        Set<String> setCompanies = new HashSet<String>( mapEndpoints.keySet(  ) );
+        setCompanies.addAll( mapBatchEndpoints.keySet(  ) );
+
+        Map<String, CompanyRoute> mapRoutes = new HashMap<String, CompanyRoute>(  );
+        PayloadFormatService payloadFormatService = PayloadFormatService.getInstance(  );
+
+        for ( String strCompany : setCompanies )
+        {
+            int nFailureThreshold = getCompanyPropertyInt( PROPERTY_FAILURE_THRESHOLD, strCompany,
+                    DEFAULT_FAILURE_THRESHOLD );
+            int nOpenDuration = getCompanyPropertyInt( PROPERTY_OPEN_DURATION, strCompany, DEFAULT_OPEN_DURATION );
+            int nRate = getCompanyPropertyInt( PROPERTY_THROTTLE_RATE, strCompany, DEFAULT_THROTTLE_RATE );
+            int nBurst = getCompanyPropertyInt( PROPERTY_THROTTLE_BURST, strCompany, nRate );
+            int nMaxInFlight = getCompanyPropertyInt( PROPERTY_THROTTLE_MAX_IN_FLIGHT, strCompany,
+                    DEFAULT_THROTTLE_MAX_IN_FLIGHT );
+            int nCompressionThreshold = getCompanyPropertyInt( PROPERTY_COMPRESSION_THRESHOLD, strCompany,
+                    DEFAULT_COMPRESSION_THRESHOLD );
+
+            // The payload plan is compiled once per company, here
+            IPayloadFormat payloadFormat = payloadFormatService.getCompanyFormat( strCompany );
+            long lAttachmentMaxSize = TicketJsonWriter.parseAttachmentMaxSize( getCompanyProperty( 
+                        PROPERTY_ATTACHMENT_MAX_SIZE, strCompany, null ) );
+            boolean bRejectOversized = TicketJsonWriter.isRejectOversized( getCompanyProperty( 
+                        PROPERTY_ATTACHMENT_OVERSIZE_MODE, strCompany, null ) );
+            PayloadMapping payloadMapping = new PayloadMapping( strCompany, lAttachmentMaxSize, bRejectOversized,
+                    PayloadMapping.parseFieldNames( getCompanyProperty( PROPERTY_PAYLOAD_FIELDS, strCompany, null ) ) );
+            mapRoutes.put( strCompany,
+                new CompanyRoute( strCompany, mapEndpoints.get( strCompany ), mapBatchEndpoints.get( strCompany ),
+                    nFailureThreshold, nOpenDuration * MILLISECONDS_PER_SECOND, nRate, nBurst, nMaxInFlight,
+                    nCompressionThreshold, payloadFormat.getName(  ), payloadMapping,
+                    payloadFormat.compile( payloadMapping ) ) );
+        }
+
+        return new EndpointRoutingTable( mapRoutes, AppPropertiesService.getProperty( PROPERTY_REST_AUTHENTICATION_URL ),
+            AppPropertiesService.getProperty( PROPERTY_REST_AUTHENTICATION_TOKEN ),
+            AppPropertiesService.getProperty( PROPERTY_REST_AUTHENTICATION_DATA ),
+            AppPropertiesService.getPropertyInt( PROPERTY_TOKEN_TIME_TO_LIVE, DEFAULT_TOKEN_TIME_TO_LIVE ),
+            AppPropertiesService.getPropertyInt( PROPERTY_TOKEN_REFRESH_AHEAD, DEFAULT_TOKEN_REFRESH_AHEAD ) * MILLISECONDS_PER_SECOND );
+    }
+
+    /**
+     * Reads a setting of a company : the value of the property for the company
+     * if it is defined, otherwise the value of the property for all the
+     * companies
+     *
+     * @param strKey
+     *            the key of the property for all the companies
+     * @param strCompany
+     *            the company
+     * @param nDefault
+     *            the default value
+     * @return the value
+     */
+    private static int getCompanyPropertyInt( String strKey, String strCompany, int nDefault )
+    {
+        int nValue = AppPropertiesService.getPropertyInt( strKey, nDefault );
+
+        return AppPropertiesService.getPropertyInt( strKey + PROPERTY_SUFFIX_COMPANY + strCompany, nValue );
+    }
+
+    /**
+     * Reads a setting of a company : the value of the property for the company
+     * if it is defined, otherwise the value of the property for all the
+     * companies
+     *
+     * @param strKey
+     *            the key of the property for all the companies
+     * @param strCompany
+     *            the company
+     * @param strDefault
+     *            the default value
+     * @return the value
+     */
+    private static String getCompanyProperty( String strKey, String strCompany, String strDefault )
+    {
+        String strValue = AppPropertiesService.getProperty( strKey, strDefault );
+
+        return AppPropertiesService.getProperty( strKey + PROPERTY_SUFFIX_COMPANY + strCompany, strValue );
+    }
+
+    /**
+     * Reads the properties whose key is made of the specified prefix followed
+     * by a company
+     *
+     * @param strPrefix
+     *            the prefix
+     * @return the non blank values by company
+     */
+    private static Map<String, String> readCompanyProperties( String strPrefix )
+    {
+        Map<String, String> mapValues = new HashMap<String, String>(  );
+
+        for ( String strKey : AppPropertiesService.getKeys( strPrefix ) )
+        {
+            String strValue = AppPropertiesService.getProperty( strKey );
+
+            if ( ( strValue != null ) && ( strValue.trim(  ).length(  ) > 0 ) )
+            {
+                mapValues.put( strKey.substring( strPrefix.length(  ) ), strValue.trim(  ) );
+            }
+        }
+
+        return mapValues;
+    }
+
+    /**
+     * Gives the route of the specified company
+     *
+     * @param strCompany
+     *            the company
+     * @return the route, or {@code null} if the company has no end point
+     */
+    public CompanyRoute getRoute( String strCompany )
+    {
+        return _mapRoutes.get( strCompany );
+    }
+
+    /**
+     * Gives the routes of all the companies
+     *
+     * @return the routes
+     */
+    public Collection<CompanyRoute> getRoutes(  )
+    {
+        return _mapRoutes.values(  );
+    }
+
+    /**
+     * Gives the URL of the authentication end point
+     *
+     * @return the URL
+     */
+    public String getAuthenticationUrl(  )
+    {
+        return _strAuthenticationUrl;
+    }
+
+    /**
+     * Gives the credentials sent to the authentication end point
+     *
+     * @return the credentials
+     */
+    public String getAuthenticationToken(  )
+    {
+        return _strAuthenticationToken;
+    }
+
+    /**
+     * Gives the body sent to the authentication end point
+     *
+     * @return the body
+     */
+    public String getAuthenticationData(  )
+    {
+        return _strAuthenticationData;
+    }
+
+    /**
+     * Gives the time to live of a token when the authentication end point
+     * does not give its expiration
+     *
+     * @return the time to live in seconds
+     */
+    public long getTokenTimeToLive(  )
+    {
+        return _lTokenTimeToLive;
+    }
+
+    /**
+     * Gives the delay before expiration from which a token is refreshed in
+     * background
+     *
+     * @return the delay in milliseconds
+     */
+    public long getTokenRefreshAhead(  )
+    {
+        return _lTokenRefreshAhead;
+    }
+
+    /**
+     * Tells whether the authentication settings of the specified table are the
+     * same as the ones of this table
+     *
+     * @param table
+     *            the table
+     * @return {@code true} if the settings are the same, {@code false}
+     *         otherwise
+     */
+    public boolean hasSameAuthentication( EndpointRoutingTable table )
+    {
+        return CompanyRoute.equals( _strAuthenticationUrl, table._strAuthenticationUrl ) &&
+        CompanyRoute.equals( _strAuthenticationToken, table._strAuthenticationToken ) &&
+        CompanyRoute.equals( _strAuthenticationData, table._strAuthenticationData );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object object )
+    {
+        if ( this == object )
+        {
+            return true;
+        }
+
+        if ( !( object instanceof EndpointRoutingTable ) )
+        {
+            return false;
+        }
+
+        EndpointRoutingTable table = (EndpointRoutingTable) object;
+
+        return _mapRoutes.equals( table._mapRoutes ) && hasSameAuthentication( table ) &&
+        ( _lTokenTimeToLive == table._lTokenTimeToLive ) && ( _lTokenRefreshAhead == table._lTokenRefreshAhead );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode(  )
+    {
+        return _mapRoutes.hashCode(  );
+    }
+}
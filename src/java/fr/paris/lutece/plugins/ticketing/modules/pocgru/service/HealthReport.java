@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * This class is a snapshot of the health of the send pipeline : the token of
+ * the authentication end point and the state of each company
+ */
+public final class HealthReport
+{
+    /**
+     * All the companies can be reached
+     */
+    public static final String STATUS_UP = "UP";
+
+    /**
+     * Some companies, or all of them, cannot be reached : the sends are kept
+     * in failure or in the outbox until the end points are back
+     */
+    public static final String STATUS_DEGRADED = "DEGRADED";
+
+    /**
+     * The send pipeline of this node is broken : no company is configured, or
+     * the report is no longer refreshed
+     */
+    public static final String STATUS_DOWN = "DOWN";
+
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+    // Variables
+    private final long _lTime;
+    private final Token _token;
+    private final List<CompanyHealth> _listCompanies;
+
+    /**
+     * Constructor
+     *
+     * @param lTime
+     *            the time of the report in milliseconds since the epoch
+     * @param token
+     *            the current token, or null if there is none
+     * @param listCompanies
+     *            the health of the companies
+     */
+    HealthReport( long lTime, Token token, List<CompanyHealth> listCompanies )
+    {
+        _lTime = lTime;
+        _token = token;
+        _listCompanies = Collections.unmodifiableList( listCompanies );
+    }
+
+    /**
+     * Returns the time of the report
+     *
+     * @return the time in milliseconds since the epoch
+     */
+    public long getTime(  )
+    {
+        return _lTime;
+    }
+
+    /**
+     * Tells if a token has been obtained from the authentication end point
+     *
+     * @return true if there is a token
+     */
+    public boolean isTokenPresent(  )
+    {
+        return _token != null;
+    }
+
+    /**
+     * Tells if the current token is valid at the time of the report
+     *
+     * @return true if there is a token and it is not expired
+     */
+    public boolean isTokenValid(  )
+    {
+        return ( _token != null ) && !_token.isExpired( _lTime );
+    }
+
+    /**
+     * Returns the time left before the expiration of the token
+     *
+     * @return the time in seconds, or -1 if there is no token
+     */
+    public long getTokenExpiresIn(  )
+    {
+        return ( _token != null ) ? ( ( _token.getExpirationTime(  ) - _lTime ) / MILLISECONDS_PER_SECOND ) : ( -1L );
+    }
+
+    /**
+     * Returns the health of the companies
+     *
+     * @return the health of the companies
+     */
+    public List<CompanyHealth> getCompanies(  )
+    {
+        return _listCompanies;
+    }
+
+    /**
+     * Returns the overall status. An outage of the end points only degrades
+     * the status, it is not a fault of this node.
+     *
+     * @return {@link #STATUS_UP}, {@link #STATUS_DEGRADED} or
+     *         {@link #STATUS_DOWN}
+     */
+    public String getStatus(  )
+    {
+        if ( _listCompanies.isEmpty(  ) )
+        {
+            return STATUS_DOWN;
+        }
+
+        for ( CompanyHealth company : _listCompanies )
+        {
+            if ( !company.isUp(  ) )
+            {
+                return STATUS_DEGRADED;
+            }
+        }
+
+        return STATUS_UP;
+    }
+
+    /**
+     * This class represents the health of the end point of a company
+     *
+     */
+    public static final class CompanyHealth
+    {
+        private final String _strCompany;
+        private final boolean _bReachable;
+        private final long _lProbeTime;
+        private final long _lProbeLatency;
+        private final String _strCircuitState;
+        private final int _nRecentSends;
+        private final double _dSuccessRate;
+        private final long _lLatencyP50;
+        private final long _lLatencyP99;
+
+        /**
+         * Constructor
+         *
+         * @param strCompany
+         *            the company
+         * @param bReachable
+         *            the result of the last probe of the end points
+         * @param lProbeTime
+         *            the time of the last probe in milliseconds since the
+         *            epoch
+         * @param lProbeLatency
+         *            the duration of the last probe in milliseconds
+         * @param strCircuitState
+         *            the state of the circuit breaker of the end point
+         * @param nRecentSends
+         *            the number of recent sends
+         * @param dSuccessRate
+         *            the success rate of the recent sends, or -1
+         * @param lLatencyP50
+         *            the median duration of the recent sends in
+         *            milliseconds, or -1
+         * @param lLatencyP99
+         *            the 99th percentile of the duration of the recent sends
+         *            in milliseconds, or -1
+         */
+        CompanyHealth( String strCompany, boolean bReachable, long lProbeTime, long lProbeLatency,
+            String strCircuitState, int nRecentSends, double dSuccessRate, long lLatencyP50, long lLatencyP99 )
+        {
+            _strCompany = strCompany;
+            _bReachable = bReachable;
+            _lProbeTime = lProbeTime;
+            _lProbeLatency = lProbeLatency;
+            _strCircuitState = strCircuitState;
+            _nRecentSends = nRecentSends;
+            _dSuccessRate = dSuccessRate;
+            _lLatencyP50 = lLatencyP50;
+            _lLatencyP99 = lLatencyP99;
+        }
+
+        /**
+         * Returns the company
+         *
+         * @return the company
+         */
+        public String getCompany(  )
+        {
+            return _strCompany;
+        }
+
+        /**
+         * Tells if the end points replied to the last probe
+         *
+         * @return true if the end point, and the batch end point if any,
+         *         replied
+         */
+        public boolean isReachable(  )
+        {
+            return _bReachable;
+        }
+
+        /**
+         * Returns the time of the last probe
+         *
+         * @return the time in milliseconds since the epoch
+         */
+        public long getProbeTime(  )
+        {
+            return _lProbeTime;
+        }
+
+        /**
+         * Returns the duration of the last probe
+         *
+         * @return the duration in milliseconds
+         */
+        public long getProbeLatency(  )
+        {
+            return _lProbeLatency;
+        }
+
+        /**
+         * Returns the state of the circuit breaker of the end point
+         *
+         * @return the state
+         */
+        public String getCircuitState(  )
+        {
+            return _strCircuitState;
+        }
+
+        /**
+         * Returns the number of recent sends of the statistics
+         *
+         * @return the number of sends
+         */
+        public int getRecentSends(  )
+        {
+            return _nRecentSends;
+        }
+
+        /**
+         * Returns the success rate of the recent sends
+         *
+         * @return the rate between 0 and 1, or -1 if there is no recent send
+         */
+        public double getSuccessRate(  )
+        {
+            return _dSuccessRate;
+        }
+
+        /**
+         * Returns the median duration of the recent sends
+         *
+         * @return the duration in milliseconds, or -1 if there is no recent
+         *         send
+         */
+        public long getLatencyP50(  )
+        {
+            return _lLatencyP50;
+        }
+
+        /**
+         * Returns the 99th percentile of the duration of the recent sends
+         *
+         * @return the duration in milliseconds, or -1 if there is no recent
+         *         send
+         */
+        public long getLatencyP99(  )
+        {
+            return _lLatencyP99;
+        }
+
+        /**
+         * Tells if the end point can receive tickets : it replied to its last
+         * probe and its circuit breaker is not open
+         *
+         * @return true if the end point can receive tickets
+         */
+        public boolean isUp(  )
+        {
+            return _bReachable && !CircuitBreaker.State.OPEN.name(  ).equals( _strCircuitState );
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientResponse;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * This service gives the health of the send pipeline for each company. The
+ * report is refreshed by the health daemon only, which probes the end points,
+ * and the callers get the last report, so that polling the report adds no
+ * load on the ESB or on the database and never waits for a probe.
+ */
+public final class HealthService
+{
+    // Properties
+    private static final String PROPERTY_HEALTH_MAX_AGE = "ticketing-pocgru.health.maxAge";
+    private static final String PROPERTY_HEALTH_PROBE_TIMEOUT = "ticketing-pocgru.health.probeTimeout";
+
+    // Other constants
+    private static final int DEFAULT_MAX_AGE = 300;
+    private static final int DEFAULT_PROBE_TIMEOUT = 2000;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+    private static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+    private static final double PERCENTILE_50 = 0.5;
+    private static final double PERCENTILE_99 = 0.99;
+    private static final String LOG_SERVICE_NAME = " - HealthService - ";
+    private static final String LOG_PROBE_FAILED = "Probe failed for the end point of ";
+    private static final String LOG_REFRESHED = "Health of the send pipeline : ";
+    private static HealthService _singleton = new HealthService(  );
+
+    // Variables
+    private final AtomicReference<HealthReport> _report = new AtomicReference<HealthReport>(  );
+    private final long _lMaxAge;
+    private final Client _client;
+
+    /**
+     * Constructor
+     */
+    private HealthService(  )
+    {
+        _lMaxAge = AppPropertiesService.getPropertyInt( PROPERTY_HEALTH_MAX_AGE, DEFAULT_MAX_AGE ) * MILLISECONDS_PER_SECOND;
+
+        int nProbeTimeout = AppPropertiesService.getPropertyInt( PROPERTY_HEALTH_PROBE_TIMEOUT, DEFAULT_PROBE_TIMEOUT );
+        _client = HttpTransportService.getInstance(  ).createClient( nProbeTimeout, nProbeTimeout );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static HealthService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives the last health report refreshed by the daemon
+     *
+     * @return the report, or {@code null} if it has not been refreshed yet
+     */
+    public HealthReport getReport(  )
+    {
+        return _report.get(  );
+    }
+
+    /**
+     * Tells whether a report is too old : the health daemon no longer
+     * refreshes it
+     *
+     * @param report
+     *            the report
+     * @return {@code true} if the report is too old
+     */
+    public boolean isStale( HealthReport report )
+    {
+        return ( System.currentTimeMillis(  ) - report.getTime(  ) ) > _lMaxAge;
+    }
+
+    /**
+     * Refreshes the report : probes the end points of the companies and reads
+     * the statistics of their recent sends. Called by the health daemon.
+     *
+     * @return the logs of the refresh
+     */
+    public String refresh(  )
+    {
+        long lNow = System.currentTimeMillis(  );
+        List<HealthReport.CompanyHealth> listCompanies = new ArrayList<HealthReport.CompanyHealth>(  );
+
+        for ( CompanyRoute route : EndpointRoutingService.getInstance(  ).getRoutingTable(  ).getRoutes(  ) )
+        {
+            String strCompany = route.getCompany(  );
+            long lProbeTime = System.currentTimeMillis(  );
+            boolean bReachable = probe( strCompany, route.getEndpoint(  ) ) &&
+                ( ( route.getBatchEndpoint(  ) == null ) || probe( strCompany, route.getBatchEndpoint(  ) ) );
+            long lProbeLatency = System.currentTimeMillis(  ) - lProbeTime;
+
+            RecentSends recentSends = SendMetricsService.getInstance(  ).getRecentSends( strCompany );
+            int nRecentSends = 0;
+            double dSuccessRate = -1d;
+            long [] latencies = { -1L, -1L };
+
+            if ( recentSends != null )
+            {
+                nRecentSends = recentSends.getCount(  );
+                dSuccessRate = recentSends.getSuccessRate(  );
+                latencies = recentSends.getDurationPercentiles( PERCENTILE_50, PERCENTILE_99 );
+            }
+
+            // The circuit breaker is only read : a company without send has none yet
+            CircuitBreaker circuitBreaker = CircuitBreakerService.getInstance(  ).findCircuitBreaker( strCompany );
+            CircuitBreaker.State state = ( circuitBreaker != null ) ? circuitBreaker.getState(  )
+                                                                    : CircuitBreaker.State.CLOSED;
+
+            listCompanies.add( new HealthReport.CompanyHealth( strCompany, bReachable, lProbeTime, lProbeLatency,
+                    state.name(  ), nRecentSends, dSuccessRate, toMilliseconds( latencies[0] ),
+                    toMilliseconds( latencies[1] ) ) );
+        }
+
+        HealthReport report = new HealthReport( lNow, TokenService.getInstance(  ).peekToken(  ), listCompanies );
+        _report.set( report );
+
+        return LOG_REFRESHED + report.getStatus(  );
+    }
+
+    /**
+     * Probes an end point with a HEAD request. The end point is reachable if
+     * it replies, whatever the status of the reply.
+     *
+     * @param strCompany
+     *            the company
+     * @param strEndpoint
+     *            the URL of the end point
+     * @return {@code true} if the end point replied
+     */
+    private boolean probe( String strCompany, String strEndpoint )
+    {
+        if ( strEndpoint == null )
+        {
+            return false;
+        }
+
+        try
+        {
+            ClientResponse response = _client.resource( strEndpoint ).head(  );
+            response.close(  );
+
+            return true;
+        }
+        catch ( ClientHandlerException e )
+        {
+            AppLogService.info( LOG_SERVICE_NAME + LOG_PROBE_FAILED + strCompany + " : " + e.getMessage(  ) );
+
+            return false;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            // The URL of the end point is invalid
+            AppLogService.info( LOG_SERVICE_NAME + LOG_PROBE_FAILED + strCompany + " : " + e.getMessage(  ) );
+
+            return false;
+        }
+    }
+
+    /**
+     * Converts a duration to milliseconds
+     *
+     * @param lDuration
+     *            the duration in nanoseconds, or -1
+     * @return the duration in milliseconds, or -1
+     */
+    private static long toMilliseconds( long lDuration )
+    {
+        return ( lDuration < 0 ) ? lDuration : ( lDuration / NANOSECONDS_PER_MILLISECOND );
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.client.apache4.ApacheHttpClient4;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import com.sun.jersey.client.apache4.config.DefaultApacheHttpClient4Config;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This service provides the HTTP client shared by all the sends of the module.
+ * The connections are pooled and kept alive between the sends, idle
+ * connections are closed after a while, and every request is bounded by a
+ * connect and a read timeout.
+ */
+public final class HttpTransportService
+{
+    // Properties
+    private static final String PROPERTY_MAX_CONNECTIONS = "ticketing-pocgru.http.maxConnections";
+    private static final String PROPERTY_MAX_CONNECTIONS_PER_HOST = "ticketing-pocgru.http.maxConnectionsPerHost";
+    private static final String PROPERTY_CONNECT_TIMEOUT = "ticketing-pocgru.http.connectTimeout";
+    private static final String PROPERTY_READ_TIMEOUT = "ticketing-pocgru.http.readTimeout";
+    private static final String PROPERTY_IDLE_TIMEOUT = "ticketing-pocgru.http.idleTimeout";
+    private static final String PROPERTY_CHUNK_SIZE = "ticketing-pocgru.http.chunkSize";
+
+    // Other constants
+    private static final int DEFAULT_MAX_CONNECTIONS = 50;
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    private static final int DEFAULT_IDLE_TIMEOUT = 60;
+    private static final int DEFAULT_CHUNK_SIZE = 8192;
+    private static final String THREAD_NAME = "ticketing-pocgru-http-idle-connections";
+    private static final String LOG_SERVICE_NAME = " - HttpTransportService - ";
+    private static final String LOG_SHUTDOWN = "HTTP connections closed";
+    private static HttpTransportService _singleton = new HttpTransportService(  );
+
+    // Variables
+    private final int _nChunkSize;
+    private final ThreadSafeClientConnManager _connectionManager;
+    private final ScheduledExecutorService _idleConnectionsMonitor;
+    private final Client _client;
+
+    /**
+     * Constructor
+     */
+    private HttpTransportService(  )
+    {
+        int nMaxConnections = AppPropertiesService.getPropertyInt( PROPERTY_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS );
+        int nMaxConnectionsPerHost = AppPropertiesService.getPropertyInt( PROPERTY_MAX_CONNECTIONS_PER_HOST,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST );
+        int nConnectTimeout = AppPropertiesService.getPropertyInt( PROPERTY_CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT );
+        int nReadTimeout = AppPropertiesService.getPropertyInt( PROPERTY_READ_TIMEOUT, DEFAULT_READ_TIMEOUT );
+        _nChunkSize = AppPropertiesService.getPropertyInt( PROPERTY_CHUNK_SIZE, DEFAULT_CHUNK_SIZE );
+
+        _connectionManager = new ThreadSafeClientConnManager(  );
+        _connectionManager.setMaxTotal( nMaxConnections );
+        _connectionManager.setDefaultMaxPerRoute( nMaxConnectionsPerHost );
+
+        _client = createClient( nConnectTimeout, nReadTimeout );
+
+        final int nIdleTimeout = AppPropertiesService.getPropertyInt( PROPERTY_IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT );
+        _idleConnectionsMonitor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory(  )
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, THREAD_NAME );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    }
+                } );
+        _idleConnectionsMonitor.scheduleWithFixedDelay( new Runnable(  )
+            {
+                @Override
+                public void run(  )
+                {
+                    _connectionManager.closeExpiredConnections(  );
+                    _connectionManager.closeIdleConnections( nIdleTimeout, TimeUnit.SECONDS );
+                }
+            }, nIdleTimeout, nIdleTimeout, TimeUnit.SECONDS );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static HttpTransportService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives the shared HTTP client
+     *
+     * @return the client
+     */
+    public Client getClient(  )
+    {
+        return _client;
+    }
+
+    /**
+     * Creates a client sharing the connections of the pool, with other
+     * timeouts than the shared client. The client is closed with the pool.
+     *
+     * @param nConnectTimeout
+     *            the connect timeout in milliseconds
+     * @param nReadTimeout
+     *            the read timeout in milliseconds
+     * @return the client
+     */
+    public Client createClient( int nConnectTimeout, int nReadTimeout )
+    {
+        ClientConfig config = new DefaultApacheHttpClient4Config(  );
+        config.getProperties(  ).put( ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, _connectionManager );
+        config.getProperties(  ).put( ClientConfig.PROPERTY_CONNECT_TIMEOUT, nConnectTimeout );
+        config.getProperties(  ).put( ClientConfig.PROPERTY_READ_TIMEOUT, nReadTimeout );
+
+        if ( _nChunkSize > 0 )
+        {
+            // The request bodies are streamed instead of being buffered to compute their length
+            config.getProperties(  ).put( ClientConfig.PROPERTY_CHUNKED_ENCODING_SIZE, _nChunkSize );
+        }
+
+        return ApacheHttpClient4.create( config );
+    }
+
+    /**
+     * Closes all the connections of the pool
+     */
+    public void shutdown(  )
+    {
+        _idleConnectionsMonitor.shutdownNow(  );
+        _client.destroy(  );
+        _connectionManager.shutdown(  );
+        AppLogService.info( LOG_SERVICE_NAME + LOG_SHUTDOWN );
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.List;
+
+
+/**
+ * A plan compiled by a {@link IPayloadFormat} for a company : it writes the
+ * tickets sent to the end points of the company. A plan is immutable and is
+ * used by several sends at the same time.
+ */
+public interface IPayloadPlan
+{
+    /**
+     * Gives the content type of the payload
+     *
+     * @return the content type
+     */
+    String getContentType(  );
+
+    /**
+     * Gives the maximum size of an attachment sent with a ticket, the larger
+     * attachments being sent by reference or rejected
+     *
+     * @return the size in bytes
+     */
+    long getAttachmentMaxSize(  );
+
+    /**
+     * Tests if the ticket can be written with the attachment limit of the
+     * plan : it cannot if one of its attachments is larger than the limit and
+     * the oversized attachments are configured to be rejected
+     *
+     * @param ticket
+     *            the ticket
+     * @return {@code true} if the ticket can be written, {@code false}
+     *         otherwise
+     */
+    boolean isWritable( Ticket ticket );
+
+    /**
+     * Estimates the size of the payload of a ticket, without writing it
+     *
+     * @param ticket
+     *            the ticket
+     * @return the estimated size in bytes
+     */
+    long estimateSize( Ticket ticket );
+
+    /**
+     * Estimates the size of the payload of a batch of tickets, without
+     * writing it
+     *
+     * @param listTickets
+     *            the tickets
+     * @return the estimated size in bytes
+     */
+    long estimateBatchSize( List<Ticket> listTickets );
+
+    /**
+     * Writes a ticket to the specified stream. The stream is flushed but not
+     * closed.
+     *
+     * @param ticket
+     *            the ticket
+     * @param outputStream
+     *            the stream
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    void write( Ticket ticket, OutputStream outputStream )
+        throws IOException;
+
+    /**
+     * Writes a batch of tickets to the specified stream. The stream is flushed
+     * but not closed.
+     *
+     * @param listTickets
+     *            the tickets
+     * @param outputStream
+     *            the stream
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    void writeBatch( List<Ticket> listTickets, OutputStream outputStream )
+        throws IOException;
+}
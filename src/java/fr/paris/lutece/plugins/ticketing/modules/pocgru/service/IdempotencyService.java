@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.UnsupportedEncodingException;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ * This service prevents the duplicate sends of a ticket.
+ * <ul>
+ * <li>each send has an idempotency key made of the id of the ticket and of
+ * the id of the resource history of the workflow action, sent to the end
+ * point so that it can recognize a replayed send</li>
+ * <li>a send is not made while another send with the same key is in
+ * progress, nor during a window after a successful send with this key, so
+ * that a double click on the action does not send the ticket twice. The
+ * other actions on the same ticket have their own keys and are sent.</li>
+ * </ul>
+ */
+public final class IdempotencyService
+{
+    // Properties
+    private static final String PROPERTY_IDEMPOTENCY_WINDOW = "ticketing-pocgru.idempotency.window";
+    private static final String PROPERTY_IDEMPOTENCY_MAX_SIZE = "ticketing-pocgru.idempotency.maxSize";
+
+    // Other constants
+    private static final int DEFAULT_IDEMPOTENCY_WINDOW = 300;
+    private static final int DEFAULT_IDEMPOTENCY_MAX_SIZE = 10000;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+    private static final String KEY_SEPARATOR = "-";
+    private static final String BATCH_KEY_SEPARATOR = ",";
+    private static final String BATCH_KEY_PREFIX = "batch-";
+    private static final String RESEND_KEY_INFIX = "-resend-";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final String CHARSET = "UTF-8";
+    private static final String ERROR_DIGEST = "Unable to compute the idempotency key of a batch : ";
+    private static final char [] HEX_DIGITS = "0123456789abcdef".toCharArray(  );
+    private static IdempotencyService _singleton = new IdempotencyService(  );
+
+    // Variables
+    private final ConcurrentMap<String, SendRecord> _mapSends = new ConcurrentHashMap<String, SendRecord>(  );
+    private final AtomicBoolean _bPurging = new AtomicBoolean(  );
+    private final long _lWindow;
+    private final int _nMaxSize;
+
+    /**
+     * Constructor
+     */
+    private IdempotencyService(  )
+    {
+        this( AppPropertiesService.getPropertyInt( PROPERTY_IDEMPOTENCY_WINDOW, DEFAULT_IDEMPOTENCY_WINDOW ) * MILLISECONDS_PER_SECOND,
+            AppPropertiesService.getPropertyInt( PROPERTY_IDEMPOTENCY_MAX_SIZE, DEFAULT_IDEMPOTENCY_MAX_SIZE ) );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lWindow
+     *            the window after a successful send during which the same
+     *            send is refused, in milliseconds
+     * @param nMaxSize
+     *            the number of sends above which the expired ones are purged
+     */
+    IdempotencyService( long lWindow, int nMaxSize )
+    {
+        _lWindow = lWindow;
+        _nMaxSize = nMaxSize;
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static IdempotencyService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Builds the idempotency key of the send of a ticket
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     * @return the key
+     */
+    public static String buildKey( int nIdTicket, int nIdResourceHistory )
+    {
+        return nIdTicket + KEY_SEPARATOR + nIdResourceHistory;
+    }
+
+    /**
+     * Builds the idempotency key of a re-send of a ticket by the administrator.
+     * The key differs from the key of the workflow action, so that the end
+     * point does not ignore the re-send of a ticket it has not processed.
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     * @param lIdJob
+     *            the id of the re-send job
+     * @return the key
+     */
+    public static String buildResendKey( int nIdTicket, long lIdJob )
+    {
+        return nIdTicket + RESEND_KEY_INFIX + lIdJob;
+    }
+
+    /**
+     * Builds the idempotency key of the send of a batch : a digest of the keys
+     * of its tickets
+     *
+     * @param listKeys
+     *            the keys of the tickets of the batch
+     * @return the key
+     */
+    public static String buildBatchKey( List<String> listKeys )
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance( DIGEST_ALGORITHM );
+
+            for ( String strKey : listKeys )
+            {
+                digest.update( strKey.getBytes( CHARSET ) );
+                digest.update( BATCH_KEY_SEPARATOR.getBytes( CHARSET ) );
+            }
+
+            byte [] hash = digest.digest(  );
+            StringBuilder sbKey = new StringBuilder( BATCH_KEY_PREFIX );
+
+            for ( byte b : hash )
+            {
+                sbKey.append( HEX_DIGITS[( b >> 4 ) & 0xF] ).append( HEX_DIGITS[b & 0xF] );
+            }
+
+            return sbKey.toString(  );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new AppException( ERROR_DIGEST + e.getMessage(  ), e );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new AppException( ERROR_DIGEST + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Records the start of a send, unless a send with the same idempotency
+     * key is in progress or has succeeded within the window
+     *
+     * @param strKey
+     *            the idempotency key of the send
+     * @return {@code true} if the ticket can be sent, {@code false} if the send
+     *         is a duplicate
+     */
+    public boolean tryStart( String strKey )
+    {
+        return tryStart( strKey, System.currentTimeMillis(  ) );
+    }
+
+    /**
+     * Records the start of a send at the specified time, unless a send with
+     * the same idempotency key is in progress or has succeeded within the
+     * window
+     *
+     * @param strKey
+     *            the idempotency key of the send
+     * @param lNow
+     *            the current time in milliseconds
+     * @return {@code true} if the ticket can be sent, {@code false} if the send
+     *         is a duplicate
+     */
+    boolean tryStart( String strKey, long lNow )
+    {
+        SendRecord inFlight = new SendRecord( true, 0L );
+
+        while ( true )
+        {
+            SendRecord record = _mapSends.get( strKey );
+
+            if ( record == null )
+            {
+                if ( _mapSends.putIfAbsent( strKey, inFlight ) == null )
+                {
+                    break;
+                }
+            }
+            else if ( record.isInFlight(  ) || !record.isExpired( lNow ) )
+            {
+                return false;
+            }
+            else if ( _mapSends.replace( strKey, record, inFlight ) )
+            {
+                break;
+            }
+        }
+
+        if ( _mapSends.size(  ) > _nMaxSize )
+        {
+            purge( lNow );
+        }
+
+        return true;
+    }
+
+    /**
+     * Records the end of a send
+     *
+     * @param strKey
+     *            the idempotency key of the send
+     * @param result
+     *            the result of the send
+     */
+    public void complete( String strKey, SendResult result )
+    {
+        complete( strKey, result, System.currentTimeMillis(  ) );
+    }
+
+    /**
+     * Records the end of a send at the specified time
+     *
+     * @param strKey
+     *            the idempotency key of the send
+     * @param result
+     *            the result of the send
+     * @param lNow
+     *            the current time in milliseconds
+     */
+    void complete( String strKey, SendResult result, long lNow )
+    {
+        if ( ( result == SendResult.SENT_OK ) && ( _lWindow > 0L ) )
+        {
+            _mapSends.put( strKey, new SendRecord( false, lNow + _lWindow ) );
+        }
+        else
+        {
+            _mapSends.remove( strKey );
+        }
+    }
+
+    /**
+     * Gives the number of sends recorded, in progress or within their window
+     *
+     * @return the number of sends
+     */
+    int size(  )
+    {
+        return _mapSends.size(  );
+    }
+
+    /**
+     * Removes the successful sends whose window has expired. Only one thread
+     * purges at a time, the others do not wait for it.
+     *
+     * @param lNow
+     *            the current time
+     */
+    private void purge( long lNow )
+    {
+        if ( !_bPurging.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        try
+        {
+            Iterator<SendRecord> iterator = _mapSends.values(  ).iterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                SendRecord record = iterator.next(  );
+
+                if ( !record.isInFlight(  ) && record.isExpired( lNow ) )
+                {
+                    iterator.remove(  );
+                }
+            }
+        }
+        finally
+        {
+            _bPurging.set( false );
+        }
+    }
+
+    /**
+     * This class represents a send in progress or a successful send
+     *
+     */
+    private static final class SendRecord
+    {
+        private final boolean _bInFlight;
+        private final long _lExpirationTime;
+
+        /**
+         * Constructor
+         *
+         * @param bInFlight
+         *            {@code true} if the send is in progress
+         * @param lExpirationTime
+         *            the end of the window of a successful send
+         */
+        SendRecord( boolean bInFlight, long lExpirationTime )
+        {
+            _bInFlight = bInFlight;
+            _lExpirationTime = lExpirationTime;
+        }
+
+        /**
+         * Tells whether the send is in progress
+         *
+         * @return {@code true} if the send is in progress
+         */
+        boolean isInFlight(  )
+        {
+            return _bInFlight;
+        }
+
+        /**
+         * Tells whether the window of a successful send has expired
+         *
+         * @param lNow
+         *            the current time
+         * @return {@code true} if the window has expired
+         */
+        boolean isExpired( long lNow )
+        {
+            return lNow >= _lExpirationTime;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.MediaType;
+
+
+/**
+ * The default payload format : the JSON message written by
+ * {@link TicketJsonWriter}, with the extra fields renamed as configured for
+ * the company. The names of the renamed extra fields are encoded when the
+ * plan is compiled.
+ */
+public class JsonPayloadFormat implements IPayloadFormat
+{
+    /**
+     * Name of the format
+     */
+    public static final String NAME = "json";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getName(  )
+    {
+        return NAME;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public IPayloadPlan compile( PayloadMapping mapping )
+    {
+        return new JsonPayloadPlan( mapping.getAttachmentMaxSize(  ), mapping.isRejectOversized(  ),
+            TicketJsonWriter.encodeFieldNames( mapping.getFieldNames(  ) ) );
+    }
+
+    /**
+     * The plan of the JSON format for a company
+     *
+     */
+    private static final class JsonPayloadPlan implements IPayloadPlan
+    {
+        private final long _lAttachmentMaxSize;
+        private final boolean _bRejectOversized;
+        private final Map<String, String> _mapEncodedFieldNames;
+
+        /**
+         * Constructor
+         *
+         * @param lAttachmentMaxSize
+         *            the maximum size of an attachment sent with a ticket
+         * @param bRejectOversized
+         *            {@code true} if a ticket with a larger attachment is
+         *            rejected
+         * @param mapEncodedFieldNames
+         *            the encoded names of the renamed extra fields, by code
+         */
+        JsonPayloadPlan( long lAttachmentMaxSize, boolean bRejectOversized, Map<String, String> mapEncodedFieldNames )
+        {
+            _lAttachmentMaxSize = lAttachmentMaxSize;
+            _bRejectOversized = bRejectOversized;
+            _mapEncodedFieldNames = mapEncodedFieldNames;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String getContentType(  )
+        {
+            return MediaType.APPLICATION_JSON;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long getAttachmentMaxSize(  )
+        {
+            return _lAttachmentMaxSize;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean isWritable( Ticket ticket )
+        {
+            return TicketJsonWriter.isWritable( ticket, _lAttachmentMaxSize, _bRejectOversized );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long estimateSize( Ticket ticket )
+        {
+            return TicketJsonWriter.estimateSize( ticket, _lAttachmentMaxSize );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public long estimateBatchSize( List<Ticket> listTickets )
+        {
+            return TicketJsonWriter.estimateBatchSize( listTickets, _lAttachmentMaxSize );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( Ticket ticket, OutputStream outputStream )
+            throws IOException
+        {
+            TicketJsonWriter.write( ticket, outputStream, _lAttachmentMaxSize, _mapEncodedFieldNames );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void writeBatch( List<Ticket> listTickets, OutputStream outputStream )
+            throws IOException
+        {
+            TicketJsonWriter.writeBatch( listTickets, outputStream, _lAttachmentMaxSize, _mapEncodedFieldNames );
+        }
+    }
+}
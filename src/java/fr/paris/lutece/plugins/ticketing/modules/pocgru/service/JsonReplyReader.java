@@ -0,0 +1,634 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * This class reads a JSON reply of an end point as a stream of members, so
+ * that only the members needed are kept in memory and the reading can stop as
+ * soon as they have been read. The reply is read as UTF-8 bytes, without
+ * decoding the values which are skipped, and the number of bytes read is
+ * limited : a reply whose needed part is larger is rejected. A malformed or
+ * too large reply raises an
+ * {@link AppException}, an error while reading the stream an
+ * {@link IOException}.
+ */
+public final class JsonReplyReader
+{
+    // Properties
+    private static final String PROPERTY_REPLY_MAX_SIZE = "ticketing-pocgru.reply.maxSize";
+
+    // Errors
+    private static final String ERROR_MALFORMED = "Malformed reply, ";
+    private static final String ERROR_UNEXPECTED_CHARACTER = "unexpected character : ";
+    private static final String ERROR_UNEXPECTED_BYTE = "unexpected byte : 0x";
+    private static final String ERROR_UNEXPECTED_END = "unexpected end of the reply";
+    private static final String ERROR_TOO_DEEP = "too many nested objects";
+    private static final String ERROR_TOO_LARGE = "Reply larger than the maximum size of bytes : ";
+
+    // Other constants
+    private static final long DEFAULT_REPLY_MAX_SIZE = 1048576L;
+    private static final int BUFFER_SIZE = 1024;
+    private static final int MAX_DEPTH = 64;
+    private static final int END = -1;
+    private static final int HEX_RADIX = 16;
+    private static final int ASCII_LIMIT = 0x80;
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+    private static final String NULL = "null";
+
+    // Variables
+    private final InputStream _inputStream;
+    private final long _lMaxSize;
+    private long _lBytesRead;
+    private final byte [] _buffer = new byte[BUFFER_SIZE];
+    private int _nPosition;
+    private int _nLimit;
+    private final boolean [] _firstMember = new boolean[MAX_DEPTH];
+    private int _nDepth;
+
+    /**
+     * Constructor
+     *
+     * @param inputStream
+     *            the stream of the reply, encoded in UTF-8
+     * @param lMaxSize
+     *            the maximum number of bytes read from the stream
+     */
+    public JsonReplyReader( InputStream inputStream, long lMaxSize )
+    {
+        _inputStream = inputStream;
+        _lMaxSize = lMaxSize;
+    }
+
+    /**
+     * Gives the maximum size of a reply configured for the module
+     *
+     * @return the size in bytes
+     */
+    public static long getConfiguredMaxSize(  )
+    {
+        String strMaxSize = AppPropertiesService.getProperty( PROPERTY_REPLY_MAX_SIZE );
+
+        try
+        {
+            return ( strMaxSize != null ) ? Long.parseLong( strMaxSize.trim(  ) ) : DEFAULT_REPLY_MAX_SIZE;
+        }
+        catch ( NumberFormatException e )
+        {
+            return DEFAULT_REPLY_MAX_SIZE;
+        }
+    }
+
+    /**
+     * Gives the number of bytes read from the stream
+     *
+     * @return the number of bytes
+     */
+    public long getBytesRead(  )
+    {
+        return _lBytesRead;
+    }
+
+    /**
+     * Reads the start of an object
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public void beginObject(  ) throws IOException
+    {
+        expect( '{' );
+        push(  );
+    }
+
+    /**
+     * Reads the end of an object, after its last member
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public void endObject(  ) throws IOException
+    {
+        expect( '}' );
+        _nDepth--;
+    }
+
+    /**
+     * Reads the start of an array
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public void beginArray(  ) throws IOException
+    {
+        expect( '[' );
+        push(  );
+    }
+
+    /**
+     * Reads the end of an array, after its last element
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public void endArray(  ) throws IOException
+    {
+        expect( ']' );
+        _nDepth--;
+    }
+
+    /**
+     * Moves to the next member of the current object or to the next element
+     * of the current array. The member or element must then be read.
+     *
+     * @return {@code true} if there is a next member or element,
+     *         {@code false} at the end of the object or array
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public boolean next(  ) throws IOException
+    {
+        int c = peek(  );
+
+        if ( ( c == '}' ) || ( c == ']' ) )
+        {
+            return false;
+        }
+
+        if ( _firstMember[_nDepth - 1] )
+        {
+            _firstMember[_nDepth - 1] = false;
+        }
+        else
+        {
+            expect( ',' );
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads the name of a member
+     *
+     * @return the name
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public String nextName(  ) throws IOException
+    {
+        String strName = readString( true );
+        expect( ':' );
+
+        return strName;
+    }
+
+    /**
+     * Reads a string, number or literal value
+     *
+     * @return the value as a string, {@code null} for the null literal
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public String nextValue(  ) throws IOException
+    {
+        int c = peek(  );
+
+        if ( c == '"' )
+        {
+            return readString( true );
+        }
+
+        if ( ( c == '{' ) || ( c == '[' ) || ( c == ',' ) || ( c == '}' ) || ( c == ']' ) || ( c == END ) )
+        {
+            throw malformed( c );
+        }
+
+        String strLiteral = readLiteral(  );
+
+        return NULL.equals( strLiteral ) ? null : strLiteral;
+    }
+
+    /**
+     * Skips a value of any type, without keeping it in memory
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    public void skipValue(  ) throws IOException
+    {
+        int c = peek(  );
+
+        if ( c == '{' )
+        {
+            beginObject(  );
+
+            while ( next(  ) )
+            {
+                readString( false );
+                expect( ':' );
+                skipValue(  );
+            }
+
+            endObject(  );
+        }
+        else if ( c == '[' )
+        {
+            beginArray(  );
+
+            while ( next(  ) )
+            {
+                skipValue(  );
+            }
+
+            endArray(  );
+        }
+        else if ( c == '"' )
+        {
+            readString( false );
+        }
+        else
+        {
+            nextValue(  );
+        }
+    }
+
+    /**
+     * Enters an object or an array
+     */
+    private void push(  )
+    {
+        if ( _nDepth >= MAX_DEPTH )
+        {
+            throw new AppException( ERROR_MALFORMED + ERROR_TOO_DEEP );
+        }
+
+        _firstMember[_nDepth++] = true;
+    }
+
+    /**
+     * Reads the specified character, after the white spaces
+     *
+     * @param cExpected
+     *            the character
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private void expect( char cExpected ) throws IOException
+    {
+        int c = peek(  );
+
+        if ( c != cExpected )
+        {
+            throw malformed( c );
+        }
+
+        _nPosition++;
+    }
+
+    /**
+     * Gives the next character which is not a white space, without consuming
+     * it
+     *
+     * @return the character, or {@link #END} at the end of the stream
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private int peek(  ) throws IOException
+    {
+        while ( true )
+        {
+            if ( ( _nPosition == _nLimit ) && !fill(  ) )
+            {
+                return END;
+            }
+
+            int c = _buffer[_nPosition] & 0xFF;
+
+            if ( ( c != ' ' ) && ( c != '\t' ) && ( c != '\n' ) && ( c != '\r' ) )
+            {
+                return c;
+            }
+
+            _nPosition++;
+        }
+    }
+
+    /**
+     * Reads the next byte
+     *
+     * @return the byte, between 0 and 255
+     * @throws IOException
+     *             if an error occurs while reading or at the end of the
+     *             stream
+     */
+    private int read(  ) throws IOException
+    {
+        if ( ( _nPosition == _nLimit ) && !fill(  ) )
+        {
+            throw new AppException( ERROR_MALFORMED + ERROR_UNEXPECTED_END );
+        }
+
+        return _buffer[_nPosition++] & 0xFF;
+    }
+
+    /**
+     * Fills the buffer from the stream, without reading beyond the maximum
+     * size. The reply is rejected only if more bytes are needed.
+     *
+     * @return {@code false} at the end of the stream
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private boolean fill(  ) throws IOException
+    {
+        long lRemaining = _lMaxSize - _lBytesRead;
+
+        if ( lRemaining <= 0L )
+        {
+            if ( _inputStream.read(  ) < 0 )
+            {
+                return false;
+            }
+
+            throw new AppException( ERROR_TOO_LARGE + _lMaxSize );
+        }
+
+        int nRead;
+
+        do
+        {
+            nRead = _inputStream.read( _buffer, 0, (int) Math.min( BUFFER_SIZE, lRemaining ) );
+        }
+        while ( nRead == 0 );
+
+        if ( nRead < 0 )
+        {
+            return false;
+        }
+
+        _lBytesRead += nRead;
+        _nPosition = 0;
+        _nLimit = nRead;
+
+        return true;
+    }
+
+    /**
+     * Reads a string, after the white spaces
+     *
+     * @param bKeep
+     *            {@code false} to skip the string without building it
+     * @return the string, or {@code null} if it is not kept
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private String readString( boolean bKeep ) throws IOException
+    {
+        expect( '"' );
+
+        StringBuilder sbString = bKeep ? new StringBuilder(  ) : null;
+
+        while ( true )
+        {
+            int c = read(  );
+
+            if ( c == '"' )
+            {
+                return bKeep ? sbString.toString(  ) : null;
+            }
+
+            if ( c == '\\' )
+            {
+                c = readEscapedCharacter(  );
+            }
+            else if ( c >= ASCII_LIMIT )
+            {
+                c = readCodePoint( c );
+            }
+            else if ( c < ' ' )
+            {
+                throw malformed( c );
+            }
+
+            if ( bKeep )
+            {
+                sbString.appendCodePoint( c );
+            }
+        }
+    }
+
+    /**
+     * Reads a character encoded in UTF-8 on several bytes
+     *
+     * @param nLeadByte
+     *            the first byte, already read
+     * @return the code point of the character
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private int readCodePoint( int nLeadByte ) throws IOException
+    {
+        int nCodePoint;
+        int nContinuationBytes;
+
+        if ( ( nLeadByte & 0xE0 ) == 0xC0 )
+        {
+            nCodePoint = nLeadByte & 0x1F;
+            nContinuationBytes = 1;
+        }
+        else if ( ( nLeadByte & 0xF0 ) == 0xE0 )
+        {
+            nCodePoint = nLeadByte & 0x0F;
+            nContinuationBytes = 2;
+        }
+        else if ( ( nLeadByte & 0xF8 ) == 0xF0 )
+        {
+            nCodePoint = nLeadByte & 0x07;
+            nContinuationBytes = 3;
+        }
+        else
+        {
+            throw malformed( nLeadByte );
+        }
+
+        for ( int i = 0; i < nContinuationBytes; i++ )
+        {
+            int nByte = read(  );
+
+            if ( ( nByte & 0xC0 ) != 0x80 )
+            {
+                throw malformed( nByte );
+            }
+
+            nCodePoint = ( nCodePoint << 6 ) | ( nByte & 0x3F );
+        }
+
+        if ( !Character.isValidCodePoint( nCodePoint ) )
+        {
+            throw malformed( nLeadByte );
+        }
+
+        return nCodePoint;
+    }
+
+    /**
+     * Reads the character following a backslash in a string
+     *
+     * @return the character
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private char readEscapedCharacter(  ) throws IOException
+    {
+        int c = read(  );
+
+        switch ( c )
+        {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+
+            case 'b':
+                return '\b';
+
+            case 'f':
+                return '\f';
+
+            case 'n':
+                return '\n';
+
+            case 'r':
+                return '\r';
+
+            case 't':
+                return '\t';
+
+            case 'u':
+
+                int nCode = 0;
+
+                for ( int i = 0; i < UNICODE_ESCAPE_LENGTH; i++ )
+                {
+                    int nByte = read(  );
+                    int nDigit = Character.digit( (char) nByte, HEX_RADIX );
+
+                    if ( nDigit < 0 )
+                    {
+                        throw malformed( nByte );
+                    }
+
+                    nCode = ( nCode * HEX_RADIX ) + nDigit;
+                }
+
+                return (char) nCode;
+
+            default:
+                throw malformed( c );
+        }
+    }
+
+    /**
+     * Reads a number or a literal (true, false, null) : the characters up to
+     * the next separator
+     *
+     * @return the literal
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private String readLiteral(  ) throws IOException
+    {
+        StringBuilder sbLiteral = new StringBuilder(  );
+
+        while ( true )
+        {
+            if ( ( _nPosition == _nLimit ) && !fill(  ) )
+            {
+                break;
+            }
+
+            char c = (char) ( _buffer[_nPosition] & 0xFF );
+
+            if ( ( c == ',' ) || ( c == '}' ) || ( c == ']' ) || ( c == ' ' ) || ( c == '\t' ) || ( c == '\n' ) ||
+                    ( c == '\r' ) )
+            {
+                break;
+            }
+
+            if ( !( ( ( c >= 'a' ) && ( c <= 'z' ) ) || ( ( c >= 'A' ) && ( c <= 'Z' ) ) ||
+                    ( ( c >= '0' ) && ( c <= '9' ) ) || ( c == '-' ) || ( c == '+' ) || ( c == '.' ) ) )
+            {
+                throw malformed( c );
+            }
+
+            sbLiteral.append( c );
+            _nPosition++;
+        }
+
+        if ( sbLiteral.length(  ) == 0 )
+        {
+            throw malformed( END );
+        }
+
+        return sbLiteral.toString(  );
+    }
+
+    /**
+     * Builds the error raised for an unexpected character
+     *
+     * @param c
+     *            the byte, or {@link #END} at the end of the stream
+     * @return the error
+     */
+    private static AppException malformed( int c )
+    {
+        if ( c == END )
+        {
+            return new AppException( ERROR_MALFORMED + ERROR_UNEXPECTED_END );
+        }
+
+        if ( ( c < ' ' ) || ( c >= ASCII_LIMIT ) )
+        {
+            return new AppException( ERROR_MALFORMED + ERROR_UNEXPECTED_BYTE + Integer.toHexString( c ) );
+        }
+
+        return new AppException( ERROR_MALFORMED + ERROR_UNEXPECTED_CHARACTER + (char) c );
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.OutboxEntry;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.OutboxEntryHome;
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.sql.Timestamp;
+
+import java.text.MessageFormat;
+
+import java.util.List;
+import java.util.UUID;
+
+
+/**
+ * This service manages the outbox : the tickets to send are stored in
+ * database by the workflow action and sent later by the outbox daemon, so that
+ * a pending send survives a restart or an outage of the end point.
+ * <br>
+ * The outbox holds one entry per action sending a ticket, so that an action
+ * on a ticket already waiting in the outbox is sent too. An entry is locked
+ * while its ticket is sent and removed once the send is over. The lock is
+ * taken in database, so that an entry is sent by one node only. An entry
+ * whose lock has expired (the application stopped during the send) is sent
+ * again, and an entry which still fails after the maximum number of attempts
+ * is removed, its ticket staying in failure. An entry whose lock has been
+ * taken by another node during the send is left to this node.
+ */
+public final class OutboxService
+{
+    // Properties
+    private static final String PROPERTY_BATCH_SIZE = "ticketing-pocgru.outbox.batchSize";
+    private static final String PROPERTY_LOCK_TIMEOUT = "ticketing-pocgru.outbox.lockTimeout";
+    private static final String PROPERTY_RETRY_DELAY = "ticketing-pocgru.outbox.retryDelay";
+    private static final String PROPERTY_MAX_RETRY_DELAY = "ticketing-pocgru.outbox.maxRetryDelay";
+    private static final String PROPERTY_MAX_ATTEMPTS = "ticketing-pocgru.outbox.maxAttempts";
+
+    // Other constants
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_LOCK_TIMEOUT = 300;
+    private static final int DEFAULT_RETRY_DELAY = 60;
+    private static final int DEFAULT_MAX_RETRY_DELAY = 3600;
+    private static final int DEFAULT_MAX_ATTEMPTS = 20;
+    private static final int MAX_INSERT_ATTEMPTS = 3;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+    private static final String LOG_SERVICE_NAME = " - OutboxService - ";
+    private static final String LOG_SEND_ERROR = "Error when sending the ticket {0} from the outbox : ";
+    private static final String LOG_ABANDONED = "The ticket {0} is removed from the outbox after {1} failed attempts";
+    private static final String LOG_LOCK_LOST = "The lock of the ticket {0} in the outbox has expired during its send, the entry is left to the node holding it";
+    private static final String LOG_RESULT = "Tickets sent : {0}, rescheduled : {1}, abandoned : {2}, locked by another node : {3}";
+    private static OutboxService _singleton = new OutboxService(  );
+
+    /**
+     * Constructor
+     */
+    private OutboxService(  )
+    {
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static OutboxService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Stores the specified ticket in the outbox. Nothing is done if the same
+     * action on the ticket is already waiting in the outbox.
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     */
+    public void enqueue( int nIdTicket, int nIdResourceHistory )
+    {
+        for ( int nAttempt = 1;
+                OutboxEntryHome.findByIdTicketAndResourceHistory( nIdTicket, nIdResourceHistory ) == null;
+                nAttempt++ )
+        {
+            Timestamp dateNow = new Timestamp( System.currentTimeMillis(  ) );
+            OutboxEntry entry = new OutboxEntry(  );
+            entry.setIdTicket( nIdTicket );
+            entry.setIdResourceHistory( nIdResourceHistory );
+            entry.setDateCreation( dateNow );
+            entry.setDateNextAttempt( dateNow );
+
+            try
+            {
+                OutboxEntryHome.create( entry );
+
+                return;
+            }
+            catch ( AppException e )
+            {
+                // The action is unique in the outbox : another node may have stored it, or taken the same key
+                if ( nAttempt >= MAX_INSERT_ATTEMPTS )
+                {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of a ticket stored before the specified time, once
+     * the ticket has been sent by other means, such as a re-send from the
+     * administration. An entry being sent is kept, as well as an entry stored
+     * later, which may hold changes not sent yet.
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     * @param lTime
+     *            the time in milliseconds, before the ticket was read for its
+     *            send
+     */
+    public void removePending( int nIdTicket, long lTime )
+    {
+        long lLockTimeout = AppPropertiesService.getPropertyInt( PROPERTY_LOCK_TIMEOUT, DEFAULT_LOCK_TIMEOUT ) * MILLISECONDS_PER_SECOND;
+        OutboxEntryHome.removePendingByIdTicket( nIdTicket, new Timestamp( lTime ),
+            new Timestamp( System.currentTimeMillis(  ) - lLockTimeout ) );
+    }
+
+    /**
+     * Sends a batch of the tickets ready to be sent
+     *
+     * @return the logs of the processing
+     */
+    public String processReadyEntries(  )
+    {
+        long lNow = System.currentTimeMillis(  );
+        long lLockTimeout = AppPropertiesService.getPropertyInt( PROPERTY_LOCK_TIMEOUT, DEFAULT_LOCK_TIMEOUT ) * MILLISECONDS_PER_SECOND;
+        int nBatchSize = AppPropertiesService.getPropertyInt( PROPERTY_BATCH_SIZE, DEFAULT_BATCH_SIZE );
+
+        Timestamp dateLockExpiration = new Timestamp( lNow - lLockTimeout );
+        List<OutboxEntry> listEntries = OutboxEntryHome.findReadyEntries( new Timestamp( lNow ), dateLockExpiration,
+                nBatchSize );
+        int nSent = 0;
+        int nRescheduled = 0;
+        int nAbandoned = 0;
+        int nLocked = 0;
+
+        for ( OutboxEntry entry : listEntries )
+        {
+            String strLockKey = UUID.randomUUID(  ).toString(  );
+
+            // Another node, or an overlapping run, may have taken the entry since it was selected
+            if ( !OutboxEntryHome.lock( entry.getId(  ), new Timestamp( System.currentTimeMillis(  ) ),
+                        dateLockExpiration, strLockKey ) )
+            {
+                nLocked++;
+
+                continue;
+            }
+
+            SendResult result = processEntry( entry, strLockKey );
+
+            if ( result != SendResult.FAILED_RETRYABLE )
+            {
+                nSent++;
+            }
+            else if ( entry.getNbAttempts(  ) >= getMaxAttempts(  ) )
+            {
+                nAbandoned++;
+            }
+            else
+            {
+                nRescheduled++;
+            }
+        }
+
+        return MessageFormat.format( LOG_RESULT, nSent, nRescheduled, nAbandoned, nLocked );
+    }
+
+    /**
+     * Sends the ticket of a locked entry. The entry is removed from the
+     * outbox, unless the send failed with a retryable error and the maximum
+     * number of attempts is not reached. The entry is left unchanged if its
+     * lock has been taken by another node during the send.
+     *
+     * @param entry
+     *            the entry, whose number of attempts is incremented
+     * @param strLockKey
+     *            the key of the lock of the entry
+     * @return the result of the send
+     */
+    private SendResult processEntry( OutboxEntry entry, String strLockKey )
+    {
+        // The number of attempts has been incremented by the lock
+        entry.setNbAttempts( entry.getNbAttempts(  ) + 1 );
+
+        SendResult result;
+
+        try
+        {
+            result = TicketSendService.getInstance(  ).send( entry.getIdTicket(  ), entry.getIdResourceHistory(  ) );
+        }
+        catch ( RuntimeException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_SEND_ERROR, entry.getIdTicket(  ) ) +
+                e.getMessage(  ), e );
+            result = SendResult.FAILED_RETRYABLE;
+        }
+
+        if ( ( result == SendResult.FAILED_RETRYABLE ) && ( entry.getNbAttempts(  ) >= getMaxAttempts(  ) ) )
+        {
+            // The ticket keeps its failed status and can be re-sent from the administration
+            AppLogService.error( LOG_SERVICE_NAME +
+                MessageFormat.format( LOG_ABANDONED, entry.getIdTicket(  ), entry.getNbAttempts(  ) ) );
+        }
+        else if ( result == SendResult.FAILED_RETRYABLE )
+        {
+            long lRetryDelay = RetryPolicy.getInstance(  )
+                                          .computeDelay( entry.getNbAttempts(  ),
+                    AppPropertiesService.getPropertyInt( PROPERTY_RETRY_DELAY, DEFAULT_RETRY_DELAY ) * MILLISECONDS_PER_SECOND,
+                    AppPropertiesService.getPropertyInt( PROPERTY_MAX_RETRY_DELAY, DEFAULT_MAX_RETRY_DELAY ) * MILLISECONDS_PER_SECOND );
+            if ( !OutboxEntryHome.reschedule( entry.getId(  ),
+                        new Timestamp( System.currentTimeMillis(  ) + lRetryDelay ), strLockKey ) )
+            {
+                AppLogService.info( LOG_SERVICE_NAME + MessageFormat.format( LOG_LOCK_LOST, entry.getIdTicket(  ) ) );
+            }
+
+            return result;
+        }
+
+        if ( !OutboxEntryHome.removeLocked( entry.getId(  ), strLockKey ) )
+        {
+            AppLogService.info( LOG_SERVICE_NAME + MessageFormat.format( LOG_LOCK_LOST, entry.getIdTicket(  ) ) );
+        }
+
+        return result;
+    }
+
+    /**
+     * Gives the maximum number of attempts to send a ticket from the outbox
+     *
+     * @return the maximum number of attempts
+     */
+    private static int getMaxAttempts(  )
+    {
+        return AppPropertiesService.getPropertyInt( PROPERTY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.spring.SpringContextService;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This service gives the payload formats declared as beans, by name. The
+ * formats are looked up once : they are only used to compile the plans of the
+ * companies when the routing table is built.
+ */
+public final class PayloadFormatService
+{
+    // Properties
+    private static final String PROPERTY_PAYLOAD_FORMAT = "ticketing-pocgru.payload.format";
+    private static final String PROPERTY_SUFFIX_COMPANY = ".company.";
+
+    // Other constants
+    private static final String LOG_SERVICE_NAME = " - PayloadFormatService - ";
+    private static final String LOG_UNKNOWN_FORMAT = "Unknown payload format, the default one is used : ";
+    private static PayloadFormatService _singleton;
+
+    // Variables
+    private final Map<String, IPayloadFormat> _mapFormats = new HashMap<String, IPayloadFormat>(  );
+    private final IPayloadFormat _defaultFormat;
+
+    /**
+     * Constructor
+     */
+    private PayloadFormatService(  )
+    {
+        List<IPayloadFormat> listFormats = SpringContextService.getBeansOfType( IPayloadFormat.class );
+
+        for ( IPayloadFormat format : listFormats )
+        {
+            _mapFormats.put( format.getName(  ), format );
+        }
+
+        IPayloadFormat defaultFormat = _mapFormats.get( JsonPayloadFormat.NAME );
+        _defaultFormat = ( defaultFormat != null ) ? defaultFormat : new JsonPayloadFormat(  );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static synchronized PayloadFormatService getInstance(  )
+    {
+        if ( _singleton == null )
+        {
+            _singleton = new PayloadFormatService(  );
+        }
+
+        return _singleton;
+    }
+
+    /**
+     * Gives the format configured for the specified company : the format of
+     * the company if it is defined, otherwise the format of all the
+     * companies, otherwise the default JSON format
+     *
+     * @param strCompany
+     *            the company
+     * @return the format
+     */
+    public IPayloadFormat getCompanyFormat( String strCompany )
+    {
+        return getCompanyFormat( AppPropertiesService.getProperty( PROPERTY_PAYLOAD_FORMAT ),
+            AppPropertiesService.getProperty( PROPERTY_PAYLOAD_FORMAT + PROPERTY_SUFFIX_COMPANY + strCompany ) );
+    }
+
+    /**
+     * Gives the format of a company from the values of the format properties
+     *
+     * @param strFormat
+     *            the format of all the companies, or {@code null}
+     * @param strCompanyFormat
+     *            the format of the company, or {@code null}
+     * @return the format
+     */
+    IPayloadFormat getCompanyFormat( String strFormat, String strCompanyFormat )
+    {
+        if ( strCompanyFormat != null )
+        {
+            return getFormat( strCompanyFormat );
+        }
+
+        return getFormat( ( strFormat != null ) ? strFormat : JsonPayloadFormat.NAME );
+    }
+
+    /**
+     * Gives the format of the specified name
+     *
+     * @param strName
+     *            the name of the format
+     * @return the format, or the default JSON format if there is no format of
+     *         this name
+     */
+    public IPayloadFormat getFormat( String strName )
+    {
+        IPayloadFormat format = ( strName != null ) ? _mapFormats.get( strName.trim(  ) ) : null;
+
+        if ( format == null )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_UNKNOWN_FORMAT + strName );
+
+            return _defaultFormat;
+        }
+
+        return format;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * This class holds the mapping settings of a company, from which the payload
+ * formats compile their plans : the maximum size of an attachment sent with
+ * a ticket, whether a ticket with a larger attachment is rejected, and the
+ * names under which the extra fields are sent. A mapping is immutable.
+ */
+public final class PayloadMapping
+{
+    private static final String FIELD_SEPARATOR = ",";
+    private static final String NAME_SEPARATOR = ":";
+
+    // Variables
+    private final String _strCompany;
+    private final long _lAttachmentMaxSize;
+    private final boolean _bRejectOversized;
+    private final Map<String, String> _mapFieldNames;
+
+    /**
+     * Constructor
+     *
+     * @param strCompany
+     *            the company
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with a ticket
+     * @param bRejectOversized
+     *            {@code true} if a ticket with a larger attachment is
+     *            rejected, {@code false} if the attachment is sent by
+     *            reference
+     * @param mapFieldNames
+     *            the names of the extra fields sent under another name than
+     *            their code, by code
+     */
+    PayloadMapping( String strCompany, long lAttachmentMaxSize, boolean bRejectOversized,
+        Map<String, String> mapFieldNames )
+    {
+        _strCompany = strCompany;
+        _lAttachmentMaxSize = lAttachmentMaxSize;
+        _bRejectOversized = bRejectOversized;
+        _mapFieldNames = Collections.unmodifiableMap( new HashMap<String, String>( mapFieldNames ) );
+    }
+
+    /**
+     * Parses the names of the extra fields, in the format
+     * {@code code:name,code:name}. The malformed pairs are ignored.
+     *
+     * @param strFieldNames
+     *            the names, or {@code null}
+     * @return the names by code
+     */
+    static Map<String, String> parseFieldNames( String strFieldNames )
+    {
+        Map<String, String> mapFieldNames = new HashMap<String, String>(  );
+
+        if ( strFieldNames == null )
+        {
+            return mapFieldNames;
+        }
+
+        for ( String strPair : strFieldNames.split( FIELD_SEPARATOR ) )
+        {
+            int nSeparator = strPair.indexOf( NAME_SEPARATOR );
+
+            if ( nSeparator > 0 )
+            {
+                String strCode = strPair.substring( 0, nSeparator ).trim(  );
+                String strName = strPair.substring( nSeparator + 1 ).trim(  );
+
+                if ( ( strCode.length(  ) > 0 ) && ( strName.length(  ) > 0 ) )
+                {
+                    mapFieldNames.put( strCode, strName );
+                }
+            }
+        }
+
+        return mapFieldNames;
+    }
+
+    /**
+     * Gives the company
+     *
+     * @return the company
+     */
+    public String getCompany(  )
+    {
+        return _strCompany;
+    }
+
+    /**
+     * Gives the maximum size of an attachment sent with a ticket : a larger
+     * attachment is sent by reference, or rejects its ticket
+     *
+     * @return the size in bytes
+     */
+    public long getAttachmentMaxSize(  )
+    {
+        return _lAttachmentMaxSize;
+    }
+
+    /**
+     * Tells if a ticket with an attachment larger than the maximum size is
+     * rejected
+     *
+     * @return {@code true} if the ticket is rejected, {@code false} if the
+     *         attachment is sent by reference
+     */
+    public boolean isRejectOversized(  )
+    {
+        return _bRejectOversized;
+    }
+
+    /**
+     * Gives the names of the extra fields sent under another name than their
+     * code
+     *
+     * @return the names by code
+     */
+    public Map<String, String> getFieldNames(  )
+    {
+        return _mapFieldNames;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals( Object object )
+    {
+        if ( this == object )
+        {
+            return true;
+        }
+
+        if ( !( object instanceof PayloadMapping ) )
+        {
+            return false;
+        }
+
+        PayloadMapping mapping = (PayloadMapping) object;
+
+        return _strCompany.equals( mapping._strCompany ) && ( _lAttachmentMaxSize == mapping._lAttachmentMaxSize ) &&
+        ( _bRejectOversized == mapping._bRejectOversized ) && _mapFieldNames.equals( mapping._mapFieldNames );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode(  )
+    {
+        return _strCompany.hashCode(  );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This class limits the rate of the sends to an end point with a token bucket
+ * : the bucket is filled at the allowed rate up to its capacity, and each send
+ * takes a token. A send which finds the bucket empty reserves the next token
+ * and waits for it, unless the wait exceeds its timeout.
+ */
+public class RateLimiter
+{
+    private static final double NANOSECONDS_PER_SECOND = 1000000000d;
+
+    // Variables
+    private final double _dRate;
+    private final double _dCapacity;
+    private double _dTokens;
+    private long _lLastRefillTime;
+
+    /**
+     * Constructor
+     *
+     * @param dRate
+     *            the number of sends allowed per second
+     * @param nBurst
+     *            the number of sends allowed at once after an idle period
+     */
+    public RateLimiter( double dRate, int nBurst )
+    {
+        this( dRate, nBurst, System.nanoTime(  ) );
+    }
+
+    /**
+     * Constructor
+     *
+     * @param dRate
+     *            the number of sends allowed per second
+     * @param nBurst
+     *            the number of sends allowed at once after an idle period
+     * @param lNow
+     *            the current time in nanoseconds, the bucket being full at
+     *            this time
+     */
+    RateLimiter( double dRate, int nBurst, long lNow )
+    {
+        _dRate = dRate;
+        _dCapacity = Math.max( 1, nBurst );
+        _dTokens = _dCapacity;
+        _lLastRefillTime = lNow;
+    }
+
+    /**
+     * Takes a token, waiting for it if the bucket is empty
+     *
+     * @param lTimeout
+     *            the maximum time to wait in milliseconds
+     * @return {@code true} if a token has been taken, {@code false} if it
+     *         would have to wait more than the timeout
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting
+     */
+    public boolean tryAcquire( long lTimeout ) throws InterruptedException
+    {
+        long lWait = reserve( TimeUnit.MILLISECONDS.toNanos( lTimeout ), System.nanoTime(  ) );
+
+        if ( lWait < 0L )
+        {
+            return false;
+        }
+
+        if ( lWait > 0L )
+        {
+            TimeUnit.NANOSECONDS.sleep( lWait );
+        }
+
+        return true;
+    }
+
+    /**
+     * Reserves a token
+     *
+     * @param lMaxWait
+     *            the maximum time to wait in nanoseconds
+     * @param lNow
+     *            the current time in nanoseconds
+     * @return the time to wait in nanoseconds before the token is available,
+     *         or -1 if it exceeds the maximum time, in which case no token is
+     *         taken
+     */
+    synchronized long reserve( long lMaxWait, long lNow )
+    {
+        _dTokens = Math.min( _dCapacity, _dTokens + ( ( ( lNow - _lLastRefillTime ) * _dRate ) / NANOSECONDS_PER_SECOND ) );
+        _lLastRefillTime = lNow;
+
+        long lWait = 0L;
+
+        if ( _dTokens < 1d )
+        {
+            // The tokens already reserved by waiting sends are counted as a debt
+            lWait = (long) Math.ceil( ( ( 1d - _dTokens ) * NANOSECONDS_PER_SECOND ) / _dRate );
+
+            if ( lWait > lMaxWait )
+            {
+                return -1L;
+            }
+        }
+
+        _dTokens -= 1d;
+
+        return lWait;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.Arrays;
+
+
+/**
+ * This class keeps the outcome and the duration of the last sends to the end
+ * point of a company, to give their success rate and latency percentiles
+ */
+final class RecentSends
+{
+    private final long [] _durations;
+    private final int [] _nbTickets;
+    private final int [] _nbTicketsSentOk;
+    private int _nNext;
+    private int _nCount;
+
+    /**
+     * Constructor
+     *
+     * @param nSize
+     *            the number of sends kept
+     */
+    RecentSends( int nSize )
+    {
+        _durations = new long[nSize];
+        _nbTickets = new int[nSize];
+        _nbTicketsSentOk = new int[nSize];
+    }
+
+    /**
+     * Records a send, the oldest send is forgotten once the window is full
+     *
+     * @param nNbTickets
+     *            the number of tickets of the send
+     * @param nNbTicketsSentOk
+     *            the number of tickets accepted by the end point
+     * @param lDuration
+     *            the duration of the send in nanoseconds
+     */
+    synchronized void record( int nNbTickets, int nNbTicketsSentOk, long lDuration )
+    {
+        _durations[_nNext] = lDuration;
+        _nbTickets[_nNext] = nNbTickets;
+        _nbTicketsSentOk[_nNext] = nNbTicketsSentOk;
+        _nNext = ( _nNext + 1 ) % _durations.length;
+
+        if ( _nCount < _durations.length )
+        {
+            _nCount++;
+        }
+    }
+
+    /**
+     * Gives the number of sends kept
+     *
+     * @return the number of sends
+     */
+    synchronized int getCount(  )
+    {
+        return _nCount;
+    }
+
+    /**
+     * Gives the rate of the tickets of the sends kept accepted by the end
+     * point
+     *
+     * @return the rate between 0 and 1, or -1 if no send is kept
+     */
+    synchronized double getSuccessRate(  )
+    {
+        long lNbTickets = 0L;
+        long lNbTicketsSentOk = 0L;
+
+        for ( int i = 0; i < _nCount; i++ )
+        {
+            lNbTickets += _nbTickets[i];
+            lNbTicketsSentOk += _nbTicketsSentOk[i];
+        }
+
+        return ( lNbTickets > 0 ) ? ( (double) lNbTicketsSentOk / lNbTickets ) : ( -1d );
+    }
+
+    /**
+     * Gives percentiles of the durations of the sends kept
+     *
+     * @param percentiles
+     *            the percentiles, between 0 and 1
+     * @return the durations in nanoseconds, in the order of the percentiles,
+     *         or -1 if no send is kept
+     */
+    long [] getDurationPercentiles( double... percentiles )
+    {
+        long [] durations;
+
+        synchronized ( this )
+        {
+            durations = Arrays.copyOf( _durations, _nCount );
+        }
+
+        Arrays.sort( durations );
+
+        long [] values = new long[percentiles.length];
+
+        for ( int i = 0; i < percentiles.length; i++ )
+        {
+            int nIndex = (int) Math.ceil( percentiles[i] * durations.length ) - 1;
+            values[i] = ( durations.length > 0 ) ? durations[Math.max( 0, nIndex )] : ( -1L );
+        }
+
+        return values;
+    }
+}
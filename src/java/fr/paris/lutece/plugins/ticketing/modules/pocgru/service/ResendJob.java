@@ -0,0 +1,458 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * This class represents a re-send of the tickets whose send failed : its
+ * selection, its progress and the results of the last tickets processed. The
+ * counters are updated by the workers of the re-send and read by the
+ * administration page.
+ */
+public final class ResendJob
+{
+    private static final int PERCENT = 100;
+    private static final double MILLISECONDS_PER_SECOND = 1000.0;
+    private static final int TOTAL_UNKNOWN = -1;
+    private static final AtomicLong _lLastId = new AtomicLong(  );
+
+    // Variables
+    private final long _lId;
+    private final long _lStartTime;
+    private final String _strCompany;
+    private final Timestamp _dateFrom;
+    private final Timestamp _dateTo;
+    private final int _nConcurrency;
+    private final int _nMaxResults;
+    private final AtomicInteger _nDone = new AtomicInteger(  );
+    private final AtomicInteger _nSentOk = new AtomicInteger(  );
+    private final AtomicInteger _nFailed = new AtomicInteger(  );
+    private final AtomicInteger _nSkipped = new AtomicInteger(  );
+    private final LinkedList<TicketResult> _listResults = new LinkedList<TicketResult>(  );
+    private volatile int _nTotal = TOTAL_UNKNOWN;
+    private volatile long _lEndTime;
+    private volatile boolean _bCancelled;
+
+    /**
+     * Constructor
+     *
+     * @param strCompany
+     *            the company of the tickets to re-send, or null for all the
+     *            companies
+     * @param dateFrom
+     *            the start of the creation period of the tickets, included
+     * @param dateTo
+     *            the end of the creation period of the tickets, excluded
+     * @param nConcurrency
+     *            the maximum number of tickets re-sent at the same time
+     * @param nMaxResults
+     *            the number of results kept, the results of the last tickets
+     *            processed
+     */
+    ResendJob( String strCompany, Timestamp dateFrom, Timestamp dateTo, int nConcurrency, int nMaxResults )
+    {
+        _lStartTime = System.currentTimeMillis(  );
+        _lId = nextId( _lStartTime );
+        _strCompany = strCompany;
+        _dateFrom = dateFrom;
+        _dateTo = dateTo;
+        _nConcurrency = nConcurrency;
+        _nMaxResults = nMaxResults;
+    }
+
+    /**
+     * Gives a new id of job : the start time of the job, or the id following
+     * the last one if another job has started in the same millisecond, so
+     * that two jobs never build the same idempotency keys
+     *
+     * @param lStartTime
+     *            the start time of the job
+     * @return the id
+     */
+    private static long nextId( long lStartTime )
+    {
+        while ( true )
+        {
+            long lLastId = _lLastId.get(  );
+            long lId = Math.max( lStartTime, lLastId + 1L );
+
+            if ( _lLastId.compareAndSet( lLastId, lId ) )
+            {
+                return lId;
+            }
+        }
+    }
+
+    /**
+     * Returns the id of the job, unique among the jobs
+     *
+     * @return the id
+     */
+    public long getId(  )
+    {
+        return _lId;
+    }
+
+    /**
+     * Returns the company of the tickets to re-send
+     *
+     * @return the company, or null for all the companies
+     */
+    public String getCompany(  )
+    {
+        return _strCompany;
+    }
+
+    /**
+     * Returns the start of the creation period of the tickets
+     *
+     * @return the start of the period
+     */
+    public Timestamp getDateFrom(  )
+    {
+        return _dateFrom;
+    }
+
+    /**
+     * Returns the end of the creation period of the tickets
+     *
+     * @return the end of the period
+     */
+    public Timestamp getDateTo(  )
+    {
+        return _dateTo;
+    }
+
+    /**
+     * Returns the maximum number of tickets re-sent at the same time
+     *
+     * @return the concurrency
+     */
+    public int getConcurrency(  )
+    {
+        return _nConcurrency;
+    }
+
+    /**
+     * Returns the number of tickets to re-send
+     *
+     * @return the number of tickets, or -1 while the tickets are selected
+     */
+    public int getTotal(  )
+    {
+        return _nTotal;
+    }
+
+    /**
+     * Returns the number of tickets processed
+     *
+     * @return the number of tickets
+     */
+    public int getDone(  )
+    {
+        return _nDone.get(  );
+    }
+
+    /**
+     * Returns the number of tickets sent successfully
+     *
+     * @return the number of tickets
+     */
+    public int getSentOk(  )
+    {
+        return _nSentOk.get(  );
+    }
+
+    /**
+     * Returns the number of tickets whose send failed again
+     *
+     * @return the number of tickets
+     */
+    public int getFailed(  )
+    {
+        return _nFailed.get(  );
+    }
+
+    /**
+     * Returns the number of tickets not sent (already being sent, no end point,
+     * job cancelled)
+     *
+     * @return the number of tickets
+     */
+    public int getSkipped(  )
+    {
+        return _nSkipped.get(  );
+    }
+
+    /**
+     * Returns the progress of the job
+     *
+     * @return the percentage of tickets processed
+     */
+    public int getProgress(  )
+    {
+        int nTotal = _nTotal;
+
+        if ( nTotal < 0 )
+        {
+            return 0;
+        }
+
+        return ( nTotal == 0 ) ? PERCENT : ( ( _nDone.get(  ) * PERCENT ) / nTotal );
+    }
+
+    /**
+     * Returns the time elapsed since the start of the job, or its duration
+     * once it is finished
+     *
+     * @return the time in milliseconds
+     */
+    public long getElapsedTime(  )
+    {
+        long lEndTime = _lEndTime;
+
+        return ( ( lEndTime > 0 ) ? lEndTime : System.currentTimeMillis(  ) ) - _lStartTime;
+    }
+
+    /**
+     * Returns the throughput of the job
+     *
+     * @return the number of tickets processed per second
+     */
+    public double getThroughput(  )
+    {
+        long lElapsedTime = getElapsedTime(  );
+
+        return ( lElapsedTime > 0 ) ? ( ( _nDone.get(  ) * MILLISECONDS_PER_SECOND ) / lElapsedTime ) : 0;
+    }
+
+    /**
+     * Tells if the job is running
+     *
+     * @return true if some tickets are not processed yet
+     */
+    public boolean isRunning(  )
+    {
+        return _lEndTime == 0;
+    }
+
+    /**
+     * Tells if the job has been cancelled
+     *
+     * @return true if the job has been cancelled
+     */
+    public boolean isCancelled(  )
+    {
+        return _bCancelled;
+    }
+
+    /**
+     * Returns the number of results kept
+     *
+     * @return the number of results
+     */
+    public int getMaxResults(  )
+    {
+        return _nMaxResults;
+    }
+
+    /**
+     * Returns the results of the last tickets processed
+     *
+     * @return the results, the last ticket processed first
+     */
+    public List<TicketResult> getResults(  )
+    {
+        synchronized ( _listResults )
+        {
+            List<TicketResult> listResults = new ArrayList<TicketResult>( _listResults.size(  ) );
+
+            Iterator<TicketResult> iterator = _listResults.descendingIterator(  );
+
+            while ( iterator.hasNext(  ) )
+            {
+                listResults.add( iterator.next(  ) );
+            }
+
+            return listResults;
+        }
+    }
+
+    /**
+     * Sets the number of tickets to re-send, once they are selected
+     *
+     * @param nTotal
+     *            the number of tickets
+     */
+    void setTotal( int nTotal )
+    {
+        _nTotal = nTotal;
+
+        if ( nTotal == 0 )
+        {
+            finish(  );
+        }
+    }
+
+    /**
+     * Cancels the job : the tickets not processed yet are skipped
+     */
+    void cancel(  )
+    {
+        _bCancelled = true;
+    }
+
+    /**
+     * Records the result of a ticket. The job is finished once all the tickets
+     * are processed.
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     * @param result
+     *            the result of the send
+     * @param lDuration
+     *            the duration of the send in milliseconds
+     */
+    void addResult( int nIdTicket, SendResult result, long lDuration )
+    {
+        if ( _nMaxResults > 0 )
+        {
+            synchronized ( _listResults )
+            {
+                _listResults.addLast( new TicketResult( nIdTicket, result, lDuration ) );
+
+                if ( _listResults.size(  ) > _nMaxResults )
+                {
+                    _listResults.removeFirst(  );
+                }
+            }
+        }
+
+        if ( result == SendResult.SENT_OK )
+        {
+            _nSentOk.incrementAndGet(  );
+        }
+        else if ( result == SendResult.SKIPPED )
+        {
+            _nSkipped.incrementAndGet(  );
+        }
+        else
+        {
+            _nFailed.incrementAndGet(  );
+        }
+
+        if ( _nDone.incrementAndGet(  ) == _nTotal )
+        {
+            finish(  );
+        }
+    }
+
+    /**
+     * Marks the job as finished
+     */
+    void finish(  )
+    {
+        if ( _lEndTime == 0 )
+        {
+            _lEndTime = System.currentTimeMillis(  );
+        }
+    }
+
+    /**
+     * This class represents the result of the re-send of a ticket
+     *
+     */
+    public static final class TicketResult
+    {
+        private final int _nIdTicket;
+        private final SendResult _result;
+        private final long _lDuration;
+
+        /**
+         * Constructor
+         *
+         * @param nIdTicket
+         *            the id of the ticket
+         * @param result
+         *            the result of the send
+         * @param lDuration
+         *            the duration of the send in milliseconds
+         */
+        TicketResult( int nIdTicket, SendResult result, long lDuration )
+        {
+            _nIdTicket = nIdTicket;
+            _result = result;
+            _lDuration = lDuration;
+        }
+
+        /**
+         * Returns the id of the ticket
+         *
+         * @return the id
+         */
+        public int getIdTicket(  )
+        {
+            return _nIdTicket;
+        }
+
+        /**
+         * Returns the result of the send
+         *
+         * @return the result
+         */
+        public SendResult getResult(  )
+        {
+            return _result;
+        }
+
+        /**
+         * Returns the duration of the send
+         *
+         * @return the duration in milliseconds
+         */
+        public long getDuration(  )
+        {
+            return _lDuration;
+        }
+    }
+}
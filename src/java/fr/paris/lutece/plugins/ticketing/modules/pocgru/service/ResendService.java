@@ -0,0 +1,497 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.sql.Timestamp;
+
+import java.text.MessageFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This service re-sends the tickets whose send failed, for instance after an
+ * outage of the end points. The tickets are selected by company and creation
+ * date, then re-sent by a pool of workers whose size caps the number of
+ * tickets sent at the same time. Each ticket is sent by the
+ * {@link TicketSendService}, so the rate limits and the circuit breaker of its
+ * company apply. Only one re-send runs at a time. A ticket re-sent
+ * successfully is removed from the outbox, so that a send of the ticket
+ * waiting for its next attempt does not send it again.
+ */
+public final class ResendService
+{
+    // Properties
+    private static final String PROPERTY_RESEND_CONCURRENCY = "ticketing-pocgru.resend.concurrency";
+    private static final String PROPERTY_RESEND_MAX_CONCURRENCY = "ticketing-pocgru.resend.maxConcurrency";
+    private static final String PROPERTY_RESEND_SHUTDOWN_TIMEOUT = "ticketing-pocgru.resend.shutdownTimeout";
+    private static final String PROPERTY_RESEND_MAX_RESULTS = "ticketing-pocgru.resend.maxResults";
+
+    // Other constants
+    private static final int DEFAULT_CONCURRENCY = 4;
+    private static final int DEFAULT_MAX_CONCURRENCY = 16;
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+    private static final int DEFAULT_MAX_RESULTS = 100;
+    private static final String THREAD_NAME_PREFIX = "ticketing-pocgru-resend-";
+    private static final String LOG_SERVICE_NAME = " - ResendService - ";
+    private static final String LOG_JOB_STARTED = "Re-send of the failed tickets started for the company {0} from {1} to {2}, tickets : {3}";
+    private static final String LOG_SELECT_ERROR = "Error when selecting the tickets to re-send : ";
+    private static final String LOG_SEND_ERROR = "Error when re-sending the ticket {0} : ";
+    private static final String LOG_OUTBOX_ERROR = "Error when removing the re-sent ticket {0} from the outbox : ";
+    private static final String LOG_SHUTDOWN = "Re-send stopped, tickets not processed : ";
+    private static ResendService _singleton = new ResendService(  );
+
+    // Variables
+    private final int _nDefaultConcurrency;
+    private final int _nMaxConcurrency;
+    private final long _lShutdownTimeout;
+    private final int _nMaxResults;
+    private volatile ResendJob _job;
+    private ThreadPoolExecutor _executor;
+
+    /**
+     * Constructor
+     */
+    private ResendService(  )
+    {
+        _nMaxConcurrency = Math.max( 1,
+                AppPropertiesService.getPropertyInt( PROPERTY_RESEND_MAX_CONCURRENCY, DEFAULT_MAX_CONCURRENCY ) );
+        _nDefaultConcurrency = getConcurrency( AppPropertiesService.getPropertyInt( PROPERTY_RESEND_CONCURRENCY,
+                    DEFAULT_CONCURRENCY ) );
+        _lShutdownTimeout = AppPropertiesService.getPropertyInt( PROPERTY_RESEND_SHUTDOWN_TIMEOUT,
+                DEFAULT_SHUTDOWN_TIMEOUT );
+        _nMaxResults = Math.max( 0,
+                AppPropertiesService.getPropertyInt( PROPERTY_RESEND_MAX_RESULTS, DEFAULT_MAX_RESULTS ) );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static ResendService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Returns the number of tickets re-sent at the same time by default
+     *
+     * @return the concurrency
+     */
+    public int getDefaultConcurrency(  )
+    {
+        return _nDefaultConcurrency;
+    }
+
+    /**
+     * Returns the maximum number of tickets re-sent at the same time
+     *
+     * @return the concurrency
+     */
+    public int getMaxConcurrency(  )
+    {
+        return _nMaxConcurrency;
+    }
+
+    /**
+     * Returns the last re-send
+     *
+     * @return the re-send, running or finished, or null if no re-send has been
+     *         started
+     */
+    public ResendJob getJob(  )
+    {
+        return _job;
+    }
+
+    /**
+     * Starts the re-send of the tickets whose send failed. The tickets are
+     * selected and re-sent in the background.
+     *
+     * @param strCompany
+     *            the company of the tickets, or null for all the companies
+     * @param dateFrom
+     *            the start of the creation period of the tickets, included
+     * @param dateTo
+     *            the end of the creation period of the tickets, excluded
+     * @param nConcurrency
+     *            the maximum number of tickets re-sent at the same time,
+     *            bounded by the configured maximum
+     * @return the re-send, or null if a re-send is already running
+     */
+    public synchronized ResendJob start( String strCompany, Timestamp dateFrom, Timestamp dateTo, int nConcurrency )
+    {
+        if ( ( _job != null ) && _job.isRunning(  ) )
+        {
+            return null;
+        }
+
+        ResendJob job = new ResendJob( strCompany, dateFrom, dateTo, getConcurrency( nConcurrency ), _nMaxResults );
+
+        // One thread selects the tickets, then the workers share the selected tickets
+        _executor = new ResendExecutor( job );
+        _executor.execute( new SelectTicketsRunnable( job, _executor ) );
+        _job = job;
+
+        return job;
+    }
+
+    /**
+     * Cancels the running re-send : the tickets being sent complete, the
+     * others are skipped
+     */
+    public void cancel(  )
+    {
+        ResendJob job = _job;
+
+        if ( job != null )
+        {
+            job.cancel(  );
+        }
+    }
+
+    /**
+     * Stops the running re-send and its workers
+     */
+    public synchronized void shutdown(  )
+    {
+        if ( _executor != null )
+        {
+            cancel(  );
+            _executor.shutdown(  );
+
+            try
+            {
+                if ( !_executor.awaitTermination( _lShutdownTimeout, TimeUnit.MILLISECONDS ) )
+                {
+                    AppLogService.error( LOG_SERVICE_NAME + LOG_SHUTDOWN + _executor.shutdownNow(  ).size(  ) );
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread(  ).interrupt(  );
+            }
+        }
+    }
+
+    /**
+     * Bounds the specified concurrency
+     *
+     * @param nConcurrency
+     *            the concurrency
+     * @return the concurrency, between 1 and the configured maximum
+     */
+    private int getConcurrency( int nConcurrency )
+    {
+        return Math.max( 1, Math.min( nConcurrency, _nMaxConcurrency ) );
+    }
+
+    /**
+     * Selects among the failed tickets those of the specified company
+     *
+     * @param mapGuids
+     *            the guids of the users of the failed tickets, by id of
+     *            ticket
+     * @param strCompany
+     *            the company, or null for all the companies
+     * @param companyResolver
+     *            the resolver of the companies of the users
+     * @return the ids of the tickets, in the order of the map
+     */
+    static List<Integer> selectTickets( Map<Integer, String> mapGuids, String strCompany,
+        ICompanyResolver companyResolver )
+    {
+        List<Integer> listIdTickets = new ArrayList<Integer>( mapGuids.size(  ) );
+
+        for ( Map.Entry<Integer, String> entry : mapGuids.entrySet(  ) )
+        {
+            if ( ( strCompany == null ) ||
+                    strCompany.equals( companyResolver.getCompany( entry.getValue(  ) ) ) )
+            {
+                listIdTickets.add( entry.getKey(  ) );
+            }
+        }
+
+        return listIdTickets;
+    }
+
+    /**
+     * This class selects the tickets to re-send, then starts the workers
+     *
+     */
+    private static final class SelectTicketsRunnable implements Runnable
+    {
+        private final ResendJob _job;
+        private final ThreadPoolExecutor _executor;
+
+        /**
+         * Constructor
+         *
+         * @param job
+         *            the re-send
+         * @param executor
+         *            the executor of the workers
+         */
+        SelectTicketsRunnable( ResendJob job, ThreadPoolExecutor executor )
+        {
+            _job = job;
+            _executor = executor;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            Queue<Integer> queueIdTickets = new ConcurrentLinkedQueue<Integer>(  );
+
+            try
+            {
+                queueIdTickets.addAll( selectTickets(  ) );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME + LOG_SELECT_ERROR + e.getMessage(  ), e );
+                queueIdTickets.clear(  );
+            }
+
+            AppLogService.info( LOG_SERVICE_NAME +
+                MessageFormat.format( LOG_JOB_STARTED, _job.getCompany(  ), _job.getDateFrom(  ),
+                    _job.getDateTo(  ), queueIdTickets.size(  ) ) );
+            _job.setTotal( queueIdTickets.size(  ) );
+
+            if ( !queueIdTickets.isEmpty(  ) )
+            {
+                int nWorkers = Math.min( _job.getConcurrency(  ), queueIdTickets.size(  ) );
+
+                for ( int i = 0; i < nWorkers; i++ )
+                {
+                    _executor.execute( new ResendWorker( _job, queueIdTickets ) );
+                }
+            }
+
+            // No other task is submitted : the threads stop once the workers have emptied the queue of tickets
+            _executor.shutdown(  );
+        }
+
+        /**
+         * Selects the failed tickets of the company of the re-send
+         *
+         * @return the ids of the tickets
+         */
+        private List<Integer> selectTickets(  )
+        {
+            Map<Integer, String> mapGuids = TicketSendService.getInstance(  )
+                                                             .findFailedTickets( _job.getDateFrom(  ),
+                    _job.getDateTo(  ) );
+
+            return ResendService.selectTickets( mapGuids, _job.getCompany(  ),
+                CompanyResolutionService.getInstance(  ) );
+        }
+    }
+
+    /**
+     * This class re-sends the tickets of a queue shared with the other
+     * workers of the re-send, until the queue is empty
+     *
+     */
+    private static final class ResendWorker implements Runnable
+    {
+        private final ResendJob _job;
+        private final Queue<Integer> _queueIdTickets;
+
+        /**
+         * Constructor
+         *
+         * @param job
+         *            the re-send
+         * @param queueIdTickets
+         *            the ids of the tickets to re-send
+         */
+        ResendWorker( ResendJob job, Queue<Integer> queueIdTickets )
+        {
+            _job = job;
+            _queueIdTickets = queueIdTickets;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            Integer nIdTicket = _queueIdTickets.poll(  );
+
+            while ( nIdTicket != null )
+            {
+                if ( _job.isCancelled(  ) )
+                {
+                    _job.addResult( nIdTicket, SendResult.SKIPPED, 0L );
+                }
+                else
+                {
+                    resend( nIdTicket );
+                }
+
+                nIdTicket = _queueIdTickets.poll(  );
+            }
+        }
+
+        /**
+         * Re-sends a ticket with a key of its own, so that the end point does
+         * not take it for the replay of the failed send
+         *
+         * @param nIdTicket
+         *            the id of the ticket
+         */
+        private void resend( int nIdTicket )
+        {
+            long lStart = System.currentTimeMillis(  );
+
+            // A ticket whose send ends with an error is recorded as failed, so that the job ends
+            SendResult result = SendResult.FAILED_FATAL;
+
+            try
+            {
+                result = TicketSendService.getInstance(  )
+                                          .send( nIdTicket, IdempotencyService.buildResendKey( nIdTicket, _job.getId(  ) ) );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_SEND_ERROR, nIdTicket ) +
+                    e.getMessage(  ), e );
+            }
+            finally
+            {
+                _job.addResult( nIdTicket, result, System.currentTimeMillis(  ) - lStart );
+            }
+
+            if ( result == SendResult.SENT_OK )
+            {
+                removeFromOutbox( nIdTicket, lStart );
+            }
+        }
+
+        /**
+         * Removes from the outbox the sends of a re-sent ticket stored before
+         * its re-send
+         *
+         * @param nIdTicket
+         *            the id of the ticket
+         * @param lStart
+         *            the start time of the re-send of the ticket
+         */
+        private void removeFromOutbox( int nIdTicket, long lStart )
+        {
+            try
+            {
+                OutboxService.getInstance(  ).removePending( nIdTicket, lStart );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_OUTBOX_ERROR, nIdTicket ) +
+                    e.getMessage(  ), e );
+            }
+        }
+    }
+
+    /**
+     * This class runs the selection and the workers of a re-send, and
+     * finishes the re-send once its threads have stopped, even if some
+     * tickets have not been processed
+     *
+     */
+    private static final class ResendExecutor extends ThreadPoolExecutor
+    {
+        private final ResendJob _job;
+
+        /**
+         * Constructor
+         *
+         * @param job
+         *            the re-send
+         */
+        ResendExecutor( ResendJob job )
+        {
+            super( job.getConcurrency(  ), job.getConcurrency(  ), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>( job.getConcurrency(  ) + 1 ), new ResendThreadFactory(  ) );
+            _job = job;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void terminated(  )
+        {
+            super.terminated(  );
+            _job.finish(  );
+        }
+    }
+
+    /**
+     * This class creates the worker threads
+     *
+     */
+    private static final class ResendThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _nThreadNumber = new AtomicInteger(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadNumber.incrementAndGet(  ) );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * This class represents the response of an end point to a ticket. It is read
+ * from the reply with a {@link JsonReplyReader}, which stops once the
+ * response has been read.
+ */
+public class ResponseContent
+{
+    // Constants for JSON message
+    private static final String KEY_RESPONSE = "response";
+    private static final String KEY_RESPONSES = "responses";
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_MESSAGE = "message";
+
+    // Errors
+    private static final String ERROR_NO_RESPONSE = "No response in the reply";
+    private static final String ERROR_NO_STATUS = "No status in the response";
+
+    // Other constants
+    public static final String STATUS_CORRECT = "OK";
+
+    // Class attributes
+    private final String _strStatus;
+    private final String _strMessage;
+
+    /**
+     * Constructor
+     *
+     * @param strStatus
+     *            the status
+     * @param strMessage
+     *            the message
+     */
+    ResponseContent( String strStatus, String strMessage )
+    {
+        _strStatus = strStatus;
+        _strMessage = strMessage;
+    }
+
+    /**
+     * Reads the response to a ticket : the "response" member of the reply.
+     * The members following it are not read.
+     *
+     * @param reader
+     *            the reader of the reply
+     * @return the response
+     * @throws IOException
+     *             if an error occurs while reading the reply
+     */
+    public static ResponseContent read( JsonReplyReader reader )
+        throws IOException
+    {
+        reader.beginObject(  );
+
+        while ( reader.next(  ) )
+        {
+            if ( KEY_RESPONSE.equals( reader.nextName(  ) ) )
+            {
+                return readResponse( reader );
+            }
+
+            reader.skipValue(  );
+        }
+
+        throw new AppException( ERROR_NO_RESPONSE );
+    }
+
+    /**
+     * Reads the responses to a batch of tickets : the "response" member of
+     * each element of the "responses" array of the reply. The members
+     * following the array are not read.
+     *
+     * @param reader
+     *            the reader of the reply
+     * @return the responses in the order of the tickets, {@code null} for an
+     *         element without response
+     * @throws IOException
+     *             if an error occurs while reading the reply
+     */
+    public static List<ResponseContent> readBatch( JsonReplyReader reader )
+        throws IOException
+    {
+        reader.beginObject(  );
+
+        while ( reader.next(  ) )
+        {
+            if ( !KEY_RESPONSES.equals( reader.nextName(  ) ) )
+            {
+                reader.skipValue(  );
+
+                continue;
+            }
+
+            List<ResponseContent> listResponses = new ArrayList<ResponseContent>(  );
+            reader.beginArray(  );
+
+            while ( reader.next(  ) )
+            {
+                ResponseContent response = null;
+                reader.beginObject(  );
+
+                while ( reader.next(  ) )
+                {
+                    if ( KEY_RESPONSE.equals( reader.nextName(  ) ) )
+                    {
+                        response = readResponse( reader );
+                    }
+                    else
+                    {
+                        reader.skipValue(  );
+                    }
+                }
+
+                reader.endObject(  );
+                listResponses.add( response );
+            }
+
+            reader.endArray(  );
+
+            return listResponses;
+        }
+
+        throw new AppException( ERROR_NO_RESPONSE );
+    }
+
+    /**
+     * Reads a response object
+     *
+     * @param reader
+     *            the reader, before the object
+     * @return the response
+     * @throws IOException
+     *             if an error occurs while reading the reply
+     */
+    private static ResponseContent readResponse( JsonReplyReader reader )
+        throws IOException
+    {
+        String strStatus = null;
+        String strMessage = null;
+        reader.beginObject(  );
+
+        while ( reader.next(  ) )
+        {
+            String strName = reader.nextName(  );
+
+            if ( KEY_STATUS.equals( strName ) )
+            {
+                strStatus = reader.nextValue(  );
+            }
+            else if ( KEY_MESSAGE.equals( strName ) )
+            {
+                strMessage = reader.nextValue(  );
+            }
+            else
+            {
+                reader.skipValue(  );
+            }
+        }
+
+        reader.endObject(  );
+
+        if ( strStatus == null )
+        {
+            throw new AppException( ERROR_NO_STATUS );
+        }
+
+        return new ResponseContent( strStatus,
+            ( STATUS_CORRECT.equals( strStatus ) || ( strMessage == null ) ) ? "" : strMessage );
+    }
+
+    /**
+     * Gives the status
+     *
+     * @return the status
+     */
+    public String getStatus(  )
+    {
+        return _strStatus;
+    }
+
+    /**
+     * Give the message
+     *
+     * @return the message
+     */
+    public String getMessage(  )
+    {
+        return _strMessage;
+    }
+}
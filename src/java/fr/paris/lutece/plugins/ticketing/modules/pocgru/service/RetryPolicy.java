@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.IOException;
+
+import java.util.Random;
+
+
+/**
+ * This class represents the policy applied when the send of a ticket fails :
+ * which failures can be retried, how many times and after which delay. The
+ * delay grows exponentially with the number of attempts and is randomized so
+ * that the tasks failing together do not retry together.
+ */
+public final class RetryPolicy
+{
+    // Properties
+    private static final String PROPERTY_MAX_ATTEMPTS = "ticketing-pocgru.retry.maxAttempts";
+    private static final String PROPERTY_INITIAL_DELAY = "ticketing-pocgru.retry.initialDelay";
+    private static final String PROPERTY_MAX_DELAY = "ticketing-pocgru.retry.maxDelay";
+
+    // Other constants
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final int DEFAULT_INITIAL_DELAY = 500;
+    private static final int DEFAULT_MAX_DELAY = 5000;
+    private static final int HTTP_STATUS_REQUEST_TIMEOUT = 408;
+    private static final int HTTP_STATUS_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_STATUS_BAD_GATEWAY = 502;
+    private static final int HTTP_STATUS_SERVICE_UNAVAILABLE = 503;
+    private static final int HTTP_STATUS_GATEWAY_TIMEOUT = 504;
+    private static final int MAX_SHIFT = 30;
+    private static RetryPolicy _singleton = new RetryPolicy(  );
+
+    // Variables
+    private final Random _random = new Random(  );
+
+    /**
+     * Constructor
+     */
+    private RetryPolicy(  )
+    {
+    }
+
+    /**
+     * Gives the instance of the policy
+     *
+     * @return the instance
+     */
+    public static RetryPolicy getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives the maximum number of attempts for one send
+     *
+     * @return the maximum number of attempts
+     */
+    public int getMaxAttempts(  )
+    {
+        return AppPropertiesService.getPropertyInt( PROPERTY_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS );
+    }
+
+    /**
+     * Tests if a send which received the specified HTTP status can be retried
+     *
+     * @param nHttpStatus
+     *            the HTTP status
+     * @return {@code true} if the send can be retried, {@code false} otherwise
+     */
+    public boolean isRetryable( int nHttpStatus )
+    {
+        switch ( nHttpStatus )
+        {
+            case HTTP_STATUS_REQUEST_TIMEOUT:
+            case HTTP_STATUS_TOO_MANY_REQUESTS:
+            case HTTP_STATUS_BAD_GATEWAY:
+            case HTTP_STATUS_SERVICE_UNAVAILABLE:
+            case HTTP_STATUS_GATEWAY_TIMEOUT:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Tests if a send which failed with the specified error can be retried.
+     * The I/O errors (timeouts, connection refused or reset, ...) are
+     * retryable, as well as the unexpected replies of an end point, such as
+     * the authentication end point, whose HTTP status is retryable.
+     *
+     * @param throwable
+     *            the error
+     * @return {@code true} if the send can be retried, {@code false} otherwise
+     */
+    public boolean isRetryable( Throwable throwable )
+    {
+        for ( Throwable cause = throwable; cause != null; cause = cause.getCause(  ) )
+        {
+            if ( cause instanceof HttpStatusException )
+            {
+                return isRetryable( ( (HttpStatusException) cause ).getStatus(  ) );
+            }
+
+            if ( cause instanceof IOException )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Computes the delay to wait before a new attempt
+     *
+     * @param nAttempt
+     *            the number of the attempt which failed, starting at 1
+     * @param lInitialDelay
+     *            the delay after the first attempt
+     * @param lMaxDelay
+     *            the maximum delay
+     * @return the delay, between the half and the whole of the exponential
+     *         delay
+     */
+    public long computeDelay( int nAttempt, long lInitialDelay, long lMaxDelay )
+    {
+        int nShift = Math.min( Math.max( nAttempt - 1, 0 ), MAX_SHIFT );
+        long lDelay = Math.min( lInitialDelay << nShift, lMaxDelay );
+
+        if ( lDelay <= 1L )
+        {
+            return lDelay;
+        }
+
+        long lHalfDelay = lDelay / 2;
+
+        return lHalfDelay + (long) ( _random.nextDouble(  ) * ( lDelay - lHalfDelay ) );
+    }
+
+    /**
+     * Waits before a new attempt
+     *
+     * @param nAttempt
+     *            the number of the attempt which failed, starting at 1
+     * @return {@code true} if the wait is over, {@code false} if the thread
+     *         has been interrupted
+     */
+    public boolean waitBeforeRetry( int nAttempt )
+    {
+        long lDelay = computeDelay( nAttempt,
+                AppPropertiesService.getPropertyInt( PROPERTY_INITIAL_DELAY, DEFAULT_INITIAL_DELAY ),
+                AppPropertiesService.getPropertyInt( PROPERTY_MAX_DELAY, DEFAULT_MAX_DELAY ) );
+
+        try
+        {
+            Thread.sleep( lDelay );
+
+            return true;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+
+/**
+ * This class gathers what happened during the send of a ticket or of a batch.
+ * It is filled by the sending thread and logged once the send has ended by the
+ * {@link SendEventLogger}.
+ */
+public class SendEvent
+{
+    // Types
+    public static final String TYPE_TICKET = "ticket";
+    public static final String TYPE_BATCH = "batch";
+
+    // Other constants
+    private static final int NO_ID = -1;
+
+    // Variables
+    private final String _strType;
+    private final String _strIdempotencyKey;
+    private final long _lStartTime;
+    private int _nIdTicket = NO_ID;
+    private int _nNbTickets;
+    private int _nNbTicketsSentOk;
+    private String _strCompany;
+    private SendResult _result;
+    private int _nNbAttempts;
+    private int _nHttpStatus;
+    private String _strResponseStatus;
+    private long _lDuration;
+    private long _lPostDuration;
+    private long _lRequestSize;
+    private long _lUncompressedRequestSize;
+    private long _lResponseSize;
+    private String _strMessage;
+    private Throwable _error;
+    private boolean _bDuplicate;
+
+    /**
+     * Constructor. The send starts when the event is created.
+     *
+     * @param strType
+     *            the type of send, {@link #TYPE_TICKET} or {@link #TYPE_BATCH}
+     * @param strIdempotencyKey
+     *            the idempotency key of the send
+     */
+    public SendEvent( String strType, String strIdempotencyKey )
+    {
+        _strType = strType;
+        _strIdempotencyKey = strIdempotencyKey;
+        _lStartTime = System.nanoTime(  );
+    }
+
+    /**
+     * Returns the type of send
+     *
+     * @return the type
+     */
+    public String getType(  )
+    {
+        return _strType;
+    }
+
+    /**
+     * Returns the idempotency key of the send
+     *
+     * @return the key
+     */
+    public String getIdempotencyKey(  )
+    {
+        return _strIdempotencyKey;
+    }
+
+    /**
+     * Returns the id of the ticket, or a negative value for a batch
+     *
+     * @return the id of the ticket
+     */
+    public int getIdTicket(  )
+    {
+        return _nIdTicket;
+    }
+
+    /**
+     * Sets the id of the ticket
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     */
+    public void setIdTicket( int nIdTicket )
+    {
+        _nIdTicket = nIdTicket;
+    }
+
+    /**
+     * Returns the number of tickets sent
+     *
+     * @return the number of tickets
+     */
+    public int getNbTickets(  )
+    {
+        return _nNbTickets;
+    }
+
+    /**
+     * Sets the number of tickets sent
+     *
+     * @param nNbTickets
+     *            the number of tickets
+     */
+    public void setNbTickets( int nNbTickets )
+    {
+        _nNbTickets = nNbTickets;
+    }
+
+    /**
+     * Returns the number of tickets sent successfully
+     *
+     * @return the number of tickets
+     */
+    public int getNbTicketsSentOk(  )
+    {
+        return _nNbTicketsSentOk;
+    }
+
+    /**
+     * Sets the number of tickets sent successfully
+     *
+     * @param nNbTicketsSentOk
+     *            the number of tickets
+     */
+    public void setNbTicketsSentOk( int nNbTicketsSentOk )
+    {
+        _nNbTicketsSentOk = nNbTicketsSentOk;
+    }
+
+    /**
+     * Returns the company the tickets are sent to
+     *
+     * @return the company
+     */
+    public String getCompany(  )
+    {
+        return _strCompany;
+    }
+
+    /**
+     * Sets the company the tickets are sent to
+     *
+     * @param strCompany
+     *            the company
+     */
+    public void setCompany( String strCompany )
+    {
+        _strCompany = strCompany;
+    }
+
+    /**
+     * Returns the result of the send
+     *
+     * @return the result
+     */
+    public SendResult getResult(  )
+    {
+        return _result;
+    }
+
+    /**
+     * Returns the number of attempts
+     *
+     * @return the number of attempts
+     */
+    public int getNbAttempts(  )
+    {
+        return _nNbAttempts;
+    }
+
+    /**
+     * Sets the number of attempts
+     *
+     * @param nNbAttempts
+     *            the number of attempts
+     */
+    public void setNbAttempts( int nNbAttempts )
+    {
+        _nNbAttempts = nNbAttempts;
+    }
+
+    /**
+     * Returns the HTTP status of the last response
+     *
+     * @return the HTTP status, 0 if no response has been received
+     */
+    public int getHttpStatus(  )
+    {
+        return _nHttpStatus;
+    }
+
+    /**
+     * Returns the status given in the last response
+     *
+     * @return the status
+     */
+    public String getResponseStatus(  )
+    {
+        return _strResponseStatus;
+    }
+
+    /**
+     * Sets the status given in the last response
+     *
+     * @param strResponseStatus
+     *            the status
+     */
+    public void setResponseStatus( String strResponseStatus )
+    {
+        _strResponseStatus = strResponseStatus;
+    }
+
+    /**
+     * Returns the duration of the send
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDuration(  )
+    {
+        return _lDuration;
+    }
+
+    /**
+     * Returns the time spent in the HTTP requests
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getPostDuration(  )
+    {
+        return _lPostDuration;
+    }
+
+    /**
+     * Records an HTTP request to the end point
+     *
+     * @param nHttpStatus
+     *            the HTTP status of the response
+     * @param lDuration
+     *            the duration of the request in nanoseconds
+     */
+    public void recordPost( int nHttpStatus, long lDuration )
+    {
+        _nHttpStatus = nHttpStatus;
+        _lPostDuration += lDuration;
+    }
+
+    /**
+     * Returns the size of the last request body
+     *
+     * @return the size in bytes
+     */
+    public long getRequestSize(  )
+    {
+        return _lRequestSize;
+    }
+
+    /**
+     * Sets the size of the last request body
+     *
+     * @param lRequestSize
+     *            the size in bytes
+     */
+    public void setRequestSize( long lRequestSize )
+    {
+        _lRequestSize = lRequestSize;
+    }
+
+    /**
+     * Returns the size of the last request body before its compression
+     *
+     * @return the size in bytes, 0 if the request is not compressed
+     */
+    public long getUncompressedRequestSize(  )
+    {
+        return _lUncompressedRequestSize;
+    }
+
+    /**
+     * Sets the size of the last request body before its compression
+     *
+     * @param lUncompressedRequestSize
+     *            the size in bytes
+     */
+    public void setUncompressedRequestSize( long lUncompressedRequestSize )
+    {
+        _lUncompressedRequestSize = lUncompressedRequestSize;
+    }
+
+    /**
+     * Returns the number of bytes read from the last response body
+     *
+     * @return the size in bytes
+     */
+    public long getResponseSize(  )
+    {
+        return _lResponseSize;
+    }
+
+    /**
+     * Sets the number of bytes read from the last response body
+     *
+     * @param lResponseSize
+     *            the size in bytes
+     */
+    public void setResponseSize( long lResponseSize )
+    {
+        _lResponseSize = lResponseSize;
+    }
+
+    /**
+     * Returns the message explaining the failure of the send
+     *
+     * @return the message, without credentials
+     */
+    public String getMessage(  )
+    {
+        return _strMessage;
+    }
+
+    /**
+     * Sets the message explaining the failure of the send. The credentials it
+     * may contain are redacted.
+     *
+     * @param strMessage
+     *            the message
+     */
+    public void setMessage( String strMessage )
+    {
+        _strMessage = SendEventLogger.redact( strMessage );
+    }
+
+    /**
+     * Returns the error which made the send fail
+     *
+     * @return the error, without credentials, or {@code null} if the send
+     *         did not fail with an error
+     */
+    public Throwable getError(  )
+    {
+        return _error;
+    }
+
+    /**
+     * Sets the error which made the send fail, and the message of the send.
+     * The credentials the error may contain are redacted, its stack trace is
+     * kept.
+     *
+     * @param error
+     *            the error
+     */
+    public void setError( Throwable error )
+    {
+        _error = SendEventLogger.redact( error );
+        _strMessage = _error.getMessage(  );
+    }
+
+    /**
+     * Tells whether the send has been skipped because the same send is in
+     * progress or has just succeeded
+     *
+     * @return {@code true} if the send is a duplicate
+     */
+    public boolean isDuplicate(  )
+    {
+        return _bDuplicate;
+    }
+
+    /**
+     * Sets whether the send has been skipped because the same send is in
+     * progress or has just succeeded
+     *
+     * @param bDuplicate
+     *            {@code true} if the send is a duplicate
+     */
+    public void setDuplicate( boolean bDuplicate )
+    {
+        _bDuplicate = bDuplicate;
+    }
+
+    /**
+     * Ends the send
+     *
+     * @param result
+     *            the result of the send
+     * @return the event
+     */
+    public SendEvent end( SendResult result )
+    {
+        _result = result;
+        _lDuration = System.nanoTime(  ) - _lStartTime;
+
+        return this;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+
+/**
+ * This service logs one record per send, in the logger
+ * {@value #LOGGER_NAME}.
+ * <ul>
+ * <li>the successful sends are logged at the INFO level, the failed and the
+ * skipped sends at the WARN level with the stack trace of their error.
+ * Nothing is built when the logger is not enabled at the level of the
+ * event.</li>
+ * <li>above a number of events per second, only a sample of the successful
+ * sends is logged, the failed sends are always logged</li>
+ * <li>the records never contain the credentials sent to the end point</li>
+ * <li>the records can be written by a dedicated thread, so that the sending
+ * threads never wait for the appenders. When its queue is full, the
+ * successful sends are dropped and the others are written by the sending
+ * thread.</li>
+ * </ul>
+ */
+public final class SendEventLogger
+{
+    // Properties
+    private static final String PROPERTY_SAMPLE_THRESHOLD = "ticketing-pocgru.sendLog.sampleThreshold";
+    private static final String PROPERTY_SAMPLE_RATE = "ticketing-pocgru.sendLog.sampleRate";
+    private static final String PROPERTY_ASYNC = "ticketing-pocgru.sendLog.async";
+    private static final String PROPERTY_QUEUE_SIZE = "ticketing-pocgru.sendLog.queueSize";
+
+    // Other constants
+    public static final String LOGGER_NAME = "lutece.ticketing.pocgru.send";
+    private static final int DEFAULT_SAMPLE_THRESHOLD = 50;
+    private static final int DEFAULT_SAMPLE_RATE = 10;
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+    private static final long NANOSECONDS_PER_MILLISECOND = 1000000L;
+    private static final long SHUTDOWN_TIMEOUT = 5000L;
+    private static final String THREAD_NAME = "ticketing-pocgru-send-log";
+    private static final String REDACTED = "$1***";
+    private static final Pattern PATTERN_AUTHORIZATION = Pattern.compile( "((?:Bearer|Basic)\\s+)[^\\s\"',;]+",
+            Pattern.CASE_INSENSITIVE );
+    private static final Pattern PATTERN_TOKEN = Pattern.compile( "((?:access_token|refresh_token|password)\"?\\s*[=:]\\s*\"?)[^\\s\"&,;}]+",
+            Pattern.CASE_INSENSITIVE );
+    private static final String LOG_SERVICE_NAME = " - SendEventLogger - ";
+    private static final String LOG_DROPPED = "Send events dropped because the queue was full : ";
+    private static final int MAX_REDACTED_CAUSES = 10;
+
+    // Fields of the records
+    private static final String FIELD_TYPE = "send=";
+    private static final String FIELD_TICKET = " ticket=";
+    private static final String FIELD_TICKETS = " tickets=";
+    private static final String FIELD_TICKETS_SENT_OK = " sent_ok=";
+    private static final String FIELD_KEY = " key=";
+    private static final String FIELD_COMPANY = " company=";
+    private static final String FIELD_RESULT = " result=";
+    private static final String FIELD_ATTEMPTS = " attempts=";
+    private static final String FIELD_HTTP_STATUS = " http=";
+    private static final String FIELD_RESPONSE_STATUS = " response=";
+    private static final String FIELD_DURATION = " duration_ms=";
+    private static final String FIELD_POST_DURATION = " post_ms=";
+    private static final String FIELD_REQUEST_SIZE = " request_bytes=";
+    private static final String FIELD_UNCOMPRESSED_REQUEST_SIZE = " uncompressed_bytes=";
+    private static final String FIELD_RESPONSE_SIZE = " response_bytes=";
+    private static final String FIELD_MESSAGE = " message=\"";
+    private static final char QUOTE = '"';
+    private static SendEventLogger _singleton = new SendEventLogger(  );
+
+    // Variables
+    private final Logger _logger = Logger.getLogger( LOGGER_NAME );
+    private final int _nSampleThreshold;
+    private final int _nSampleRate;
+    private final ThreadPoolExecutor _executor;
+    private final AtomicLong _lCurrentSecond = new AtomicLong(  );
+    private final AtomicInteger _nEventsInSecond = new AtomicInteger(  );
+    private final AtomicLong _lDropped = new AtomicLong(  );
+
+    /**
+     * Constructor
+     */
+    private SendEventLogger(  )
+    {
+        _nSampleThreshold = AppPropertiesService.getPropertyInt( PROPERTY_SAMPLE_THRESHOLD, DEFAULT_SAMPLE_THRESHOLD );
+        _nSampleRate = Math.max( 1, AppPropertiesService.getPropertyInt( PROPERTY_SAMPLE_RATE, DEFAULT_SAMPLE_RATE ) );
+
+        if ( Boolean.parseBoolean( AppPropertiesService.getProperty( PROPERTY_ASYNC ) ) )
+        {
+            int nQueueSize = AppPropertiesService.getPropertyInt( PROPERTY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE );
+            _executor = new ThreadPoolExecutor( 1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>( nQueueSize ), new LogThreadFactory(  ), new DropPolicy(  ) );
+        }
+        else
+        {
+            _executor = null;
+        }
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static SendEventLogger getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Tells whether the send events are logged
+     *
+     * @return {@code true} if the events are logged
+     */
+    public boolean isEnabled(  )
+    {
+        return _logger.isInfoEnabled(  );
+    }
+
+    /**
+     * Logs a send event, unless it is left out of the sample
+     *
+     * @param event
+     *            the event, which must not be modified afterwards
+     */
+    public void log( SendEvent event )
+    {
+        Level level = getLevel( event );
+
+        if ( !_logger.isEnabledFor( level ) || isSampledOut( event ) )
+        {
+            return;
+        }
+
+        if ( _executor == null )
+        {
+            write( event, level );
+        }
+        else
+        {
+            _executor.execute( new WriteTask( event, level ) );
+        }
+    }
+
+    /**
+     * Writes the pending events and stops the logging thread
+     */
+    public void shutdown(  )
+    {
+        if ( _executor == null )
+        {
+            return;
+        }
+
+        _executor.shutdown(  );
+
+        try
+        {
+            _executor.awaitTermination( SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+    }
+
+    /**
+     * Removes the credentials from a message
+     *
+     * @param strMessage
+     *            the message
+     * @return the message without credentials
+     */
+    public static String redact( String strMessage )
+    {
+        if ( strMessage == null )
+        {
+            return null;
+        }
+
+        String strRedacted = PATTERN_AUTHORIZATION.matcher( strMessage ).replaceAll( REDACTED );
+
+        return PATTERN_TOKEN.matcher( strRedacted ).replaceAll( REDACTED );
+    }
+
+    /**
+     * Removes the credentials from the messages of an error and of its causes.
+     * The stack traces are kept.
+     *
+     * @param error
+     *            the error
+     * @return a copy of the error without credentials
+     */
+    public static Throwable redact( Throwable error )
+    {
+        return new RedactedThrowable( error, MAX_REDACTED_CAUSES );
+    }
+
+    /**
+     * Gives the level of an event : WARN for the failed and the skipped sends,
+     * otherwise INFO
+     *
+     * @param event
+     *            the event
+     * @return the level
+     */
+    private static Level getLevel( SendEvent event )
+    {
+        if ( ( event.getResult(  ) == SendResult.FAILED_RETRYABLE ) ||
+                ( event.getResult(  ) == SendResult.FAILED_FATAL ) || event.isDuplicate(  ) )
+        {
+            return Level.WARN;
+        }
+
+        return Level.INFO;
+    }
+
+    /**
+     * Tells whether an event is left out of the sample. Above the threshold of
+     * events in the current second, only one successful send out of the
+     * sample rate is logged.
+     *
+     * @param event
+     *            the event
+     * @return {@code true} if the event must not be logged
+     */
+    private boolean isSampledOut( SendEvent event )
+    {
+        if ( _nSampleThreshold <= 0 )
+        {
+            return false;
+        }
+
+        long lSecond = System.currentTimeMillis(  ) / MILLISECONDS_PER_SECOND;
+        long lCurrentSecond = _lCurrentSecond.get(  );
+
+        if ( ( lSecond != lCurrentSecond ) && _lCurrentSecond.compareAndSet( lCurrentSecond, lSecond ) )
+        {
+            _nEventsInSecond.set( 0 );
+        }
+
+        int nEvents = _nEventsInSecond.incrementAndGet(  );
+
+        return ( event.getResult(  ) == SendResult.SENT_OK ) && ( nEvents > _nSampleThreshold ) &&
+        ( ( nEvents % _nSampleRate ) != 0 );
+    }
+
+    /**
+     * Writes an event to the logger
+     *
+     * @param event
+     *            the event
+     * @param level
+     *            the level of the event
+     */
+    private void write( SendEvent event, Level level )
+    {
+        long lDropped = _lDropped.getAndSet( 0L );
+
+        if ( lDropped > 0L )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_DROPPED + lDropped );
+        }
+
+        _logger.log( level, format( event ), event.getError(  ) );
+    }
+
+    /**
+     * Formats an event as a list of key=value fields
+     *
+     * @param event
+     *            the event
+     * @return the record
+     */
+    static String format( SendEvent event )
+    {
+        StringBuilder sbRecord = new StringBuilder( 256 );
+        sbRecord.append( FIELD_TYPE ).append( event.getType(  ) );
+
+        if ( SendEvent.TYPE_BATCH.equals( event.getType(  ) ) )
+        {
+            sbRecord.append( FIELD_TICKETS ).append( event.getNbTickets(  ) );
+            sbRecord.append( FIELD_TICKETS_SENT_OK ).append( event.getNbTicketsSentOk(  ) );
+        }
+        else
+        {
+            sbRecord.append( FIELD_TICKET ).append( event.getIdTicket(  ) );
+        }
+
+        sbRecord.append( FIELD_KEY ).append( event.getIdempotencyKey(  ) );
+        sbRecord.append( FIELD_COMPANY ).append( event.getCompany(  ) );
+        sbRecord.append( FIELD_RESULT ).append( event.getResult(  ) );
+        sbRecord.append( FIELD_ATTEMPTS ).append( event.getNbAttempts(  ) );
+
+        if ( event.getHttpStatus(  ) != 0 )
+        {
+            sbRecord.append( FIELD_HTTP_STATUS ).append( event.getHttpStatus(  ) );
+        }
+
+        if ( event.getResponseStatus(  ) != null )
+        {
+            sbRecord.append( FIELD_RESPONSE_STATUS ).append( event.getResponseStatus(  ) );
+        }
+
+        sbRecord.append( FIELD_DURATION ).append( event.getDuration(  ) / NANOSECONDS_PER_MILLISECOND );
+        sbRecord.append( FIELD_POST_DURATION ).append( event.getPostDuration(  ) / NANOSECONDS_PER_MILLISECOND );
+        sbRecord.append( FIELD_REQUEST_SIZE ).append( event.getRequestSize(  ) );
+
+        if ( event.getUncompressedRequestSize(  ) != 0L )
+        {
+            sbRecord.append( FIELD_UNCOMPRESSED_REQUEST_SIZE ).append( event.getUncompressedRequestSize(  ) );
+        }
+
+        sbRecord.append( FIELD_RESPONSE_SIZE ).append( event.getResponseSize(  ) );
+
+        if ( event.getMessage(  ) != null )
+        {
+            sbRecord.append( FIELD_MESSAGE ).append( event.getMessage(  ).replace( QUOTE, '\'' ) ).append( QUOTE );
+        }
+
+        return sbRecord.toString(  );
+    }
+
+    /**
+     * This class writes an event from the logging thread
+     *
+     */
+    private final class WriteTask implements Runnable
+    {
+        private final SendEvent _event;
+        private final Level _level;
+
+        /**
+         * Constructor
+         *
+         * @param event
+         *            the event
+         * @param level
+         *            the level of the event
+         */
+        WriteTask( SendEvent event, Level level )
+        {
+            _event = event;
+            _level = level;
+        }
+
+        /**
+         * Tells whether the event may be dropped when the queue is full
+         *
+         * @return {@code true} if the event is below the WARN level
+         */
+        boolean isDroppable(  )
+        {
+            return !_level.isGreaterOrEqual( Level.WARN );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            write( _event, _level );
+        }
+    }
+
+    /**
+     * This class counts the events dropped when the queue is full, instead of
+     * making the sending thread wait. The events at the WARN level are never
+     * dropped : they are written by the sending thread.
+     *
+     */
+    private final class DropPolicy implements RejectedExecutionHandler
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void rejectedExecution( Runnable runnable, ThreadPoolExecutor executor )
+        {
+            if ( ( (WriteTask) runnable ).isDroppable(  ) )
+            {
+                _lDropped.incrementAndGet(  );
+            }
+            else
+            {
+                runnable.run(  );
+            }
+        }
+    }
+
+    /**
+     * A copy of an error whose messages are redacted, with the same stack
+     * trace
+     *
+     */
+    private static final class RedactedThrowable extends Throwable
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Constructor
+         *
+         * @param error
+         *            the error to copy
+         * @param nMaxCauses
+         *            the maximum number of causes copied
+         */
+        RedactedThrowable( Throwable error, int nMaxCauses )
+        {
+            super( redact( error.toString(  ) ),
+                ( ( error.getCause(  ) != null ) && ( error.getCause(  ) != error ) && ( nMaxCauses > 0 ) )
+                ? new RedactedThrowable( error.getCause(  ), nMaxCauses - 1 ) : null );
+            setStackTrace( error.getStackTrace(  ) );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public synchronized Throwable fillInStackTrace(  )
+        {
+            // The stack trace is the one of the copied error
+            return this;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString(  )
+        {
+            return getMessage(  );
+        }
+    }
+
+    /**
+     * This class creates the logging thread
+     *
+     */
+    private static final class LogThreadFactory implements ThreadFactory
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import java.util.Map;
+
+
+/**
+ * JMX interface of the metrics of the send pipeline. The times are in
+ * milliseconds.
+ */
+public interface SendMetricsMXBean
+{
+    /**
+     * Gives the number of calls to the authentication end point
+     * @return the number of calls
+     */
+    long getTokenCallCount(  );
+
+    /**
+     * Gives the mean time of the calls to the authentication end point
+     * @return the mean time
+     */
+    double getTokenCallMeanTime(  );
+
+    /**
+     * Gives the maximum time of the calls to the authentication end point,
+     * over the last one to two minutes
+     * @return the maximum time
+     */
+    double getTokenCallMaxTime(  );
+
+    /**
+     * Gives the number of posts to the ticket end points
+     * @return the number of posts
+     */
+    long getPostCount(  );
+
+    /**
+     * Gives the mean time of the posts to the ticket end points
+     * @return the mean time
+     */
+    double getPostMeanTime(  );
+
+    /**
+     * Gives the maximum time of the posts to the ticket end points,
+     * over the last one to two minutes
+     * @return the maximum time
+     */
+    double getPostMaxTime(  );
+
+    /**
+     * Gives the number of updates of ticket statuses
+     * @return the number of updates
+     */
+    long getDatabaseUpdateCount(  );
+
+    /**
+     * Gives the mean time of the updates of ticket statuses
+     * @return the mean time
+     */
+    double getDatabaseUpdateMeanTime(  );
+
+    /**
+     * Gives the maximum time of the updates of ticket statuses,
+     * over the last one to two minutes
+     * @return the maximum time
+     */
+    double getDatabaseUpdateMaxTime(  );
+
+    /**
+     * Gives the number of sends which waited for the limits of their company
+     * @return the number of waits
+     */
+    long getThrottleWaitCount(  );
+
+    /**
+     * Gives the mean time of the waits for the limits of the companies
+     * @return the mean time
+     */
+    double getThrottleWaitMeanTime(  );
+
+    /**
+     * Gives the maximum time of the waits for the limits of the companies,
+     * over the last one to two minutes
+     * @return the maximum time
+     */
+    double getThrottleWaitMaxTime(  );
+
+    /**
+     * Gives the number of sends in progress
+     * @return the number of sends in progress
+     */
+    int getInFlightSends(  );
+
+    /**
+     * Gives the counters of the sends, by company (company.*), HTTP status
+     * (http.*), known response status (response.*, the other statuses being
+     * counted under response.other) and company for the sends rejected by the
+     * limits of the company (throttled.*)
+     * @return the counters
+     */
+    Map<String, Long> getCounters(  );
+
+    /**
+     * Gives the histogram of the payload sizes : the number of payloads whose
+     * size is at most the key, in bytes
+     * @return the histogram
+     */
+    Map<String, Long> getPayloadSizeHistogram(  );
+
+    /**
+     * Gives the number of payloads compressed with gzip
+     * @return the number of payloads
+     */
+    long getCompressedPayloadCount(  );
+
+    /**
+     * Gives the number of bytes saved by the compression of the payloads
+     * @return the number of bytes
+     */
+    long getCompressionSavedBytes(  );
+
+    /**
+     * Gives the ratio of the size of the compressed payloads to their size
+     * before compression, 0.25 if the compression divides the size by four
+     * @return the ratio, 0 if no payload has been compressed
+     */
+    double getCompressionRatio(  );
+
+    /**
+     * Resets the metrics. The recent sends of the companies, on which the
+     * health of the end points is computed, are kept.
+     */
+    void reset(  );
+}
@@ -0,0 +1,682 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * This service records the metrics of the send pipeline and exposes them as a
+ * JMX MBean. The response statuses are counted under a configured list of
+ * known statuses, the other ones under {@code response.other}, so that an end
+ * point cannot create counters at will. The maximum times cover the last one
+ * to two minutes.
+ */
+public final class SendMetricsService implements SendMetricsMXBean
+{
+    // Counter prefixes
+    public static final String COUNTER_COMPANY = "company.";
+    public static final String COUNTER_HTTP_STATUS = "http.";
+    public static final String COUNTER_RESPONSE_STATUS = "response.";
+    public static final String COUNTER_THROTTLED = "throttled.";
+    public static final String COUNTER_DUPLICATE = "duplicate.";
+
+    // Properties
+    private static final String PROPERTY_RECENT_SENDS_WINDOW = "ticketing-pocgru.health.window";
+    private static final String PROPERTY_RESPONSE_STATUSES = "ticketing-pocgru.metrics.responseStatuses";
+
+    // Other constants
+    private static final int DEFAULT_RECENT_SENDS_WINDOW = 100;
+    private static final String DEFAULT_RESPONSE_STATUSES = "OK,KO";
+    private static final String RESPONSE_STATUS_SEPARATOR = ",";
+    private static final String RESPONSE_STATUS_OTHER = "other";
+    private static final long MAX_TIME_INTERVAL = 60000L;
+    private static final String OBJECT_NAME = "fr.paris.lutece.plugins.ticketing.modules.pocgru:type=SendMetrics";
+    private static final double NANOSECONDS_PER_MILLISECOND = 1000000d;
+    private static final int HISTOGRAM_FIRST_BUCKET_SHIFT = 10;
+    private static final int HISTOGRAM_BUCKETS = 16;
+    private static final String HISTOGRAM_OVERFLOW = "more";
+    private static final String LOG_SERVICE_NAME = " - SendMetricsService - ";
+    private static final String LOG_REGISTRATION_ERROR = "Unable to register the MBean : ";
+    private static SendMetricsService _singleton = new SendMetricsService(  );
+
+    // Variables
+    private final Timer _tokenCallTimer = new Timer(  );
+    private final Timer _postTimer = new Timer(  );
+    private final Timer _databaseUpdateTimer = new Timer(  );
+    private final Timer _throttleWaitTimer = new Timer(  );
+    private final AtomicInteger _nInFlightSends = new AtomicInteger(  );
+    private final ConcurrentMap<String, AtomicLong> _mapCounters = new ConcurrentHashMap<String, AtomicLong>(  );
+    private final AtomicLong _lCompressedPayloads = new AtomicLong(  );
+    private final AtomicLong _lUncompressedBytes = new AtomicLong(  );
+    private final AtomicLong _lCompressedBytes = new AtomicLong(  );
+    private final AtomicLongArray _payloadSizeHistogram = new AtomicLongArray( HISTOGRAM_BUCKETS + 1 );
+    private final ConcurrentMap<String, RecentSends> _mapRecentSends = new ConcurrentHashMap<String, RecentSends>(  );
+    private final int _nRecentSendsWindow;
+    private final Set<String> _setResponseStatuses;
+
+    /**
+     * Constructor
+     */
+    private SendMetricsService(  )
+    {
+        _nRecentSendsWindow = Math.max( 1,
+                AppPropertiesService.getPropertyInt( PROPERTY_RECENT_SENDS_WINDOW, DEFAULT_RECENT_SENDS_WINDOW ) );
+
+        Set<String> setResponseStatuses = new HashSet<String>(  );
+
+        for ( String strStatus : AppPropertiesService.getProperty( PROPERTY_RESPONSE_STATUSES,
+                DEFAULT_RESPONSE_STATUSES ).split( RESPONSE_STATUS_SEPARATOR ) )
+        {
+            if ( strStatus.trim(  ).length(  ) > 0 )
+            {
+                setResponseStatuses.add( strStatus.trim(  ) );
+            }
+        }
+
+        _setResponseStatuses = Collections.unmodifiableSet( setResponseStatuses );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static SendMetricsService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Registers the MBean in the platform MBean server
+     */
+    public void register(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( !server.isRegistered( name ) )
+            {
+                server.registerMBean( this, name );
+            }
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_REGISTRATION_ERROR + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Unregisters the MBean from the platform MBean server
+     */
+    public void unregister(  )
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer(  );
+            ObjectName name = new ObjectName( OBJECT_NAME );
+
+            if ( server.isRegistered( name ) )
+            {
+                server.unregisterMBean( name );
+            }
+        }
+        catch ( JMException e )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + LOG_REGISTRATION_ERROR + e.getMessage(  ), e );
+        }
+    }
+
+    /**
+     * Records a call to the authentication end point
+     *
+     * @param lDuration
+     *            the duration of the call in nanoseconds
+     */
+    public void recordTokenCall( long lDuration )
+    {
+        _tokenCallTimer.record( lDuration );
+    }
+
+    /**
+     * Records a post to a ticket end point
+     *
+     * @param lDuration
+     *            the duration of the post in nanoseconds
+     */
+    public void recordPost( long lDuration )
+    {
+        _postTimer.record( lDuration );
+    }
+
+    /**
+     * Records an update of ticket statuses
+     *
+     * @param lDuration
+     *            the duration of the update in nanoseconds
+     */
+    public void recordDatabaseUpdate( long lDuration )
+    {
+        _databaseUpdateTimer.record( lDuration );
+    }
+
+    /**
+     * Records the wait of a send for the limits of its company
+     *
+     * @param lDuration
+     *            the duration of the wait in nanoseconds
+     */
+    public void recordThrottleWait( long lDuration )
+    {
+        _throttleWaitTimer.record( lDuration );
+    }
+
+    /**
+     * Records the size of a payload
+     *
+     * @param lSize
+     *            the size in bytes
+     */
+    public void recordPayloadSize( long lSize )
+    {
+        int nBucket = 0;
+
+        while ( ( nBucket < HISTOGRAM_BUCKETS ) && ( lSize > getBucketLimit( nBucket ) ) )
+        {
+            nBucket++;
+        }
+
+        _payloadSizeHistogram.incrementAndGet( nBucket );
+    }
+
+    /**
+     * Records the compression of a payload
+     *
+     * @param lUncompressedSize
+     *            the size of the payload in bytes
+     * @param lCompressedSize
+     *            the size of the compressed payload in bytes
+     */
+    public void recordCompression( long lUncompressedSize, long lCompressedSize )
+    {
+        _lCompressedPayloads.incrementAndGet(  );
+        _lUncompressedBytes.addAndGet( lUncompressedSize );
+        _lCompressedBytes.addAndGet( lCompressedSize );
+    }
+
+    /**
+     * Records the outcome of a send in the recent sends of its company. The
+     * sends which did not reach the end point of a company are ignored.
+     *
+     * @param event
+     *            the event of the ended send
+     */
+    public void recordCompanySend( SendEvent event )
+    {
+        if ( ( event.getCompany(  ) == null ) || ( event.getResult(  ) == SendResult.SKIPPED ) )
+        {
+            return;
+        }
+
+        RecentSends recentSends = getRecentSends( event.getCompany(  ) );
+
+        if ( recentSends == null )
+        {
+            RecentSends newRecentSends = new RecentSends( _nRecentSendsWindow );
+            recentSends = _mapRecentSends.putIfAbsent( event.getCompany(  ), newRecentSends );
+
+            if ( recentSends == null )
+            {
+                recentSends = newRecentSends;
+            }
+        }
+
+        if ( SendEvent.TYPE_BATCH.equals( event.getType(  ) ) )
+        {
+            recentSends.record( event.getNbTickets(  ), event.getNbTicketsSentOk(  ), event.getDuration(  ) );
+        }
+        else
+        {
+            recentSends.record( 1, ( event.getResult(  ) == SendResult.SENT_OK ) ? 1 : 0, event.getDuration(  ) );
+        }
+    }
+
+    /**
+     * Gives the recent sends of a company
+     *
+     * @param strCompany
+     *            the company
+     * @return the recent sends, or null if no send to the company has been
+     *         recorded
+     */
+    RecentSends getRecentSends( String strCompany )
+    {
+        return _mapRecentSends.get( strCompany );
+    }
+
+    /**
+     * Counts a response status read from the reply of an end point : a known
+     * status under its own counter, any other one, {@code null} included,
+     * under {@code response.other}
+     *
+     * @param strStatus
+     *            the status of the response
+     */
+    public void incrementResponseStatus( String strStatus )
+    {
+        increment( COUNTER_RESPONSE_STATUS,
+            ( ( strStatus != null ) && _setResponseStatuses.contains( strStatus ) ) ? strStatus : RESPONSE_STATUS_OTHER );
+    }
+
+    /**
+     * Increments a counter
+     *
+     * @param strPrefix
+     *            the prefix of the counter
+     * @param strName
+     *            the name of the counter
+     */
+    public void increment( String strPrefix, String strName )
+    {
+        String strKey = strPrefix + strName;
+        AtomicLong counter = _mapCounters.get( strKey );
+
+        if ( counter == null )
+        {
+            AtomicLong newCounter = new AtomicLong(  );
+            counter = _mapCounters.putIfAbsent( strKey, newCounter );
+
+            if ( counter == null )
+            {
+                counter = newCounter;
+            }
+        }
+
+        counter.incrementAndGet(  );
+    }
+
+    /**
+     * Records the start of a send
+     */
+    public void sendStarted(  )
+    {
+        _nInFlightSends.incrementAndGet(  );
+    }
+
+    /**
+     * Records the end of a send
+     */
+    public void sendEnded(  )
+    {
+        _nInFlightSends.decrementAndGet(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getTokenCallCount(  )
+    {
+        return _tokenCallTimer.getCount(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getTokenCallMeanTime(  )
+    {
+        return _tokenCallTimer.getMeanTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getTokenCallMaxTime(  )
+    {
+        return _tokenCallTimer.getMaxTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPostCount(  )
+    {
+        return _postTimer.getCount(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPostMeanTime(  )
+    {
+        return _postTimer.getMeanTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getPostMaxTime(  )
+    {
+        return _postTimer.getMaxTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getDatabaseUpdateCount(  )
+    {
+        return _databaseUpdateTimer.getCount(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getDatabaseUpdateMeanTime(  )
+    {
+        return _databaseUpdateTimer.getMeanTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getDatabaseUpdateMaxTime(  )
+    {
+        return _databaseUpdateTimer.getMaxTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getThrottleWaitCount(  )
+    {
+        return _throttleWaitTimer.getCount(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getThrottleWaitMeanTime(  )
+    {
+        return _throttleWaitTimer.getMeanTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getThrottleWaitMaxTime(  )
+    {
+        return _throttleWaitTimer.getMaxTime(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getInFlightSends(  )
+    {
+        return _nInFlightSends.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCounters(  )
+    {
+        Map<String, Long> mapCounters = new TreeMap<String, Long>(  );
+
+        for ( Map.Entry<String, AtomicLong> entry : _mapCounters.entrySet(  ) )
+        {
+            mapCounters.put( entry.getKey(  ), entry.getValue(  ).get(  ) );
+        }
+
+        return mapCounters;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getPayloadSizeHistogram(  )
+    {
+        Map<String, Long> mapHistogram = new LinkedHashMap<String, Long>(  );
+
+        for ( int i = 0; i < HISTOGRAM_BUCKETS; i++ )
+        {
+            mapHistogram.put( String.valueOf( getBucketLimit( i ) ), _payloadSizeHistogram.get( i ) );
+        }
+
+        mapHistogram.put( HISTOGRAM_OVERFLOW, _payloadSizeHistogram.get( HISTOGRAM_BUCKETS ) );
+
+        return mapHistogram;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCompressedPayloadCount(  )
+    {
+        return _lCompressedPayloads.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getCompressionSavedBytes(  )
+    {
+        return _lUncompressedBytes.get(  ) - _lCompressedBytes.get(  );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public double getCompressionRatio(  )
+    {
+        long lUncompressedBytes = _lUncompressedBytes.get(  );
+
+        return ( lUncompressedBytes > 0L ) ? ( (double) _lCompressedBytes.get(  ) / lUncompressedBytes ) : 0d;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset(  )
+    {
+        _tokenCallTimer.reset(  );
+        _postTimer.reset(  );
+        _databaseUpdateTimer.reset(  );
+        _throttleWaitTimer.reset(  );
+        _mapCounters.clear(  );
+        _lCompressedPayloads.set( 0L );
+        _lUncompressedBytes.set( 0L );
+        _lCompressedBytes.set( 0L );
+
+        for ( int i = 0; i <= HISTOGRAM_BUCKETS; i++ )
+        {
+            _payloadSizeHistogram.set( i, 0L );
+        }
+    }
+
+    /**
+     * Gives the upper limit of a bucket of the payload size histogram : 1 KB,
+     * 2 KB, 4 KB, ...
+     *
+     * @param nBucket
+     *            the index of the bucket
+     * @return the upper limit in bytes
+     */
+    private static long getBucketLimit( int nBucket )
+    {
+        return 1L << ( HISTOGRAM_FIRST_BUCKET_SHIFT + nBucket );
+    }
+
+    /**
+     * This class records the durations of an operation. The maximum duration
+     * is kept per interval of one minute : the maximum of the current
+     * interval and of the previous one is given, so that an old peak does not
+     * hide the current durations.
+     *
+     */
+    private static final class Timer
+    {
+        private final AtomicLong _lCount = new AtomicLong(  );
+        private final AtomicLong _lTotalTime = new AtomicLong(  );
+        private final AtomicLong _lMaxTime = new AtomicLong(  );
+        private final AtomicLong _lPreviousMaxTime = new AtomicLong(  );
+        private final AtomicLong _lIntervalStart = new AtomicLong( System.currentTimeMillis(  ) );
+
+        /**
+         * Records a duration
+         *
+         * @param lDuration
+         *            the duration in nanoseconds
+         */
+        void record( long lDuration )
+        {
+            _lCount.incrementAndGet(  );
+            _lTotalTime.addAndGet( lDuration );
+            rotate( System.currentTimeMillis(  ) );
+
+            long lMaxTime = _lMaxTime.get(  );
+
+            while ( ( lDuration > lMaxTime ) && !_lMaxTime.compareAndSet( lMaxTime, lDuration ) )
+            {
+                lMaxTime = _lMaxTime.get(  );
+            }
+        }
+
+        /**
+         * Gives the number of recorded durations
+         *
+         * @return the number of durations
+         */
+        long getCount(  )
+        {
+            return _lCount.get(  );
+        }
+
+        /**
+         * Gives the mean duration
+         *
+         * @return the mean duration in milliseconds
+         */
+        double getMeanTime(  )
+        {
+            long lCount = _lCount.get(  );
+
+            return ( lCount == 0L ) ? 0d : ( _lTotalTime.get(  ) / NANOSECONDS_PER_MILLISECOND / lCount );
+        }
+
+        /**
+         * Gives the maximum duration of the current and the previous
+         * intervals
+         *
+         * @return the maximum duration in milliseconds
+         */
+        double getMaxTime(  )
+        {
+            rotate( System.currentTimeMillis(  ) );
+
+            return Math.max( _lMaxTime.get(  ), _lPreviousMaxTime.get(  ) ) / NANOSECONDS_PER_MILLISECOND;
+        }
+
+        /**
+         * Starts a new interval if the current one is over. The maximum of the
+         * interval which ends is kept as the previous maximum only if no
+         * interval has been skipped.
+         *
+         * @param lNow
+         *            the current time in milliseconds
+         */
+        private void rotate( long lNow )
+        {
+            long lIntervalStart = _lIntervalStart.get(  );
+
+            if ( ( ( lNow - lIntervalStart ) >= MAX_TIME_INTERVAL ) &&
+                    _lIntervalStart.compareAndSet( lIntervalStart, lNow ) )
+            {
+                long lMaxTime = _lMaxTime.getAndSet( 0L );
+                _lPreviousMaxTime.set( ( ( lNow - lIntervalStart ) < ( 2 * MAX_TIME_INTERVAL ) ) ? lMaxTime : 0L );
+            }
+        }
+
+        /**
+         * Resets the timer
+         */
+        void reset(  )
+        {
+            _lCount.set( 0L );
+            _lTotalTime.set( 0L );
+            _lMaxTime.set( 0L );
+            _lPreviousMaxTime.set( 0L );
+            _lIntervalStart.set( System.currentTimeMillis(  ) );
+        }
+    }
+}
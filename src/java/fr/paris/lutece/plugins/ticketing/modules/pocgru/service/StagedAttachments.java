@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.IFileContentHandler;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.TicketProjectionHome;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The content of the attachments of the tickets, read from the database
+ * before the tickets are sent. The connection to the database is released as
+ * soon as the content is read, instead of being held while the content is
+ * written to the end point, and the content is not read again when the send
+ * is retried. A content is kept in memory up to the size of the buffer,
+ * otherwise in a temporary file.
+ */
+final class StagedAttachments
+{
+    // Properties
+    private static final String PROPERTY_ATTACHMENT_BUFFER_SIZE = "ticketing-pocgru.attachment.bufferSize";
+
+    // Other constants
+    private static final int DEFAULT_ATTACHMENT_BUFFER_SIZE = 1048576;
+    private static final int COPY_BUFFER_SIZE = 8192;
+    private static final String TEMP_FILE_PREFIX = "pocgru-attachment-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = AppPropertiesService.getPropertyInt( PROPERTY_ATTACHMENT_BUFFER_SIZE,
+            DEFAULT_ATTACHMENT_BUFFER_SIZE );
+
+    // Variables
+    private final List<File> _listFiles = new ArrayList<File>(  );
+    private final List<PhysicalFile> _listPhysicalFiles = new ArrayList<PhysicalFile>(  );
+    private final List<java.io.File> _listTempFiles = new ArrayList<java.io.File>(  );
+
+    /**
+     * Reads the content of the attachments sent with the tickets, the
+     * attachments sent by reference being left unread. The content must be
+     * released with {@link #release()} once the tickets are sent.
+     *
+     * @param listTickets
+     *            the tickets
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with a ticket
+     * @return the content of the attachments
+     * @throws IOException
+     *             if an error occurs while reading the content
+     */
+    static StagedAttachments stage( List<Ticket> listTickets, long lAttachmentMaxSize )
+        throws IOException
+    {
+        StagedAttachments attachments = new StagedAttachments(  );
+
+        try
+        {
+            for ( Ticket ticket : listTickets )
+            {
+                if ( ticket.getListResponse(  ) == null )
+                {
+                    continue;
+                }
+
+                for ( Response response : ticket.getListResponse(  ) )
+                {
+                    File file = response.getFile(  );
+
+                    if ( ( file != null ) && ( response.getField(  ) == null ) &&
+                            ( TicketJsonWriter.getAttachmentSize( file ) <= lAttachmentMaxSize ) )
+                    {
+                        attachments.stage( file );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            attachments.release(  );
+
+            throw e;
+        }
+
+        return attachments;
+    }
+
+    /**
+     * Reads the content of an attachment, unless it is already loaded
+     *
+     * @param file
+     *            the attachment
+     * @return {@code false} if the attachment has no content
+     * @throws IOException
+     *             if an error occurs while reading the content
+     */
+    boolean stage( File file ) throws IOException
+    {
+        PhysicalFile physicalFile = file.getPhysicalFile(  );
+
+        if ( physicalFile == null )
+        {
+            return false;
+        }
+
+        if ( ( physicalFile.getValue(  ) != null ) || ( physicalFile instanceof TempPhysicalFile ) )
+        {
+            return true;
+        }
+
+        ContentCopier copier = new ContentCopier(  );
+
+        try
+        {
+            if ( !TicketProjectionHome.readFileContent( physicalFile.getIdPhysicalFile(  ), copier ) )
+            {
+                return false;
+            }
+        }
+        catch ( IOException e )
+        {
+            copier.delete(  );
+
+            throw e;
+        }
+
+        PhysicalFile physicalFileStaged;
+
+        if ( copier.getTempFile(  ) != null )
+        {
+            _listTempFiles.add( copier.getTempFile(  ) );
+            physicalFileStaged = new TempPhysicalFile( copier.getTempFile(  ) );
+        }
+        else
+        {
+            physicalFileStaged = new PhysicalFile(  );
+            physicalFileStaged.setValue( copier.getContent(  ) );
+        }
+
+        physicalFileStaged.setIdPhysicalFile( physicalFile.getIdPhysicalFile(  ) );
+        _listFiles.add( file );
+        _listPhysicalFiles.add( physicalFile );
+        file.setPhysicalFile( physicalFileStaged );
+
+        return true;
+    }
+
+    /**
+     * Releases the content of the attachments : the attachments get back
+     * their physical file without content, and the temporary files are
+     * deleted
+     */
+    void release(  )
+    {
+        for ( int i = 0; i < _listFiles.size(  ); i++ )
+        {
+            _listFiles.get( i ).setPhysicalFile( _listPhysicalFiles.get( i ) );
+        }
+
+        for ( java.io.File tempFile : _listTempFiles )
+        {
+            tempFile.delete(  );
+        }
+
+        _listFiles.clear(  );
+        _listPhysicalFiles.clear(  );
+        _listTempFiles.clear(  );
+    }
+
+    /**
+     * The physical file of an attachment whose content is in a temporary file
+     *
+     */
+    static final class TempPhysicalFile extends PhysicalFile
+    {
+        private final java.io.File _tempFile;
+
+        /**
+         * Constructor
+         *
+         * @param tempFile
+         *            the temporary file
+         */
+        TempPhysicalFile( java.io.File tempFile )
+        {
+            _tempFile = tempFile;
+        }
+
+        /**
+         * Opens the content of the attachment
+         *
+         * @return the content, to close by the caller
+         * @throws IOException
+         *             if the temporary file cannot be opened
+         */
+        InputStream openContent(  ) throws IOException
+        {
+            return new BufferedInputStream( new FileInputStream( _tempFile ) );
+        }
+    }
+
+    /**
+     * This class copies the content of a file read from the database into
+     * memory, then into a temporary file once the content exceeds the buffer
+     *
+     */
+    private static final class ContentCopier implements IFileContentHandler
+    {
+        private ByteArrayOutputStream _memory = new ByteArrayOutputStream(  );
+        private java.io.File _tempFile;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void handle( InputStream content ) throws IOException
+        {
+            byte [] buffer = new byte[COPY_BUFFER_SIZE];
+            OutputStream output = _memory;
+
+            try
+            {
+                int nRead;
+
+                while ( ( nRead = content.read( buffer ) ) != -1 )
+                {
+                    if ( ( _tempFile == null ) && ( ( _memory.size(  ) + nRead ) > BUFFER_SIZE ) )
+                    {
+                        _tempFile = java.io.File.createTempFile( TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX );
+                        output = new BufferedOutputStream( new FileOutputStream( _tempFile ) );
+                        _memory.writeTo( output );
+                        _memory = null;
+                    }
+
+                    output.write( buffer, 0, nRead );
+                }
+            }
+            finally
+            {
+                output.close(  );
+            }
+        }
+
+        /**
+         * Gives the content copied into memory
+         *
+         * @return the content, or {@code null} if it has been copied into a
+         *         temporary file
+         */
+        byte [] getContent(  )
+        {
+            return ( _memory != null ) ? _memory.toByteArray(  ) : null;
+        }
+
+        /**
+         * Gives the temporary file
+         *
+         * @return the temporary file, or {@code null} if the content has been
+         *         copied into memory
+         */
+        java.io.File getTempFile(  )
+        {
+            return _tempFile;
+        }
+
+        /**
+         * Deletes the temporary file after an error
+         */
+        void delete(  )
+        {
+            if ( _tempFile != null )
+            {
+                _tempFile.delete(  );
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * This service enforces the limits of the end point of each company : the
+ * number of sends per second and the number of sends in progress. A send
+ * exceeding the limits waits for them or fails immediately, depending on the
+ * throttle mode, so that a burst of tickets of one company does not flood its
+ * end point nor take all the threads from the other companies.
+ */
+public final class ThrottleService
+{
+    // Properties
+    private static final String PROPERTY_THROTTLE_MODE = "ticketing-pocgru.throttle.mode";
+    private static final String PROPERTY_THROTTLE_TIMEOUT = "ticketing-pocgru.throttle.timeout";
+
+    // Other constants
+    private static final String MODE_FAIL_FAST = "failfast";
+    private static final int DEFAULT_THROTTLE_TIMEOUT = 10000;
+    private static final long MIN_RECORDED_WAIT = TimeUnit.MILLISECONDS.toNanos( 1L );
+    private static ThrottleService _singleton = new ThrottleService(  );
+
+    // Variables
+    private final ConcurrentMap<String, CompanyThrottle> _mapThrottles = new ConcurrentHashMap<String, CompanyThrottle>(  );
+    private final long _lTimeout;
+
+    /**
+     * Constructor
+     */
+    private ThrottleService(  )
+    {
+        boolean bFailFast = MODE_FAIL_FAST.equalsIgnoreCase( AppPropertiesService.getProperty( PROPERTY_THROTTLE_MODE ) );
+        _lTimeout = bFailFast ? 0L : AppPropertiesService.getPropertyInt( PROPERTY_THROTTLE_TIMEOUT,
+                DEFAULT_THROTTLE_TIMEOUT );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static ThrottleService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Acquires the right to send to the end point of the specified route
+     *
+     * @param route
+     *            the route
+     * @return the permit, which must be released once the send is over, or
+     *         {@code null} if the send exceeds the limits of the company
+     */
+    public Permit acquire( CompanyRoute route )
+    {
+        CompanyThrottle throttle = getThrottle( route );
+
+        if ( throttle == null )
+        {
+            return Permit.NO_LIMIT;
+        }
+
+        SendMetricsService metrics = SendMetricsService.getInstance(  );
+        long lStart = System.nanoTime(  );
+        boolean bAcquired = false;
+
+        try
+        {
+            bAcquired = throttle.acquire( _lTimeout );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+
+        long lWait = System.nanoTime(  ) - lStart;
+
+        if ( lWait > MIN_RECORDED_WAIT )
+        {
+            metrics.recordThrottleWait( lWait );
+        }
+
+        if ( !bAcquired )
+        {
+            metrics.increment( SendMetricsService.COUNTER_THROTTLED, route.getCompany(  ) );
+
+            return null;
+        }
+
+        return new Permit( throttle );
+    }
+
+    /**
+     * Removes the limits of the specified company. New ones are created on
+     * the next send, with the current limits of the company.
+     *
+     * @param strCompany
+     *            the company
+     */
+    public void remove( String strCompany )
+    {
+        _mapThrottles.remove( strCompany );
+    }
+
+    /**
+     * Gives the limits of the end point of the specified route
+     *
+     * @param route
+     *            the route
+     * @return the limits, or {@code null} if the company has no limit
+     */
+    private CompanyThrottle getThrottle( CompanyRoute route )
+    {
+        if ( ( route.getRate(  ) <= 0d ) && ( route.getMaxInFlight(  ) <= 0 ) )
+        {
+            return null;
+        }
+
+        CompanyThrottle throttle = _mapThrottles.get( route.getCompany(  ) );
+
+        if ( throttle == null )
+        {
+            CompanyThrottle newThrottle = new CompanyThrottle( route );
+            throttle = _mapThrottles.putIfAbsent( route.getCompany(  ), newThrottle );
+
+            if ( throttle == null )
+            {
+                throttle = newThrottle;
+            }
+        }
+
+        return throttle;
+    }
+
+    /**
+     * This class holds the rate limiter and the bulkhead of a company
+     *
+     */
+    private static final class CompanyThrottle
+    {
+        private final RateLimiter _rateLimiter;
+        private final Semaphore _bulkhead;
+
+        /**
+         * Constructor
+         *
+         * @param route
+         *            the route of the company
+         */
+        CompanyThrottle( CompanyRoute route )
+        {
+            _rateLimiter = ( route.getRate(  ) > 0d ) ? new RateLimiter( route.getRate(  ), route.getBurst(  ) ) : null;
+            _bulkhead = ( route.getMaxInFlight(  ) > 0 ) ? new Semaphore( route.getMaxInFlight(  ), true ) : null;
+        }
+
+        /**
+         * Acquires a slot of the bulkhead, then a token of the rate limiter.
+         * The slot is taken first so that a send which finds no free slot does
+         * not consume a token, and it is released if no token is granted.
+         *
+         * @param lTimeout
+         *            the maximum time to wait for both in milliseconds
+         * @return {@code true} if both have been acquired
+         * @throws InterruptedException
+         *             if the thread is interrupted while waiting
+         */
+        boolean acquire( long lTimeout ) throws InterruptedException
+        {
+            long lDeadline = System.nanoTime(  ) + TimeUnit.MILLISECONDS.toNanos( lTimeout );
+
+            if ( ( _bulkhead != null ) && !_bulkhead.tryAcquire( lTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                return false;
+            }
+
+            boolean bAcquired = false;
+
+            try
+            {
+                // The wait for the token is limited to what remains of the timeout
+                long lRemaining = TimeUnit.NANOSECONDS.toMillis( Math.max( 0L, lDeadline - System.nanoTime(  ) ) );
+                bAcquired = ( _rateLimiter == null ) || _rateLimiter.tryAcquire( lRemaining );
+            }
+            finally
+            {
+                if ( !bAcquired )
+                {
+                    release(  );
+                }
+            }
+
+            return bAcquired;
+        }
+
+        /**
+         * Releases the slot of the bulkhead
+         */
+        void release(  )
+        {
+            if ( _bulkhead != null )
+            {
+                _bulkhead.release(  );
+            }
+        }
+    }
+
+    /**
+     * This class represents the right to send granted by the limits of a
+     * company
+     *
+     */
+    public static final class Permit
+    {
+        private static final Permit NO_LIMIT = new Permit( null );
+        private final CompanyThrottle _throttle;
+
+        /**
+         * Constructor
+         *
+         * @param throttle
+         *            the limits which granted the permit
+         */
+        private Permit( CompanyThrottle throttle )
+        {
+            _throttle = throttle;
+        }
+
+        /**
+         * Releases the permit once the send is over
+         */
+        public void release(  )
+        {
+            if ( _throttle != null )
+            {
+                _throttle.release(  );
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import java.text.MessageFormat;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * This service dispatches the tickets to send. Depending on the configuration,
+ * a ticket is either sent immediately in the calling thread, queued and sent
+ * by a pool of workers so that the workflow action does not wait for the end
+ * point, stored in the outbox and sent by the outbox daemon, or grouped with
+ * the other tickets of its company and sent in a batch.
+ * <br>
+ * In asynchronous mode, a ticket which finds the queue full is not sent by
+ * the calling thread : it is marked as not sent, to be re-sent from the
+ * administration. The tickets still queued when the application stops are
+ * moved to the outbox.
+ */
+public final class TicketDispatchService
+{
+    // Properties
+    private static final String PROPERTY_DISPATCH_MODE = "ticketing-pocgru.dispatch.mode";
+    private static final String PROPERTY_DISPATCH_WORKERS = "ticketing-pocgru.dispatch.async.workers";
+    private static final String PROPERTY_DISPATCH_QUEUE_SIZE = "ticketing-pocgru.dispatch.async.queueSize";
+    private static final String PROPERTY_DISPATCH_QUEUE_TIMEOUT = "ticketing-pocgru.dispatch.async.queueTimeout";
+
+    // Other constants
+    private static final String MODE_ASYNC = "async";
+    private static final String MODE_OUTBOX = "outbox";
+    private static final String MODE_BATCH = "batch";
+    private static final int DEFAULT_WORKERS = 4;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_QUEUE_TIMEOUT = 5000;
+    private static final String THREAD_NAME_PREFIX = "ticketing-pocgru-dispatch-";
+    private static final String LOG_SERVICE_NAME = " - TicketDispatchService - ";
+    private static final String LOG_QUEUE_FULL = "Dispatch queue full, the ticket {0} is marked as not sent";
+    private static final String LOG_SEND_ERROR = "Error when sending the ticket {0} : ";
+    private static final String LOG_REJECT_ERROR = "Error when rejecting the ticket {0}, it is not sent : ";
+    private static final String LOG_SHUTDOWN = "Dispatch service stopped, pending tickets moved to the outbox : ";
+    private static TicketDispatchService _singleton = new TicketDispatchService(  );
+
+    // Variables
+    private final boolean _bAsync;
+    private final boolean _bOutbox;
+    private final boolean _bBatch;
+    private final long _lQueueTimeout;
+    private final ThreadPoolExecutor _executor;
+
+    /**
+     * Constructor
+     */
+    private TicketDispatchService(  )
+    {
+        String strMode = AppPropertiesService.getProperty( PROPERTY_DISPATCH_MODE );
+        _bAsync = MODE_ASYNC.equalsIgnoreCase( strMode );
+        _bOutbox = MODE_OUTBOX.equalsIgnoreCase( strMode );
+        _bBatch = MODE_BATCH.equalsIgnoreCase( strMode );
+        _lQueueTimeout = AppPropertiesService.getPropertyInt( PROPERTY_DISPATCH_QUEUE_TIMEOUT, DEFAULT_QUEUE_TIMEOUT );
+
+        if ( _bAsync )
+        {
+            int nWorkers = AppPropertiesService.getPropertyInt( PROPERTY_DISPATCH_WORKERS, DEFAULT_WORKERS );
+            int nQueueSize = AppPropertiesService.getPropertyInt( PROPERTY_DISPATCH_QUEUE_SIZE, DEFAULT_QUEUE_SIZE );
+            _executor = new ThreadPoolExecutor( nWorkers, nWorkers, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>( nQueueSize ), new DispatchThreadFactory(  ),
+                    new QueueFullPolicy(  ) );
+        }
+        else
+        {
+            _executor = null;
+        }
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static TicketDispatchService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Dispatches the specified ticket
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     */
+    public void dispatch( int nIdTicket, int nIdResourceHistory )
+    {
+        if ( _bAsync )
+        {
+            _executor.execute( new SendTicketRunnable( nIdTicket, nIdResourceHistory ) );
+        }
+        else if ( _bOutbox )
+        {
+            OutboxService.getInstance(  ).enqueue( nIdTicket, nIdResourceHistory );
+        }
+        else if ( _bBatch )
+        {
+            BatchSendService.getInstance(  ).add( nIdTicket, nIdResourceHistory );
+        }
+        else
+        {
+            TicketSendService.getInstance(  ).send( nIdTicket, nIdResourceHistory );
+        }
+    }
+
+    /**
+     * Stops the workers. The tickets already queued are sent before the
+     * workers stop, within the limit of the queue timeout. The tickets not
+     * sent in time are moved to the outbox.
+     */
+    public void shutdown(  )
+    {
+        if ( _executor == null )
+        {
+            return;
+        }
+
+        _executor.shutdown(  );
+
+        try
+        {
+            if ( _executor.awaitTermination( _lQueueTimeout, TimeUnit.MILLISECONDS ) )
+            {
+                return;
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+        }
+
+        List<Runnable> listNotSent = _executor.shutdownNow(  );
+
+        for ( Runnable runnable : listNotSent )
+        {
+            ( (SendTicketRunnable) runnable ).moveToOutbox(  );
+        }
+
+        AppLogService.error( LOG_SERVICE_NAME + LOG_SHUTDOWN + listNotSent.size(  ) );
+    }
+
+    /**
+     * This class sends a ticket in a worker thread
+     *
+     */
+    private static final class SendTicketRunnable implements Runnable
+    {
+        private final int _nIdTicket;
+        private final int _nIdResourceHistory;
+
+        /**
+         * Constructor
+         *
+         * @param nIdTicket
+         *            the id of the ticket to send
+         * @param nIdResourceHistory
+         *            the id of the resource history of the action sending the
+         *            ticket
+         */
+        SendTicketRunnable( int nIdTicket, int nIdResourceHistory )
+        {
+            _nIdTicket = nIdTicket;
+            _nIdResourceHistory = nIdResourceHistory;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run(  )
+        {
+            try
+            {
+                TicketSendService.getInstance(  ).send( _nIdTicket, _nIdResourceHistory );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME +
+                    MessageFormat.format( LOG_SEND_ERROR, _nIdTicket ) + e.getMessage(  ), e );
+            }
+        }
+
+        /**
+         * Marks the ticket as not sent, instead of sending it
+         */
+        void markNotSent(  )
+        {
+            AppLogService.error( LOG_SERVICE_NAME + MessageFormat.format( LOG_QUEUE_FULL, _nIdTicket ) );
+
+            try
+            {
+                TicketSendService.getInstance(  ).markNotSent( _nIdTicket );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME +
+                    MessageFormat.format( LOG_REJECT_ERROR, _nIdTicket ) + e.getMessage(  ), e );
+            }
+        }
+
+        /**
+         * Moves the ticket to the outbox, instead of sending it
+         */
+        void moveToOutbox(  )
+        {
+            try
+            {
+                OutboxService.getInstance(  ).enqueue( _nIdTicket, _nIdResourceHistory );
+            }
+            catch ( RuntimeException e )
+            {
+                AppLogService.error( LOG_SERVICE_NAME +
+                    MessageFormat.format( LOG_REJECT_ERROR, _nIdTicket ) + e.getMessage(  ), e );
+            }
+        }
+    }
+
+    /**
+     * This class applies the backpressure when the queue is full : the caller
+     * waits for a free slot and, if none is freed in time or if it is
+     * interrupted, the ticket is marked as not sent. A ticket dispatched while
+     * the service stops is moved to the outbox.
+     *
+     */
+    private final class QueueFullPolicy implements RejectedExecutionHandler
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void rejectedExecution( Runnable runnable, ThreadPoolExecutor executor )
+        {
+            SendTicketRunnable sendTicketRunnable = (SendTicketRunnable) runnable;
+
+            if ( executor.isShutdown(  ) )
+            {
+                sendTicketRunnable.moveToOutbox(  );
+
+                return;
+            }
+
+            BlockingQueue<Runnable> queue = executor.getQueue(  );
+
+            try
+            {
+                if ( queue.offer( runnable, _lQueueTimeout, TimeUnit.MILLISECONDS ) )
+                {
+                    return;
+                }
+            }
+            catch ( InterruptedException e )
+            {
+                // The caller is stopping : the interruption is kept and the ticket is not waited for
+                Thread.currentThread(  ).interrupt(  );
+            }
+
+            sendTicketRunnable.markNotSent(  );
+        }
+    }
+
+    /**
+     * This class creates the worker threads
+     *
+     */
+    private static final class DispatchThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger _nThreadNumber = new AtomicInteger(  );
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, THREAD_NAME_PREFIX + _nThreadNumber.incrementAndGet(  ) );
+            thread.setDaemon( true );
+
+            return thread;
+        }
+    }
+}
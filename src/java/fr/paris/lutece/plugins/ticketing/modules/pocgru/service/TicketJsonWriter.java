@@ -0,0 +1,1040 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Field;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.portal.service.util.AppPropertiesService;
+
+import net.sf.json.JSONObject;
+import net.sf.json.util.JSONUtils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * This class writes a ticket in JSON format directly to a stream, without
+ * building the JSON tree nor the whole message in memory. The output is the
+ * same as the one of the json-lib objects previously used to build the
+ * message : the keys are written in the same order and the values are quoted
+ * by json-lib. The few string values that json-lib would interpret (JSON
+ * texts, functions, quoted strings) are still converted by json-lib.
+ * <br>
+ * The attachments are encoded in Base64 chunk by chunk. The content of an
+ * attachment loaded without it is read from the database while it is encoded.
+ * An attachment larger
+ * than the configured maximum size is either sent by reference (empty value,
+ * with the id and the size of the file in its metadata) or causes the whole
+ * ticket to be rejected.
+ * <br>
+ * The keys of the ticket object and the renamed extra fields are encoded
+ * once : the sequence of the members of the ticket when the class is loaded,
+ * the names of the extra fields when the plan of a company is compiled.
+ * <br>
+ * This is the default payload format, see {@link JsonPayloadFormat}.
+ */
+public final class TicketJsonWriter
+{
+    // Constants for JSON message
+    private static final String EMPTY_STRING = "";
+    private static final String KEY_TICKET = "ticket";
+    private static final String KEY_TICKETS = "tickets";
+    private static final String KEY_TICKET_TYPE = "type";
+    private static final String KEY_TICKET_DOMAIN = "domain";
+    private static final String KEY_TICKET_CATEGORY = "category";
+    private static final String KEY_TICKET_CONTACT_MODE = "contact_mode";
+    private static final String KEY_TICKET_COMMENT = "comment";
+    private static final String KEY_USER = "user";
+    private static final String KEY_USER_ID = "guid";
+    private static final String KEY_USER_TITLE = "title";
+    private static final String KEY_USER_FIRST_NAME = "first_name";
+    private static final String KEY_USER_LAST_NAME = "last_name";
+    private static final String KEY_USER_EMAIL = "email";
+    private static final String KEY_USER_FIXED_PHONE_NUMBER = "fixed_phone_number";
+    private static final String KEY_USER_MOBILE_PHONE_NUMBER = "mobile_phone_number";
+    private static final String KEY_EXTRA_FIELDS = "extra_fields";
+    private static final String KEY_EXTRA_FIELDS_FIELD = "field";
+    private static final String KEY_EXTRA_FIELDS_VALUE = "value";
+    private static final String KEY_EXTRA_FIELDS_METADATA = "metadata";
+    private static final String KEY_EXTRA_FIELDS_METADATA_NAME = "name";
+    private static final String KEY_EXTRA_FIELDS_METADATA_VALUE = "value";
+    private static final String KEY_EXTRA_FIELDS_METADATA_MIMETYPE = "mimetype";
+    private static final String KEY_EXTRA_FIELDS_METADATA_FILENAME = "filename";
+    private static final String KEY_EXTRA_FIELDS_METADATA_REFERENCE = "reference";
+    private static final String KEY_EXTRA_FIELDS_METADATA_SIZE = "size";
+    private static final String KEY_JSON_LIB_VALUE = "v";
+
+    // Properties
+    private static final String PROPERTY_ATTACHMENT_MAX_SIZE = "ticketing-pocgru.attachment.maxSize";
+
+    // Other constants
+    private static final long DEFAULT_ATTACHMENT_MAX_SIZE = 10485760L;
+    private static final long ESTIMATED_TICKET_SIZE = 512L;
+    private static final long ESTIMATED_EXTRA_FIELD_SIZE = 64L;
+    private static final String OVERSIZE_MODE_REJECT = "reject";
+    private static final String CHARSET = "UTF-8";
+    private static final String NULL = "null";
+    private static final String FUNCTION_PREFIX = "function";
+    private static final char OBJECT_START = '{';
+    private static final char OBJECT_END = '}';
+    private static final char ARRAY_START = '[';
+    private static final char ARRAY_END = ']';
+    private static final char SEPARATOR = ',';
+    private static final char KEY_SEPARATOR = ':';
+    private static final char QUOTE = '"';
+    private static final char SINGLE_QUOTE = '\'';
+    private static final Member [] TICKET_MEMBERS = compileTicketMembers(  );
+    private static final String EXTRA_FIELDS_START = SEPARATOR + encodeKey( KEY_EXTRA_FIELDS ) + ARRAY_START;
+    private static final String ROOT_START = OBJECT_START + encodeKey( KEY_TICKET );
+    private static final String BATCH_START = OBJECT_START + encodeKey( KEY_TICKETS ) + ARRAY_START;
+
+    // Variables
+    private final Writer _writer;
+    private final long _lAttachmentMaxSize;
+    private final Map<String, String> _mapEncodedFieldNames;
+
+    /**
+     * Constructor
+     *
+     * @param writer
+     *            the writer receiving the JSON
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the ticket
+     * @param mapEncodedFieldNames
+     *            the encoded names of the extra fields sent under another
+     *            name than their code, by code
+     */
+    private TicketJsonWriter( Writer writer, long lAttachmentMaxSize, Map<String, String> mapEncodedFieldNames )
+    {
+        _writer = writer;
+        _lAttachmentMaxSize = lAttachmentMaxSize;
+        _mapEncodedFieldNames = mapEncodedFieldNames;
+    }
+
+    /**
+     * Tests if the ticket can be written : it cannot if one of its
+     * attachments is larger than the maximum size and the oversized
+     * attachments are rejected
+     *
+     * @param ticket
+     *            the ticket
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the ticket
+     * @param bRejectOversized
+     *            {@code true} if a ticket with a larger attachment is
+     *            rejected
+     * @return {@code true} if the ticket can be written, {@code false}
+     *         otherwise
+     */
+    static boolean isWritable( Ticket ticket, long lAttachmentMaxSize, boolean bRejectOversized )
+    {
+        if ( !bRejectOversized )
+        {
+            return true;
+        }
+
+        List<Response> listExtraFields = ticket.getListResponse(  );
+
+        if ( listExtraFields != null )
+        {
+            for ( Response extraField : listExtraFields )
+            {
+                if ( ( extraField.getField(  ) == null ) && ( extraField.getFile(  ) != null ) &&
+                        ( getAttachmentSize( extraField.getFile(  ) ) > lAttachmentMaxSize ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Estimates the size of the JSON representation of the ticket, without
+     * writing it : the attachments sent with the ticket are counted with their
+     * Base64 size, the other members with an approximate size
+     *
+     * @param ticket
+     *            the ticket
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the ticket
+     * @return the estimated size in bytes
+     */
+    static long estimateSize( Ticket ticket, long lAttachmentMaxSize )
+    {
+        long lSize = ESTIMATED_TICKET_SIZE;
+        List<Response> listExtraFields = ticket.getListResponse(  );
+
+        if ( listExtraFields != null )
+        {
+            for ( Response extraField : listExtraFields )
+            {
+                lSize += ESTIMATED_EXTRA_FIELD_SIZE;
+
+                if ( extraField.getField(  ) != null )
+                {
+                    lSize += getLength( extraField.getField(  ).getValue(  ) );
+                }
+                else if ( extraField.getFile(  ) != null )
+                {
+                    long lAttachmentSize = getAttachmentSize( extraField.getFile(  ) );
+
+                    if ( lAttachmentSize <= lAttachmentMaxSize )
+                    {
+                        lSize += ( ( lAttachmentSize + 2L ) / 3L ) * 4L;
+                    }
+                }
+                else
+                {
+                    lSize += getLength( extraField.getResponseValue(  ) );
+                }
+            }
+        }
+
+        return lSize;
+    }
+
+    /**
+     * Estimates the size of the JSON representation of a batch of tickets
+     *
+     * @param listTickets
+     *            the tickets
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the tickets
+     * @return the estimated size in bytes
+     * @see #estimateSize(Ticket, long)
+     */
+    static long estimateBatchSize( List<Ticket> listTickets, long lAttachmentMaxSize )
+    {
+        long lSize = 0L;
+
+        for ( Ticket ticket : listTickets )
+        {
+            lSize += estimateSize( ticket, lAttachmentMaxSize );
+        }
+
+        return lSize;
+    }
+
+    /**
+     * Writes a ticket in JSON format to the specified stream. The stream is
+     * flushed but not closed.
+     *
+     * @param ticket
+     *            the ticket
+     * @param outputStream
+     *            the stream
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    public static void write( Ticket ticket, OutputStream outputStream )
+        throws IOException
+    {
+        write( ticket, outputStream, getAttachmentMaxSize(  ) );
+    }
+
+    /**
+     * Writes a ticket in JSON format to the specified stream, with the
+     * specified maximum size of attachment. The stream is flushed but not
+     * closed.
+     *
+     * @param ticket
+     *            the ticket
+     * @param outputStream
+     *            the stream
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the ticket
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    static void write( Ticket ticket, OutputStream outputStream, long lAttachmentMaxSize )
+        throws IOException
+    {
+        write( ticket, outputStream, lAttachmentMaxSize, Collections.<String, String>emptyMap(  ) );
+    }
+
+    /**
+     * Writes a ticket in JSON format to the specified stream, with the
+     * specified maximum size of attachment and names of extra fields. The
+     * stream is flushed but not closed.
+     *
+     * @param ticket
+     *            the ticket
+     * @param outputStream
+     *            the stream
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the ticket
+     * @param mapEncodedFieldNames
+     *            the names of the extra fields sent under another name than
+     *            their code, encoded by {@link #encodeFieldNames(Map)}
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    static void write( Ticket ticket, OutputStream outputStream, long lAttachmentMaxSize,
+        Map<String, String> mapEncodedFieldNames ) throws IOException
+    {
+        Writer writer = new BufferedWriter( new OutputStreamWriter( outputStream, CHARSET ) );
+        new TicketJsonWriter( writer, lAttachmentMaxSize, mapEncodedFieldNames ).writeRoot( ticket );
+        writer.flush(  );
+    }
+
+    /**
+     * Writes a batch of tickets in JSON format to the specified stream : an
+     * object whose "tickets" array contains the root object of each ticket.
+     * The stream is flushed but not closed.
+     *
+     * @param listTickets
+     *            the tickets
+     * @param outputStream
+     *            the stream
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    public static void writeBatch( List<Ticket> listTickets, OutputStream outputStream )
+        throws IOException
+    {
+        writeBatch( listTickets, outputStream, getAttachmentMaxSize(  ), Collections.<String, String>emptyMap(  ) );
+    }
+
+    /**
+     * Writes a batch of tickets in JSON format to the specified stream, with
+     * the specified maximum size of attachment and names of extra fields. The
+     * stream is flushed but not closed.
+     *
+     * @param listTickets
+     *            the tickets
+     * @param outputStream
+     *            the stream
+     * @param lAttachmentMaxSize
+     *            the maximum size of an attachment sent with the tickets
+     * @param mapEncodedFieldNames
+     *            the names of the extra fields sent under another name than
+     *            their code, encoded by {@link #encodeFieldNames(Map)}
+     * @throws IOException
+     *             if an error occurs while writing to the stream
+     */
+    static void writeBatch( List<Ticket> listTickets, OutputStream outputStream, long lAttachmentMaxSize,
+        Map<String, String> mapEncodedFieldNames ) throws IOException
+    {
+        Writer writer = new BufferedWriter( new OutputStreamWriter( outputStream, CHARSET ) );
+        TicketJsonWriter ticketJsonWriter = new TicketJsonWriter( writer, lAttachmentMaxSize, mapEncodedFieldNames );
+
+        writer.write( BATCH_START );
+
+        for ( int i = 0; i < listTickets.size(  ); i++ )
+        {
+            if ( i > 0 )
+            {
+                writer.write( SEPARATOR );
+            }
+
+            ticketJsonWriter.writeRoot( listTickets.get( i ) );
+        }
+
+        writer.write( ARRAY_END );
+        writer.write( OBJECT_END );
+        writer.flush(  );
+    }
+
+    /**
+     * Writes the root object containing the ticket
+     *
+     * @param ticket
+     *            the ticket
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeRoot( Ticket ticket ) throws IOException
+    {
+        _writer.write( ROOT_START );
+        writeTicket( ticket );
+        _writer.write( OBJECT_END );
+    }
+
+    /**
+     * Writes the ticket object
+     *
+     * @param ticket
+     *            the ticket
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeTicket( Ticket ticket ) throws IOException
+    {
+        for ( Member member : TICKET_MEMBERS )
+        {
+            _writer.write( member.getPrefix(  ) );
+            writeValue( member.get( ticket ) );
+        }
+
+        _writer.write( EXTRA_FIELDS_START );
+
+        List<Response> listExtraFields = ticket.getListResponse(  );
+
+        if ( listExtraFields != null )
+        {
+            boolean bFirst = true;
+
+            for ( Response extraField : listExtraFields )
+            {
+                if ( !bFirst )
+                {
+                    _writer.write( SEPARATOR );
+                }
+
+                writeExtraField( extraField );
+                bFirst = false;
+            }
+        }
+
+        _writer.write( ARRAY_END );
+        _writer.write( OBJECT_END );
+    }
+
+    /**
+     * Writes an extra field object
+     *
+     * @param extraField
+     *            the extra field
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeExtraField( Response extraField )
+        throws IOException
+    {
+        File file = extraField.getFile(  );
+
+        Entry entry = extraField.getEntry(  );
+        String strEncodedName = ( entry != null ) ? _mapEncodedFieldNames.get( entry.getCode(  ) ) : null;
+
+        _writer.write( OBJECT_START );
+        writeKey( KEY_EXTRA_FIELDS_FIELD );
+
+        if ( strEncodedName != null )
+        {
+            _writer.write( strEncodedName );
+        }
+        else
+        {
+            writeValue( ( entry != null ) ? entry.getCode(  ) : EMPTY_STRING );
+        }
+
+        Field field = extraField.getField(  );
+        boolean bByReference = false;
+
+        if ( field != null )
+        {
+            writeMember( KEY_EXTRA_FIELDS_VALUE, field.getValue(  ) );
+        }
+        else
+        {
+            if ( file != null )
+            {
+                bByReference = getAttachmentSize( file ) > _lAttachmentMaxSize;
+                writeAttachment( file, bByReference );
+            }
+            else
+            {
+                writeMember( KEY_EXTRA_FIELDS_VALUE, extraField.getResponseValue(  ) );
+            }
+        }
+
+        if ( file != null )
+        {
+            _writer.write( SEPARATOR );
+            writeKey( KEY_EXTRA_FIELDS_METADATA );
+            _writer.write( ARRAY_START );
+            writeMetadata( KEY_EXTRA_FIELDS_METADATA_MIMETYPE, file.getMimeType(  ) );
+            _writer.write( SEPARATOR );
+            writeMetadata( KEY_EXTRA_FIELDS_METADATA_FILENAME, file.getTitle(  ) );
+
+            if ( bByReference )
+            {
+                _writer.write( SEPARATOR );
+                writeMetadata( KEY_EXTRA_FIELDS_METADATA_REFERENCE, String.valueOf( file.getIdFile(  ) ) );
+                _writer.write( SEPARATOR );
+                writeMetadata( KEY_EXTRA_FIELDS_METADATA_SIZE, String.valueOf( getAttachmentSize( file ) ) );
+            }
+
+            _writer.write( ARRAY_END );
+        }
+
+        _writer.write( OBJECT_END );
+    }
+
+    /**
+     * Writes the value member of an attachment : its content encoded in
+     * Base64, or an empty value if the attachment is sent by reference
+     *
+     * @param file
+     *            the attachment
+     * @param bByReference
+     *            {@code true} if the attachment is sent by reference
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeAttachment( File file, boolean bByReference )
+        throws IOException
+    {
+        if ( bByReference )
+        {
+            writeMember( KEY_EXTRA_FIELDS_VALUE, EMPTY_STRING );
+
+            return;
+        }
+
+        _writer.write( SEPARATOR );
+        writeKey( KEY_EXTRA_FIELDS_VALUE );
+
+        if ( !writeAttachmentContent( file, _writer ) )
+        {
+            _writer.write( NULL );
+        }
+    }
+
+    /**
+     * Writes the content of an attachment encoded in Base64, as a JSON
+     * string. The content of an attachment loaded without it is read from the
+     * database before it is encoded, so that the connection to the database
+     * is not held while writing. Nothing is written if the attachment has no
+     * content.
+     *
+     * @param file
+     *            the attachment
+     * @param writer
+     *            the writer
+     * @return {@code true} if the content has been written, {@code false} if
+     *         the attachment has no content
+     * @throws IOException
+     *             if an error occurs while reading or writing
+     */
+    static boolean writeAttachmentContent( File file, Writer writer )
+        throws IOException
+    {
+        PhysicalFile physicalFile = file.getPhysicalFile(  );
+
+        if ( physicalFile == null )
+        {
+            return false;
+        }
+
+        if ( physicalFile.getValue(  ) != null )
+        {
+            writeBase64( new ByteArrayInputStream( physicalFile.getValue(  ) ), writer );
+
+            return true;
+        }
+
+        if ( physicalFile instanceof StagedAttachments.TempPhysicalFile )
+        {
+            InputStream content = ( (StagedAttachments.TempPhysicalFile) physicalFile ).openContent(  );
+
+            try
+            {
+                writeBase64( content, writer );
+            }
+            finally
+            {
+                content.close(  );
+            }
+
+            return true;
+        }
+
+        // The content has not been read before the send, it is read only for this write
+        StagedAttachments attachments = new StagedAttachments(  );
+
+        try
+        {
+            return attachments.stage( file ) && writeAttachmentContent( file, writer );
+        }
+        finally
+        {
+            attachments.release(  );
+        }
+    }
+
+    /**
+     * Writes a content encoded in Base64, as a JSON string
+     *
+     * @param content
+     *            the content
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             if an error occurs while reading or writing
+     */
+    private static void writeBase64( InputStream content, Writer writer )
+        throws IOException
+    {
+        writer.write( QUOTE );
+        Base64StreamEncoder.encode( content, writer );
+        writer.write( QUOTE );
+    }
+
+    /**
+     * Gives the size of an attachment : the size of its content if it is
+     * loaded, otherwise the size of the file
+     *
+     * @param file
+     *            the attachment
+     * @return the size in bytes
+     */
+    static long getAttachmentSize( File file )
+    {
+        if ( file.getPhysicalFile(  ) == null )
+        {
+            return 0L;
+        }
+
+        if ( file.getPhysicalFile(  ).getValue(  ) == null )
+        {
+            return file.getSize(  );
+        }
+
+        return file.getPhysicalFile(  ).getValue(  ).length;
+    }
+
+    /**
+     * Gives the length of a string which may be {@code null}
+     *
+     * @param str
+     *            the string
+     * @return the length
+     */
+    private static int getLength( String str )
+    {
+        return ( str != null ) ? str.length(  ) : 0;
+    }
+
+    /**
+     * Gives the maximum size of an attachment sent with the ticket
+     *
+     * @return the size in bytes
+     */
+    static long getAttachmentMaxSize(  )
+    {
+        return parseAttachmentMaxSize( AppPropertiesService.getProperty( PROPERTY_ATTACHMENT_MAX_SIZE ) );
+    }
+
+    /**
+     * Parses a maximum size of attachment
+     *
+     * @param strMaxSize
+     *            the size in bytes, or {@code null}
+     * @return the size, or the default size if it is missing or malformed
+     */
+    static long parseAttachmentMaxSize( String strMaxSize )
+    {
+        try
+        {
+            return ( strMaxSize != null ) ? Long.parseLong( strMaxSize.trim(  ) ) : DEFAULT_ATTACHMENT_MAX_SIZE;
+        }
+        catch ( NumberFormatException e )
+        {
+            return DEFAULT_ATTACHMENT_MAX_SIZE;
+        }
+    }
+
+    /**
+     * Parses a behaviour for the attachments larger than the maximum size
+     *
+     * @param strOversizeMode
+     *            the behaviour : reference or reject, or {@code null}
+     * @return {@code true} if a ticket with such an attachment is rejected,
+     *         {@code false} if the attachment is sent by reference
+     */
+    static boolean isRejectOversized( String strOversizeMode )
+    {
+        return OVERSIZE_MODE_REJECT.equalsIgnoreCase( ( strOversizeMode != null ) ? strOversizeMode.trim(  ) : null );
+    }
+
+    /**
+     * Encodes the names of the renamed extra fields, as they are written in
+     * the field member
+     *
+     * @param mapFieldNames
+     *            the names of the extra fields sent under another name than
+     *            their code, by code
+     * @return the encoded names, by code
+     */
+    static Map<String, String> encodeFieldNames( Map<String, String> mapFieldNames )
+    {
+        Map<String, String> mapEncodedFieldNames = new HashMap<String, String>(  );
+
+        for ( Map.Entry<String, String> fieldName : mapFieldNames.entrySet(  ) )
+        {
+            mapEncodedFieldNames.put( fieldName.getKey(  ), encodeValue( fieldName.getValue(  ) ) );
+        }
+
+        return Collections.unmodifiableMap( mapEncodedFieldNames );
+    }
+
+    /**
+     * Compiles the sequence of the members of the ticket object : each one
+     * is written as its encoded prefix, including the keys and the delimiters
+     * of the user object, followed by its value
+     *
+     * @return the members
+     */
+    private static Member [] compileTicketMembers(  )
+    {
+        String strUserStart = OBJECT_START + encodeKey( KEY_USER ) + OBJECT_START;
+
+        return new Member[]
+        {
+            new Member( strUserStart + encodeKey( KEY_USER_ID ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getGuid(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_TITLE ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getIdUserTitle(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_FIRST_NAME ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getFirstname(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_LAST_NAME ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getLastname(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_EMAIL ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getEmail(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_FIXED_PHONE_NUMBER ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getFixedPhoneNumber(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_USER_MOBILE_PHONE_NUMBER ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getMobilePhoneNumber(  );
+                }
+            }, new Member( String.valueOf( OBJECT_END ) + SEPARATOR + encodeKey( KEY_TICKET_TYPE ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getIdTicketType(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_TICKET_DOMAIN ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getIdTicketDomain(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_TICKET_CATEGORY ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getIdTicketCategory(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_TICKET_CONTACT_MODE ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getIdContactMode(  );
+                }
+            }, new Member( SEPARATOR + encodeKey( KEY_TICKET_COMMENT ) )
+            {
+                @Override
+                Object get( Ticket ticket )
+                {
+                    return ticket.getTicketComment(  );
+                }
+            }
+        };
+    }
+
+    /**
+     * Encodes a key followed by the key separator
+     *
+     * @param strKey
+     *            the key
+     * @return the encoded key
+     */
+    private static String encodeKey( String strKey )
+    {
+        return QUOTE + strKey + QUOTE + KEY_SEPARATOR;
+    }
+
+    /**
+     * Encodes a value as the writer writes it
+     *
+     * @param value
+     *            the value
+     * @return the encoded value
+     */
+    private static String encodeValue( Object value )
+    {
+        StringWriter writer = new StringWriter(  );
+
+        try
+        {
+            new TicketJsonWriter( writer, 0L, Collections.<String, String>emptyMap(  ) ).writeValue( value );
+        }
+        catch ( IOException e )
+        {
+            // A string writer does not throw
+            throw new IllegalStateException( e );
+        }
+
+        return writer.toString(  );
+    }
+
+    /**
+     * Writes a metadata object
+     *
+     * @param strName
+     *            the name of the metadata
+     * @param strValue
+     *            the value of the metadata
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeMetadata( String strName, String strValue )
+        throws IOException
+    {
+        _writer.write( OBJECT_START );
+        writeKey( KEY_EXTRA_FIELDS_METADATA_NAME );
+        writeValue( strName );
+        writeMember( KEY_EXTRA_FIELDS_METADATA_VALUE, strValue );
+        _writer.write( OBJECT_END );
+    }
+
+    /**
+     * Writes a member which is not the first one of its object
+     *
+     * @param strKey
+     *            the key
+     * @param value
+     *            the value
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeMember( String strKey, Object value )
+        throws IOException
+    {
+        _writer.write( SEPARATOR );
+        writeKey( strKey );
+        writeValue( value );
+    }
+
+    /**
+     * Writes a key
+     *
+     * @param strKey
+     *            the key
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeKey( String strKey ) throws IOException
+    {
+        _writer.write( QUOTE );
+        _writer.write( strKey );
+        _writer.write( QUOTE );
+        _writer.write( KEY_SEPARATOR );
+    }
+
+    /**
+     * Writes a value
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeValue( Object value ) throws IOException
+    {
+        if ( ( value == null ) || ( value instanceof Integer ) || ( value instanceof Long ) ||
+                ( ( value instanceof String ) && !isInterpretedByJsonLib( (String) value ) ) )
+        {
+            writeValue( value, _writer );
+        }
+        else
+        {
+            writeValueWithJsonLib( value );
+        }
+    }
+
+    /**
+     * Writes a value as is, without json-lib : {@code null} and the numbers
+     * unquoted, the other values quoted
+     *
+     * @param value
+     *            the value
+     * @param writer
+     *            the writer
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    static void writeValue( Object value, Writer writer )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            writer.write( NULL );
+        }
+        else if ( ( value instanceof Integer ) || ( value instanceof Long ) )
+        {
+            writer.write( value.toString(  ) );
+        }
+        else
+        {
+            writer.write( JSONUtils.quote( value.toString(  ) ) );
+        }
+    }
+
+    /**
+     * Writes a value converted by json-lib
+     *
+     * @param value
+     *            the value
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private void writeValueWithJsonLib( Object value )
+        throws IOException
+    {
+        JSONObject json = new JSONObject(  );
+        json.accumulate( KEY_JSON_LIB_VALUE, value );
+
+        // Removes the enclosing {"v": and }
+        String strJson = json.toString(  );
+        int nStart = KEY_JSON_LIB_VALUE.length(  ) + 4;
+        _writer.write( strJson, nStart, strJson.length(  ) - nStart - 1 );
+    }
+
+    /**
+     * Tests if json-lib would interpret the specified string rather than
+     * quote it
+     *
+     * @param strValue
+     *            the string
+     * @return {@code true} if json-lib would interpret the string,
+     *         {@code false} otherwise
+     */
+    private static boolean isInterpretedByJsonLib( String strValue )
+    {
+        if ( strValue.length(  ) == 0 )
+        {
+            return false;
+        }
+
+        char cFirst = strValue.charAt( 0 );
+
+        return ( cFirst == OBJECT_START ) || ( cFirst == ARRAY_START ) || ( cFirst == QUOTE ) ||
+        ( cFirst == SINGLE_QUOTE ) || NULL.equals( strValue ) || strValue.startsWith( FUNCTION_PREFIX );
+    }
+
+    /**
+     * A member of the ticket object, written after its encoded prefix
+     */
+    private abstract static class Member
+    {
+        private final String _strPrefix;
+
+        /**
+         * Constructor
+         *
+         * @param strPrefix
+         *            the encoded text written before the value
+         */
+        Member( String strPrefix )
+        {
+            _strPrefix = strPrefix;
+        }
+
+        /**
+         * Gives the encoded text written before the value
+         *
+         * @return the prefix
+         */
+        String getPrefix(  )
+        {
+            return _strPrefix;
+        }
+
+        /**
+         * Gives the value of the member for a ticket
+         *
+         * @param ticket
+         *            the ticket
+         * @return the value
+         */
+        abstract Object get( Ticket ticket );
+    }
+}
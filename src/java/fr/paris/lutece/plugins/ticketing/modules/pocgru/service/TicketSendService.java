@@ -0,0 +1,1116 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.WebResource;
+
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.TicketProjectionHome;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.business.TicketStatusHome;
+import fr.paris.lutece.portal.service.i18n.I18nService;
+import fr.paris.lutece.portal.service.plugin.Plugin;
+import fr.paris.lutece.portal.service.util.AppLogService;
+import fr.paris.lutece.util.sql.TransactionManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.sql.Timestamp;
+
+import java.text.MessageFormat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+
+/**
+ * This service sends a ticket in JSON format to a REST endpoint
+ *
+ */
+public final class TicketSendService
+{
+    // Messages
+    private static final String MESSAGE_STATUS_SENT_OK = "module.ticketing.pocgru.task_send_rest_request.labelStatusSentOk";
+    private static final String MESSAGE_STATUS_SENT_KO = "module.ticketing.pocgru.task_send_rest_request.labelStatusSentKo";
+
+    // Errors
+    private static final String ERROR_SENDING_TICKET = "Problem when sending the ticket {0} : {1}";
+    private static final String ERROR_HTTP = "HTTP ";
+    private static final String ERROR_ATTACHMENT_TOO_LARGE = "an attachment exceeds the maximum size";
+    private static final String ERROR_CIRCUIT_OPEN = "circuit breaker open for the endpoint of ";
+    private static final String ERROR_THROTTLED = "limits of the endpoint exceeded for ";
+    private static final String ERROR_NO_ENDPOINT = "no endpoint configured for ";
+    private static final String ERROR_NO_RESPONSE_IN_BATCH = "no response for the ticket in the batch response";
+
+    // Other constants
+    private static final int STATUS_SENT_KO = 0;
+    private static final int STATUS_SENT_OK = 1;
+    private static final int HTTP_STATUS_UNAUTHORIZED = 401;
+    private static final String HEADER_AUTHORIZATION_PREFIX_BEARER = "Bearer ";
+    private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String CONTENT_ENCODING_GZIP = "gzip";
+    private static final int GZIP_BUFFER_SIZE = 8192;
+    private static final String DUPLICATE_TICKET = "ticket";
+    private static final String DUPLICATE_BATCH = "batch";
+    private static final String LOG_SERVICE_NAME = " - TicketSendService - ";
+    private static final String LOG_DUPLICATE_SEND = "Send skipped, the same send is in progress or has just succeeded";
+    private static final String LOG_TOKEN_REJECTED = "Token rejected by the endpoint, retry with a new token";
+    private static TicketSendService _singleton = new TicketSendService(  );
+
+    // Variables
+    private final Client _client;
+    private final long _lReplyMaxSize;
+
+    /**
+     * Constructor
+     */
+    private TicketSendService(  )
+    {
+        _client = HttpTransportService.getInstance(  ).getClient(  );
+        _lReplyMaxSize = JsonReplyReader.getConfiguredMaxSize(  );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static TicketSendService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Sends the specified ticket to the REST endpoint and updates its status.
+     * The send is skipped if the ticket is being sent or has just been sent
+     * successfully.
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param nIdResourceHistory
+     *            the id of the resource history of the action sending the
+     *            ticket
+     * @return the result of the send
+     */
+    public SendResult send( int nIdTicket, int nIdResourceHistory )
+    {
+        return send( nIdTicket, IdempotencyService.buildKey( nIdTicket, nIdResourceHistory ) );
+    }
+
+    /**
+     * Sends the specified ticket to the REST endpoint with the specified
+     * idempotency key and updates its status. The send is skipped if a send
+     * with the same key is in progress or has just succeeded.
+     *
+     * @param nIdTicket
+     *            the id of the ticket to send
+     * @param strIdempotencyKey
+     *            the idempotency key of the send
+     * @return the result of the send
+     */
+    public SendResult send( int nIdTicket, String strIdempotencyKey )
+    {
+        IdempotencyService idempotency = IdempotencyService.getInstance(  );
+
+        if ( !idempotency.tryStart( strIdempotencyKey ) )
+        {
+            logDuplicateSend( nIdTicket, strIdempotencyKey, null );
+            SendMetricsService.getInstance(  ).increment( SendMetricsService.COUNTER_DUPLICATE, DUPLICATE_TICKET );
+
+            return SendResult.SKIPPED;
+        }
+
+        SendResult result = SendResult.SKIPPED;
+
+        try
+        {
+            // We get the fields of the ticket to send, its responses are loaded once it is known to be sendable
+            Ticket ticket = TicketProjectionHome.findTicket( nIdTicket );
+
+            if ( ticket != null )
+            {
+                result = sendTicket( ticket, strIdempotencyKey );
+            }
+        }
+        finally
+        {
+            idempotency.complete( strIdempotencyKey, result );
+        }
+
+        return result;
+    }
+
+    /**
+     * Marks the specified ticket as not sent, without sending it : its status
+     * is the status of a failed send, so that it is listed with the failed
+     * tickets and can be re-sent from the administration
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     */
+    public void markNotSent( int nIdTicket )
+    {
+        TicketStatusHome.updateStatus( nIdTicket, STATUS_SENT_KO, getStatusText( SendResult.FAILED_FATAL, null ) );
+    }
+
+    /**
+     * Finds the tickets whose last send failed, created during the specified
+     * period
+     *
+     * @param dateFrom
+     *            the start of the period, included
+     * @param dateTo
+     *            the end of the period, excluded
+     * @return the user guids of the tickets, by id of ticket
+     */
+    public Map<Integer, String> findFailedTickets( Timestamp dateFrom, Timestamp dateTo )
+    {
+        return TicketStatusHome.findGuidsByStatus( STATUS_SENT_KO, getStatusText( SendResult.FAILED_FATAL, null ),
+            dateFrom, dateTo );
+    }
+
+    /**
+     * Sends the specified tickets of a company to the REST endpoint and
+     * updates their statuses. If a batch endpoint is configured for the
+     * company, all the tickets are sent in one request and their statuses are
+     * updated in one transaction, otherwise they are sent one by one.
+     *
+     * @param strCompany
+     *            the company of the tickets
+     * @param mapIdResourceHistories
+     *            the ids of the resource histories of the actions sending the
+     *            tickets, by id of ticket to send
+     */
+    public void sendBatch( String strCompany, Map<Integer, Integer> mapIdResourceHistories )
+    {
+        CompanyRoute route = EndpointRoutingService.getInstance(  ).getRoute( strCompany );
+
+        if ( ( route == null ) || ( route.getBatchEndpoint(  ) == null ) )
+        {
+            for ( Map.Entry<Integer, Integer> entry : mapIdResourceHistories.entrySet(  ) )
+            {
+                send( entry.getKey(  ), entry.getValue(  ) );
+            }
+
+            return;
+        }
+
+        IdempotencyService idempotency = IdempotencyService.getInstance(  );
+        List<Ticket> listTickets = new ArrayList<Ticket>( mapIdResourceHistories.size(  ) );
+        List<String> listKeys = new ArrayList<String>( mapIdResourceHistories.size(  ) );
+
+        for ( Map.Entry<Integer, Integer> entry : mapIdResourceHistories.entrySet(  ) )
+        {
+            int nIdTicket = entry.getKey(  );
+            String strKey = IdempotencyService.buildKey( nIdTicket, entry.getValue(  ) );
+
+            if ( !idempotency.tryStart( strKey ) )
+            {
+                logDuplicateSend( nIdTicket, strKey, strCompany );
+                SendMetricsService.getInstance(  ).increment( SendMetricsService.COUNTER_DUPLICATE, DUPLICATE_BATCH );
+
+                continue;
+            }
+
+            Ticket ticket = TicketProjectionHome.findTicket( nIdTicket );
+
+            if ( ticket == null )
+            {
+                idempotency.complete( strKey, SendResult.SKIPPED );
+
+                continue;
+            }
+
+            ticket.setListResponse( TicketProjectionHome.findResponses( nIdTicket ) );
+
+            if ( route.getPayloadPlan(  ).isWritable( ticket ) )
+            {
+                listTickets.add( ticket );
+                listKeys.add( strKey );
+            }
+            else
+            {
+                AppLogService.error( buildErrorMessage( ticket, ERROR_ATTACHMENT_TOO_LARGE ) );
+                changeTicketStatus( ticket, SendResult.FAILED_FATAL, strCompany );
+                idempotency.complete( strKey, SendResult.FAILED_FATAL );
+            }
+        }
+
+        if ( listTickets.isEmpty(  ) )
+        {
+            return;
+        }
+
+        // The key of the batch only depends on the sends it contains, so a replayed batch has the same key
+        String strIdempotencyKey = IdempotencyService.buildBatchKey( listKeys );
+        SendEvent event = new SendEvent( SendEvent.TYPE_BATCH, strIdempotencyKey );
+        event.setCompany( strCompany );
+        event.setNbTickets( listTickets.size(  ) );
+
+        BatchStreamingOutput entity = new BatchStreamingOutput( listTickets, route.getPayloadPlan(  ),
+                route.isCompressed( route.getPayloadPlan(  ).estimateBatchSize( listTickets ) ), event );
+
+        RetryPolicy retryPolicy = RetryPolicy.getInstance(  );
+        String strRestEndpointBatch = route.getBatchEndpoint(  );
+        CircuitBreaker circuitBreaker = CircuitBreakerService.getInstance(  ).getCircuitBreaker( route );
+        SendMetricsService metrics = SendMetricsService.getInstance(  );
+        SendResult [] results = new SendResult[listTickets.size(  )];
+        Arrays.fill( results, SendResult.FAILED_RETRYABLE );
+        SendResult result = SendResult.FAILED_RETRYABLE;
+
+        StagedAttachments attachments = null;
+
+        metrics.increment( SendMetricsService.COUNTER_COMPANY, strCompany );
+        metrics.sendStarted(  );
+
+        try
+        {
+            // The attachments are read once, before the connection to the endpoint is opened
+            attachments = StagedAttachments.stage( listTickets, route.getPayloadPlan(  ).getAttachmentMaxSize(  ) );
+
+            for ( int nAttempt = 1;; nAttempt++ )
+            {
+                ThrottleService.Permit permit = ThrottleService.getInstance(  ).acquire( route );
+
+                if ( permit == null )
+                {
+                    event.setMessage( ERROR_THROTTLED + strCompany );
+
+                    break;
+                }
+
+                try
+                {
+                    if ( !circuitBreaker.allowRequest(  ) )
+                    {
+                        event.setMessage( ERROR_CIRCUIT_OPEN + strCompany );
+
+                        break;
+                    }
+
+                    event.setNbAttempts( nAttempt );
+                    result = sendBatchOnce( listTickets, strRestEndpointBatch, strIdempotencyKey, entity, results );
+                }
+                finally
+                {
+                    permit.release(  );
+                }
+
+                if ( result == SendResult.FAILED_RETRYABLE )
+                {
+                    circuitBreaker.recordFailure(  );
+                }
+                else if ( result == SendResult.SENT_OK )
+                {
+                    circuitBreaker.recordSuccess(  );
+                }
+                else
+                {
+                    circuitBreaker.recordInconclusive(  );
+                }
+
+                if ( ( result != SendResult.FAILED_RETRYABLE ) || ( nAttempt >= retryPolicy.getMaxAttempts(  ) ) ||
+                        !retryPolicy.waitBeforeRetry( nAttempt ) )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            event.setError( e );
+        }
+        finally
+        {
+            if ( attachments != null )
+            {
+                attachments.release(  );
+            }
+
+            try
+            {
+                changeTicketsStatus( listTickets, results, strCompany );
+            }
+            finally
+            {
+                int nNbTicketsSentOk = 0;
+
+                for ( int i = 0; i < listTickets.size(  ); i++ )
+                {
+                    idempotency.complete( listKeys.get( i ), results[i] );
+
+                    if ( results[i] == SendResult.SENT_OK )
+                    {
+                        nNbTicketsSentOk++;
+                    }
+                }
+
+                metrics.sendEnded(  );
+                event.setNbTicketsSentOk( nNbTicketsSentOk );
+                metrics.recordCompanySend( event.end( result ) );
+                SendEventLogger.getInstance(  ).log( event );
+            }
+        }
+    }
+
+    /**
+     * Sends the ticket to the REST endpoint. The send is retried while it
+     * fails with a retryable error, within the limits of the retry policy and
+     * of the circuit breaker of the endpoint. Each attempt waits for the rate
+     * and concurrency limits of the company.
+     * @param ticket the ticket to send
+     * @param strIdempotencyKey the idempotency key of the send
+     * @return the result of the send
+     */
+    private SendResult sendTicket( Ticket ticket, String strIdempotencyKey )
+    {
+        SendEvent event = new SendEvent( SendEvent.TYPE_TICKET, strIdempotencyKey );
+        event.setIdTicket( ticket.getId(  ) );
+
+        String strGuid = ticket.getGuid(  );
+        String company = CompanyResolutionService.getInstance(  ).getCompany( strGuid );
+
+        if ( company == null )
+        {
+            SendEventLogger.getInstance(  ).log( event.end( SendResult.SKIPPED ) );
+
+            return SendResult.SKIPPED;
+        }
+
+        event.setCompany( company );
+
+        CompanyRoute route = EndpointRoutingService.getInstance(  ).getRoute( company );
+
+        if ( ( route == null ) || ( route.getEndpoint(  ) == null ) )
+        {
+            changeTicketStatus( ticket, SendResult.FAILED_FATAL, company );
+            event.setMessage( ERROR_NO_ENDPOINT + company );
+            SendEventLogger.getInstance(  ).log( event.end( SendResult.FAILED_FATAL ) );
+
+            return SendResult.FAILED_FATAL;
+        }
+
+        if ( ticket.getListResponse(  ) == null )
+        {
+            ticket.setListResponse( TicketProjectionHome.findResponses( ticket.getId(  ) ) );
+        }
+
+        if ( !route.getPayloadPlan(  ).isWritable( ticket ) )
+        {
+            changeTicketStatus( ticket, SendResult.FAILED_FATAL, company );
+            event.setMessage( ERROR_ATTACHMENT_TOO_LARGE );
+            SendEventLogger.getInstance(  ).log( event.end( SendResult.FAILED_FATAL ) );
+
+            return SendResult.FAILED_FATAL;
+        }
+
+        String strRestEndpointTicket = route.getEndpoint(  );
+        TicketStreamingOutput entity = new TicketStreamingOutput( ticket, route.getPayloadPlan(  ),
+                route.isCompressed( route.getPayloadPlan(  ).estimateSize( ticket ) ), event );
+        RetryPolicy retryPolicy = RetryPolicy.getInstance(  );
+        CircuitBreaker circuitBreaker = CircuitBreakerService.getInstance(  ).getCircuitBreaker( route );
+        SendMetricsService metrics = SendMetricsService.getInstance(  );
+        SendResult result = SendResult.FAILED_RETRYABLE;
+
+        StagedAttachments attachments = null;
+
+        metrics.increment( SendMetricsService.COUNTER_COMPANY, company );
+        metrics.sendStarted(  );
+
+        try
+        {
+            // The attachments are read once, before the connection to the endpoint is opened
+            attachments = StagedAttachments.stage( Collections.singletonList( ticket ),
+                    route.getPayloadPlan(  ).getAttachmentMaxSize(  ) );
+
+            for ( int nAttempt = 1;; nAttempt++ )
+            {
+                ThrottleService.Permit permit = ThrottleService.getInstance(  ).acquire( route );
+
+                if ( permit == null )
+                {
+                    event.setMessage( ERROR_THROTTLED + company );
+                    result = SendResult.FAILED_RETRYABLE;
+
+                    break;
+                }
+
+                try
+                {
+                    if ( !circuitBreaker.allowRequest(  ) )
+                    {
+                        event.setMessage( ERROR_CIRCUIT_OPEN + company );
+                        result = SendResult.FAILED_RETRYABLE;
+
+                        break;
+                    }
+
+                    event.setNbAttempts( nAttempt );
+                    result = sendTicketOnce( ticket, strRestEndpointTicket, strIdempotencyKey, entity );
+                }
+                finally
+                {
+                    permit.release(  );
+                }
+
+                if ( result == SendResult.FAILED_RETRYABLE )
+                {
+                    circuitBreaker.recordFailure(  );
+                }
+                else if ( result == SendResult.SENT_OK )
+                {
+                    circuitBreaker.recordSuccess(  );
+                }
+                else
+                {
+                    circuitBreaker.recordInconclusive(  );
+                }
+
+                if ( ( result != SendResult.FAILED_RETRYABLE ) || ( nAttempt >= retryPolicy.getMaxAttempts(  ) ) ||
+                        !retryPolicy.waitBeforeRetry( nAttempt ) )
+                {
+                    break;
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            event.setError( e );
+        }
+        finally
+        {
+            if ( attachments != null )
+            {
+                attachments.release(  );
+            }
+
+            try
+            {
+                changeTicketStatus( ticket, result, company );
+            }
+            finally
+            {
+                metrics.sendEnded(  );
+                metrics.recordCompanySend( event.end( result ) );
+                SendEventLogger.getInstance(  ).log( event );
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Makes one attempt to send the ticket to the REST endpoint
+     *
+     * @param ticket
+     *            the ticket to send
+     * @param strRestEndpointTicket
+     *            the URL of the endpoint
+     * @param strIdempotencyKey
+     *            the idempotency key of the send
+     * @param entity
+     *            the body of the request
+     * @return the result of the attempt
+     */
+    private SendResult sendTicketOnce( Ticket ticket, String strRestEndpointTicket, String strIdempotencyKey,
+        TicketStreamingOutput entity )
+    {
+        RetryPolicy retryPolicy = RetryPolicy.getInstance(  );
+        SendEvent event = entity.getEvent(  );
+
+        try
+        {
+            Token token = TokenService.getInstance(  ).getToken(  );
+            ClientResponse response = post( strRestEndpointTicket, token, strIdempotencyKey, entity );
+
+            if ( response.getStatus(  ) == HTTP_STATUS_UNAUTHORIZED )
+            {
+                // The token may have been revoked before its expiration
+                AppLogService.info( LOG_SERVICE_NAME + LOG_TOKEN_REJECTED );
+                response.close(  );
+                TokenService.getInstance(  ).evict( token );
+                token = TokenService.getInstance(  ).getToken(  );
+                response = post( strRestEndpointTicket, token, strIdempotencyKey, entity );
+            }
+
+            JsonReplyReader reader = new JsonReplyReader( response.getEntityInputStream(  ), _lReplyMaxSize );
+
+            try
+            {
+                if ( ( response.getStatus(  ) == 200 ) || ( response.getStatus(  ) == 201 ) )
+                {
+                    ResponseContent responseContent = ResponseContent.read( reader );
+                    SendMetricsService.getInstance(  ).incrementResponseStatus( responseContent.getStatus(  ) );
+                    event.setResponseStatus( responseContent.getStatus(  ) );
+
+                    if ( !ResponseContent.STATUS_CORRECT.equals( responseContent.getStatus(  ) ) )
+                    {
+                        event.setMessage( responseContent.getMessage(  ) );
+
+                        return SendResult.FAILED_FATAL;
+                    }
+
+                    return SendResult.SENT_OK;
+                }
+            }
+            finally
+            {
+                // The rest of the reply is not read
+                event.setResponseSize( reader.getBytesRead(  ) );
+                response.close(  );
+            }
+
+            event.setMessage( ERROR_HTTP + response.getStatus(  ) );
+
+            return retryPolicy.isRetryable( response.getStatus(  ) ) ? SendResult.FAILED_RETRYABLE
+                                                                     : SendResult.FAILED_FATAL;
+        }
+        catch ( final Throwable t )
+        {
+            event.setError( t );
+
+            return retryPolicy.isRetryable( t ) ? SendResult.FAILED_RETRYABLE : SendResult.FAILED_FATAL;
+        }
+    }
+
+    /**
+     * Makes one attempt to send a batch of tickets to the REST endpoint
+     *
+     * @param listTickets
+     *            the tickets to send
+     * @param strRestEndpointBatch
+     *            the URL of the batch endpoint
+     * @param strIdempotencyKey
+     *            the idempotency key of the batch
+     * @param entity
+     *            the body of the request
+     * @param results
+     *            the results of the tickets, filled from the response in the
+     *            order of the tickets
+     * @return the result of the attempt : {@link SendResult#SENT_OK} if the
+     *         response of the endpoint has been read, whatever the results of
+     *         the tickets
+     */
+    private SendResult sendBatchOnce( List<Ticket> listTickets, String strRestEndpointBatch, String strIdempotencyKey,
+        BatchStreamingOutput entity, SendResult [] results )
+    {
+        RetryPolicy retryPolicy = RetryPolicy.getInstance(  );
+        SendEvent event = entity.getEvent(  );
+
+        try
+        {
+            Token token = TokenService.getInstance(  ).getToken(  );
+            ClientResponse response = post( strRestEndpointBatch, token, strIdempotencyKey, entity );
+
+            if ( response.getStatus(  ) == HTTP_STATUS_UNAUTHORIZED )
+            {
+                // The token may have been revoked before its expiration
+                AppLogService.info( LOG_SERVICE_NAME + LOG_TOKEN_REJECTED );
+                response.close(  );
+                TokenService.getInstance(  ).evict( token );
+                token = TokenService.getInstance(  ).getToken(  );
+                response = post( strRestEndpointBatch, token, strIdempotencyKey, entity );
+            }
+
+            JsonReplyReader reader = new JsonReplyReader( response.getEntityInputStream(  ), _lReplyMaxSize );
+
+            try
+            {
+                if ( ( response.getStatus(  ) == 200 ) || ( response.getStatus(  ) == 201 ) )
+                {
+                    List<ResponseContent> listResponses = ResponseContent.readBatch( reader );
+
+                    for ( int i = 0; i < listTickets.size(  ); i++ )
+                    {
+                        Ticket ticket = listTickets.get( i );
+                        ResponseContent responseContent = ( i < listResponses.size(  ) ) ? listResponses.get( i ) : null;
+
+                        if ( responseContent == null )
+                        {
+                            AppLogService.error( buildErrorMessage( ticket, ERROR_NO_RESPONSE_IN_BATCH ) );
+                            results[i] = SendResult.FAILED_FATAL;
+
+                            continue;
+                        }
+
+                        SendMetricsService.getInstance(  ).incrementResponseStatus( responseContent.getStatus(  ) );
+
+                        if ( ResponseContent.STATUS_CORRECT.equals( responseContent.getStatus(  ) ) )
+                        {
+                            results[i] = SendResult.SENT_OK;
+                        }
+                        else
+                        {
+                            AppLogService.error( buildErrorMessage( ticket, responseContent.getMessage(  ) ) );
+                            results[i] = SendResult.FAILED_FATAL;
+                        }
+                    }
+
+                    return SendResult.SENT_OK;
+                }
+            }
+            finally
+            {
+                // The rest of the reply is not read
+                event.setResponseSize( reader.getBytesRead(  ) );
+                response.close(  );
+            }
+
+            event.setMessage( ERROR_HTTP + response.getStatus(  ) );
+
+            SendResult result = retryPolicy.isRetryable( response.getStatus(  ) ) ? SendResult.FAILED_RETRYABLE
+                                                                                  : SendResult.FAILED_FATAL;
+            Arrays.fill( results, result );
+
+            return result;
+        }
+        catch ( final Throwable t )
+        {
+            event.setError( t );
+
+            SendResult result = retryPolicy.isRetryable( t ) ? SendResult.FAILED_RETRYABLE : SendResult.FAILED_FATAL;
+            Arrays.fill( results, result );
+
+            return result;
+        }
+    }
+
+    /**
+     * Posts an entity to the REST endpoint
+     *
+     * @param strRestEndpointTicket
+     *            the URL of the endpoint
+     * @param token
+     *            the token used to authenticate
+     * @param strIdempotencyKey
+     *            the idempotency key of the send, the same for each attempt
+     * @param entity
+     *            the entity, written in the format of the company directly to
+     *            the request
+     * @return the response
+     */
+    private ClientResponse post( String strRestEndpointTicket, Token token, String strIdempotencyKey,
+        PayloadStreamingOutput entity )
+    {
+        WebResource webResource = _client.resource( strRestEndpointTicket );
+
+        String strAuthorizationHeaderBearer = HEADER_AUTHORIZATION_PREFIX_BEARER + token.getValue(  );
+        WebResource.Builder builder = webResource.type( entity.getPlan(  ).getContentType(  ) ).accept( MediaType.APPLICATION_JSON )
+                                                 .header( HttpHeaders.AUTHORIZATION, strAuthorizationHeaderBearer )
+                                                 .header( HEADER_IDEMPOTENCY_KEY, strIdempotencyKey );
+
+        if ( entity.isCompressed(  ) )
+        {
+            builder = builder.header( HttpHeaders.CONTENT_ENCODING, CONTENT_ENCODING_GZIP );
+        }
+
+        long lStart = System.nanoTime(  );
+        ClientResponse response = builder.post( ClientResponse.class, entity );
+        long lDuration = System.nanoTime(  ) - lStart;
+        SendMetricsService.getInstance(  ).recordPost( lDuration );
+        entity.getEvent(  ).recordPost( response.getStatus(  ), lDuration );
+        SendMetricsService.getInstance(  )
+                          .increment( SendMetricsService.COUNTER_HTTP_STATUS, String.valueOf( response.getStatus(  ) ) );
+
+        return response;
+    }
+
+    /**
+     * Logs a send skipped because the same send is in progress or has just
+     * succeeded. The record is written at the WARN level, so that a skipped
+     * action is visible with the usual configuration of the loggers.
+     *
+     * @param nIdTicket
+     *            the id of the ticket
+     * @param strIdempotencyKey
+     *            the idempotency key of the send
+     * @param strCompany
+     *            the company of the ticket, or {@code null} if it is not
+     *            resolved yet
+     */
+    private static void logDuplicateSend( int nIdTicket, String strIdempotencyKey, String strCompany )
+    {
+        SendEvent event = new SendEvent( SendEvent.TYPE_TICKET, strIdempotencyKey );
+        event.setIdTicket( nIdTicket );
+        event.setCompany( strCompany );
+        event.setMessage( LOG_DUPLICATE_SEND );
+        event.setDuplicate( true );
+        SendEventLogger.getInstance(  ).log( event.end( SendResult.SKIPPED ) );
+    }
+
+    /**
+     * Builds the error message used in exceptions
+     *
+     * @param ticket
+     *            the ticket in error
+     * @param strMessage
+     *            the message to print
+     * @return the error message
+     */
+    private static String buildErrorMessage( Ticket ticket, String strMessage )
+    {
+        return MessageFormat.format( ERROR_SENDING_TICKET, ticket.getId(  ), SendEventLogger.redact( strMessage ) );
+    }
+
+    /**
+     * Changes the ticket status according to the result of its send
+     *
+     * @param ticket
+     *            the ticket to update
+     * @param result
+     *            the result of the send
+     * @param strCompany
+     *            the company the ticket has been sent to
+     */
+    private void changeTicketStatus( Ticket ticket, SendResult result, String strCompany )
+    {
+        int nStatusCode = getStatusCode( result );
+        String strStatusText = getStatusText( result, strCompany );
+        ticket.setTicketStatus( nStatusCode );
+        ticket.setTicketStatusText( strStatusText );
+
+        long lStart = System.nanoTime(  );
+        TicketStatusHome.updateStatus( ticket.getId(  ), nStatusCode, strStatusText );
+        SendMetricsService.getInstance(  ).recordDatabaseUpdate( System.nanoTime(  ) - lStart );
+    }
+
+    /**
+     * Changes the status of several tickets in one transaction. The tickets
+     * with the same status are updated together.
+     *
+     * @param listTickets
+     *            the tickets to update
+     * @param results
+     *            the results of the sends, in the order of the tickets
+     * @param strCompany
+     *            the company the tickets have been sent to
+     */
+    private void changeTicketsStatus( List<Ticket> listTickets, SendResult [] results, String strCompany )
+    {
+        List<Integer> listIdTicketsSentOk = new ArrayList<Integer>(  );
+        List<Integer> listIdTicketsSentKo = new ArrayList<Integer>(  );
+
+        for ( int i = 0; i < listTickets.size(  ); i++ )
+        {
+            Ticket ticket = listTickets.get( i );
+            ticket.setTicketStatus( getStatusCode( results[i] ) );
+            ticket.setTicketStatusText( getStatusText( results[i], strCompany ) );
+
+            if ( results[i] == SendResult.SENT_OK )
+            {
+                listIdTicketsSentOk.add( ticket.getId(  ) );
+            }
+            else
+            {
+                listIdTicketsSentKo.add( ticket.getId(  ) );
+            }
+        }
+
+        Plugin plugin = TicketingPocGruPlugin.getTicketingPlugin(  );
+        long lStart = System.nanoTime(  );
+        TransactionManager.beginTransaction( plugin );
+
+        try
+        {
+            TicketStatusHome.updateStatuses( listIdTicketsSentOk, STATUS_SENT_OK,
+                getStatusText( SendResult.SENT_OK, strCompany ) );
+            TicketStatusHome.updateStatuses( listIdTicketsSentKo, STATUS_SENT_KO,
+                getStatusText( SendResult.FAILED_FATAL, strCompany ) );
+            TransactionManager.commitTransaction( plugin );
+        }
+        catch ( RuntimeException e )
+        {
+            TransactionManager.rollBack( plugin );
+            throw e;
+        }
+
+        SendMetricsService.getInstance(  ).recordDatabaseUpdate( System.nanoTime(  ) - lStart );
+    }
+
+    /**
+     * Gives the status of a ticket according to the result of its send
+     *
+     * @param result
+     *            the result of the send
+     * @return the status code
+     */
+    private static int getStatusCode( SendResult result )
+    {
+        return ( result == SendResult.SENT_OK ) ? STATUS_SENT_OK : STATUS_SENT_KO;
+    }
+
+    /**
+     * Gives the status text of a ticket according to the result of its send
+     *
+     * @param result
+     *            the result of the send
+     * @param strCompany
+     *            the company the ticket has been sent to
+     * @return the status text
+     */
+    private static String getStatusText( SendResult result, String strCompany )
+    {
+        if ( result == SendResult.SENT_OK )
+        {
+            return I18nService.getLocalizedString( MESSAGE_STATUS_SENT_OK, Locale.FRANCE ) + strCompany;
+        }
+
+        return I18nService.getLocalizedString( MESSAGE_STATUS_SENT_KO, Locale.FRANCE );
+    }
+
+    /**
+     * This class writes a payload to the body of the request, compressed with
+     * gzip if required, and records its size
+     *
+     */
+    private abstract static class PayloadStreamingOutput implements StreamingOutput
+    {
+        private final IPayloadPlan _plan;
+        private final boolean _bCompressed;
+        private final SendEvent _event;
+
+        /**
+         * Constructor
+         *
+         * @param plan
+         *            the plan writing the payload in the format of the company
+         * @param bCompressed
+         *            {@code true} if the payload is compressed
+         * @param event
+         *            the event of the send, which records the size of the
+         *            request
+         */
+        PayloadStreamingOutput( IPayloadPlan plan, boolean bCompressed, SendEvent event )
+        {
+            _plan = plan;
+            _bCompressed = bCompressed;
+            _event = event;
+        }
+
+        /**
+         * Gives the plan writing the payload
+         *
+         * @return the plan
+         */
+        IPayloadPlan getPlan(  )
+        {
+            return _plan;
+        }
+
+        /**
+         * Gives the event of the send
+         *
+         * @return the event
+         */
+        SendEvent getEvent(  )
+        {
+            return _event;
+        }
+
+        /**
+         * Tells whether the payload is compressed
+         *
+         * @return {@code true} if the payload is compressed
+         */
+        boolean isCompressed(  )
+        {
+            return _bCompressed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write( OutputStream outputStream ) throws IOException
+        {
+            SendMetricsService metrics = SendMetricsService.getInstance(  );
+
+            if ( !_bCompressed )
+            {
+                CountingOutputStream countingOutputStream = new CountingOutputStream( outputStream );
+                writePayload( countingOutputStream );
+                metrics.recordPayloadSize( countingOutputStream.getCount(  ) );
+                _event.setRequestSize( countingOutputStream.getCount(  ) );
+
+                return;
+            }
+
+            CountingOutputStream compressedOutputStream = new CountingOutputStream( outputStream );
+            ReleasableGZIPOutputStream gzipOutputStream = new ReleasableGZIPOutputStream( compressedOutputStream );
+            CountingOutputStream countingOutputStream = new CountingOutputStream( gzipOutputStream );
+
+            try
+            {
+                writePayload( countingOutputStream );
+                // The underlying stream is closed by the client
+                gzipOutputStream.finish(  );
+                gzipOutputStream.flush(  );
+            }
+            finally
+            {
+                gzipOutputStream.release(  );
+            }
+
+            metrics.recordPayloadSize( countingOutputStream.getCount(  ) );
+            metrics.recordCompression( countingOutputStream.getCount(  ), compressedOutputStream.getCount(  ) );
+            _event.setRequestSize( compressedOutputStream.getCount(  ) );
+            _event.setUncompressedRequestSize( countingOutputStream.getCount(  ) );
+        }
+
+        /**
+         * Writes the payload in the format of the company
+         *
+         * @param outputStream
+         *            the stream
+         * @throws IOException
+         *             if an error occurs while writing
+         */
+        abstract void writePayload( OutputStream outputStream )
+            throws IOException;
+    }
+
+    /**
+     * This stream compresses with gzip without ever being closed, since the
+     * underlying stream belongs to the client. Its deflater, which holds
+     * native memory until it is ended, is released explicitly instead.
+     *
+     */
+    private static final class ReleasableGZIPOutputStream extends GZIPOutputStream
+    {
+        /**
+         * Constructor
+         *
+         * @param outputStream
+         *            the underlying stream
+         * @throws IOException
+         *             if an error occurs while writing the header
+         */
+        ReleasableGZIPOutputStream( OutputStream outputStream )
+            throws IOException
+        {
+            super( outputStream, GZIP_BUFFER_SIZE );
+        }
+
+        /**
+         * Releases the deflater. Nothing can be written afterwards.
+         */
+        void release(  )
+        {
+            def.end(  );
+        }
+    }
+
+    /**
+     * This class writes a ticket to the body of the request
+     *
+     */
+    private static final class TicketStreamingOutput extends PayloadStreamingOutput
+    {
+        private final Ticket _ticket;
+
+        /**
+         * Constructor
+         *
+         * @param ticket
+         *            the ticket to write
+         * @param plan
+         *            the plan writing the ticket
+         * @param bCompressed
+         *            {@code true} if the ticket is compressed
+         * @param event
+         *            the event of the send
+         */
+        TicketStreamingOutput( Ticket ticket, IPayloadPlan plan, boolean bCompressed, SendEvent event )
+        {
+            super( plan, bCompressed, event );
+            _ticket = ticket;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void writePayload( OutputStream outputStream ) throws IOException
+        {
+            getPlan(  ).write( _ticket, outputStream );
+        }
+    }
+
+    /**
+     * This class writes a batch of tickets to the body of the request
+     *
+     */
+    private static final class BatchStreamingOutput extends PayloadStreamingOutput
+    {
+        private final List<Ticket> _listTickets;
+
+        /**
+         * Constructor
+         *
+         * @param listTickets
+         *            the tickets to write
+         * @param plan
+         *            the plan writing the batch
+         * @param bCompressed
+         *            {@code true} if the batch is compressed
+         * @param event
+         *            the event of the send
+         */
+        BatchStreamingOutput( List<Ticket> listTickets, IPayloadPlan plan, boolean bCompressed, SendEvent event )
+        {
+            super( plan, bCompressed, event );
+            _listTickets = listTickets;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        void writePayload( OutputStream outputStream ) throws IOException
+        {
+            getPlan(  ).writeBatch( _listTickets, outputStream );
+        }
+    }
+}
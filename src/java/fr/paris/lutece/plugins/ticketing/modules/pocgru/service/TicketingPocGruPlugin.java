@@ -33,6 +33,7 @@
  */
 package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
 
+import fr.paris.lutece.portal.service.init.ShutdownServiceManager;
 import fr.paris.lutece.portal.service.plugin.Plugin;
 import fr.paris.lutece.portal.service.plugin.PluginService;
 
@@ -54,12 +55,22 @@ public class TicketingPocGruPlugin extends Plugin
      */
     public static final String BEAN_TRANSACTION_MANAGER = PLUGIN_NAME + ".transactionManager";
 
+    /**
+     * Name of the ticketing plugin, whose connection pool holds the tables of
+     * this module
+     */
+    public static final String TICKETING_PLUGIN_NAME = "ticketing";
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void init(  )
     {
+        EndpointRoutingService.getInstance(  ).getRoutingTable(  );
+        SendMetricsService.getInstance(  ).register(  );
+        CompanyResolutionService.getInstance(  ).register(  );
+        ShutdownServiceManager.registerShutdownService( new TicketingPocGruShutdownService(  ) );
     }
 
     /**
@@ -81,4 +92,14 @@ public class TicketingPocGruPlugin extends Plugin
     {
         return PluginService.getPlugin( PLUGIN_NAME );
     }
+
+    /**
+     * Get the ticketing plugin
+     *
+     * @return The ticketing plugin
+     */
+    public static Plugin getTicketingPlugin(  )
+    {
+        return PluginService.getPlugin( TICKETING_PLUGIN_NAME );
+    }
 }
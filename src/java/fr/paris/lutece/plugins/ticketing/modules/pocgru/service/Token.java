@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+
+import java.io.IOException;
+
+
+/**
+ * This class represents a token delivered by the authentication end point
+ *
+ */
+public class Token
+{
+    // Constants for JSON message
+    private static final String KEY_TOKEN_TYPE = "token_type";
+    private static final String KEY_ACCESS_TOKEN = "access_token";
+    private static final String KEY_EXPIRES_IN = "expires_in";
+
+    // Errors
+    private static final String ERROR_INCOMPLETE = "No token type or access token in the reply";
+
+    // Other constants
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+    // Class attributes
+    private final String _strType;
+    private final String _strValue;
+    private final long _lExpirationTime;
+
+    /**
+     * Constructor
+     *
+     * @param strType
+     *            the type
+     * @param strValue
+     *            the value
+     * @param lExpiresIn
+     *            the time to live in seconds given by the reply, 0 if none
+     * @param lDefaultTimeToLive
+     *            the time to live in seconds, used when the reply does not
+     *            contain any expiration
+     */
+    Token( String strType, String strValue, long lExpiresIn, long lDefaultTimeToLive )
+    {
+        _strType = strType;
+        _strValue = strValue;
+        _lExpirationTime = System.currentTimeMillis(  ) +
+            ( ( ( lExpiresIn > 0L ) ? lExpiresIn : lDefaultTimeToLive ) * MILLISECONDS_PER_SECOND );
+    }
+
+    /**
+     * Reads a token from the reply of the authentication end point. The
+     * reading stops once the type, the value and the expiration have been
+     * read.
+     *
+     * @param reader
+     *            the reader of the reply
+     * @param lDefaultTimeToLive
+     *            the time to live in seconds, used when the reply does not
+     *            contain any expiration
+     * @return the token
+     * @throws IOException
+     *             if an error occurs while reading the reply
+     */
+    static Token read( JsonReplyReader reader, long lDefaultTimeToLive )
+        throws IOException
+    {
+        String strType = null;
+        String strValue = null;
+        String strExpiresIn = null;
+        reader.beginObject(  );
+
+        while ( ( ( strType == null ) || ( strValue == null ) || ( strExpiresIn == null ) ) && reader.next(  ) )
+        {
+            String strName = reader.nextName(  );
+
+            if ( KEY_TOKEN_TYPE.equals( strName ) )
+            {
+                strType = reader.nextValue(  );
+            }
+            else if ( KEY_ACCESS_TOKEN.equals( strName ) )
+            {
+                strValue = reader.nextValue(  );
+            }
+            else if ( KEY_EXPIRES_IN.equals( strName ) )
+            {
+                strExpiresIn = reader.nextValue(  );
+            }
+            else
+            {
+                reader.skipValue(  );
+            }
+        }
+
+        if ( ( strType == null ) || ( strValue == null ) )
+        {
+            throw new AppException( ERROR_INCOMPLETE );
+        }
+
+        return new Token( strType, strValue, parseExpiresIn( strExpiresIn ), lDefaultTimeToLive );
+    }
+
+    /**
+     * Parses the expiration given by the reply
+     *
+     * @param strExpiresIn
+     *            the expiration in seconds
+     * @return the expiration, 0 if it is missing or not a number
+     */
+    private static long parseExpiresIn( String strExpiresIn )
+    {
+        if ( strExpiresIn == null )
+        {
+            return 0L;
+        }
+
+        try
+        {
+            return Long.parseLong( strExpiresIn );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0L;
+        }
+    }
+
+    /**
+     * Gives the type
+     *
+     * @return the type
+     */
+    public String getType(  )
+    {
+        return _strType;
+    }
+
+    /**
+     * Gives the value
+     *
+     * @return the value
+     */
+    public String getValue(  )
+    {
+        return _strValue;
+    }
+
+    /**
+     * Gives the expiration time
+     *
+     * @return the expiration time in milliseconds since the epoch
+     */
+    public long getExpirationTime(  )
+    {
+        return _lExpirationTime;
+    }
+
+    /**
+     * Tests if the token is expired
+     *
+     * @param lNow
+     *            the current time in milliseconds
+     * @return {@code true} if the token is expired, {@code false} otherwise
+     */
+    public boolean isExpired( long lNow )
+    {
+        return lNow >= _lExpirationTime;
+    }
+
+    /**
+     * Tests if the token expires within the specified delay
+     *
+     * @param lNow
+     *            the current time in milliseconds
+     * @param lDelay
+     *            the delay in milliseconds
+     * @return {@code true} if the token expires within the delay,
+     *         {@code false} otherwise
+     */
+    public boolean expiresWithin( long lNow, long lDelay )
+    {
+        return ( lNow + lDelay ) >= _lExpirationTime;
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+
+import fr.paris.lutece.portal.service.util.AppException;
+import fr.paris.lutece.portal.service.util.AppLogService;
+
+import java.io.IOException;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+
+/**
+ * This service provides the token used to call the REST end points. The token
+ * is shared by all the tasks and is renewed only when it expires.
+ * <ul>
+ * <li>a token close to its expiration is refreshed in background, the current
+ * one is still returned</li>
+ * <li>only one request to the authentication end point is made at a time,
+ * concurrent callers wait for its result</li>
+ * </ul>
+ */
+public final class TokenService
+{
+    // Errors
+    private static final String ERROR_TOKEN = "Unable to get a token from the authentication end point : ";
+    private static final String ERROR_HTTP = "HTTP ";
+
+    // Other constants
+    private static final int HTTP_STATUS_OK = 200;
+    private static final String HEADER_AUTHORIZATION_PREFIX_BASIC = "Basic ";
+    private static final String THREAD_NAME = "ticketing-pocgru-token-refresh";
+    private static final String LOG_SERVICE_NAME = " - TokenService - ";
+    private static final String LOG_URL = "Uses URL : ";
+    private static final String LOG_TOKEN_TYPE = "New token of type : ";
+    private static final String LOG_TOKEN_EVICTED = "Token evicted";
+    private static final String LOG_REFRESH_ERROR = "Error when refreshing the token : ";
+    private static TokenService _singleton = new TokenService(  );
+
+    // Variables
+    private final AtomicReference<Token> _token = new AtomicReference<Token>(  );
+    private final AtomicReference<RefreshTask> _refreshTask = new AtomicReference<RefreshTask>(  );
+    private final ExecutorService _executor;
+    private final Client _client;
+    private final long _lReplyMaxSize;
+
+    /**
+     * Constructor
+     */
+    private TokenService(  )
+    {
+        _client = HttpTransportService.getInstance(  ).getClient(  );
+        _lReplyMaxSize = JsonReplyReader.getConfiguredMaxSize(  );
+        _executor = Executors.newSingleThreadExecutor( new ThreadFactory(  )
+                {
+                    @Override
+                    public Thread newThread( Runnable runnable )
+                    {
+                        Thread thread = new Thread( runnable, THREAD_NAME );
+                        thread.setDaemon( true );
+
+                        return thread;
+                    }
+                } );
+    }
+
+    /**
+     * Gives the instance of the service
+     *
+     * @return the instance
+     */
+    public static TokenService getInstance(  )
+    {
+        return _singleton;
+    }
+
+    /**
+     * Gives a valid token. A new token is requested only if there is no token
+     * or if the current token is expired.
+     *
+     * @return the token
+     */
+    public Token getToken(  )
+    {
+        Token token = _token.get(  );
+        long lNow = System.currentTimeMillis(  );
+
+        if ( ( token != null ) && !token.isExpired( lNow ) )
+        {
+            if ( token.expiresWithin( lNow,
+                        EndpointRoutingService.getInstance(  ).getRoutingTable(  ).getTokenRefreshAhead(  ) ) )
+            {
+                refreshInBackground(  );
+            }
+
+            return token;
+        }
+
+        return refresh(  );
+    }
+
+    /**
+     * Gives the current token without requesting a new one
+     *
+     * @return the current token, possibly expired, or null if there is none
+     */
+    public Token peekToken(  )
+    {
+        return _token.get(  );
+    }
+
+    /**
+     * Evicts the specified token, for instance when it has been rejected by an
+     * end point. The token is evicted only if it is still the current token,
+     * so that a token already renewed by another task is kept.
+     *
+     * @param token
+     *            the token to evict
+     */
+    public void evict( Token token )
+    {
+        if ( _token.compareAndSet( token, null ) )
+        {
+            AppLogService.info( LOG_SERVICE_NAME + LOG_TOKEN_EVICTED );
+        }
+    }
+
+    /**
+     * Evicts the current token, for instance when the settings of the
+     * authentication end point have changed
+     */
+    public void evictAll(  )
+    {
+        if ( _token.getAndSet( null ) != null )
+        {
+            AppLogService.info( LOG_SERVICE_NAME + LOG_TOKEN_EVICTED );
+        }
+    }
+
+    /**
+     * Requests a new token and waits for it. If another request is in
+     * progress, its result is waited for instead. The token stored by a
+     * request which has just finished is returned only if it is still valid,
+     * otherwise a new request is made.
+     *
+     * @return the new token
+     */
+    private Token refresh(  )
+    {
+        RefreshTask task = null;
+
+        while ( task == null )
+        {
+            Token token = _token.get(  );
+
+            if ( ( token != null ) && !token.isExpired( System.currentTimeMillis(  ) ) )
+            {
+                return token;
+            }
+
+            task = _refreshTask.get(  );
+
+            if ( task == null )
+            {
+                RefreshTask newTask = new RefreshTask(  );
+
+                if ( _refreshTask.compareAndSet( null, newTask ) )
+                {
+                    newTask.run(  );
+                    task = newTask;
+                }
+
+                // Otherwise another request has just started, or just finished : the state is read again
+            }
+        }
+
+        try
+        {
+            return task.get(  );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread(  ).interrupt(  );
+            throw new AppException( ERROR_TOKEN + e.getMessage(  ), e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause(  );
+
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+
+            throw new AppException( ERROR_TOKEN + cause.getMessage(  ), cause );
+        }
+    }
+
+    /**
+     * Requests a new token without waiting for it
+     */
+    private void refreshInBackground(  )
+    {
+        RefreshTask newTask = new RefreshTask(  );
+
+        if ( _refreshTask.compareAndSet( null, newTask ) )
+        {
+            _executor.execute( newTask );
+        }
+    }
+
+    /**
+     * Calls the authentication end point
+     *
+     * @return the token
+     */
+    private Token fetchToken(  )
+    {
+        EndpointRoutingTable routingTable = EndpointRoutingService.getInstance(  ).getRoutingTable(  );
+        String strUrl = routingTable.getAuthenticationUrl(  );
+        String strAuthorizationHeaderBasic = HEADER_AUTHORIZATION_PREFIX_BASIC +
+            routingTable.getAuthenticationToken(  );
+
+        if ( AppLogService.isDebugEnabled(  ) )
+        {
+            AppLogService.debug( LOG_SERVICE_NAME + LOG_URL + strUrl );
+        }
+
+        long lStart = System.nanoTime(  );
+        ClientResponse response = _client.resource( strUrl ).type( MediaType.APPLICATION_FORM_URLENCODED_TYPE )
+                                         .header( HttpHeaders.AUTHORIZATION, strAuthorizationHeaderBasic )
+                                         .post( ClientResponse.class, routingTable.getAuthenticationData(  ) );
+
+        if ( response.getStatus(  ) != HTTP_STATUS_OK )
+        {
+            response.close(  );
+            SendMetricsService.getInstance(  ).recordTokenCall( System.nanoTime(  ) - lStart );
+            throw new HttpStatusException( ERROR_TOKEN + ERROR_HTTP + response.getStatus(  ), response.getStatus(  ) );
+        }
+
+        Token token;
+
+        try
+        {
+            token = Token.read( new JsonReplyReader( response.getEntityInputStream(  ), _lReplyMaxSize ),
+                    routingTable.getTokenTimeToLive(  ) );
+        }
+        catch ( IOException e )
+        {
+            throw new AppException( ERROR_TOKEN + e.getMessage(  ), e );
+        }
+        finally
+        {
+            // The rest of the reply is not read
+            response.close(  );
+            SendMetricsService.getInstance(  ).recordTokenCall( System.nanoTime(  ) - lStart );
+        }
+
+        AppLogService.info( LOG_SERVICE_NAME + LOG_TOKEN_TYPE + token.getType(  ) );
+
+        return token;
+    }
+
+    /**
+     * This class represents a request for a new token. Only one such request
+     * can be in progress at a time.
+     *
+     */
+    private final class RefreshTask extends FutureTask<Token>
+    {
+        /**
+         * Constructor
+         */
+        RefreshTask(  )
+        {
+            super( new TokenFetcher(  ) );
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void done(  )
+        {
+            _refreshTask.compareAndSet( this, null );
+
+            if ( !isCancelled(  ) )
+            {
+                try
+                {
+                    get(  );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread(  ).interrupt(  );
+                }
+                catch ( ExecutionException e )
+                {
+                    AppLogService.error( LOG_SERVICE_NAME + LOG_REFRESH_ERROR + e.getCause(  ).getMessage(  ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * This class calls the authentication end point and stores the new token
+     *
+     */
+    private final class TokenFetcher implements Callable<Token>
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Token call(  )
+        {
+            Token token = fetchToken(  );
+            _token.set( token );
+
+            return token;
+        }
+    }
+}
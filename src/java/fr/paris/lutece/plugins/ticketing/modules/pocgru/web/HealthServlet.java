@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.web;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.HealthReport;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.HealthService;
+import fr.paris.lutece.portal.business.user.AdminUser;
+import fr.paris.lutece.portal.service.admin.AdminAuthenticationService;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * This servlet gives the health of the send pipeline in JSON, for the load
+ * balancers and the monitoring. The status is 503 when the send pipeline of
+ * this node is broken, 200 otherwise, even when the end points cannot be
+ * reached. The details of the companies are only given to the administrators
+ * allowed to re-send the tickets.
+ */
+public class HealthServlet extends HttpServlet
+{
+    private static final long serialVersionUID = 1L;
+
+    // JSON keys
+    private static final String KEY_STATUS = "status";
+    private static final String KEY_TIME = "time";
+    private static final String KEY_TOKEN = "token";
+    private static final String KEY_TOKEN_PRESENT = "present";
+    private static final String KEY_TOKEN_VALID = "valid";
+    private static final String KEY_TOKEN_EXPIRES_IN = "expires_in";
+    private static final String KEY_COMPANIES = "companies";
+    private static final String KEY_COMPANY = "company";
+    private static final String KEY_REACHABLE = "reachable";
+    private static final String KEY_PROBE_TIME = "probe_time";
+    private static final String KEY_PROBE_LATENCY = "probe_latency_ms";
+    private static final String KEY_CIRCUIT = "circuit";
+    private static final String KEY_RECENT_SENDS = "recent_sends";
+    private static final String KEY_SUCCESS_RATE = "success_rate";
+    private static final String KEY_LATENCY_P50 = "latency_p50_ms";
+    private static final String KEY_LATENCY_P99 = "latency_p99_ms";
+
+    // Other constants
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    private static final String CHARSET = "UTF-8";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String NO_CACHE = "no-cache";
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void doGet( HttpServletRequest request, HttpServletResponse response )
+        throws IOException
+    {
+        HealthReport report = HealthService.getInstance(  ).getReport(  );
+
+        // A report which is missing or no longer refreshed means that the health daemon does not run
+        String strStatus = ( ( report == null ) || HealthService.getInstance(  ).isStale( report ) )
+            ? HealthReport.STATUS_DOWN : report.getStatus(  );
+
+        JSONObject json = new JSONObject(  );
+        json.put( KEY_STATUS, strStatus );
+
+        if ( report != null )
+        {
+            json.put( KEY_TIME, report.getTime(  ) );
+
+            if ( isAllowed( request ) )
+            {
+                addDetails( json, report );
+            }
+        }
+
+        response.setStatus( HealthReport.STATUS_DOWN.equals( strStatus ) ? HttpServletResponse.SC_SERVICE_UNAVAILABLE
+                                                                         : HttpServletResponse.SC_OK );
+        response.setContentType( CONTENT_TYPE_JSON );
+        response.setCharacterEncoding( CHARSET );
+        response.setHeader( HEADER_CACHE_CONTROL, NO_CACHE );
+        response.getWriter(  ).write( json.toString(  ) );
+    }
+
+    /**
+     * Tells whether the details of the report can be given to the user of the
+     * request
+     *
+     * @param request
+     *            the request
+     * @return {@code true} if the user is an administrator allowed to re-send
+     *         the tickets
+     */
+    private static boolean isAllowed( HttpServletRequest request )
+    {
+        AdminUser user = AdminAuthenticationService.getInstance(  ).getRegisteredUser( request );
+
+        return ( user != null ) && user.checkRight( ResendJspBean.RIGHT_MANAGE_RESEND );
+    }
+
+    /**
+     * Adds the token and the companies of the report
+     *
+     * @param json
+     *            the JSON object of the report
+     * @param report
+     *            the report
+     */
+    private static void addDetails( JSONObject json, HealthReport report )
+    {
+        JSONObject jsonToken = new JSONObject(  );
+        jsonToken.put( KEY_TOKEN_PRESENT, report.isTokenPresent(  ) );
+        jsonToken.put( KEY_TOKEN_VALID, report.isTokenValid(  ) );
+        jsonToken.put( KEY_TOKEN_EXPIRES_IN, report.getTokenExpiresIn(  ) );
+        json.put( KEY_TOKEN, jsonToken );
+
+        JSONArray jsonCompanies = new JSONArray(  );
+
+        for ( HealthReport.CompanyHealth company : report.getCompanies(  ) )
+        {
+            JSONObject jsonCompany = new JSONObject(  );
+            jsonCompany.put( KEY_COMPANY, company.getCompany(  ) );
+            jsonCompany.put( KEY_STATUS, company.isUp(  ) ? HealthReport.STATUS_UP : HealthReport.STATUS_DEGRADED );
+            jsonCompany.put( KEY_REACHABLE, company.isReachable(  ) );
+            jsonCompany.put( KEY_PROBE_TIME, company.getProbeTime(  ) );
+            jsonCompany.put( KEY_PROBE_LATENCY, company.getProbeLatency(  ) );
+            jsonCompany.put( KEY_CIRCUIT, company.getCircuitState(  ) );
+            jsonCompany.put( KEY_RECENT_SENDS, company.getRecentSends(  ) );
+            jsonCompany.put( KEY_SUCCESS_RATE, company.getSuccessRate(  ) );
+            jsonCompany.put( KEY_LATENCY_P50, company.getLatencyP50(  ) );
+            jsonCompany.put( KEY_LATENCY_P99, company.getLatencyP99(  ) );
+            jsonCompanies.add( jsonCompany );
+        }
+
+        json.put( KEY_COMPANIES, jsonCompanies );
+    }
+}
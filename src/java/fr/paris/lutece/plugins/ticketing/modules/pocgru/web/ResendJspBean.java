@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.web;
+
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.CompanyRoute;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.EndpointRoutingService;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.ResendJob;
+import fr.paris.lutece.plugins.ticketing.modules.pocgru.service.ResendService;
+import fr.paris.lutece.portal.util.mvc.admin.MVCAdminJspBean;
+import fr.paris.lutece.portal.util.mvc.admin.annotations.Controller;
+import fr.paris.lutece.portal.util.mvc.commons.annotations.Action;
+import fr.paris.lutece.portal.util.mvc.commons.annotations.View;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+
+import java.sql.Timestamp;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+
+/**
+ * This class provides the user interface to re-send the tickets whose send
+ * failed
+ */
+@Controller( controllerJsp = "ManageResend.jsp", controllerPath = "jsp/admin/plugins/ticketing/modules/pocgru/", right = ResendJspBean.RIGHT_MANAGE_RESEND )
+public class ResendJspBean extends MVCAdminJspBean
+{
+    /**
+     * Right to manage the re-sends
+     */
+    public static final String RIGHT_MANAGE_RESEND = "TICKETING_POCGRU_RESEND";
+    private static final long serialVersionUID = 1L;
+
+    // Templates
+    private static final String TEMPLATE_MANAGE_RESEND = "/admin/plugins/ticketing/modules/pocgru/manage_resend.html";
+
+    // Properties
+    private static final String PROPERTY_PAGE_TITLE_MANAGE_RESEND = "module.ticketing.pocgru.manage_resend.pageTitle";
+
+    // Parameters
+    private static final String PARAMETER_COMPANY = "company";
+    private static final String PARAMETER_DATE_FROM = "date_from";
+    private static final String PARAMETER_DATE_TO = "date_to";
+    private static final String PARAMETER_CONCURRENCY = "concurrency";
+
+    // Markers
+    private static final String MARK_JOB = "job";
+    private static final String MARK_RESULTS = "results";
+    private static final String MARK_COMPANIES = "companies";
+    private static final String MARK_DEFAULT_CONCURRENCY = "default_concurrency";
+    private static final String MARK_MAX_CONCURRENCY = "max_concurrency";
+
+    // Views
+    private static final String VIEW_MANAGE_RESEND = "manageResend";
+
+    // Actions
+    private static final String ACTION_START_RESEND = "startResend";
+    private static final String ACTION_CANCEL_RESEND = "cancelResend";
+
+    // Infos
+    private static final String INFO_RESEND_STARTED = "module.ticketing.pocgru.manage_resend.info.started";
+    private static final String INFO_RESEND_CANCELLED = "module.ticketing.pocgru.manage_resend.info.cancelled";
+
+    // Errors
+    private static final String ERROR_INVALID_DATES = "module.ticketing.pocgru.manage_resend.error.invalidDates";
+    private static final String ERROR_RESEND_RUNNING = "module.ticketing.pocgru.manage_resend.error.running";
+
+    // Other constants
+    private static final String DATE_FORMAT = "yyyy-MM-dd";
+
+    /**
+     * Build the page to start a re-send and follow its progress
+     * @param request The HTTP request
+     * @return The page
+     */
+    @View( value = VIEW_MANAGE_RESEND, defaultView = true )
+    public String getManageResend( HttpServletRequest request )
+    {
+        ResendService resendService = ResendService.getInstance(  );
+        ResendJob job = resendService.getJob(  );
+        List<String> listCompanies = new ArrayList<String>(  );
+
+        for ( CompanyRoute route : EndpointRoutingService.getInstance(  ).getRoutingTable(  ).getRoutes(  ) )
+        {
+            listCompanies.add( route.getCompany(  ) );
+        }
+
+        Collections.sort( listCompanies );
+
+        Map<String, Object> model = getModel(  );
+        model.put( MARK_JOB, job );
+        model.put( MARK_RESULTS, ( job != null ) ? job.getResults(  ) : null );
+        model.put( MARK_COMPANIES, listCompanies );
+        model.put( MARK_DEFAULT_CONCURRENCY, resendService.getDefaultConcurrency(  ) );
+        model.put( MARK_MAX_CONCURRENCY, resendService.getMaxConcurrency(  ) );
+
+        return getPage( PROPERTY_PAGE_TITLE_MANAGE_RESEND, TEMPLATE_MANAGE_RESEND, model );
+    }
+
+    /**
+     * Process the start of a re-send
+     * @param request The HTTP request
+     * @return The Jsp URL of the process result
+     */
+    @Action( ACTION_START_RESEND )
+    public String doStartResend( HttpServletRequest request )
+    {
+        Date dateFrom = parseDate( request.getParameter( PARAMETER_DATE_FROM ) );
+        Date dateTo = parseDate( request.getParameter( PARAMETER_DATE_TO ) );
+
+        if ( ( dateFrom == null ) || ( dateTo == null ) || dateTo.before( dateFrom ) )
+        {
+            addError( ERROR_INVALID_DATES, getLocale(  ) );
+
+            return redirectView( request, VIEW_MANAGE_RESEND );
+        }
+
+        // The end date is included : the period ends at the start of the next day
+        Calendar calendar = Calendar.getInstance(  );
+        calendar.setTime( dateTo );
+        calendar.add( Calendar.DAY_OF_MONTH, 1 );
+
+        String strCompany = StringUtils.trimToNull( request.getParameter( PARAMETER_COMPANY ) );
+        int nConcurrency = NumberUtils.toInt( request.getParameter( PARAMETER_CONCURRENCY ),
+                ResendService.getInstance(  ).getDefaultConcurrency(  ) );
+        ResendJob job = ResendService.getInstance(  )
+                                     .start( strCompany, new Timestamp( dateFrom.getTime(  ) ),
+                new Timestamp( calendar.getTimeInMillis(  ) ), nConcurrency );
+
+        if ( job == null )
+        {
+            addError( ERROR_RESEND_RUNNING, getLocale(  ) );
+        }
+        else
+        {
+            addInfo( INFO_RESEND_STARTED, getLocale(  ) );
+        }
+
+        return redirectView( request, VIEW_MANAGE_RESEND );
+    }
+
+    /**
+     * Process the cancellation of the running re-send
+     * @param request The HTTP request
+     * @return The Jsp URL of the process result
+     */
+    @Action( ACTION_CANCEL_RESEND )
+    public String doCancelResend( HttpServletRequest request )
+    {
+        ResendService.getInstance(  ).cancel(  );
+        addInfo( INFO_RESEND_CANCELLED, getLocale(  ) );
+
+        return redirectView( request, VIEW_MANAGE_RESEND );
+    }
+
+    /**
+     * Parse a date of the form
+     * @param strDate The date, in the format yyyy-MM-dd
+     * @return The date, or null if the date is missing or invalid
+     */
+    private static Date parseDate( String strDate )
+    {
+        if ( StringUtils.isBlank( strDate ) )
+        {
+            return null;
+        }
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat( DATE_FORMAT );
+        dateFormat.setLenient( false );
+
+        try
+        {
+            return dateFormat.parse( strDate.trim(  ) );
+        }
+        catch ( ParseException e )
+        {
+            return null;
+        }
+    }
+}
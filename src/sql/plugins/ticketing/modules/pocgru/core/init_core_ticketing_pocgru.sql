@@ -0,0 +1,12 @@
+--
+-- Init  table core_admin_right
+--
+DELETE FROM core_admin_right WHERE id_right = 'TICKETING_POCGRU_RESEND';
+INSERT INTO core_admin_right (id_right,name,level_right,admin_url,description,is_updatable,plugin_name,id_feature_group,icon_url,documentation_url,id_order) VALUES
+('TICKETING_POCGRU_RESEND','module.ticketing.pocgru.adminFeature.resend.name',1,'jsp/admin/plugins/ticketing/modules/pocgru/ManageResend.jsp','module.ticketing.pocgru.adminFeature.resend.description',0,'ticketing-pocgru',NULL,NULL,NULL,4);
+
+--
+-- Init  table core_user_right
+--
+DELETE FROM core_user_right WHERE id_right = 'TICKETING_POCGRU_RESEND';
+INSERT INTO core_user_right (id_right,id_user) VALUES ('TICKETING_POCGRU_RESEND',1);
@@ -0,0 +1,18 @@
+--
+-- Structure for table ticketing_pocgru_outbox
+--
+DROP TABLE IF EXISTS ticketing_pocgru_outbox;
+CREATE TABLE ticketing_pocgru_outbox (
+id_outbox int(11) NOT NULL default '0',
+id_ticket int(11) NOT NULL default '0',
+id_resource_history int(11) NOT NULL default '0',
+nb_attempts int(11) NOT NULL default '0',
+date_creation timestamp NULL,
+date_next_attempt timestamp NULL,
+date_lock timestamp NULL,
+lock_key varchar(50) NULL,
+PRIMARY KEY (id_outbox)
+);
+
+CREATE UNIQUE INDEX idx_ticketing_pocgru_outbox_ticket ON ticketing_pocgru_outbox ( id_ticket, id_resource_history );
+CREATE INDEX idx_ticketing_pocgru_outbox_next_attempt ON ticketing_pocgru_outbox ( date_next_attempt );
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests of the circuit breaker protecting an end point
+ */
+public class CircuitBreakerTest
+{
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long LONG_OPEN_DURATION = 60000L;
+
+    /**
+     * Test of the opening of the circuit once the consecutive failures reach
+     * the threshold
+     */
+    @Test
+    public void testOpenOnThreshold(  )
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( FAILURE_THRESHOLD, LONG_OPEN_DURATION );
+
+        circuitBreaker.recordFailure(  );
+        circuitBreaker.recordFailure(  );
+        assertEquals( CircuitBreaker.State.CLOSED, circuitBreaker.getState(  ) );
+        assertTrue( circuitBreaker.allowRequest(  ) );
+
+        circuitBreaker.recordFailure(  );
+        assertEquals( CircuitBreaker.State.OPEN, circuitBreaker.getState(  ) );
+        assertFalse( circuitBreaker.allowRequest(  ) );
+    }
+
+    /**
+     * Test of a success resetting the consecutive failures
+     */
+    @Test
+    public void testSuccessResetsFailures(  )
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( FAILURE_THRESHOLD, LONG_OPEN_DURATION );
+
+        circuitBreaker.recordFailure(  );
+        circuitBreaker.recordFailure(  );
+        circuitBreaker.recordSuccess(  );
+        circuitBreaker.recordFailure(  );
+        circuitBreaker.recordFailure(  );
+        assertEquals( CircuitBreaker.State.CLOSED, circuitBreaker.getState(  ) );
+    }
+
+    /**
+     * Test of the single send allowed to test the end point once the open
+     * duration has elapsed
+     */
+    @Test
+    public void testSingleHalfOpenProbe(  )
+    {
+        CircuitBreaker circuitBreaker = open( 0L );
+
+        assertTrue( circuitBreaker.allowRequest(  ) );
+        assertEquals( CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(  ) );
+        assertFalse( circuitBreaker.allowRequest(  ) );
+        assertFalse( circuitBreaker.allowRequest(  ) );
+
+        circuitBreaker.recordSuccess(  );
+        assertEquals( CircuitBreaker.State.CLOSED, circuitBreaker.getState(  ) );
+        assertTrue( circuitBreaker.allowRequest(  ) );
+    }
+
+    /**
+     * Test of a failed test of the end point, which opens the circuit again
+     */
+    @Test
+    public void testHalfOpenFailure(  )
+    {
+        CircuitBreaker circuitBreaker = open( 0L );
+        assertTrue( circuitBreaker.allowRequest(  ) );
+        circuitBreaker.recordFailure(  );
+        assertEquals( CircuitBreaker.State.OPEN, circuitBreaker.getState(  ) );
+    }
+
+    /**
+     * Test of an inconclusive test of the end point, which opens the circuit
+     * again, while an inconclusive send does not change a closed circuit
+     */
+    @Test
+    public void testInconclusiveReopens(  )
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( FAILURE_THRESHOLD, LONG_OPEN_DURATION );
+        circuitBreaker.recordInconclusive(  );
+        assertEquals( CircuitBreaker.State.CLOSED, circuitBreaker.getState(  ) );
+
+        circuitBreaker = open( 0L );
+        assertTrue( circuitBreaker.allowRequest(  ) );
+        assertEquals( CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(  ) );
+
+        circuitBreaker.recordInconclusive(  );
+        assertEquals( CircuitBreaker.State.OPEN, circuitBreaker.getState(  ) );
+    }
+
+    /**
+     * Gives an open circuit
+     *
+     * @param lOpenDuration
+     *            the time in milliseconds during which the circuit stays open
+     * @return the circuit breaker
+     */
+    private static CircuitBreaker open( long lOpenDuration )
+    {
+        CircuitBreaker circuitBreaker = new CircuitBreaker( FAILURE_THRESHOLD, lOpenDuration );
+
+        for ( int i = 0; i < FAILURE_THRESHOLD; i++ )
+        {
+            circuitBreaker.recordFailure(  );
+        }
+
+        assertEquals( CircuitBreaker.State.OPEN, circuitBreaker.getState(  ) );
+
+        return circuitBreaker;
+    }
+}
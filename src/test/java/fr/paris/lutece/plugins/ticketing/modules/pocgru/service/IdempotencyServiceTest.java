@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+
+/**
+ * Tests of the detection of the duplicate sends by {@link IdempotencyService}
+ */
+public class IdempotencyServiceTest extends LuteceTestCase
+{
+    private static final long WINDOW = 300000L;
+    private static final int MAX_SIZE = 100;
+    private static final long NOW = 1000000000L;
+
+    /**
+     * Test of a send refused while the same send is in progress
+     */
+    public void testInFlight(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( WINDOW, MAX_SIZE );
+        String strKey = IdempotencyService.buildKey( 12, 34 );
+
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+        assertFalse( idempotency.tryStart( strKey, NOW ) );
+        assertFalse( idempotency.tryStart( strKey, NOW + ( 2L * WINDOW ) ) );
+    }
+
+    /**
+     * Test of a send made again after a failure
+     */
+    public void testAfterFailure(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( WINDOW, MAX_SIZE );
+        String strKey = IdempotencyService.buildKey( 12, 34 );
+
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+        idempotency.complete( strKey, SendResult.FAILED_RETRYABLE, NOW );
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+        idempotency.complete( strKey, SendResult.FAILED_FATAL, NOW );
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+    }
+
+    /**
+     * Test of a send refused within the window following its success, then
+     * accepted once the window has expired
+     */
+    public void testWindow(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( WINDOW, MAX_SIZE );
+        String strKey = IdempotencyService.buildKey( 12, 34 );
+
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+        idempotency.complete( strKey, SendResult.SENT_OK, NOW );
+
+        assertFalse( idempotency.tryStart( strKey, NOW + 1L ) );
+        assertFalse( idempotency.tryStart( strKey, ( NOW + WINDOW ) - 1L ) );
+        assertTrue( idempotency.tryStart( strKey, NOW + WINDOW ) );
+    }
+
+    /**
+     * Test of the other actions on a ticket, which have their own keys and
+     * are sent during the window of a successful send
+     */
+    public void testOtherActionOfTicket(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( WINDOW, MAX_SIZE );
+        String strFirstKey = IdempotencyService.buildKey( 12, 34 );
+        String strSecondKey = IdempotencyService.buildKey( 12, 35 );
+
+        assertTrue( idempotency.tryStart( strFirstKey, NOW ) );
+        assertTrue( idempotency.tryStart( strSecondKey, NOW ) );
+        idempotency.complete( strFirstKey, SendResult.SENT_OK, NOW );
+        idempotency.complete( strSecondKey, SendResult.SENT_OK, NOW );
+
+        assertTrue( idempotency.tryStart( IdempotencyService.buildKey( 12, 36 ), NOW + 1L ) );
+        assertTrue( idempotency.tryStart( IdempotencyService.buildResendKey( 12, NOW ), NOW + 1L ) );
+        assertFalse( idempotency.tryStart( strSecondKey, NOW + 1L ) );
+    }
+
+    /**
+     * Test of a window of zero, which only refuses the sends in progress
+     */
+    public void testNoWindow(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( 0L, MAX_SIZE );
+        String strKey = IdempotencyService.buildKey( 12, 34 );
+
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+        idempotency.complete( strKey, SendResult.SENT_OK, NOW );
+        assertTrue( idempotency.tryStart( strKey, NOW ) );
+    }
+
+    /**
+     * Test of the purge of the expired sends once the maximum size is
+     * exceeded, the sends in progress being kept
+     */
+    public void testPurge(  )
+    {
+        IdempotencyService idempotency = new IdempotencyService( WINDOW, MAX_SIZE );
+
+        for ( int i = 0; i < MAX_SIZE; i++ )
+        {
+            String strKey = IdempotencyService.buildKey( i, 1 );
+            idempotency.tryStart( strKey, NOW );
+            idempotency.complete( strKey, SendResult.SENT_OK, NOW );
+        }
+
+        assertTrue( idempotency.tryStart( "in-flight", NOW ) );
+        assertTrue( idempotency.tryStart( "last", NOW + WINDOW ) );
+
+        assertEquals( 2, idempotency.size(  ) );
+        assertFalse( idempotency.tryStart( "in-flight", NOW + WINDOW ) );
+    }
+}
@@ -0,0 +1,413 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+
+/**
+ * Tests of {@link JsonReplyReader} on malformed and oversized replies
+ */
+public class JsonReplyReaderTest
+{
+    private static final long MAX_SIZE = 1048576L;
+    private static final String CHARSET = "UTF-8";
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Test of a well formed reply read member by member
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testRead(  ) throws IOException
+    {
+        JsonReplyReader reader = newReader(
+                " { \"s\" : \"a\\\"b\\\\c\\/d\\n\\u00e9\\u20AC\" , \"n\" : -1.5e3 , \"t\" : true , \"z\" : null , \"u\" : \"\u00e9t\u00e9 \u65e5\u672c\" } " );
+        reader.beginObject(  );
+
+        assertTrue( reader.next(  ) );
+        assertEquals( "s", reader.nextName(  ) );
+        assertEquals( "a\"b\\c/d\n\u00e9\u20ac", reader.nextValue(  ) );
+        assertTrue( reader.next(  ) );
+        assertEquals( "n", reader.nextName(  ) );
+        assertEquals( "-1.5e3", reader.nextValue(  ) );
+        assertTrue( reader.next(  ) );
+        assertEquals( "t", reader.nextName(  ) );
+        assertEquals( "true", reader.nextValue(  ) );
+        assertTrue( reader.next(  ) );
+        assertEquals( "z", reader.nextName(  ) );
+        assertNull( reader.nextValue(  ) );
+        assertTrue( reader.next(  ) );
+        assertEquals( "u", reader.nextName(  ) );
+        assertEquals( "\u00e9t\u00e9 \u65e5\u672c", reader.nextValue(  ) );
+        assertFalse( reader.next(  ) );
+        reader.endObject(  );
+    }
+
+    /**
+     * Test of a reply truncated inside a string
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTruncatedString(  ) throws IOException
+    {
+        readAll( "{\"response\":{\"status\":\"O" );
+    }
+
+    /**
+     * Test of a reply truncated after a value
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTruncatedObject(  ) throws IOException
+    {
+        readAll( "{\"response\":{\"status\":\"OK\"" );
+    }
+
+    /**
+     * Test of a reply truncated inside a multi-byte character
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTruncatedCharacter(  ) throws IOException
+    {
+        JsonReplyReader reader = new JsonReplyReader( new ByteArrayInputStream( new byte[] { '"', (byte) 0xC3 } ),
+                MAX_SIZE );
+        reader.nextValue(  );
+    }
+
+    /**
+     * Test of an empty reply
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testEmptyReply(  ) throws IOException
+    {
+        newReader( "  " ).beginObject(  );
+    }
+
+    /**
+     * Test of a missing separator between two members
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testMissingSeparator(  ) throws IOException
+    {
+        readAll( "{\"a\":1 \"b\":2}" );
+    }
+
+    /**
+     * Test of an unknown escape sequence
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testBadEscape(  ) throws IOException
+    {
+        newReader( "\"a\\xb\"" ).nextValue(  );
+    }
+
+    /**
+     * Test of a unicode escape sequence which is not hexadecimal
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testBadUnicodeEscape(  ) throws IOException
+    {
+        newReader( "\"\\u12G4\"" ).nextValue(  );
+    }
+
+    /**
+     * Test of a truncated unicode escape sequence
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTruncatedUnicodeEscape(  ) throws IOException
+    {
+        newReader( "\"\\u12\"" ).nextValue(  );
+    }
+
+    /**
+     * Test of a bad escape sequence in a skipped value
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testBadEscapeInSkippedValue(  ) throws IOException
+    {
+        newReader( "[\"\\q\"]" ).skipValue(  );
+    }
+
+    /**
+     * Test of a control character in a string
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testControlCharacter(  ) throws IOException
+    {
+        newReader( "\"a\nb\"" ).nextValue(  );
+    }
+
+    /**
+     * Test of an invalid UTF-8 byte
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testInvalidUtf8(  ) throws IOException
+    {
+        JsonReplyReader reader = new JsonReplyReader( new ByteArrayInputStream(
+                    new byte[] { '"', (byte) 0xC3, 'a', '"' } ), MAX_SIZE );
+        reader.nextValue(  );
+    }
+
+    /**
+     * Test of the deepest nesting allowed
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testMaxDepth(  ) throws IOException
+    {
+        JsonReplyReader reader = newReader( nest( MAX_DEPTH ) );
+        reader.skipValue(  );
+        assertEquals( nest( MAX_DEPTH ).length(  ), reader.getBytesRead(  ) );
+    }
+
+    /**
+     * Test of a nesting deeper than allowed
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTooDeep(  ) throws IOException
+    {
+        newReader( nest( MAX_DEPTH + 1 ) ).skipValue(  );
+    }
+
+    /**
+     * Test of a nesting deeper than allowed, in objects
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTooDeepObjects(  ) throws IOException
+    {
+        StringBuilder sbReply = new StringBuilder(  );
+
+        for ( int i = 0; i <= MAX_DEPTH; i++ )
+        {
+            sbReply.append( "{\"a\":" );
+        }
+
+        sbReply.append( '1' );
+
+        for ( int i = 0; i <= MAX_DEPTH; i++ )
+        {
+            sbReply.append( '}' );
+        }
+
+        newReader( sbReply.toString(  ) ).skipValue(  );
+    }
+
+    /**
+     * Test of a reply larger than the maximum size whose needed part is
+     * beyond the maximum size
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testReplyTooLarge(  ) throws IOException
+    {
+        String strReply = "{\"padding\":\"" + repeat( 'x', 4096 ) + "\",\"response\":{\"status\":\"OK\"}}";
+        ResponseContent.read( new JsonReplyReader( toStream( strReply ), 1000L ) );
+    }
+
+    /**
+     * Test of a reply of exactly the maximum size
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReplyOfMaxSize(  ) throws IOException
+    {
+        String strReply = "{\"padding\":\"" + repeat( 'x', 4096 ) + "\",\"response\":{\"status\":\"OK\"}}";
+        JsonReplyReader reader = new JsonReplyReader( toStream( strReply ), strReply.length(  ) );
+        readAll( reader );
+        assertEquals( strReply.length(  ), reader.getBytesRead(  ) );
+    }
+
+    /**
+     * Test of a reply larger than the maximum size whose needed part is
+     * within the maximum size : the rest is not read
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReplyTooLargeAfterResponse(  ) throws IOException
+    {
+        String strReply = "{\"response\":{\"status\":\"OK\"},\"padding\":\"" + repeat( 'x', 4096 ) + "\"}";
+        JsonReplyReader reader = new JsonReplyReader( toStream( strReply ), 1000L );
+        assertEquals( ResponseContent.STATUS_CORRECT, ResponseContent.read( reader ).getStatus(  ) );
+        assertTrue( reader.getBytesRead(  ) <= 1000L );
+    }
+
+    /**
+     * Reads a whole value
+     *
+     * @param strReply
+     *            the reply
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private static void readAll( String strReply ) throws IOException
+    {
+        readAll( newReader( strReply ) );
+    }
+
+    /**
+     * Reads a whole value
+     *
+     * @param reader
+     *            the reader
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private static void readAll( JsonReplyReader reader )
+        throws IOException
+    {
+        reader.skipValue(  );
+    }
+
+    /**
+     * Builds nested arrays
+     *
+     * @param nDepth
+     *            the number of arrays
+     * @return the JSON
+     */
+    private static String nest( int nDepth )
+    {
+        return repeat( '[', nDepth ) + repeat( ']', nDepth );
+    }
+
+    /**
+     * Repeats a character
+     *
+     * @param c
+     *            the character
+     * @param nCount
+     *            the number of times
+     * @return the string
+     */
+    private static String repeat( char c, int nCount )
+    {
+        StringBuilder sb = new StringBuilder( nCount );
+
+        for ( int i = 0; i < nCount; i++ )
+        {
+            sb.append( c );
+        }
+
+        return sb.toString(  );
+    }
+
+    /**
+     * Creates a reader of a reply
+     *
+     * @param strReply
+     *            the reply
+     * @return the reader
+     * @throws UnsupportedEncodingException
+     *             if the encoding is not supported
+     */
+    private static JsonReplyReader newReader( String strReply )
+        throws UnsupportedEncodingException
+    {
+        return new JsonReplyReader( toStream( strReply ), MAX_SIZE );
+    }
+
+    /**
+     * Gives the stream of a reply
+     *
+     * @param strReply
+     *            the reply
+     * @return the stream
+     * @throws UnsupportedEncodingException
+     *             if the encoding is not supported
+     */
+    static ByteArrayInputStream toStream( String strReply )
+        throws UnsupportedEncodingException
+    {
+        return new ByteArrayInputStream( strReply.getBytes( CHARSET ) );
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Tests of the resolution of the payload formats by
+ * {@link PayloadFormatService}, from their names and from the values of the
+ * format properties, and of the plans they compile
+ */
+public class PayloadFormatServiceTest extends LuteceTestCase
+{
+    private static final String COMPANY = "PayloadFormatTestCompany";
+    private static final long ATTACHMENT_MAX_SIZE = 16L;
+    private static final String CHARSET = "UTF-8";
+    private static final String GUID = "guid-1";
+    private static final String FIELD_CODE = "adresse";
+    private static final String FIELD_VALUE = "1 rue de Rivoli";
+    private static final String FIELD_NAMES = "adresse:address,code_postal:zip_code";
+    private static final String JSON_START = "{\"ticket\":{\"user\":{\"guid\":\"guid-1\",";
+    private static final String JSON_RENAMED_FIELD = "\"extra_fields\":[{\"field\":\"address\",\"value\":\"1 rue de Rivoli\"}]";
+    private static final String COMPACT_START = "{\"u\":\"guid-1\",";
+    private static final String COMPACT_RENAMED_FIELD = "\"x\":[[\"address\",\"1 rue de Rivoli\"]]";
+
+    /**
+     * Test of the formats declared as beans
+     */
+    public void testGetFormat(  )
+    {
+        PayloadFormatService service = PayloadFormatService.getInstance(  );
+
+        assertTrue( service.getFormat( JsonPayloadFormat.NAME ) instanceof JsonPayloadFormat );
+        assertTrue( service.getFormat( CompactPayloadFormat.NAME ) instanceof CompactPayloadFormat );
+        assertSame( service.getFormat( CompactPayloadFormat.NAME ), service.getFormat( " compact " ) );
+    }
+
+    /**
+     * Test of an unknown name, which gives the default JSON format
+     */
+    public void testUnknownFormat(  )
+    {
+        PayloadFormatService service = PayloadFormatService.getInstance(  );
+        IPayloadFormat jsonFormat = service.getFormat( JsonPayloadFormat.NAME );
+
+        assertSame( jsonFormat, service.getFormat( "xml" ) );
+        assertSame( jsonFormat, service.getFormat( "JSON" ) );
+        assertSame( jsonFormat, service.getFormat( "" ) );
+        assertSame( jsonFormat, service.getFormat( null ) );
+    }
+
+    /**
+     * Test of the resolution of the format of a company from the values of
+     * the format properties, and of the bytes written by the resolved format
+     *
+     * @throws IOException
+     *             if an error occurs
+     */
+    public void testCompanyFormatFromProperties(  ) throws IOException
+    {
+        PayloadFormatService service = PayloadFormatService.getInstance(  );
+        PayloadMapping mapping = new PayloadMapping( COMPANY, ATTACHMENT_MAX_SIZE, false,
+                PayloadMapping.parseFieldNames( FIELD_NAMES ) );
+
+        // No property : the default JSON format
+        IPayloadFormat format = service.getCompanyFormat( null, null );
+        assertEquals( JsonPayloadFormat.NAME, format.getName(  ) );
+        assertStartsWith( JSON_START, write( format, mapping ) );
+        assertContains( JSON_RENAMED_FIELD, write( format, mapping ) );
+
+        // The format of all the companies
+        format = service.getCompanyFormat( CompactPayloadFormat.NAME, null );
+        assertEquals( CompactPayloadFormat.NAME, format.getName(  ) );
+        assertStartsWith( COMPACT_START, write( format, mapping ) );
+        assertContains( COMPACT_RENAMED_FIELD, write( format, mapping ) );
+
+        // The format of the company wins over the format of all the companies
+        format = service.getCompanyFormat( CompactPayloadFormat.NAME, " " + JsonPayloadFormat.NAME + " " );
+        assertEquals( JsonPayloadFormat.NAME, format.getName(  ) );
+        assertStartsWith( JSON_START, write( format, mapping ) );
+
+        format = service.getCompanyFormat( JsonPayloadFormat.NAME, CompactPayloadFormat.NAME );
+        assertEquals( CompactPayloadFormat.NAME, format.getName(  ) );
+        assertStartsWith( COMPACT_START, write( format, mapping ) );
+
+        // An unknown format of the company gives the default format
+        format = service.getCompanyFormat( CompactPayloadFormat.NAME, "xml" );
+        assertEquals( JsonPayloadFormat.NAME, format.getName(  ) );
+    }
+
+    /**
+     * Test of the attachment settings of a company, compiled into its plan
+     */
+    public void testCompanyAttachmentSettings(  )
+    {
+        Ticket ticket = buildTicket(  );
+        Response response = new Response(  );
+        File file = new File(  );
+        PhysicalFile physicalFile = new PhysicalFile(  );
+        physicalFile.setValue( new byte[(int) ATTACHMENT_MAX_SIZE + 1] );
+        file.setPhysicalFile( physicalFile );
+        response.setFile( file );
+        ticket.getListResponse(  ).add( response );
+
+        Map<String, String> mapFieldNames = Collections.<String, String>emptyMap(  );
+
+        for ( String strFormat : new String[] { JsonPayloadFormat.NAME, CompactPayloadFormat.NAME } )
+        {
+            IPayloadFormat format = PayloadFormatService.getInstance(  ).getFormat( strFormat );
+
+            IPayloadPlan plan = format.compile( new PayloadMapping( COMPANY, ATTACHMENT_MAX_SIZE, true, mapFieldNames ) );
+            assertEquals( ATTACHMENT_MAX_SIZE, plan.getAttachmentMaxSize(  ) );
+            assertFalse( plan.isWritable( ticket ) );
+
+            plan = format.compile( new PayloadMapping( COMPANY, ATTACHMENT_MAX_SIZE + 1, true, mapFieldNames ) );
+            assertTrue( plan.isWritable( ticket ) );
+
+            plan = format.compile( new PayloadMapping( COMPANY, ATTACHMENT_MAX_SIZE, false, mapFieldNames ) );
+            assertTrue( plan.isWritable( ticket ) );
+        }
+
+        assertTrue( TicketJsonWriter.isRejectOversized( " Reject " ) );
+        assertFalse( TicketJsonWriter.isRejectOversized( "reference" ) );
+        assertFalse( TicketJsonWriter.isRejectOversized( null ) );
+        assertEquals( 1024L, TicketJsonWriter.parseAttachmentMaxSize( " 1024 " ) );
+        assertEquals( TicketJsonWriter.parseAttachmentMaxSize( null ), TicketJsonWriter.parseAttachmentMaxSize( "ten" ) );
+    }
+
+    /**
+     * Writes the test ticket with the plan compiled by a format
+     *
+     * @param format
+     *            the format
+     * @param mapping
+     *            the mapping of the company
+     * @return the bytes written, decoded
+     * @throws IOException
+     *             if an error occurs
+     */
+    private static String write( IPayloadFormat format, PayloadMapping mapping )
+        throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(  );
+        format.compile( mapping ).write( buildTicket(  ), outputStream );
+
+        return outputStream.toString( CHARSET );
+    }
+
+    /**
+     * Builds a ticket with an extra field renamed by the mapping
+     *
+     * @return the ticket
+     */
+    private static Ticket buildTicket(  )
+    {
+        Entry entry = new Entry(  );
+        entry.setCode( FIELD_CODE );
+
+        Response response = new Response(  );
+        response.setEntry( entry );
+        response.setResponseValue( FIELD_VALUE );
+
+        List<Response> listResponses = new ArrayList<Response>(  );
+        listResponses.add( response );
+
+        Ticket ticket = new Ticket(  );
+        ticket.setGuid( GUID );
+        ticket.setListResponse( listResponses );
+
+        return ticket;
+    }
+
+    /**
+     * Asserts that a text starts with a prefix
+     *
+     * @param strPrefix
+     *            the prefix
+     * @param strText
+     *            the text
+     */
+    private static void assertStartsWith( String strPrefix, String strText )
+    {
+        assertTrue( strText, strText.startsWith( strPrefix ) );
+    }
+
+    /**
+     * Asserts that a text contains a part
+     *
+     * @param strPart
+     *            the part
+     * @param strText
+     *            the text
+     */
+    private static void assertContains( String strPart, String strText )
+    {
+        assertTrue( strText, strText.contains( strPart ) );
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Tests of the token bucket limiting the rate of the sends
+ */
+public class RateLimiterTest
+{
+    private static final long START = 1000000000L;
+    private static final long MILLISECOND = TimeUnit.MILLISECONDS.toNanos( 1L );
+
+    /**
+     * Test of the burst allowed after an idle period
+     */
+    @Test
+    public void testBurst(  )
+    {
+        RateLimiter rateLimiter = new RateLimiter( 10d, 3, START );
+
+        assertEquals( 0L, rateLimiter.reserve( 0L, START ) );
+        assertEquals( 0L, rateLimiter.reserve( 0L, START ) );
+        assertEquals( 0L, rateLimiter.reserve( 0L, START ) );
+        assertEquals( -1L, rateLimiter.reserve( 0L, START ) );
+    }
+
+    /**
+     * Test of the refill of the bucket at the allowed rate, up to its capacity
+     */
+    @Test
+    public void testRefill(  )
+    {
+        RateLimiter rateLimiter = new RateLimiter( 10d, 2, START );
+
+        rateLimiter.reserve( 0L, START );
+        rateLimiter.reserve( 0L, START );
+
+        // One token every 100 ms
+        assertEquals( -1L, rateLimiter.reserve( 0L, START + ( 99L * MILLISECOND ) ) );
+        assertEquals( 0L, rateLimiter.reserve( 0L, START + ( 100L * MILLISECOND ) ) );
+
+        // The bucket does not hold more than the burst after a long idle period
+        long lLater = START + TimeUnit.SECONDS.toNanos( 60L );
+        assertEquals( 0L, rateLimiter.reserve( 0L, lLater ) );
+        assertEquals( 0L, rateLimiter.reserve( 0L, lLater ) );
+        assertEquals( -1L, rateLimiter.reserve( 0L, lLater ) );
+    }
+
+    /**
+     * Test of the reservation of the next tokens by waiting sends
+     */
+    @Test
+    public void testReserve(  )
+    {
+        RateLimiter rateLimiter = new RateLimiter( 10d, 1, START );
+
+        assertEquals( 0L, rateLimiter.reserve( 0L, START ) );
+        assertEquals( 100L * MILLISECOND, rateLimiter.reserve( 1000L * MILLISECOND, START ) );
+        assertEquals( 200L * MILLISECOND, rateLimiter.reserve( 1000L * MILLISECOND, START ) );
+    }
+
+    /**
+     * Test of a send refused because of its timeout, which must not take a
+     * token from the next sends
+     */
+    @Test
+    public void testRefusedSendTakesNoToken(  )
+    {
+        RateLimiter rateLimiter = new RateLimiter( 10d, 1, START );
+
+        assertEquals( 0L, rateLimiter.reserve( 0L, START ) );
+        assertEquals( -1L, rateLimiter.reserve( 50L * MILLISECOND, START ) );
+        assertEquals( -1L, rateLimiter.reserve( 50L * MILLISECOND, START ) );
+        assertEquals( 100L * MILLISECOND, rateLimiter.reserve( 100L * MILLISECOND, START ) );
+    }
+
+    /**
+     * Test of the wait of a send for its token
+     *
+     * @throws InterruptedException
+     *             if the test is interrupted
+     */
+    @Test
+    public void testTryAcquire(  ) throws InterruptedException
+    {
+        RateLimiter rateLimiter = new RateLimiter( 20d, 1 );
+
+        assertTrue( rateLimiter.tryAcquire( 0L ) );
+        assertFalse( rateLimiter.tryAcquire( 0L ) );
+
+        long lStart = System.nanoTime(  );
+        assertTrue( rateLimiter.tryAcquire( 1000L ) );
+        assertTrue( ( System.nanoTime(  ) - lStart ) >= ( 40L * MILLISECOND ) );
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.test.LuteceTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Tests of the selection of the tickets re-sent by {@link ResendService} and
+ * of the idempotency keys of the re-sends
+ */
+public class ResendServiceTest extends LuteceTestCase
+{
+    private static final String GUID_COMPANY_A = "resend-test-guid-a";
+    private static final String GUID_COMPANY_B = "resend-test-guid-b";
+    private static final String GUID_NO_COMPANY = "resend-test-guid-none";
+    private static final String COMPANY_A = "ResendTestA";
+    private static final String COMPANY_B = "ResendTestB";
+    private static final int NB_JOBS = 1000;
+    private static final int MAX_RESULTS = 3;
+    private static final ICompanyResolver COMPANY_RESOLVER = new ICompanyResolver(  )
+        {
+            @Override
+            public String getCompany( String strGuid )
+            {
+                if ( GUID_COMPANY_A.equals( strGuid ) )
+                {
+                    return COMPANY_A;
+                }
+
+                if ( GUID_COMPANY_B.equals( strGuid ) )
+                {
+                    return COMPANY_B;
+                }
+
+                return null;
+            }
+        };
+
+    /**
+     * Test of the selection of the failed tickets of all the companies
+     */
+    public void testSelectAllCompanies(  )
+    {
+        Map<Integer, String> mapGuids = buildFailedTickets(  );
+        mapGuids.put( 6, null );
+
+        assertEquals( Arrays.asList( 5, 1, 3, 2, 4, 6 ), ResendService.selectTickets( mapGuids, null, COMPANY_RESOLVER ) );
+    }
+
+    /**
+     * Test of the selection of the failed tickets of a company
+     */
+    public void testSelectCompany(  )
+    {
+        Map<Integer, String> mapGuids = buildFailedTickets(  );
+
+        assertEquals( Arrays.asList( 5, 3 ), ResendService.selectTickets( mapGuids, COMPANY_A, COMPANY_RESOLVER ) );
+        assertEquals( Arrays.asList( 1 ), ResendService.selectTickets( mapGuids, COMPANY_B, COMPANY_RESOLVER ) );
+        assertTrue( ResendService.selectTickets( mapGuids, "ResendTestUnknown", COMPANY_RESOLVER ).isEmpty(  ) );
+    }
+
+    /**
+     * Test of the selection among no failed ticket
+     */
+    public void testSelectNoTicket(  )
+    {
+        assertTrue( ResendService.selectTickets( new LinkedHashMap<Integer, String>(  ), COMPANY_A,
+                COMPANY_RESOLVER ).isEmpty(  ) );
+        assertTrue( ResendService.selectTickets( new LinkedHashMap<Integer, String>(  ), null, COMPANY_RESOLVER )
+                                 .isEmpty(  ) );
+    }
+
+    /**
+     * Test of the idempotency key of a re-send, which differs from the key of
+     * the workflow action so that the end point does not ignore it
+     */
+    public void testResendKey(  )
+    {
+        ResendJob job = new ResendJob( null, null, null, 1, MAX_RESULTS );
+        String strResendKey = IdempotencyService.buildResendKey( 12, job.getId(  ) );
+
+        assertTrue( strResendKey.startsWith( "12-" ) );
+        assertFalse( strResendKey.equals( IdempotencyService.buildKey( 12, 34 ) ) );
+        assertFalse( strResendKey.equals( IdempotencyService.buildResendKey( 13, job.getId(  ) ) ) );
+        assertEquals( strResendKey, IdempotencyService.buildResendKey( 12, job.getId(  ) ) );
+    }
+
+    /**
+     * Test of the ids of the jobs started in the same millisecond, which must
+     * not give the same idempotency keys
+     */
+    public void testResendKeysOfSuccessiveJobs(  )
+    {
+        Set<String> setKeys = new HashSet<String>(  );
+        List<ResendJob> listJobs = new ArrayList<ResendJob>(  );
+
+        for ( int i = 0; i < NB_JOBS; i++ )
+        {
+            listJobs.add( new ResendJob( COMPANY_A, null, null, 1, MAX_RESULTS ) );
+        }
+
+        for ( int i = 0; i < NB_JOBS; i++ )
+        {
+            setKeys.add( IdempotencyService.buildResendKey( 12, listJobs.get( i ).getId(  ) ) );
+
+            if ( i > 0 )
+            {
+                assertTrue( listJobs.get( i ).getId(  ) > listJobs.get( i - 1 ).getId(  ) );
+            }
+        }
+
+        assertEquals( NB_JOBS, setKeys.size(  ) );
+    }
+
+    /**
+     * Test of the results kept by a re-send, which are those of the last
+     * tickets processed
+     */
+    public void testResultsOfLastTickets(  )
+    {
+        ResendJob job = new ResendJob( COMPANY_A, null, null, 1, MAX_RESULTS );
+        job.setTotal( 5 );
+
+        for ( int nIdTicket = 1; nIdTicket <= 5; nIdTicket++ )
+        {
+            assertTrue( job.isRunning(  ) );
+            job.addResult( nIdTicket, ( nIdTicket == 2 ) ? SendResult.FAILED_FATAL : SendResult.SENT_OK, 10L );
+        }
+
+        assertFalse( job.isRunning(  ) );
+        assertEquals( 5, job.getDone(  ) );
+        assertEquals( 4, job.getSentOk(  ) );
+        assertEquals( 1, job.getFailed(  ) );
+
+        List<ResendJob.TicketResult> listResults = job.getResults(  );
+        assertEquals( MAX_RESULTS, listResults.size(  ) );
+        assertEquals( 5, listResults.get( 0 ).getIdTicket(  ) );
+        assertEquals( 3, listResults.get( MAX_RESULTS - 1 ).getIdTicket(  ) );
+    }
+
+    /**
+     * Builds failed tickets of several companies, in an order which is not
+     * the order of their ids
+     *
+     * @return the guids of the users, by id of ticket
+     */
+    private static Map<Integer, String> buildFailedTickets(  )
+    {
+        Map<Integer, String> mapGuids = new LinkedHashMap<Integer, String>(  );
+        mapGuids.put( 5, GUID_COMPANY_A );
+        mapGuids.put( 1, GUID_COMPANY_B );
+        mapGuids.put( 3, GUID_COMPANY_A );
+        mapGuids.put( 2, GUID_NO_COMPANY );
+        mapGuids.put( 4, GUID_NO_COMPANY );
+
+        return mapGuids;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import java.util.List;
+
+
+/**
+ * Tests of the reading of the responses of the end points by
+ * {@link ResponseContent}
+ */
+public class ResponseContentTest
+{
+    private static final long MAX_SIZE = 1048576L;
+
+    /**
+     * Test of a response read before the members which are skipped
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testRead(  ) throws IOException
+    {
+        ResponseContent response = read(
+                "{\"meta\":{\"a\":[1,\"deux\",{\"b\":null}],\"c\":\"\\u00e9\"},\"response\":{\"code\":3,\"status\":\"KO\",\"message\":\"Dossier inconnu\"}}" );
+
+        assertEquals( "KO", response.getStatus(  ) );
+        assertEquals( "Dossier inconnu", response.getMessage(  ) );
+    }
+
+    /**
+     * Test of the message of a correct response, which is ignored
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReadCorrect(  ) throws IOException
+    {
+        ResponseContent response = read( "{\"response\":{\"status\":\"OK\",\"message\":\"Bien re\u00e7u\"}}" );
+
+        assertEquals( ResponseContent.STATUS_CORRECT, response.getStatus(  ) );
+        assertEquals( "", response.getMessage(  ) );
+    }
+
+    /**
+     * Test of the members following the response, which are not read even
+     * if they are malformed
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testTrailingMembersSkipped(  ) throws IOException
+    {
+        String strReply = "{\"response\":{\"status\":\"OK\"},\"trailing\":[[[{\"broken\":\\x";
+        JsonReplyReader reader = new JsonReplyReader( JsonReplyReaderTest.toStream( strReply ), MAX_SIZE );
+
+        assertEquals( ResponseContent.STATUS_CORRECT, ResponseContent.read( reader ).getStatus(  ) );
+    }
+
+    /**
+     * Test of a reply without response
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testMissingResponse(  ) throws IOException
+    {
+        read( "{\"status\":\"OK\",\"responses\":[]}" );
+    }
+
+    /**
+     * Test of a response without status
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testMissingStatus(  ) throws IOException
+    {
+        read( "{\"response\":{\"message\":\"pas de statut\"}}" );
+    }
+
+    /**
+     * Test of a response whose status is null
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testNullStatus(  ) throws IOException
+    {
+        read( "{\"response\":{\"status\":null}}" );
+    }
+
+    /**
+     * Test of a reply which is not an object
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testNotAnObject(  ) throws IOException
+    {
+        read( "[{\"response\":{\"status\":\"OK\"}}]" );
+    }
+
+    /**
+     * Test of the responses to a batch, one element having no response
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReadBatch(  ) throws IOException
+    {
+        List<ResponseContent> listResponses = readBatch(
+                "{\"count\":3,\"responses\":[{\"response\":{\"status\":\"OK\"}},{\"id\":2},{\"extra\":[1],\"response\":{\"status\":\"KO\",\"message\":\"Refus\"},\"after\":{}}]}" );
+
+        assertEquals( 3, listResponses.size(  ) );
+        assertEquals( ResponseContent.STATUS_CORRECT, listResponses.get( 0 ).getStatus(  ) );
+        assertNull( listResponses.get( 1 ) );
+        assertEquals( "KO", listResponses.get( 2 ).getStatus(  ) );
+        assertEquals( "Refus", listResponses.get( 2 ).getMessage(  ) );
+    }
+
+    /**
+     * Test of the members following the responses to a batch, which are not
+     * read
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReadBatchTrailingMembersSkipped(  ) throws IOException
+    {
+        List<ResponseContent> listResponses = readBatch(
+                "{\"responses\":[],\"trailing\":{\"broken\":" );
+
+        assertTrue( listResponses.isEmpty(  ) );
+    }
+
+    /**
+     * Test of a batch reply without responses
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testReadBatchMissingResponses(  ) throws IOException
+    {
+        readBatch( "{\"response\":{\"status\":\"OK\"}}" );
+    }
+
+    /**
+     * Test of a batch reply whose element has a response without status
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testReadBatchMissingStatus(  ) throws IOException
+    {
+        readBatch( "{\"responses\":[{\"response\":{\"status\":\"OK\"}},{\"response\":{}}]}" );
+    }
+
+    /**
+     * Test of a truncated batch reply
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testReadBatchTruncated(  ) throws IOException
+    {
+        readBatch( "{\"responses\":[{\"response\":{\"status\":\"OK\"}},{\"resp" );
+    }
+
+    /**
+     * Reads the response to a ticket
+     *
+     * @param strReply
+     *            the reply
+     * @return the response
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private static ResponseContent read( String strReply )
+        throws IOException
+    {
+        return ResponseContent.read( new JsonReplyReader( JsonReplyReaderTest.toStream( strReply ), MAX_SIZE ) );
+    }
+
+    /**
+     * Reads the responses to a batch
+     *
+     * @param strReply
+     *            the reply
+     * @return the responses
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private static List<ResponseContent> readBatch( String strReply )
+        throws IOException
+    {
+        return ResponseContent.readBatch( new JsonReplyReader( JsonReplyReaderTest.toStream( strReply ), MAX_SIZE ) );
+    }
+}
@@ -0,0 +1,521 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.plugins.genericattributes.business.Entry;
+import fr.paris.lutece.plugins.genericattributes.business.Field;
+import fr.paris.lutece.plugins.genericattributes.business.Response;
+import fr.paris.lutece.plugins.ticketing.business.Ticket;
+import fr.paris.lutece.portal.business.file.File;
+import fr.paris.lutece.portal.business.physicalfile.PhysicalFile;
+
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+import org.apache.xerces.impl.dv.util.Base64;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Golden output tests of {@link TicketJsonWriter} : the streamed JSON must be
+ * byte for byte the one built by json-lib before the writer existed. The
+ * reference below is the former {@code TaskSendRestRequest.addTicketJson},
+ * kept as is, plus the metadata of the attachments sent by reference.
+ */
+public class TicketJsonWriterTest
+{
+    private static final long ATTACHMENT_MAX_SIZE = 1024L;
+    private static final String CHARSET = "UTF-8";
+
+    // Constants for the reference JSON message
+    private static final String EMPTY_STRING = "";
+    private static final String KEY_TICKET = "ticket";
+    private static final String KEY_TICKETS = "tickets";
+    private static final String KEY_TICKET_TYPE = "type";
+    private static final String KEY_TICKET_DOMAIN = "domain";
+    private static final String KEY_TICKET_CATEGORY = "category";
+    private static final String KEY_TICKET_CONTACT_MODE = "contact_mode";
+    private static final String KEY_TICKET_COMMENT = "comment";
+    private static final String KEY_USER = "user";
+    private static final String KEY_USER_ID = "guid";
+    private static final String KEY_USER_TITLE = "title";
+    private static final String KEY_USER_FIRST_NAME = "first_name";
+    private static final String KEY_USER_LAST_NAME = "last_name";
+    private static final String KEY_USER_EMAIL = "email";
+    private static final String KEY_USER_FIXED_PHONE_NUMBER = "fixed_phone_number";
+    private static final String KEY_USER_MOBILE_PHONE_NUMBER = "mobile_phone_number";
+    private static final String KEY_EXTRA_FIELDS = "extra_fields";
+    private static final String KEY_EXTRA_FIELDS_FIELD = "field";
+    private static final String KEY_EXTRA_FIELDS_VALUE = "value";
+    private static final String KEY_EXTRA_FIELDS_METADATA = "metadata";
+    private static final String KEY_EXTRA_FIELDS_METADATA_NAME = "name";
+    private static final String KEY_EXTRA_FIELDS_METADATA_VALUE = "value";
+    private static final String KEY_EXTRA_FIELDS_METADATA_MIMETYPE = "mimetype";
+    private static final String KEY_EXTRA_FIELDS_METADATA_FILENAME = "filename";
+    private static final String KEY_EXTRA_FIELDS_METADATA_REFERENCE = "reference";
+    private static final String KEY_EXTRA_FIELDS_METADATA_SIZE = "size";
+
+    /**
+     * Test of a ticket whose members and extra fields are {@code null}
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testNullMembers(  ) throws IOException
+    {
+        Ticket ticket = new Ticket(  );
+        ticket.setGuid( null );
+        ticket.setFirstname( null );
+        ticket.setLastname( null );
+        ticket.setEmail( null );
+        ticket.setFixedPhoneNumber( null );
+        ticket.setMobilePhoneNumber( null );
+        ticket.setTicketComment( null );
+
+        Response responseWithoutEntry = new Response(  );
+        responseWithoutEntry.setResponseValue( "sans code" );
+
+        Response responseWithNullField = buildResponse( "champ_vide", null );
+        responseWithNullField.setField( new Field(  ) );
+
+        ticket.setListResponse( Arrays.asList( responseWithoutEntry, responseWithNullField,
+                buildResponse( "valeur_nulle", null ) ) );
+
+        assertSameAsReference( ticket );
+
+        ticket.setListResponse( null );
+        assertSameAsReference( ticket );
+    }
+
+    /**
+     * Test of the strings that json-lib interprets rather than quotes
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testStringsInterpretedByJsonLib(  ) throws IOException
+    {
+        List<String> listValues = Arrays.asList( "{\"a\":1,\"b\":[true,null]}", "[1,\"deux\",{\"c\":3}]",
+                "\"entre guillemets\"", "'entre apostrophes'", "null", "function(){ return 1; }",
+                "function( a ) { return a; }", "functionnel", "nullable", "", " {pas du JSON" );
+        List<Response> listResponses = new ArrayList<Response>(  );
+
+        for ( int i = 0; i < listValues.size(  ); i++ )
+        {
+            listResponses.add( buildResponse( "champ_" + i, listValues.get( i ) ) );
+        }
+
+        for ( String strValue : listValues )
+        {
+            Ticket ticket = buildTicket(  );
+            ticket.setTicketComment( strValue );
+            ticket.setFirstname( strValue );
+            ticket.setListResponse( listResponses );
+            assertSameAsReference( ticket );
+        }
+    }
+
+    /**
+     * Test of the numeric members
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testNumbers(  ) throws IOException
+    {
+        int [] values = { 0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE };
+
+        for ( int nValue : values )
+        {
+            Ticket ticket = buildTicket(  );
+            ticket.setIdUserTitle( nValue );
+            ticket.setIdTicketType( nValue );
+            ticket.setIdTicketDomain( nValue );
+            ticket.setIdTicketCategory( nValue );
+            ticket.setIdContactMode( nValue );
+            ticket.setListResponse( Collections.singletonList( buildResponse( "nombre", String.valueOf( nValue ) ) ) );
+            assertSameAsReference( ticket );
+        }
+    }
+
+    /**
+     * Test of the non ASCII characters and of the characters to escape
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testNonAsciiText(  ) throws IOException
+    {
+        Ticket ticket = buildTicket(  );
+        ticket.setFirstname( "Élodie" );
+        ticket.setLastname( "François-Müller \u65e5\u672c \ud83d\ude00" );
+        ticket.setTicketComment( "Ça coûte 10 €\n\t\"cité\" \\ / </script> \u0001\u001f " );
+        ticket.setListResponse( Collections.singletonList( buildResponse( "référence",
+                    "à é î õ ü ÿ Œ" ) ) );
+
+        assertSameAsReference( ticket );
+    }
+
+    /**
+     * Test of the attachments sent with the ticket
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testInlineAttachments(  ) throws IOException
+    {
+        Ticket ticket = buildTicket(  );
+        ticket.setListResponse( Arrays.asList( buildAttachment( "vide", 0 ), buildAttachment( "un_octet", 1 ),
+                buildAttachment( "deux_octets", 2 ), buildAttachment( "trois_octets", 3 ),
+                buildAttachment( "tous_les_octets", 256 ),
+                buildAttachment( "taille_maximale", (int) ATTACHMENT_MAX_SIZE ), buildResponse( "apres", "fin" ) ) );
+
+        assertSameAsReference( ticket );
+    }
+
+    /**
+     * Test of the attachments larger than the maximum size, sent by reference
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testAttachmentsByReference(  ) throws IOException
+    {
+        Ticket ticket = buildTicket(  );
+        ticket.setListResponse( Arrays.asList( buildAttachment( "avant", 10 ),
+                buildAttachment( "trop_grand", (int) ATTACHMENT_MAX_SIZE + 1 ),
+                buildAttachment( "bien_trop_grand", 4 * (int) ATTACHMENT_MAX_SIZE ), buildResponse( "apres", "fin" ) ) );
+
+        assertSameAsReference( ticket );
+    }
+
+    /**
+     * Test of a batch of tickets
+     *
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    @Test
+    public void testBatch(  ) throws IOException
+    {
+        Ticket ticketWithAttachment = buildTicket(  );
+        ticketWithAttachment.setListResponse( Arrays.asList( buildAttachment( "piece", 100 ),
+                buildAttachment( "grande_piece", 2 * (int) ATTACHMENT_MAX_SIZE ) ) );
+
+        Ticket ticketWithSpecialValues = buildTicket(  );
+        ticketWithSpecialValues.setTicketComment( "null" );
+        ticketWithSpecialValues.setListResponse( Collections.singletonList( buildResponse( "json", "[1,2]" ) ) );
+
+        List<Ticket> listTickets = Arrays.asList( buildTicket(  ), ticketWithAttachment, ticketWithSpecialValues );
+
+        JSONArray jsonTickets = new JSONArray(  );
+
+        for ( Ticket ticket : listTickets )
+        {
+            JSONObject json = new JSONObject(  );
+            addTicketJson( json, ticket );
+            jsonTickets.add( json );
+        }
+
+        JSONObject jsonBatch = new JSONObject(  );
+        jsonBatch.accumulate( KEY_TICKETS, jsonTickets );
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(  );
+        TicketJsonWriter.writeBatch( listTickets, outputStream, ATTACHMENT_MAX_SIZE,
+            Collections.<String, String>emptyMap(  ) );
+        assertSameBytes( jsonBatch.toString(  ), outputStream.toByteArray(  ) );
+
+        outputStream = new ByteArrayOutputStream(  );
+        TicketJsonWriter.writeBatch( Collections.<Ticket>emptyList(  ), outputStream, ATTACHMENT_MAX_SIZE,
+            Collections.<String, String>emptyMap(  ) );
+        assertSameBytes( "{\"tickets\":[]}", outputStream.toByteArray(  ) );
+    }
+
+    /**
+     * Checks that the writer gives the reference JSON of the ticket
+     *
+     * @param ticket
+     *            the ticket
+     * @throws IOException
+     *             if an error occurs while writing
+     */
+    private static void assertSameAsReference( Ticket ticket )
+        throws IOException
+    {
+        JSONObject json = new JSONObject(  );
+        addTicketJson( json, ticket );
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(  );
+        TicketJsonWriter.write( ticket, outputStream, ATTACHMENT_MAX_SIZE );
+        assertSameBytes( json.toString(  ), outputStream.toByteArray(  ) );
+    }
+
+    /**
+     * Checks that the written bytes are the UTF-8 encoding of the expected
+     * JSON
+     *
+     * @param strExpected
+     *            the expected JSON
+     * @param actual
+     *            the written bytes
+     * @throws IOException
+     *             if the encoding is not supported
+     */
+    private static void assertSameBytes( String strExpected, byte [] actual )
+        throws IOException
+    {
+        // The strings give a readable failure, the bytes check the encoding
+        assertEquals( strExpected, new String( actual, CHARSET ) );
+        assertArrayEquals( strExpected.getBytes( CHARSET ), actual );
+    }
+
+    /**
+     * Builds a ticket whose members are all set
+     *
+     * @return the ticket
+     */
+    private static Ticket buildTicket(  )
+    {
+        Ticket ticket = new Ticket(  );
+        ticket.setId( 1 );
+        ticket.setGuid( "4f5e3a9c-2b1d-4c8e-9f7a-6d0b1e2c3a4f" );
+        ticket.setIdUserTitle( 1 );
+        ticket.setFirstname( "Jean" );
+        ticket.setLastname( "Dupont" );
+        ticket.setEmail( "jean.dupont@example.com" );
+        ticket.setFixedPhoneNumber( "0102030405" );
+        ticket.setMobilePhoneNumber( "0607080910" );
+        ticket.setIdTicketType( 1 );
+        ticket.setIdTicketDomain( 2 );
+        ticket.setIdTicketCategory( 3 );
+        ticket.setIdContactMode( 1 );
+        ticket.setTicketComment( "Demande d'information" );
+        ticket.setListResponse( Collections.singletonList( buildResponse( "champ", "valeur" ) ) );
+
+        return ticket;
+    }
+
+    /**
+     * Builds a text extra field
+     *
+     * @param strCode
+     *            the code of the entry
+     * @param strValue
+     *            the value
+     * @return the extra field
+     */
+    private static Response buildResponse( String strCode, String strValue )
+    {
+        Entry entry = new Entry(  );
+        entry.setCode( strCode );
+
+        Response response = new Response(  );
+        response.setEntry( entry );
+        response.setResponseValue( strValue );
+
+        return response;
+    }
+
+    /**
+     * Builds an attachment extra field whose content is loaded
+     *
+     * @param strCode
+     *            the code of the entry
+     * @param nSize
+     *            the size of the content
+     * @return the extra field
+     */
+    private static Response buildAttachment( String strCode, int nSize )
+    {
+        byte [] content = new byte[nSize];
+
+        for ( int i = 0; i < nSize; i++ )
+        {
+            content[i] = (byte) i;
+        }
+
+        PhysicalFile physicalFile = new PhysicalFile(  );
+        physicalFile.setIdPhysicalFile( nSize + 100 );
+        physicalFile.setValue( content );
+
+        File file = new File(  );
+        file.setIdFile( nSize + 1 );
+        file.setTitle( strCode + ".pdf" );
+        file.setMimeType( "application/pdf" );
+        file.setSize( nSize );
+        file.setPhysicalFile( physicalFile );
+
+        Response response = buildResponse( strCode, null );
+        response.setFile( file );
+
+        return response;
+    }
+
+    /**
+     * Write a ticket into a JSON Object : the former json-lib serialization,
+     * completed with the attachments sent by reference
+     *
+     * @param json
+     *            The JSON Object
+     * @param ticket
+     *            The ticket
+     */
+    private static void addTicketJson( JSONObject json, Ticket ticket )
+    {
+        JSONObject jsonTicket = new JSONObject(  );
+
+        JSONObject jsonUser = new JSONObject(  );
+        jsonUser.accumulate( KEY_USER_ID, ticket.getGuid(  ) );
+        jsonUser.accumulate( KEY_USER_TITLE, ticket.getIdUserTitle(  ) );
+        jsonUser.accumulate( KEY_USER_FIRST_NAME, ticket.getFirstname(  ) );
+        jsonUser.accumulate( KEY_USER_LAST_NAME, ticket.getLastname(  ) );
+        jsonUser.accumulate( KEY_USER_EMAIL, ticket.getEmail(  ) );
+        jsonUser.accumulate( KEY_USER_FIXED_PHONE_NUMBER, ticket.getFixedPhoneNumber(  ) );
+        jsonUser.accumulate( KEY_USER_MOBILE_PHONE_NUMBER, ticket.getMobilePhoneNumber(  ) );
+        jsonTicket.accumulate( KEY_USER, jsonUser );
+
+        jsonTicket.accumulate( KEY_TICKET_TYPE, ticket.getIdTicketType(  ) );
+        jsonTicket.accumulate( KEY_TICKET_DOMAIN, ticket.getIdTicketDomain(  ) );
+        jsonTicket.accumulate( KEY_TICKET_CATEGORY, ticket.getIdTicketCategory(  ) );
+        jsonTicket.accumulate( KEY_TICKET_CONTACT_MODE, ticket.getIdContactMode(  ) );
+        jsonTicket.accumulate( KEY_TICKET_COMMENT, ticket.getTicketComment(  ) );
+
+        JSONArray jsonExtraFields = new JSONArray(  );
+
+        List<Response> listExtraFields = ticket.getListResponse(  );
+
+        if ( listExtraFields != null )
+        {
+            for ( Response extraField : listExtraFields )
+            {
+                JSONObject jsonExtraField = new JSONObject(  );
+                File file = extraField.getFile(  );
+
+                Entry entry = extraField.getEntry(  );
+                String strExtraFieldField = EMPTY_STRING;
+
+                if ( entry != null )
+                {
+                    strExtraFieldField = entry.getCode(  );
+                }
+
+                jsonExtraField.accumulate( KEY_EXTRA_FIELDS_FIELD, strExtraFieldField );
+
+                Field field = extraField.getField(  );
+                String strExtraFieldValue = EMPTY_STRING;
+                boolean bByReference = ( file != null ) &&
+                    ( file.getPhysicalFile(  ).getValue(  ).length > ATTACHMENT_MAX_SIZE );
+
+                if ( field != null )
+                {
+                    strExtraFieldValue = field.getValue(  );
+                }
+                else
+                {
+                    if ( bByReference )
+                    {
+                        strExtraFieldValue = EMPTY_STRING;
+                    }
+                    else if ( file != null )
+                    {
+                        strExtraFieldValue = Base64.encode( file.getPhysicalFile(  ).getValue(  ) );
+                    }
+                    else
+                    {
+                        strExtraFieldValue = extraField.getResponseValue(  );
+                    }
+                }
+
+                jsonExtraField.accumulate( KEY_EXTRA_FIELDS_VALUE, strExtraFieldValue );
+
+                if ( file != null )
+                {
+                    JSONArray metadata = new JSONArray(  );
+
+                    JSONObject mimeTypeMetadata = new JSONObject(  );
+                    mimeTypeMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_NAME, KEY_EXTRA_FIELDS_METADATA_MIMETYPE );
+                    mimeTypeMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_VALUE, file.getMimeType(  ) );
+                    metadata.add( mimeTypeMetadata );
+
+                    JSONObject fileNameMetadata = new JSONObject(  );
+                    fileNameMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_NAME, KEY_EXTRA_FIELDS_METADATA_FILENAME );
+                    fileNameMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_VALUE, file.getTitle(  ) );
+                    metadata.add( fileNameMetadata );
+
+                    if ( bByReference )
+                    {
+                        JSONObject referenceMetadata = new JSONObject(  );
+                        referenceMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_NAME,
+                            KEY_EXTRA_FIELDS_METADATA_REFERENCE );
+                        referenceMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_VALUE,
+                            String.valueOf( file.getIdFile(  ) ) );
+                        metadata.add( referenceMetadata );
+
+                        JSONObject sizeMetadata = new JSONObject(  );
+                        sizeMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_NAME, KEY_EXTRA_FIELDS_METADATA_SIZE );
+                        sizeMetadata.accumulate( KEY_EXTRA_FIELDS_METADATA_VALUE,
+                            String.valueOf( file.getPhysicalFile(  ).getValue(  ).length ) );
+                        metadata.add( sizeMetadata );
+                    }
+
+                    jsonExtraField.accumulate( KEY_EXTRA_FIELDS_METADATA, metadata );
+                }
+
+                jsonExtraFields.add( jsonExtraField );
+            }
+        }
+
+        jsonTicket.accumulate( KEY_EXTRA_FIELDS, jsonExtraFields );
+
+        json.accumulate( KEY_TICKET, jsonTicket );
+    }
+}
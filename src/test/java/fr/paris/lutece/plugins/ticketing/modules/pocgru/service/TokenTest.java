@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2002-2015, Mairie de Paris
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice
+ *     and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice
+ *     and the following disclaimer in the documentation and/or other materials
+ *     provided with the distribution.
+ *
+ *  3. Neither the name of 'Mairie de Paris' nor 'Lutece' nor the names of its
+ *     contributors may be used to endorse or promote products derived from
+ *     this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ *
+ * License 1.0
+ */
+package fr.paris.lutece.plugins.ticketing.modules.pocgru.service;
+
+import fr.paris.lutece.portal.service.util.AppException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+
+/**
+ * Tests of the reading of the tokens delivered by the authentication end point
+ */
+public class TokenTest
+{
+    private static final long MAX_SIZE = 1048576L;
+    private static final long DEFAULT_TIME_TO_LIVE = 300L;
+    private static final long MILLISECONDS_PER_SECOND = 1000L;
+
+    /**
+     * Test of a token whose members are followed by members which are not
+     * read
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testRead(  ) throws IOException
+    {
+        long lNow = System.currentTimeMillis(  );
+        Token token = read(
+                "{\"scope\":[\"a\",\"b\"],\"token_type\":\"bearer\",\"expires_in\":60,\"access_token\":\"abc\",\"trailing\":[[[" );
+
+        assertEquals( "bearer", token.getType(  ) );
+        assertEquals( "abc", token.getValue(  ) );
+        assertFalse( token.isExpired( lNow ) );
+        assertTrue( token.isExpired( lNow + ( 61L * MILLISECONDS_PER_SECOND ) ) );
+    }
+
+    /**
+     * Test of a token without expiration, which gets the default time to live
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test
+    public void testReadWithoutExpiration(  ) throws IOException
+    {
+        long lNow = System.currentTimeMillis(  );
+        Token token = read( "{\"access_token\":\"abc\",\"token_type\":\"bearer\",\"expires_in\":\"soon\"}" );
+
+        assertFalse( token.isExpired( lNow + ( ( DEFAULT_TIME_TO_LIVE - 1L ) * MILLISECONDS_PER_SECOND ) ) );
+        assertTrue( token.isExpired( lNow + ( ( DEFAULT_TIME_TO_LIVE + 1L ) * MILLISECONDS_PER_SECOND ) ) );
+    }
+
+    /**
+     * Test of a reply without access token
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testMissingAccessToken(  ) throws IOException
+    {
+        read( "{\"token_type\":\"bearer\",\"expires_in\":60}" );
+    }
+
+    /**
+     * Test of a truncated reply
+     *
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    @Test( expected = AppException.class )
+    public void testTruncated(  ) throws IOException
+    {
+        read( "{\"token_type\":\"bearer\",\"access_tok" );
+    }
+
+    /**
+     * Reads a token
+     *
+     * @param strReply
+     *            the reply
+     * @return the token
+     * @throws IOException
+     *             if an error occurs while reading
+     */
+    private static Token read( String strReply ) throws IOException
+    {
+        return Token.read( new JsonReplyReader( JsonReplyReaderTest.toStream( strReply ), MAX_SIZE ),
+            DEFAULT_TIME_TO_LIVE );
+    }
+}
@@ -0,0 +1,9 @@
+<jsp:useBean id="manageResend" scope="session" class="fr.paris.lutece.plugins.ticketing.modules.pocgru.web.ResendJspBean" />
+<% String strContent = manageResend.processController ( request , response ); %>
+
+<%@ page errorPage="../../../../ErrorPage.jsp" %>
+<jsp:include page="../../../../AdminHeader.jsp" />
+
+<%= strContent %>
+
+<%@ include file="../../../../AdminFooter.jsp" %>